@@ -0,0 +1,141 @@
+package com.rexforge.quantumhabits;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import androidx.core.app.ActivityCompat;
+import com.google.firebase.messaging.FirebaseMessaging;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The {@link StartupGraph} run by {@link MainActivity}.
+ *
+ * Only plugin registration is on the critical path. Once the first frame is
+ * drawn, channels are created in the background (once per channel version),
+ * the permission prompts follow on the main thread, and the FCM token is
+ * fetched in the background and written only when it changed.
+ */
+final class AppStartup {
+    static final String STEP_PLUGINS = "plugins";
+    static final String STEP_CHANNELS = "channels";
+    static final String STEP_PERMISSIONS = "permissions";
+    static final String STEP_FCM_TOKEN = "fcmToken";
+
+    // Bump when a channel's settings change so existing installs recreate them
+    private static final String CHANNELS_VERSION = "1";
+    private static final String[] NONE = {};
+
+    private AppStartup() {
+    }
+
+    static StartupGraph build(final Activity activity, StartupGraph.Task registerPlugins) {
+        final Context appContext = activity.getApplicationContext();
+        StartupGraph graph = new StartupGraph(memo(appContext), new StartupGraph.Clock() {
+            @Override
+            public long nanoTime() {
+                return System.nanoTime();
+            }
+        });
+        graph.add(STEP_PLUGINS, StartupGraph.CRITICAL, NONE, registerPlugins);
+        graph.add(STEP_CHANNELS, StartupGraph.BACKGROUND, CHANNELS_VERSION, NONE, new StartupGraph.Task() {
+            @Override
+            public void run() {
+                NotificationFactory.get(appContext).ensureChannels();
+            }
+        });
+        // The notification prompt is only useful once the channels exist
+        graph.add(STEP_PERMISSIONS, StartupGraph.MAIN, new String[] {STEP_CHANNELS}, new StartupGraph.Task() {
+            @Override
+            public void run() {
+                requestPermissions(activity);
+            }
+        });
+        graph.add(STEP_FCM_TOKEN, StartupGraph.BACKGROUND, NONE, new StartupGraph.Task() {
+            @Override
+            public void run() {
+                refreshToken(appContext);
+            }
+        });
+        return graph;
+    }
+
+    /**
+     * Runs the deferred steps and logs every step's timing when they are done.
+     */
+    static void runDeferred(final StartupGraph graph) {
+        final Handler handler = new Handler(Looper.getMainLooper());
+        final ExecutorService background = Executors.newSingleThreadExecutor();
+        graph.runDeferred(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                handler.post(command);
+            }
+        }, background, new Runnable() {
+            @Override
+            public void run() {
+                background.shutdown();
+                android.util.Log.d("AppStartup", graph.report());
+            }
+        });
+    }
+
+    static StartupGraph.Memo memo(Context context) {
+        final SharedPreferences prefs = context.getSharedPreferences("habit_reminders", Context.MODE_PRIVATE);
+        return new StartupGraph.Memo() {
+            @Override
+            public String get(String step) {
+                return prefs.getString("startup_" + step, null);
+            }
+
+            @Override
+            public void put(String step, String fingerprint) {
+                prefs.edit().putString("startup_" + step, fingerprint).apply();
+            }
+        };
+    }
+
+    private static void requestPermissions(Activity activity) {
+        if (activity.isFinishing()) return;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            // Android 12+ requires SCHEDULE_EXACT_ALARM permission
+            if (activity.checkSelfPermission(
+                    android.Manifest.permission.SCHEDULE_EXACT_ALARM) != PackageManager.PERMISSION_GRANTED) {
+                ActivityCompat.requestPermissions(activity,
+                        new String[] { android.Manifest.permission.SCHEDULE_EXACT_ALARM },
+                        1001);
+            }
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            // Android 13+ requires POST_NOTIFICATIONS permission
+            if (activity.checkSelfPermission(
+                    android.Manifest.permission.POST_NOTIFICATIONS) != PackageManager.PERMISSION_GRANTED) {
+                ActivityCompat.requestPermissions(activity,
+                        new String[] { android.Manifest.permission.POST_NOTIFICATIONS },
+                        1002);
+            }
+        }
+    }
+
+    private static void refreshToken(final Context context) {
+        FirebaseMessaging.getInstance().getToken().addOnCompleteListener(task -> {
+            if (!task.isSuccessful()) {
+                android.util.Log.w("AppStartup", "getInstanceId failed", task.getException());
+                return;
+            }
+            String token = task.getResult();
+            SharedPreferences prefs = context.getSharedPreferences("fcm_prefs", Context.MODE_PRIVATE);
+            if (token == null || token.equals(prefs.getString("fcm_token", null))) return;
+            android.util.Log.d("AppStartup", "FCM Token: " + token);
+            prefs.edit()
+                    .putString("fcm_token", token)
+                    .apply();
+        });
+    }
+}
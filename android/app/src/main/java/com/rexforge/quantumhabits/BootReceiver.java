@@ -8,9 +8,25 @@ public class BootReceiver extends BroadcastReceiver {
     @Override
     public void onReceive(Context context, Intent intent) {
         if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) {
-            android.util.Log.d("BootReceiver", "Device booted, reschedule reminders if needed");
-            // Reminders will be rescheduled automatically when the app starts
-            // This receiver is here as a placeholder for future boot-time logic
+            android.util.Log.d("BootReceiver", "Device booted, rehydrating reminder schedule");
+            final PendingResult result = goAsync();
+            // The disk work runs on the runtime's worker, inside the goAsync() budget
+            rehydrate(context, ReminderRuntime.get(context).clock().currentTimeMillis(), new Runnable() {
+                @Override
+                public void run() {
+                    result.finish();
+                }
+            });
         }
     }
+
+    /**
+     * Restores the persisted schedule without the WebView: reminders that
+     * expired while the device was off are fast-forwarded or dropped, and the
+     * alarm mode's backend registers the rest again, since the device forgot
+     * every alarm. {@code done} runs on the runtime's worker afterwards.
+     */
+    static void rehydrate(Context context, long now, Runnable done) {
+        ReminderRuntime.get(context).rehydrate(now, ScheduleRehydrator.DEFAULT_GRACE_MS, done);
+    }
 }
@@ -0,0 +1,217 @@
+package com.rexforge.quantumhabits;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Records habit completions in a {@link CompletionJournal} and folds them
+ * into the {@code habit_data} store in the background.
+ *
+ * Recording is a single journal append on the caller's thread. Once enough
+ * records pile up, a background thread compacts the journal and writes the
+ * folded counts into the habits JSON. The counts written there are absolute,
+ * so repeating a fold after a crash is harmless.
+ *
+ * Each completion also marks its local day, in the zone of the recorder's
+ * {@link ReminderClock}, in the {@link CompletionHistory} behind the streak
+ * statistics, which is saved in the background too.
+ */
+public class CompletionRecorder {
+    private static final String PREFS_NAME = "habit_data";
+    private static final String KEY_HABITS = "habits";
+    private static final String HISTORY_FILE = "completion_history.bin";
+
+    private static CompletionRecorder instance;
+
+    private final Context context;
+    private final ReminderClock clock;
+    private final CompletionJournal journal;
+    private final CompletionHistory history;
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean compactionQueued = new AtomicBoolean();
+    private final AtomicBoolean historySaveQueued = new AtomicBoolean();
+
+    private CompletionRecorder(Context context, ReminderClock clock, CompletionJournal journal,
+                               CompletionHistory history) {
+        this.context = context;
+        this.clock = clock;
+        this.journal = journal;
+        this.history = history;
+    }
+
+    public static synchronized CompletionRecorder get(Context context) throws IOException {
+        return get(context, ReminderClock.SYSTEM);
+    }
+
+    /**
+     * The recorder on {@code clock}, if it is the first one of the
+     * application; tests call this before anything else gets the recorder.
+     */
+    static synchronized CompletionRecorder get(Context context, ReminderClock clock) throws IOException {
+        Context appContext = context.getApplicationContext();
+        // A new application instance (only happens under test) gets a fresh recorder
+        if (instance == null || instance.context != appContext) {
+            if (instance != null) instance.journal.close();
+            CompletionJournal journal = CompletionJournal.open(new File(appContext.getFilesDir(), "completions"));
+            instance = new CompletionRecorder(appContext, clock, journal, loadHistory(appContext));
+            if (journal.isFresh()) {
+                instance.seedFromHabitStore();
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Records a completion now, by the recorder's clock.
+     *
+     * @return the habit's completion count including this one
+     */
+    public int record(int habitId) throws IOException {
+        return record(habitId, clock.currentTimeMillis());
+    }
+
+    /**
+     * @return the habit's completion count including this one
+     */
+    public int record(int habitId, long timestamp) throws IOException {
+        int count = journal.append(habitId, timestamp, 1);
+        if (journal.needsCompaction()) {
+            compactInBackground();
+        }
+        if (history.set(habitId, CompletionHistory.epochDay(timestamp, clock.zone()))) {
+            saveHistoryInBackground();
+        }
+        return count;
+    }
+
+    public CompletionHistory history() {
+        return history;
+    }
+
+    /**
+     * Today's epoch day in the zone completions are bucketed by.
+     */
+    public long today() {
+        return CompletionHistory.epochDay(clock.currentTimeMillis(), clock.zone());
+    }
+
+    /**
+     * Writes the history after changes made through {@link #history()}.
+     */
+    public void saveHistoryInBackground() {
+        if (!historySaveQueued.compareAndSet(false, true)) return;
+        compactor.execute(new Runnable() {
+            @Override
+            public void run() {
+                historySaveQueued.set(false);
+                try {
+                    saveHistory();
+                } catch (IOException e) {
+                    android.util.Log.e("CompletionRecorder", "Cannot save completion history", e);
+                }
+            }
+        });
+    }
+
+    public int count(int habitId) {
+        return journal.count(habitId);
+    }
+
+    /**
+     * Folded counts as interleaved (habitId, count) pairs; served from memory.
+     */
+    public int[] counts() {
+        return journal.snapshot();
+    }
+
+    public void compactInBackground() {
+        if (!compactionQueued.compareAndSet(false, true)) return;
+        compactor.execute(new Runnable() {
+            @Override
+            public void run() {
+                compactionQueued.set(false);
+                try {
+                    journal.compact();
+                    foldIntoHabitStore(journal.snapshot());
+                } catch (IOException e) {
+                    android.util.Log.e("CompletionRecorder", "Cannot compact completion journal", e);
+                }
+            }
+        });
+    }
+
+    private static CompletionHistory loadHistory(Context context) {
+        File file = new File(context.getFilesDir(), HISTORY_FILE);
+        if (!file.exists()) return new CompletionHistory();
+        try {
+            return CompletionHistory.decode(Files.readAllBytes(file.toPath()));
+        } catch (IOException e) {
+            // The web app resends its completions through HabitStatsPlugin.syncHistory
+            android.util.Log.e("CompletionRecorder", "Cannot read completion history, starting empty", e);
+            return new CompletionHistory();
+        }
+    }
+
+    // Written to a temporary file first so a crash never leaves a torn history
+    private void saveHistory() throws IOException {
+        File file = new File(context.getFilesDir(), HISTORY_FILE);
+        File temp = new File(context.getFilesDir(), HISTORY_FILE + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(history.encode());
+            out.getFD().sync();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Cannot replace " + file);
+        }
+    }
+
+    // Counts recorded by older versions directly in the habits JSON become the journal's base
+    private void seedFromHabitStore() throws IOException {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        try {
+            JSONArray habits = new JSONArray(prefs.getString(KEY_HABITS, "[]"));
+            for (int i = 0; i < habits.length(); i++) {
+                JSONObject habit = habits.getJSONObject(i);
+                int completions = habit.optInt("completions", 0);
+                if (completions != 0) {
+                    journal.seed(habit.getInt("id"), completions);
+                }
+            }
+        } catch (JSONException e) {
+            android.util.Log.e("CompletionRecorder", "Cannot read habit store", e);
+        }
+        journal.compact();
+    }
+
+    private void foldIntoHabitStore(int[] counts) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        try {
+            JSONArray habits = new JSONArray(prefs.getString(KEY_HABITS, "[]"));
+            IntIntMap countOfHabit = new IntIntMap(counts.length / 2);
+            for (int i = 0; i < counts.length; i += 2) {
+                countOfHabit.put(counts[i], counts[i + 1]);
+            }
+            for (int i = 0; i < habits.length(); i++) {
+                JSONObject habit = habits.getJSONObject(i);
+                int count = countOfHabit.get(habit.getInt("id"));
+                if (count != IntIntMap.MISSING) {
+                    habit.put("completions", count);
+                }
+            }
+            // Runs on the compactor thread, so a synchronous commit is fine
+            prefs.edit().putString(KEY_HABITS, habits.toString()).commit();
+        } catch (JSONException e) {
+            android.util.Log.e("CompletionRecorder", "Cannot fold completions into habit store", e);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.rexforge.quantumhabits;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Build;
+
+/**
+ * Gives every reminder its own AlarmManager alarm, addressed by the
+ * reminder's id, so each one is delivered on its own schedule.
+ *
+ * The system caps the alarms an app may hold (500 on recent releases), so
+ * this mode suits a handful of reminders; {@link NextAlarmBackend} scales to
+ * any number.
+ */
+class ExactAlarmBackend implements ReminderEngine.Backend {
+    static final String ACTION_REMINDER = "com.rexforge.quantumhabits.REMINDER";
+
+    private final Context context;
+    private final AlarmManager alarmManager;
+
+    ExactAlarmBackend(Context context) {
+        this.context = context;
+        alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+    }
+
+    @Override
+    public void scheduled(ScheduledReminder reminder) {
+        ReminderPlugin.setWakeupAlarm(alarmManager, reminder.timestamp, alarmIntent(reminder.id));
+    }
+
+    @Override
+    public void removed(String id) {
+        alarmManager.cancel(alarmIntent(id));
+    }
+
+    @Override
+    public void deadlineChanged(long deadline) {
+    }
+
+    // The id goes into the data, which tells the PendingIntents apart
+    private PendingIntent alarmIntent(String id) {
+        Intent intent = new Intent(context, ReminderReceiver.class);
+        intent.setAction(ACTION_REMINDER);
+        intent.setData(Uri.fromParts("reminder", id, null));
+
+        int flags = PendingIntent.FLAG_UPDATE_CURRENT;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            flags |= PendingIntent.FLAG_IMMUTABLE;
+        }
+        return PendingIntent.getBroadcast(context, 0, intent, flags);
+    }
+}
@@ -1,29 +1,44 @@
 package com.rexforge.quantumhabits;
 
-import android.app.NotificationChannel;
-import android.app.NotificationManager;
-import android.app.PendingIntent;
 import android.content.Context;
-import android.content.Intent;
-import android.os.Build;
+import android.util.Base64;
 import androidx.core.app.NotificationCompat;
 import com.google.firebase.messaging.FirebaseMessagingService;
 import com.google.firebase.messaging.RemoteMessage;
+import java.util.concurrent.Executors;
 
 public class FCMService extends FirebaseMessagingService {
+    private static final long[] PUSH_VIBRATION = {0, 250, 250, 250};
+    private static final int POST_THREADS = 2;
+    private static final int DEDUP_CAPACITY = 1024;
+
+    private static PushPipeline pipeline;
 
     @Override
     public void onMessageReceived(RemoteMessage remoteMessage) {
         android.util.Log.d("FCMService", "Message received: " + remoteMessage.getMessageId());
 
-        // Handle data payload
-        if (remoteMessage.getData().size() > 0) {
-            handleDataMessage(remoteMessage.getData());
+        // Schedule syncs are applied silently; the reminders then fire locally
+        String delta = remoteMessage.getData().get(ScheduleDelta.DATA_KEY);
+        if (delta != null) {
+            applyScheduleDelta(delta);
+            return;
         }
 
-        // Handle notification payload
-        if (remoteMessage.getNotification() != null) {
-            handleNotificationMessage(remoteMessage.getNotification());
+        RemoteMessage.Notification notification = remoteMessage.getNotification();
+        // Taken before submitting so the post cannot release it first; the poster releases it
+        WakeLockManager wakeLock = ReminderWakeLock.get(this);
+        wakeLock.acquire();
+        int result = pipeline(this).submit(remoteMessage.getMessageId(), remoteMessage.getData(),
+            notification != null ? notification.getTitle() : null,
+            notification != null ? notification.getBody() : null);
+        if (result != PushPipeline.SUBMITTED) {
+            wakeLock.release();
+        }
+        if (result == PushPipeline.DUPLICATE) {
+            android.util.Log.d("FCMService", "Dropped duplicate message " + remoteMessage.getMessageId());
+        } else if (result == PushPipeline.INVALID) {
+            android.util.Log.w("FCMService", "Dropped empty message " + remoteMessage.getMessageId());
         }
     }
 
@@ -37,63 +52,61 @@ public class FCMService extends FirebaseMessagingService {
             .apply();
     }
 
-    private void handleDataMessage(java.util.Map<String, String> data) {
-        String title = data.get("title") != null ? data.get("title") : "Habit Reminder";
-        String body = data.get("body") != null ? data.get("body") : "Time for your habit!";
-        String notificationId = data.get("notificationId") != null ? data.get("notificationId") : "1";
-
-        postNotification(title, body, Integer.parseInt(notificationId));
+    private void applyScheduleDelta(String encoded) {
+        byte[] delta;
+        try {
+            delta = Base64.decode(encoded, Base64.DEFAULT);
+        } catch (IllegalArgumentException e) {
+            android.util.Log.w("FCMService", "Dropped schedule delta that is not base64", e);
+            return;
+        }
+        // The process may be let go as soon as this returns; keep the CPU up until the delta is stored
+        final WakeLockManager wakeLock = ReminderWakeLock.get(this);
+        wakeLock.acquire();
+        ReminderRuntime.get(this).applyDelta(delta, new Runnable() {
+            @Override
+            public void run() {
+                wakeLock.release();
+            }
+        });
     }
 
-    private void handleNotificationMessage(RemoteMessage.Notification notification) {
-        String title = notification.getTitle() != null ? notification.getTitle() : "Habit Reminder";
-        String body = notification.getBody() != null ? notification.getBody() : "Time for your habit!";
-
-        postNotification(title, body, (int) System.currentTimeMillis() % 10000);
+    /**
+     * The process-wide pipeline; messages are posted on its own threads so
+     * {@link #onMessageReceived} returns as soon as a message is queued.
+     */
+    static synchronized PushPipeline pipeline(Context context) {
+        if (pipeline == null) {
+            final Context appContext = context.getApplicationContext();
+            pipeline = new PushPipeline(Executors.newFixedThreadPool(POST_THREADS), DEDUP_CAPACITY,
+                new PushPipeline.Poster() {
+                    @Override
+                    public void post(PushPipeline.Push push) {
+                        try {
+                            postNotification(appContext, push);
+                        } finally {
+                            ReminderWakeLock.get(appContext).release();
+                        }
+                    }
+                });
+        }
+        return pipeline;
     }
 
-    private void postNotification(String title, String body, int notificationId) {
-        Context context = getApplicationContext();
-        Intent intent = new Intent(context, MainActivity.class);
-        intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
-
-        PendingIntent pendingIntent = PendingIntent.getActivity(
-            context,
-            notificationId,
-            intent,
-            PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
-        );
-
-        // Ensure channel exists
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            NotificationChannel channel = new NotificationChannel(
-                "fcm_default",
-                "Habit Notifications",
-                NotificationManager.IMPORTANCE_HIGH
-            );
-            channel.setDescription("FCM push notifications");
-            channel.enableVibration(true);
-            channel.setShowBadge(true);
-
-            NotificationManager notificationManager =
-                (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
-            notificationManager.createNotificationChannel(channel);
+    private static void postNotification(Context context, PushPipeline.Push push) {
+        try {
+            NotificationFactory factory = NotificationFactory.get(context);
+            NotificationCompat.Builder builder = factory.builder(NotificationFactory.CHANNEL_PUSH)
+                .setContentTitle(push.title)
+                .setContentText(push.body)
+                .setContentIntent(factory.contentIntent(push.notificationId, NotificationFactory.NO_HABIT))
+                .setVibrate(PUSH_VIBRATION);
+            factory.notify(push.notificationId, builder);
+
+            android.util.Log.d("FCMService", "Notification posted: " + push.title);
+        } catch (RuntimeException e) {
+            android.util.Log.e("FCMService", "Error posting push " + push.key, e);
+            throw e;
         }
-
-        NotificationCompat.Builder builder = new NotificationCompat.Builder(context, "fcm_default")
-            .setAutoCancel(true)
-            .setSmallIcon(android.R.drawable.ic_dialog_info)
-            .setContentTitle(title)
-            .setContentText(body)
-            .setContentIntent(pendingIntent)
-            .setPriority(NotificationCompat.PRIORITY_HIGH)
-            .setCategory(NotificationCompat.CATEGORY_REMINDER)
-            .setVibrate(new long[]{0, 250, 250, 250});
-
-        NotificationManager notificationManager =
-            (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
-        notificationManager.notify(notificationId, builder.build());
-
-        android.util.Log.d("FCMService", "Notification posted: " + title);
     }
 }
@@ -1,160 +1,211 @@
 
 package com.rexforge.quantumhabits;
 
+import android.content.Context;
+import android.content.SharedPreferences;
+import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
 import com.getcapacitor.PluginMethod;
 import com.getcapacitor.annotation.CapacitorPlugin;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Schedules the repeating reminders of the web app's habits. Only the next
+ * occurrence of each rule is handed to the {@link ReminderRuntime}; the rules
+ * themselves are saved for it to move reminders on after they fire.
+ */
 @CapacitorPlugin(name = "HabitReminder")
 public class HabitReminderPlugin extends Plugin {
 
     @PluginMethod
     public void scheduleHabitReminders(PluginCall call) {
+        // A schedule delta must not land between reading the state and saving it
+        synchronized (ReminderRuntime.SYNC_LOCK) {
+            syncHabits(call);
+        }
+    }
+
+    private void syncHabits(PluginCall call) {
         try {
             String habitsJson = call.getString("habits", "[]");
-            JSONArray habits = new JSONArray(habitsJson);
-            long now = System.currentTimeMillis();
-
-            for (int i = 0; i < habits.length(); i++) {
-                JSONObject habit = habits.getJSONObject(i);
-                int habitId = habit.getInt("id");
-                String habitName = habit.getString("name");
-                String habitColor = habit.optString("color", "#3b82f6");
-
-                JSONArray reminders = habit.optJSONArray("reminders");
-                if (reminders != null) {
-                    for (int j = 0; j < reminders.length(); j++) {
-                        JSONObject reminder = reminders.getJSONObject(j);
-                        if (!reminder.optBoolean("enabled", false)) continue;
-
-                        String message = reminder.optString("message", "Time for your habit!");
-                        String type = reminder.optString("type", "specific");
-
-                        if ("specific".equals(type)) {
-                            JSONArray times = reminder.optJSONArray("times");
-                            if (times != null) {
-                                for (int k = 0; k < times.length(); k++) {
-                                    String timeStr = times.getString(k);
-                                    long reminderTime = calculateNextReminderTime(timeStr);
-
-                                    if (reminderTime > now) {
-                                        String reminderId = "habit-" + habitId + "-reminder-" + j + "-time-" + k;
-                                        HabitReminderService.scheduleReminder(
-                                            getContext(), reminderId, habitName, message, habitColor,
-                                            reminderTime, habitId, j
-                                        );
-                                    }
-                                }
-                            }
-                        } else if ("interval".equals(type)) {
-                            String startTime = reminder.optString("startTime", "09:00");
-                            String endTime = reminder.optString("endTime", "18:00");
-                            int interval = reminder.optInt("interval", 120);
-
-                            long[] intervalTimes = calculateIntervalReminderTimes(startTime, endTime, interval);
-                            for (int k = 0; k < intervalTimes.length; k++) {
-                                if (intervalTimes[k] > now) {
-                                    String reminderId = "habit-" + habitId + "-reminder-" + j + "-interval-" + k;
-                                    HabitReminderService.scheduleReminder(
-                                        getContext(), reminderId, habitName, message, habitColor,
-                                        intervalTimes[k], habitId, j
-                                    );
-                                }
-                            }
-                        }
+            ReminderClock clock = ReminderRuntime.get(getContext()).clock();
+            final long now = clock.currentTimeMillis();
+
+            final ReminderSyncState state = getSyncState();
+            final RecurrenceSchedule recurrences = getRecurrences();
+            final ReminderBatch batch = new ReminderBatch();
+            final List<ScheduledReminder> habitReminders = new ArrayList<>();
+            final List<ScheduledReminder> addedReminders = new ArrayList<>();
+            final ZoneId zone = clock.zone();
+            state.begin();
+
+            // Streamed rather than parsed into a JSONArray: large payloads are mostly unchanged habits
+            new HabitPayloadReader().read(habitsJson, new HabitPayloadReader.Handler() {
+                private int habitId;
+                private String habitName;
+                private String habitColor;
+
+                @Override
+                public boolean habit(int habitId, long habitHash, String name, String color) {
+                    // Nothing to do for a habit that is byte-for-byte what we scheduled last time
+                    if (state.startHabit(habitId, habitHash)) return false;
+
+                    this.habitId = habitId;
+                    habitName = name;
+                    habitColor = color;
+                    habitReminders.clear();
+                    addedReminders.clear();
+                    // The habit's enabled rules are put back below
+                    recurrences.removeHabit(habitId);
+                    return true;
+                }
+
+                @Override
+                public void rule(int j, long ruleHash, HabitPayloadReader.Rule rule) {
+                    if (!rule.enabled) return;
+                    int firstSlot = habitReminders.size();
+                    addRuleReminders(habitReminders, recurrences, rule, zone, habitId, habitName, habitColor, j, now);
+                    if (state.classifyRule(j, ruleHash) == ReminderSyncState.RULE_ADDED) {
+                        addedReminders.addAll(habitReminders.subList(firstSlot, habitReminders.size()));
                     }
                 }
+
+                @Override
+                public void endHabit(int habitId) {
+                    if (state.endHabit()) {
+                        // A rule changed or went away: replace everything scheduled for this habit
+                        batch.cancelHabit(habitId);
+                        batch.addAll(habitReminders);
+                    } else {
+                        batch.addAll(addedReminders);
+                    }
+                }
+            });
+
+            state.finish();
+            for (int habitId : state.removedHabits()) {
+                batch.cancelHabit(habitId);
+                recurrences.removeHabit(habitId);
             }
-            call.resolve();
+            // The runtime reads the rules when the batch arrives, so save them first
+            saveState(state, recurrences);
+            ReminderRuntime.get(getContext()).scheduleAll(batch);
+
+            JSObject result = new JSObject();
+            result.put("added", state.added());
+            result.put("changed", state.changed());
+            result.put("removed", state.removed());
+            result.put("kept", state.kept());
+            result.put("rescheduledHabits", state.rescheduledHabits());
+            call.resolve(result);
         } catch (JSONException e) {
             call.reject("Error parsing habits JSON", e);
         }
     }
 
-    @PluginMethod
-    public void cancelHabitReminders(PluginCall call) {
-        Integer habitId = call.getInt("habitId");
-        if (habitId == null) {
-            call.reject("habitId is required");
-            return;
+    private static void addRuleReminders(List<ScheduledReminder> out, RecurrenceSchedule recurrences,
+                                         HabitPayloadReader.Rule rule, ZoneId zone, int habitId,
+                                         String habitName, String habitColor, int j, long now) {
+        if (rule.type == HabitPayloadReader.TYPE_SPECIFIC) {
+            for (int k = 0; k < rule.timeCount; k++) {
+                int minute = rule.times[k];
+                if (minute < 0) continue;
+                String reminderId = "habit-" + habitId + "-reminder-" + j + "-time-" + k;
+                addRecurring(out, recurrences, reminderId, RecurrenceRule.daily(minute, zone).withDays(rule.days),
+                    habitName, rule.message, habitColor, habitId, j, now);
+            }
+        } else if (rule.type == HabitPayloadReader.TYPE_INTERVAL) {
+            if (rule.startMinute < 0 || rule.endMinute < 0 || rule.intervalMinutes <= 0) return;
+
+            // One reminder for the whole window; the engine moves it to the next slot when it fires
+            String reminderId = "habit-" + habitId + "-reminder-" + j + "-interval";
+            addRecurring(out, recurrences, reminderId,
+                RecurrenceRule.interval(rule.startMinute, rule.endMinute, rule.intervalMinutes, zone)
+                    .withDays(rule.days),
+                habitName, rule.message, habitColor, habitId, j, now);
         }
-        HabitReminderService.cancelReminders(getContext(), habitId);
-        call.resolve();
     }
-    
-    private long calculateNextReminderTime(String timeStr) {
-        try {
-            String[] parts = timeStr.split(":");
-            int hours = Integer.parseInt(parts[0]);
-            int minutes = Integer.parseInt(parts[1]);
 
-            java.util.Calendar calendar = java.util.Calendar.getInstance();
-            calendar.set(java.util.Calendar.HOUR_OF_DAY, hours);
-            calendar.set(java.util.Calendar.MINUTE, minutes);
-            calendar.set(java.util.Calendar.SECOND, 0);
-            calendar.set(java.util.Calendar.MILLISECOND, 0);
+    private static void addRecurring(List<ScheduledReminder> out, RecurrenceSchedule recurrences, String reminderId,
+                                     RecurrenceRule rule, String habitName, String message, String habitColor,
+                                     int habitId, int j, long now) {
+        long reminderTime = rule.next(now);
+        if (reminderTime < 0) return;
+        recurrences.put(reminderId, habitId, rule);
+        out.add(new ScheduledReminder(reminderId, habitName, message, habitColor, reminderTime, habitId, j));
+    }
 
-            long reminderTime = calendar.getTimeInMillis();
+    // Neither is cached: schedule deltas from FCM change both behind the plugin's back
+    private ReminderSyncState getSyncState() {
+        SharedPreferences prefs = getContext().getSharedPreferences("habit_reminders", Context.MODE_PRIVATE);
+        return ReminderSyncState.decode(prefs.getString("sync_state", null));
+    }
 
-            // If the time has already passed today, schedule for tomorrow
-            if (reminderTime <= System.currentTimeMillis()) {
-                reminderTime += 24 * 60 * 60 * 1000; // Add one day
-            }
+    private RecurrenceSchedule getRecurrences() {
+        SharedPreferences prefs = getContext().getSharedPreferences("habit_reminders", Context.MODE_PRIVATE);
+        return RecurrenceSchedule.decode(prefs.getString("recurrence_rules", null));
+    }
 
-            return reminderTime;
-        } catch (Exception e) {
-            return System.currentTimeMillis() + 60 * 60 * 1000; // Default to 1 hour from now
-        }
+    private void saveState(ReminderSyncState state, RecurrenceSchedule recurrences) {
+        getContext().getSharedPreferences("habit_reminders", Context.MODE_PRIVATE)
+            .edit()
+            .putString("sync_state", state.encode())
+            .putString("recurrence_rules", recurrences.encode())
+            .apply();
     }
 
-    private long[] calculateIntervalReminderTimes(String startTime, String endTime, int intervalMinutes) {
+    @PluginMethod
+    public void setSnoozeDurations(PluginCall call) {
+        JSArray minutes = call.getArray("minutes");
+        if (minutes == null || minutes.length() == 0) {
+            call.reject("minutes is required");
+            return;
+        }
+        StringBuilder encoded = new StringBuilder();
         try {
-            String[] startParts = startTime.split(":");
-            String[] endParts = endTime.split(":");
-
-            int startHours = Integer.parseInt(startParts[0]);
-            int startMinutes = Integer.parseInt(startParts[1]);
-            int endHours = Integer.parseInt(endParts[0]);
-            int endMinutes = Integer.parseInt(endParts[1]);
-
-            int startTotalMinutes = startHours * 60 + startMinutes;
-            int endTotalMinutes = endHours * 60 + endMinutes;
-
-            java.util.List<Long> times = new java.util.ArrayList<>();
-
-            for (int minutes = startTotalMinutes; minutes <= endTotalMinutes; minutes += intervalMinutes) {
-                int hours = minutes / 60;
-                int mins = minutes % 60;
-
-                java.util.Calendar calendar = java.util.Calendar.getInstance();
-                calendar.set(java.util.Calendar.HOUR_OF_DAY, hours);
-                calendar.set(java.util.Calendar.MINUTE, mins);
-                calendar.set(java.util.Calendar.SECOND, 0);
-                calendar.set(java.util.Calendar.MILLISECOND, 0);
-
-                long reminderTime = calendar.getTimeInMillis();
-
-                // If the time has already passed today, skip it
-                if (reminderTime > System.currentTimeMillis()) {
-                    times.add(reminderTime);
+            for (int i = 0; i < minutes.length(); i++) {
+                int value = minutes.getInt(i);
+                if (value <= 0) {
+                    call.reject("Snooze durations must be positive");
+                    return;
                 }
+                if (i > 0) encoded.append(',');
+                encoded.append(value);
             }
+        } catch (JSONException e) {
+            call.reject("minutes must be an array of numbers", e);
+            return;
+        }
+        getContext().getSharedPreferences("habit_reminders", Context.MODE_PRIVATE)
+            .edit()
+            .putString("snooze_delays", encoded.toString())
+            .apply();
+        call.resolve();
+    }
 
-            // Convert to array
-            long[] result = new long[times.size()];
-            for (int i = 0; i < times.size(); i++) {
-                result[i] = times.get(i);
-            }
-
-            return result;
-        } catch (Exception e) {
-            return new long[]{System.currentTimeMillis() + 60 * 60 * 1000}; // Default to 1 hour from now
+    @PluginMethod
+    public void cancelHabitReminders(PluginCall call) {
+        Integer habitId = call.getInt("habitId");
+        if (habitId == null) {
+            call.reject("habitId is required");
+            return;
+        }
+        // Forget the habit so the next sync schedules it again
+        synchronized (ReminderRuntime.SYNC_LOCK) {
+            ReminderSyncState state = getSyncState();
+            state.forgetHabit(habitId);
+            RecurrenceSchedule recurrences = getRecurrences();
+            recurrences.removeHabit(habitId);
+            saveState(state, recurrences);
+            ReminderRuntime.get(getContext()).cancelHabit(habitId);
         }
+        call.resolve();
     }
 }
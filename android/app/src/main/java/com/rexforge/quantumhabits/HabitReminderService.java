@@ -1,89 +1,62 @@
 package com.rexforge.quantumhabits;
 
-import android.app.NotificationChannel;
-import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Intent;
-import android.content.SharedPreferences;
+import android.content.pm.ServiceInfo;
 import android.os.Build;
-import android.os.Handler;
 import android.os.IBinder;
-import android.os.Looper;
 import androidx.core.app.NotificationCompat;
-import androidx.core.app.NotificationManagerCompat;
-import org.json.JSONArray;
-import org.json.JSONObject;
-import org.json.JSONException;
-import java.util.ArrayList;
-import java.util.List;
 
+/**
+ * Foreground host for the "tick" alarm mode: keeps the process, and with it
+ * the {@link ReminderRuntime} worker's timer, alive while a reminder is
+ * near. {@link TickBackend} starts it and has it stop itself; the schedule
+ * lives in the runtime's store, so the service holds no state.
+ */
 public class HabitReminderService extends Service {
-    private static final String CHANNEL_ID = "habit_reminders";
-    public static final int NOTIFICATION_ID_BASE = 1000;
-    private Handler handler;
-    private Runnable reminderChecker;
-    private List<ScheduledReminder> scheduledReminders;
-
-    private static class ScheduledReminder {
-        String id;
-        String habitName;
-        String message;
-        String habitColor;
-        long timestamp;
-        int habitId;
-        int reminderIndex;
-
-        ScheduledReminder(String id, String habitName, String message, String habitColor,
-                         long timestamp, int habitId, int reminderIndex) {
-            this.id = id;
-            this.habitName = habitName;
-            this.message = message;
-            this.habitColor = habitColor;
-            this.timestamp = timestamp;
-            this.habitId = habitId;
-            this.reminderIndex = reminderIndex;
-        }
-    }
+    private static final String CHANNEL_ID = NotificationFactory.CHANNEL_REMINDERS;
 
     @Override
     public void onCreate() {
         super.onCreate();
-        createNotificationChannel();
-        scheduledReminders = new ArrayList<>();
-        handler = new Handler(Looper.getMainLooper());
+        NotificationFactory.get(this).ensureChannels();
+    }
 
-        // Check for reminders every minute
-        reminderChecker = new Runnable() {
+    @Override
+    public int onStartCommand(final Intent intent, int flags, final int startId) {
+        // Due right away after startForegroundService(), even if the service stops again
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
+                // The type declared in the manifest; Android 14 refuses the service without it
+                startForeground(ReminderRuntime.NOTIFICATION_ID_BASE - 1, createForegroundNotification(),
+                    ServiceInfo.FOREGROUND_SERVICE_TYPE_SPECIAL_USE);
+            } else {
+                startForeground(ReminderRuntime.NOTIFICATION_ID_BASE - 1, createForegroundNotification());
+            }
+        } catch (IllegalStateException | SecurityException e) {
+            // Started too late for the background exemption, or the type is missing; alarms deliver instead
+            android.util.Log.w("HabitReminderService", "Cannot run in the foreground", e);
+            ReminderRuntime.get(this).hostRefused();
+            stopSelf(startId);
+            return START_NOT_STICKY;
+        }
+        // Loads the schedule if the process was started for this service
+        ReminderRuntime.get(this).hostStarted(new Runnable() {
             @Override
             public void run() {
-                checkAndShowReminders();
-                handler.postDelayed(this, 60000); // Check every minute
+                stopSelf(startId);
             }
-        };
-    }
-
-    @Override
-    public int onStartCommand(Intent intent, int flags, int startId) {
-        // Load scheduled reminders from storage
-        loadScheduledReminders();
-
-        // Start the reminder checker
-        handler.post(reminderChecker);
-
-        // Make this service run in foreground to prevent it from being killed
-        startForeground(NOTIFICATION_ID_BASE - 1, createForegroundNotification());
-
-        return START_STICKY;
+        });
+        // Not restarted after the process is killed; the tick alarm brings it back when needed
+        return START_NOT_STICKY;
     }
 
     @Override
     public void onDestroy() {
+        // Also when the system or the user stopped the service, so the runtime can start it again
+        ReminderRuntime.get(this).hostStopped();
         super.onDestroy();
-        if (handler != null) {
-            handler.removeCallbacks(reminderChecker);
-        }
-        saveScheduledReminders();
     }
 
     @Override
@@ -91,21 +64,6 @@ public class HabitReminderService extends Service {
         return null;
     }
 
-    private void createNotificationChannel() {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            CharSequence name = "Habit Reminders";
-            String description = "Notifications for habit reminders";
-            int importance = NotificationManager.IMPORTANCE_HIGH;
-            NotificationChannel channel = new NotificationChannel(CHANNEL_ID, name, importance);
-            channel.setDescription(description);
-            channel.enableVibration(true);
-            channel.enableLights(true);
-
-            NotificationManager notificationManager = getSystemService(NotificationManager.class);
-            notificationManager.createNotificationChannel(channel);
-        }
-    }
-
     private android.app.Notification createForegroundNotification() {
         Intent notificationIntent = new Intent(this, MainActivity.class);
         PendingIntent pendingIntent = PendingIntent.getActivity(
@@ -113,154 +71,10 @@ public class HabitReminderService extends Service {
 
         return new NotificationCompat.Builder(this, CHANNEL_ID)
             .setContentTitle("QuantumHabits Active")
-            .setContentText("Habit reminders are running in background")
+            .setContentText("Delivering upcoming habit reminders")
             .setSmallIcon(android.R.drawable.ic_dialog_info)
             .setContentIntent(pendingIntent)
             .setPriority(NotificationCompat.PRIORITY_LOW)
             .build();
     }
-
-    private void loadScheduledReminders() {
-        SharedPreferences prefs = getSharedPreferences("habit_reminders", MODE_PRIVATE);
-        String remindersJson = prefs.getString("scheduled_reminders", "[]");
-
-        try {
-            JSONArray remindersArray = new JSONArray(remindersJson);
-            scheduledReminders.clear();
-
-            for (int i = 0; i < remindersArray.length(); i++) {
-                JSONObject reminderObj = remindersArray.getJSONObject(i);
-                ScheduledReminder reminder = new ScheduledReminder(
-                    reminderObj.getString("id"),
-                    reminderObj.getString("habitName"),
-                    reminderObj.getString("message"),
-                    reminderObj.getString("habitColor"),
-                    reminderObj.getLong("timestamp"),
-                    reminderObj.getInt("habitId"),
-                    reminderObj.getInt("reminderIndex")
-                );
-                scheduledReminders.add(reminder);
-            }
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
-    }
-
-    private void saveScheduledReminders() {
-        JSONArray remindersArray = new JSONArray();
-
-        for (ScheduledReminder reminder : scheduledReminders) {
-            try {
-                JSONObject reminderObj = new JSONObject();
-                reminderObj.put("id", reminder.id);
-                reminderObj.put("habitName", reminder.habitName);
-                reminderObj.put("message", reminder.message);
-                reminderObj.put("habitColor", reminder.habitColor);
-                reminderObj.put("timestamp", reminder.timestamp);
-                reminderObj.put("habitId", reminder.habitId);
-                reminderObj.put("reminderIndex", reminder.reminderIndex);
-                remindersArray.put(reminderObj);
-            } catch (JSONException e) {
-                e.printStackTrace();
-            }
-        }
-
-        SharedPreferences prefs = getSharedPreferences("habit_reminders", MODE_PRIVATE);
-        prefs.edit().putString("scheduled_reminders", remindersArray.toString()).apply();
-    }
-
-    private void checkAndShowReminders() {
-        long currentTime = System.currentTimeMillis();
-
-        for (ScheduledReminder reminder : new ArrayList<>(scheduledReminders)) {
-            if (currentTime >= reminder.timestamp && currentTime < reminder.timestamp + 60000) { // Within 1 minute window
-                showReminderNotification(reminder);
-                scheduledReminders.remove(reminder); // Remove after showing
-            }
-        }
-
-        // Save updated reminders
-        saveScheduledReminders();
-    }
-
-    private void showReminderNotification(ScheduledReminder reminder) {
-        Intent intent = new Intent(this, MainActivity.class);
-        intent.putExtra("habitId", reminder.habitId);
-        intent.putExtra("reminderIndex", reminder.reminderIndex);
-        intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP);
-
-        PendingIntent pendingIntent = PendingIntent.getActivity(
-            this, reminder.habitId, intent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
-
-        // Complete action
-        Intent completeIntent = new Intent(this, NotificationActionReceiver.class);
-        completeIntent.setAction("COMPLETE_HABIT");
-        completeIntent.putExtra("habitId", reminder.habitId);
-        completeIntent.putExtra("reminderId", reminder.id);
-        PendingIntent completePendingIntent = PendingIntent.getBroadcast(
-            this, reminder.habitId * 100, completeIntent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
-
-        // Snooze action
-        Intent snoozeIntent = new Intent(this, NotificationActionReceiver.class);
-        snoozeIntent.setAction("SNOOZE_HABIT");
-        snoozeIntent.putExtra("habitId", reminder.habitId);
-        snoozeIntent.putExtra("reminderId", reminder.id);
-        PendingIntent snoozePendingIntent = PendingIntent.getBroadcast(
-            this, reminder.habitId * 100 + 1, snoozeIntent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
-
-        NotificationCompat.Builder builder = new NotificationCompat.Builder(this, CHANNEL_ID)
-            .setSmallIcon(android.R.drawable.ic_dialog_info)
-            .setContentTitle("🔔 " + reminder.habitName)
-            .setContentText(reminder.message)
-            .setStyle(new NotificationCompat.BigTextStyle()
-                .bigText(reminder.message))
-            .setPriority(NotificationCompat.PRIORITY_HIGH)
-            .setAutoCancel(true)
-            .setContentIntent(pendingIntent)
-            .setVibrate(new long[]{0, 250, 250, 250})
-            .setLights(0xFF0000FF, 1000, 1000)
-            .addAction(android.R.drawable.ic_menu_save, "Mark Complete", completePendingIntent)
-            .addAction(android.R.drawable.ic_menu_recent_history, "Remind Later", snoozePendingIntent);
-
-        NotificationManagerCompat notificationManager = NotificationManagerCompat.from(this);
-        notificationManager.notify(NOTIFICATION_ID_BASE + reminder.habitId, builder.build());
-    }
-
-    // Method to add a new reminder (called from MainActivity)
-    public static void scheduleReminder(android.content.Context context, String id, String habitName,
-                                      String message, String habitColor, long timestamp,
-                                      int habitId, int reminderIndex) {
-        Intent serviceIntent = new Intent(context, HabitReminderService.class);
-        serviceIntent.setAction("SCHEDULE_REMINDER");
-        serviceIntent.putExtra("id", id);
-        serviceIntent.putExtra("habitName", habitName);
-        serviceIntent.putExtra("message", message);
-        serviceIntent.putExtra("habitColor", habitColor);
-        serviceIntent.putExtra("timestamp", timestamp);
-        serviceIntent.putExtra("habitId", habitId);
-        serviceIntent.putExtra("reminderIndex", reminderIndex);
-
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            context.startForegroundService(serviceIntent);
-        } else {
-            context.startService(serviceIntent);
-        }
-    }
-
-    // Method to cancel reminders for a habit
-    public static void cancelReminders(android.content.Context context, int habitId) {
-        Intent serviceIntent = new Intent(context, HabitReminderService.class);
-        serviceIntent.setAction("CANCEL_REMINDERS");
-        serviceIntent.putExtra("habitId", habitId);
-        context.startService(serviceIntent);
-    }
-
-    @Override
-    public void onTaskRemoved(Intent rootIntent) {
-        // App was swiped away, restart the service
-        Intent restartServiceIntent = new Intent(getApplicationContext(), this.getClass());
-        restartServiceIntent.setPackage(getPackageName());
-        startService(restartServiceIntent);
-        super.onTaskRemoved(rootIntent);
-    }
 }
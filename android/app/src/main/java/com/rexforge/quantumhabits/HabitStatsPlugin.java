@@ -0,0 +1,205 @@
+package com.rexforge.quantumhabits;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import com.getcapacitor.Plugin;
+import com.getcapacitor.PluginCall;
+import com.getcapacitor.PluginMethod;
+import com.getcapacitor.annotation.CapacitorPlugin;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Iterator;
+import java.util.Locale;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Streaks, completion rates and heatmaps from the native
+ * {@link CompletionHistory}, replacing the per-day loops of statsHelpers.js.
+ *
+ * Dates are exchanged in the web app's {@code Date.toDateString()} format
+ * ("Mon Mar 04 2024"), the keys of a habit's {@code completions} object.
+ */
+@CapacitorPlugin(name = "HabitStats")
+public class HabitStatsPlugin extends Plugin {
+    private static final DateTimeFormatter JS_DATE = DateTimeFormatter.ofPattern("EEE MMM dd yyyy", Locale.US);
+
+    /**
+     * Replaces the history of every habit passed as {@code {id, completions}}.
+     */
+    @PluginMethod
+    public void syncHistory(PluginCall call) {
+        JSArray habits = call.getArray("habits");
+        if (habits == null) {
+            call.reject("habits is required");
+            return;
+        }
+        try {
+            CompletionRecorder recorder = CompletionRecorder.get(getContext());
+            CompletionHistory history = recorder.history();
+            int days = 0;
+            for (int i = 0; i < habits.length(); i++) {
+                JSONObject habit = habits.getJSONObject(i);
+                int habitId = habit.getInt("id");
+                history.removeHabit(habitId);
+                JSONObject completions = habit.optJSONObject("completions");
+                if (completions == null) continue;
+                Iterator<String> keys = completions.keys();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    if (completions.optInt(key, 0) == 0 && !completions.optBoolean(key, false)) continue;
+                    long day = parseDay(key);
+                    if (day >= 0 && history.set(habitId, day)) days++;
+                }
+            }
+            recorder.saveHistoryInBackground();
+
+            JSObject result = new JSObject();
+            result.put("habits", habits.length());
+            result.put("days", days);
+            call.resolve(result);
+        } catch (JSONException | IOException e) {
+            call.reject("Cannot sync completion history: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Marks ({@code done}, default true) or unmarks one day of a habit;
+     * {@code date} defaults to today.
+     */
+    @PluginMethod
+    public void setCompleted(PluginCall call) {
+        Integer habitId = call.getInt("habitId");
+        if (habitId == null) {
+            call.reject("habitId is required");
+            return;
+        }
+        String date = call.getString("date");
+        try {
+            CompletionRecorder recorder = CompletionRecorder.get(getContext());
+            long today = recorder.today();
+            long day = date != null ? parseDay(date) : today;
+            if (day < 0) {
+                call.reject("Cannot parse date " + date);
+                return;
+            }
+            CompletionHistory history = recorder.history();
+            boolean changed = call.getBoolean("done", true) ? history.set(habitId, day) : history.clear(habitId, day);
+            if (changed) recorder.saveHistoryInBackground();
+
+            JSObject result = habitStats(history, habitId, today, 7, 7);
+            result.put("changed", changed);
+            call.resolve(result);
+        } catch (IOException | JSONException e) {
+            call.reject("Cannot update completion history: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Per-habit streaks, a rolling completion rate over {@code rateDays}
+     * and a {@code heatmapDays} heatmap ending today, for {@code habitIds}
+     * or every habit with history.
+     */
+    @PluginMethod
+    public void getStats(PluginCall call) {
+        int rateDays = Math.max(1, call.getInt("rateDays", 7));
+        int heatmapDays = Math.max(0, call.getInt("heatmapDays", 7));
+        long start = System.nanoTime();
+        try {
+            CompletionRecorder recorder = CompletionRecorder.get(getContext());
+            CompletionHistory history = recorder.history();
+            JSArray requested = call.getArray("habitIds");
+            int[] habitIds;
+            if (requested != null) {
+                habitIds = new int[requested.length()];
+                for (int i = 0; i < habitIds.length; i++) {
+                    habitIds[i] = requested.getInt(i);
+                }
+            } else {
+                habitIds = history.habitIds();
+            }
+
+            long today = recorder.today();
+            JSArray habits = new JSArray();
+            int currentStreak = 0;
+            int bestStreak = 0;
+            for (int habitId : habitIds) {
+                JSObject stats = habitStats(history, habitId, today, rateDays, heatmapDays);
+                currentStreak = Math.max(currentStreak, stats.getInt("currentStreak"));
+                bestStreak = Math.max(bestStreak, stats.getInt("longestStreak"));
+                habits.put(stats);
+            }
+
+            JSObject result = new JSObject();
+            result.put("habits", habits);
+            result.put("currentStreak", currentStreak);
+            result.put("bestStreak", bestStreak);
+            result.put("micros", (System.nanoTime() - start) / 1000);
+            call.resolve(result);
+        } catch (IOException | JSONException e) {
+            call.reject("Cannot compute habit stats: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Number of habits done on each of the last {@code days} days, oldest first.
+     */
+    @PluginMethod
+    public void getHeatmap(PluginCall call) {
+        int days = Math.max(1, call.getInt("days", 30));
+        try {
+            CompletionRecorder recorder = CompletionRecorder.get(getContext());
+            CompletionHistory history = recorder.history();
+            LocalDate from = LocalDate.ofEpochDay(recorder.today() - (days - 1));
+            int[] totals = new int[days];
+            history.dailyTotals(from.toEpochDay(), days, totals);
+
+            JSArray values = new JSArray();
+            for (int total : totals) {
+                values.put(total);
+            }
+            JSObject result = new JSObject();
+            result.put("from", from.format(JS_DATE));
+            result.put("totals", values);
+            result.put("habits", history.size());
+            call.resolve(result);
+        } catch (IOException e) {
+            call.reject("Cannot compute heatmap: " + e.getMessage(), e);
+        }
+    }
+
+    private static JSObject habitStats(CompletionHistory history, int habitId, long today, int rateDays,
+            int heatmapDays) throws JSONException {
+        int completed = history.count(habitId, Math.max(0, today - rateDays + 1), today);
+        JSObject stats = new JSObject();
+        stats.put("id", habitId);
+        stats.put("currentStreak", history.currentStreak(habitId, today));
+        stats.put("longestStreak", history.longestStreak(habitId));
+        stats.put("totalCompletions", history.total(habitId));
+        stats.put("completed", completed);
+        stats.put("total", rateDays);
+        stats.put("percentage", Math.round(completed * 100f / rateDays));
+        if (heatmapDays > 0) {
+            long[] window = new long[(heatmapDays + 63) >> 6];
+            history.window(habitId, Math.max(0, today - heatmapDays + 1), heatmapDays, window);
+            JSONArray heatmap = new JSONArray();
+            for (int i = 0; i < heatmapDays; i++) {
+                heatmap.put((window[i >> 6] >>> i) & 1);
+            }
+            stats.put("heatmap", heatmap);
+        }
+        return stats;
+    }
+
+    // -1 for dates that do not parse
+    private static long parseDay(String date) {
+        try {
+            return LocalDate.parse(date, JS_DATE).toEpochDay();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+}
@@ -1,93 +1,32 @@
 package com.rexforge.quantumhabits;
 
-import android.app.AlarmManager;
-import android.app.NotificationChannel;
-import android.app.NotificationManager;
-import android.app.PendingIntent;
-import android.content.Context;
-import android.content.Intent;
-import android.os.Build;
 import android.os.Bundle;
-import android.content.pm.PackageManager;
-import androidx.core.app.ActivityCompat;
 import com.getcapacitor.BridgeActivity;
 import com.capacitorjs.plugins.pushnotifications.PushNotificationsPlugin;
-import com.google.firebase.messaging.FirebaseMessaging;
 
 public class MainActivity extends BridgeActivity {
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
-        registerPlugin(PushNotificationsPlugin.class);
-        registerPlugin(ReminderPlugin.class);
-        super.onCreate(savedInstanceState);
-
-        // Request necessary permissions for reminders and notifications
-        requestNotificationPermissions();
-
-        // Initialize Firebase Cloud Messaging
-        FirebaseMessaging.getInstance().getToken().addOnCompleteListener(task -> {
-            if (!task.isSuccessful()) {
-                android.util.Log.w("MainActivity", "getInstanceId failed", task.getException());
-                return;
+        final StartupGraph startup = AppStartup.build(this, new StartupGraph.Task() {
+            @Override
+            public void run() {
+                registerPlugin(PushNotificationsPlugin.class);
+                registerPlugin(ReminderPlugin.class);
+                registerPlugin(HabitReminderPlugin.class);
+                registerPlugin(HabitStatsPlugin.class);
             }
-            String token = task.getResult();
-            android.util.Log.d("MainActivity", "FCM Token: " + token);
-            getSharedPreferences("fcm_prefs", Context.MODE_PRIVATE)
-                    .edit()
-                    .putString("fcm_token", token)
-                    .apply();
         });
+        // Plugins must be registered before the bridge starts
+        startup.runCritical();
+        super.onCreate(savedInstanceState);
 
-        // Create notification channel for Android 8+
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            createNotificationChannels();
-        }
-    }
-
-    private void requestNotificationPermissions() {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-            // Android 12+ requires SCHEDULE_EXACT_ALARM permission
-            if (checkSelfPermission(
-                    android.Manifest.permission.SCHEDULE_EXACT_ALARM) != PackageManager.PERMISSION_GRANTED) {
-                ActivityCompat.requestPermissions(this,
-                        new String[] { android.Manifest.permission.SCHEDULE_EXACT_ALARM },
-                        1001);
-            }
-        }
-
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
-            // Android 13+ requires POST_NOTIFICATIONS permission
-            if (checkSelfPermission(
-                    android.Manifest.permission.POST_NOTIFICATIONS) != PackageManager.PERMISSION_GRANTED) {
-                ActivityCompat.requestPermissions(this,
-                        new String[] { android.Manifest.permission.POST_NOTIFICATIONS },
-                        1002);
+        // Everything else waits until the WebView has drawn its first frame
+        getWindow().getDecorView().post(new Runnable() {
+            @Override
+            public void run() {
+                AppStartup.runDeferred(startup);
             }
-        }
-    }
-
-    private void createNotificationChannels() {
-        NotificationManager notificationManager = getSystemService(NotificationManager.class);
-
-        // Reminders channel
-        NotificationChannel remindersChannel = new NotificationChannel(
-                "habit_reminders",
-                "Habit Reminders",
-                NotificationManager.IMPORTANCE_HIGH);
-        remindersChannel.setDescription("Notifications for your habit reminders");
-        remindersChannel.enableVibration(true);
-        remindersChannel.setShowBadge(true);
-        notificationManager.createNotificationChannel(remindersChannel);
-
-        // FCM channel
-        NotificationChannel fcmChannel = new NotificationChannel(
-                "fcm_default",
-                "Push Notifications",
-                NotificationManager.IMPORTANCE_HIGH);
-        fcmChannel.setDescription("Push notifications from Firebase");
-        fcmChannel.enableVibration(true);
-        fcmChannel.setShowBadge(true);
-        notificationManager.createNotificationChannel(fcmChannel);
+        });
     }
 }
@@ -0,0 +1,56 @@
+package com.rexforge.quantumhabits;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+
+/**
+ * Registers only the engine's earliest deadline with AlarmManager. When that
+ * alarm fires, {@link ReminderReceiver} has the engine post everything that
+ * is due, and the engine's next deadline re-arms the alarm.
+ */
+class NextAlarmBackend implements ReminderEngine.Backend {
+    static final String ACTION_QUEUE_ALARM = "com.rexforge.quantumhabits.REMINDER_QUEUE";
+    // Request code of the single alarm, outside the range of notification ids
+    private static final int ALARM_REQUEST_CODE = Integer.MAX_VALUE - 1;
+
+    private final Context context;
+    private final AlarmManager alarmManager;
+
+    NextAlarmBackend(Context context) {
+        this.context = context;
+        alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+    }
+
+    @Override
+    public void scheduled(ScheduledReminder reminder) {
+    }
+
+    @Override
+    public void removed(String id) {
+    }
+
+    @Override
+    public void deadlineChanged(long deadline) {
+        PendingIntent pendingIntent = alarmIntent();
+        if (deadline == ReminderScheduler.NO_DEADLINE) {
+            alarmManager.cancel(pendingIntent);
+            return;
+        }
+        ReminderPlugin.setWakeupAlarm(alarmManager, deadline, pendingIntent);
+        android.util.Log.d("NextAlarmBackend", "Armed next alarm for " + deadline);
+    }
+
+    private PendingIntent alarmIntent() {
+        Intent intent = new Intent(context, ReminderReceiver.class);
+        intent.setAction(ACTION_QUEUE_ALARM);
+
+        int flags = PendingIntent.FLAG_UPDATE_CURRENT;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            flags |= PendingIntent.FLAG_IMMUTABLE;
+        }
+        return PendingIntent.getBroadcast(context, ALARM_REQUEST_CODE, intent, flags);
+    }
+}
@@ -3,13 +3,9 @@ package com.rexforge.quantumhabits;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import androidx.core.app.NotificationManagerCompat;
 
 public class NotificationActionReceiver extends BroadcastReceiver {
-
     @Override
     public void onReceive(Context context, Intent intent) {
         String action = intent.getAction();
@@ -21,47 +17,30 @@ public class NotificationActionReceiver extends BroadcastReceiver {
             // You might want to send an event back to your web app
         } else if ("SNOOZE_HABIT".equals(action)) {
             // Handle snooze logic
-            snoozeReminder(context, habitId);
+            snoozeReminder(context, habitId, intent.getStringExtra("reminderId"));
         }
     }
 
     private void updateHabitCompletion(Context context, int habitId) {
-        // This is where you would update your data storage
-        // For now, we will just show a toast as an example
-        android.widget.Toast.makeText(context, "Habit " + habitId + " marked as complete!", android.widget.Toast.LENGTH_SHORT).show();
-
-        // As an example, let's assume we update a value in SharedPreferences
-        SharedPreferences prefs = context.getSharedPreferences("habit_data", Context.MODE_PRIVATE);
-        String habitsJson = prefs.getString("habits", "[]");
-
+        if (habitId == -1) return;
         try {
-            JSONArray habits = new JSONArray(habitsJson);
-            for (int i = 0; i < habits.length(); i++) {
-                JSONObject habit = habits.getJSONObject(i);
-                if (habit.getInt("id") == habitId) {
-                    // Update some value, e.g., a completion count
-                    int completions = habit.optInt("completions", 0);
-                    habit.put("completions", completions + 1);
-                    break;
-                }
-            }
-            prefs.edit().putString("habits", habits.toString()).apply();
-        } catch (JSONException e) {
-            e.printStackTrace();
+            // One journal append; folding into habit_data happens in the background
+            int completions = CompletionRecorder.get(context).record(habitId);
+            android.util.Log.d("NotificationActionReceiver", "Habit " + habitId + " has " + completions + " completions");
+        } catch (java.io.IOException e) {
+            android.util.Log.e("NotificationActionReceiver", "Cannot record completion", e);
+            return;
         }
+        android.widget.Toast.makeText(context, "Habit " + habitId + " marked as complete!", android.widget.Toast.LENGTH_SHORT).show();
     }
 
-    private void snoozeReminder(Context context, int habitId) {
-        // Snooze for 10 minutes (as an example)
-        long snoozeTime = System.currentTimeMillis() + 10 * 60 * 1000;
-
-        // Here you should re-schedule the reminder using your service
-        // This requires finding the original reminder details
-        // For simplicity, we just show a toast
-        android.widget.Toast.makeText(context, "Snoozing habit " + habitId, android.widget.Toast.LENGTH_SHORT).show();
-
-        // You would need a more robust way to find and re-schedule the exact reminder
-        // For example:
-        // HabitReminderService.scheduleReminder(context, ...);
+    private void snoozeReminder(Context context, int habitId, String reminderId) {
+        if (reminderId == null) {
+            android.util.Log.w("NotificationActionReceiver", "Snooze without reminderId for habit " + habitId);
+            return;
+        }
+        // Dismiss the shown notification; the runtime re-enqueues the reminder
+        NotificationManagerCompat.from(context).cancel(ReminderRuntime.NOTIFICATION_ID_BASE + habitId);
+        ReminderRuntime.get(context).snooze(reminderId);
     }
 }
@@ -0,0 +1,218 @@
+package com.rexforge.quantumhabits;
+
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.NotificationManagerCompat;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide source of notification channels, content intents and builders.
+ *
+ * Channels are created once per process, content PendingIntents are cached
+ * per request code and habit, and every thread reuses one prototype builder
+ * per channel whose per-post fields are reset on each {@link #builder(String)}
+ * call. Posts go through {@link #notify(int, NotificationCompat.Builder)},
+ * which records a "QH:notify" trace section; the latency counters cover the
+ * whole post, from {@link #builder(String)} to the notify call.
+ */
+public class NotificationFactory {
+    public static final String CHANNEL_REMINDERS = "habit_reminders";
+    public static final String CHANNEL_PUSH = "fcm_default";
+    public static final int NO_HABIT = Integer.MIN_VALUE;
+
+    private static final int MAX_CACHED_INTENTS = 128;
+    private static final String TRACE_SECTION = "QH:notify";
+
+    private static NotificationFactory instance;
+
+    private final Context context;
+    private final NotificationManagerCompat notificationManager;
+    private volatile boolean channelsCreated;
+
+    private final Map<Long, PendingIntent> contentIntents =
+        new LinkedHashMap<Long, PendingIntent>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, PendingIntent> eldest) {
+                return size() > MAX_CACHED_INTENTS;
+            }
+        };
+
+    // Builders are mutable, so each posting thread gets its own prototypes
+    private final ThreadLocal<Map<String, NotificationCompat.Builder>> prototypes =
+        new ThreadLocal<Map<String, NotificationCompat.Builder>>() {
+            @Override
+            protected Map<String, NotificationCompat.Builder> initialValue() {
+                return new HashMap<>(4);
+            }
+        };
+
+    // Start of the post in progress on this thread, 0 when none
+    private final ThreadLocal<long[]> postStart = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
+    private final AtomicLong postCount = new AtomicLong();
+    private final AtomicLong postNanos = new AtomicLong();
+    private final AtomicLong maxPostNanos = new AtomicLong();
+
+    private NotificationFactory(Context context) {
+        this.context = context;
+        this.notificationManager = NotificationManagerCompat.from(context);
+    }
+
+    public static synchronized NotificationFactory get(Context context) {
+        Context appContext = context.getApplicationContext();
+        // A new application instance (only happens under test) gets a fresh factory
+        if (instance == null || instance.context != appContext) {
+            instance = new NotificationFactory(appContext);
+        }
+        return instance;
+    }
+
+    /**
+     * Creates the app's notification channels the first time it is called in
+     * this process.
+     */
+    public void ensureChannels() {
+        if (channelsCreated) return;
+        synchronized (this) {
+            if (channelsCreated) return;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                NotificationManager manager =
+                    (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+
+                // Reminders channel
+                NotificationChannel remindersChannel = new NotificationChannel(
+                    CHANNEL_REMINDERS,
+                    "Habit Reminders",
+                    NotificationManager.IMPORTANCE_HIGH);
+                remindersChannel.setDescription("Notifications for your habit reminders");
+                remindersChannel.enableVibration(true);
+                remindersChannel.enableLights(true);
+                remindersChannel.setShowBadge(true);
+                manager.createNotificationChannel(remindersChannel);
+
+                // FCM channel
+                NotificationChannel pushChannel = new NotificationChannel(
+                    CHANNEL_PUSH,
+                    "Push Notifications",
+                    NotificationManager.IMPORTANCE_HIGH);
+                pushChannel.setDescription("Push notifications from Firebase");
+                pushChannel.enableVibration(true);
+                pushChannel.setShowBadge(true);
+                manager.createNotificationChannel(pushChannel);
+            }
+            channelsCreated = true;
+        }
+    }
+
+    /**
+     * Immutable PendingIntent that opens the app, cached per request code and
+     * habit. {@code habitId} is passed as an extra unless it is {@link #NO_HABIT}.
+     */
+    public PendingIntent contentIntent(int requestCode, int habitId) {
+        Long key = ((long) requestCode << 32) | (habitId & 0xFFFFFFFFL);
+        synchronized (contentIntents) {
+            PendingIntent cached = contentIntents.get(key);
+            if (cached != null) return cached;
+        }
+
+        Intent intent = new Intent(context, MainActivity.class);
+        intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP);
+        if (habitId != NO_HABIT) {
+            intent.putExtra("habitId", habitId);
+        }
+        PendingIntent pendingIntent = PendingIntent.getActivity(
+            context, requestCode, intent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+
+        synchronized (contentIntents) {
+            contentIntents.put(key, pendingIntent);
+        }
+        return pendingIntent;
+    }
+
+    /**
+     * This thread's prototype builder for {@code channelId} with the per-post
+     * fields reset. It stays valid until the next call on the same thread, so
+     * post it before asking for another one.
+     */
+    public NotificationCompat.Builder builder(String channelId) {
+        postStart.get()[0] = System.nanoTime();
+        ensureChannels();
+        Map<String, NotificationCompat.Builder> builders = prototypes.get();
+        NotificationCompat.Builder builder = builders.get(channelId);
+        if (builder == null) {
+            builder = new NotificationCompat.Builder(context, channelId)
+                .setSmallIcon(android.R.drawable.ic_dialog_info)
+                .setAutoCancel(true)
+                .setPriority(NotificationCompat.PRIORITY_HIGH)
+                .setCategory(NotificationCompat.CATEGORY_REMINDER);
+            builders.put(channelId, builder);
+        }
+        return builder
+            .setWhen(System.currentTimeMillis())
+            .setContentTitle(null)
+            .setContentText(null)
+            .setContentIntent(null)
+            .setStyle(null)
+            .setNumber(0)
+            .setGroup(null)
+            .setGroupSummary(false)
+            .setGroupAlertBehavior(NotificationCompat.GROUP_ALERT_ALL)
+            .setSilent(false)
+            .setVibrate(null)
+            .setLights(0, 0, 0)
+            .clearActions();
+    }
+
+    public void notify(int notificationId, NotificationCompat.Builder builder) {
+        long[] started = postStart.get();
+        long start = started[0] != 0 ? started[0] : System.nanoTime();
+        started[0] = 0;
+        android.os.Trace.beginSection(TRACE_SECTION);
+        try {
+            notificationManager.notify(notificationId, builder.build());
+        } finally {
+            recordPost(System.nanoTime() - start);
+            android.os.Trace.endSection();
+        }
+    }
+
+    private void recordPost(long nanos) {
+        SchedulerMetrics.get().recordNotify(nanos);
+        long count = postCount.incrementAndGet();
+        long total = postNanos.addAndGet(nanos);
+        long max = maxPostNanos.get();
+        while (nanos > max && !maxPostNanos.compareAndSet(max, nanos)) {
+            max = maxPostNanos.get();
+        }
+        if ((count & 63) == 0) {
+            android.util.Log.d("NotificationFactory", "Posted " + count + " notifications, avg "
+                + (total / count / 1000) + "us, max " + (maxPostNanos.get() / 1000) + "us");
+        }
+    }
+
+    public long postCount() {
+        return postCount.get();
+    }
+
+    public long averagePostNanos() {
+        long count = postCount.get();
+        return count == 0 ? 0 : postNanos.get() / count;
+    }
+
+    public long maxPostNanos() {
+        return maxPostNanos.get();
+    }
+}
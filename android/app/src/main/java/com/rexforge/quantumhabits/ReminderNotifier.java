@@ -0,0 +1,114 @@
+package com.rexforge.quantumhabits;
+
+import android.content.Context;
+import androidx.core.app.NotificationCompat;
+import java.util.List;
+
+/**
+ * Posts a {@link NotificationCoalescer.Batch}.
+ *
+ * A batch with a single habit is posted as one notification. Larger batches
+ * become a notification group: one child per habit, which never alerts on its
+ * own, plus a summary with an InboxStyle digest that carries the batch's only
+ * vibration. When the coalescer rate-limits vibration the batch is posted
+ * silently.
+ */
+public class ReminderNotifier {
+    static final String GROUP_KEY = "com.rexforge.quantumhabits.REMINDERS";
+    private static final String PREFS_NAME = "habit_reminders";
+    private static final String KEY_WINDOW = "coalesce_window_ms";
+    private static final long[] SUMMARY_VIBRATION = {0, 250, 250, 250};
+
+    private static NotificationCoalescer coalescer;
+
+    /**
+     * Supplies the per-habit notifications of a batch; the notifier adds
+     * grouping and alert behaviour.
+     */
+    interface GroupContent {
+        NotificationCompat.Builder build(NotificationCoalescer.HabitGroup group);
+
+        int notificationId(NotificationCoalescer.HabitGroup group);
+
+        CharSequence summaryLine(NotificationCoalescer.HabitGroup group);
+    }
+
+    /**
+     * Process-wide coalescer, so vibration is rate-limited across every
+     * posting path.
+     */
+    static synchronized NotificationCoalescer coalescer(Context context) {
+        if (coalescer == null) {
+            long windowMs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getLong(KEY_WINDOW, NotificationCoalescer.DEFAULT_WINDOW_MS);
+            coalescer = new NotificationCoalescer(windowMs, NotificationCoalescer.DEFAULT_MIN_VIBRATION_INTERVAL_MS);
+        }
+        return coalescer;
+    }
+
+    static synchronized void setWindow(Context context, long windowMs) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+            .edit()
+            .putLong(KEY_WINDOW, windowMs)
+            .apply();
+        coalescer = new NotificationCoalescer(windowMs, NotificationCoalescer.DEFAULT_MIN_VIBRATION_INTERVAL_MS);
+    }
+
+    static void post(Context context, String channelId, int summaryId,
+                     NotificationCoalescer.Batch batch, GroupContent content) {
+        if (batch.isEmpty()) return;
+
+        NotificationFactory factory = NotificationFactory.get(context);
+        List<NotificationCoalescer.HabitGroup> groups = batch.groups();
+        boolean grouped = groups.size() > 1;
+
+        for (int i = 0; i < groups.size(); i++) {
+            NotificationCoalescer.HabitGroup group = groups.get(i);
+            NotificationCompat.Builder builder = content.build(group);
+            if (group.reminders().size() > 1) {
+                builder.setNumber(group.reminders().size());
+            }
+            if (grouped) {
+                builder.setGroup(GROUP_KEY)
+                    .setGroupAlertBehavior(NotificationCompat.GROUP_ALERT_SUMMARY);
+            } else if (!batch.shouldVibrate()) {
+                builder.setSilent(true);
+            }
+            factory.notify(content.notificationId(group), builder);
+        }
+
+        if (grouped) {
+            factory.notify(summaryId, buildSummary(factory, channelId, summaryId, batch, content));
+        }
+        android.util.Log.d("ReminderNotifier", "Posted " + batch.reminderCount() + " reminder(s) in "
+            + groups.size() + " notification(s), vibrate=" + batch.shouldVibrate());
+    }
+
+    private static NotificationCompat.Builder buildSummary(NotificationFactory factory, String channelId, int summaryId,
+                                                           NotificationCoalescer.Batch batch, GroupContent content) {
+        List<NotificationCoalescer.HabitGroup> groups = batch.groups();
+        String title = batch.reminderCount() + " habit reminders";
+
+        NotificationCompat.InboxStyle digest = new NotificationCompat.InboxStyle()
+            .setBigContentTitle(title);
+        for (int i = 0; i < groups.size(); i++) {
+            digest.addLine(content.summaryLine(groups.get(i)));
+        }
+
+        NotificationCompat.Builder builder = factory.builder(channelId)
+            .setContentTitle(title)
+            .setContentText(groups.size() + " habits are due")
+            .setStyle(digest)
+            .setNumber(batch.reminderCount())
+            .setContentIntent(factory.contentIntent(summaryId, NotificationFactory.NO_HABIT))
+            .setGroup(GROUP_KEY)
+            .setGroupSummary(true)
+            .setGroupAlertBehavior(NotificationCompat.GROUP_ALERT_SUMMARY);
+        if (batch.shouldVibrate()) {
+            builder.setVibrate(SUMMARY_VIBRATION);
+        } else {
+            builder.setSilent(true);
+        }
+        return builder;
+    }
+}
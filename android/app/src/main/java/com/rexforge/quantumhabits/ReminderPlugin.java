@@ -12,9 +12,127 @@ import com.getcapacitor.PluginCall;
 import com.getcapacitor.PluginMethod;
 import com.getcapacitor.annotation.CapacitorPlugin;
 
+/**
+ * One-off reminders by notificationId, plus settings of the reminder
+ * subsystem. Reminders go into the same {@link ReminderRuntime} schedule as
+ * the habit reminders of {@link HabitReminderPlugin}.
+ */
 @CapacitorPlugin(name = "ReminderPlugin")
 public class ReminderPlugin extends Plugin {
 
+    static String reminderId(int notificationId) {
+        return "notification-" + notificationId;
+    }
+
+    /**
+     * The schedule entry of a one-off reminder: the title goes in habitName
+     * and the notificationId in habitId, which habit cancels never match.
+     */
+    static ScheduledReminder notificationReminder(int notificationId, String habitIcon, String habitName,
+                                                  String message, long timeInMillis) {
+        String title = habitIcon + " " + habitName;
+        String text = message == null || message.isEmpty() ? "Time for your " + habitName + " habit!" : message;
+        return new ScheduledReminder(reminderId(notificationId), title, text, "", timeInMillis, notificationId,
+            ScheduledReminder.NOTIFICATION);
+    }
+
+    /**
+     * Cancels the alarm versions before the shared schedule set for a
+     * reminder, with the reminder in its extras; those never made it into
+     * the schedule.
+     */
+    static void cancelLegacyAlarm(Context context, int notificationId) {
+        Intent intent = new Intent(context, ReminderReceiver.class);
+        intent.setAction(ExactAlarmBackend.ACTION_REMINDER);
+
+        int flags = PendingIntent.FLAG_NO_CREATE;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            flags |= PendingIntent.FLAG_IMMUTABLE;
+        }
+        PendingIntent pendingIntent = PendingIntent.getBroadcast(context, notificationId, intent, flags);
+        if (pendingIntent == null) return;
+        ((AlarmManager) context.getSystemService(Context.ALARM_SERVICE)).cancel(pendingIntent);
+        pendingIntent.cancel();
+        android.util.Log.d("ReminderPlugin", "Legacy alarm canceled for notification " + notificationId);
+    }
+
+    /**
+     * Chooses how the device wakes up for reminders: "exact" (an alarm per
+     * reminder), "next" (one alarm for the earliest, the default) or "tick"
+     * (a foreground service).
+     */
+    @PluginMethod
+    public void setAlarmMode(PluginCall call) {
+        String mode = call.getString("mode", ReminderRuntime.MODE_NEXT);
+        if (!ReminderRuntime.isMode(mode)) {
+            call.reject("Unknown alarm mode: " + mode);
+            return;
+        }
+        ReminderRuntime.get(getContext()).setMode(mode);
+
+        JSObject result = new JSObject();
+        result.put("mode", mode);
+        call.resolve(result);
+    }
+
+    @PluginMethod
+    public void getAlarmMode(PluginCall call) {
+        JSObject result = new JSObject();
+        result.put("mode", ReminderRuntime.get(getContext()).mode());
+        call.resolve(result);
+    }
+
+    @PluginMethod
+    public void setNotificationWindow(PluginCall call) {
+        long windowMs = call.getLong("windowMs", NotificationCoalescer.DEFAULT_WINDOW_MS);
+        if (windowMs < 0) {
+            call.reject("windowMs must not be negative");
+            return;
+        }
+        ReminderNotifier.setWindow(getContext(), windowMs);
+
+        JSObject result = new JSObject();
+        result.put("windowMs", windowMs);
+        call.resolve(result);
+    }
+
+    @PluginMethod
+    public void getCompletionCounts(PluginCall call) {
+        try {
+            int[] counts = CompletionRecorder.get(getContext()).counts();
+            JSObject byHabit = new JSObject();
+            for (int i = 0; i < counts.length; i += 2) {
+                byHabit.put(String.valueOf(counts[i]), counts[i + 1]);
+            }
+            JSObject result = new JSObject();
+            result.put("counts", byHabit);
+            call.resolve(result);
+        } catch (java.io.IOException e) {
+            call.reject("Cannot read completions: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reminder subsystem counters and latency percentiles since the process
+     * started. With {@code dumpToFile: true} they are also written to
+     * {@code scheduler-stats.json} in the app's files directory.
+     */
+    @PluginMethod
+    public void getSchedulerStats(PluginCall call) {
+        SchedulerMetrics metrics = SchedulerMetrics.get();
+        try {
+            JSObject result = JSObject.fromJSONObject(metrics.toJson());
+            if (call.getBoolean("dumpToFile", false)) {
+                java.io.File file = new java.io.File(getContext().getFilesDir(), "scheduler-stats.json");
+                metrics.dumpTo(file);
+                result.put("file", file.getAbsolutePath());
+            }
+            call.resolve(result);
+        } catch (org.json.JSONException | java.io.IOException e) {
+            call.reject("Cannot read scheduler stats: " + e.getMessage());
+        }
+    }
+
     @PluginMethod
     public void scheduleReminder(PluginCall call) {
         String habitIcon = call.getString("habitIcon", "");
@@ -74,88 +192,51 @@ public class ReminderPlugin extends Plugin {
 
     private void scheduleReminderInternal(String habitIcon, String habitName, String message, long timeInMillis,
             int notificationId) {
-        Context context = getActivity().getApplicationContext();
-        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        // Replaces an alarm an older version set for the same notification
+        cancelLegacyAlarm(getContext(), notificationId);
+        ReminderRuntime runtime = ReminderRuntime.get(getContext());
+        runtime.schedule(notificationReminder(notificationId, habitIcon, habitName, message, timeInMillis));
 
-        Intent intent = new Intent(context, ReminderReceiver.class);
-        intent.setAction("com.rexforge.quantumhabits.REMINDER");
-        intent.putExtra("habitIcon", habitIcon);
-        intent.putExtra("habitName", habitName);
-        intent.putExtra("message", message);
-        intent.putExtra("notificationId", notificationId);
-
-        // Use FLAG_IMMUTABLE for better security on newer Android versions
-        int flags = PendingIntent.FLAG_UPDATE_CURRENT;
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            flags |= PendingIntent.FLAG_IMMUTABLE;
-        }
-
-        PendingIntent pendingIntent = PendingIntent.getBroadcast(
-                context,
-                notificationId,
-                intent,
-                flags);
+        long delayMs = timeInMillis - runtime.clock().currentTimeMillis();
+        android.util.Log.d("ReminderPlugin", "Reminder due in " + delayMs + "ms for notification " + notificationId);
+    }
 
-        try {
-            // For Android 12+
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-                try {
-                    alarmManager.setAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, timeInMillis, pendingIntent);
-                    android.util.Log.d("ReminderPlugin", "Alarm scheduled with setAndAllowWhileIdle (Android 12+)");
-                } catch (SecurityException e) {
-                    android.util.Log.w("ReminderPlugin", "SCHEDULE_EXACT_ALARM not available, using inexact");
-                    alarmManager.setAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, timeInMillis, pendingIntent);
-                }
-            }
-            // For Android 5-11
-            else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-                try {
-                    alarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, timeInMillis, pendingIntent);
-                    android.util.Log.d("ReminderPlugin",
-                            "Alarm scheduled with setExactAndAllowWhileIdle (Android 5-11)");
-                } catch (SecurityException e) {
-                    alarmManager.setAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, timeInMillis, pendingIntent);
-                }
+    /**
+     * Registers a wakeup alarm, falling back to an inexact one when exact
+     * alarms are not permitted.
+     */
+    static void setWakeupAlarm(AlarmManager alarmManager, long timeInMillis, PendingIntent pendingIntent) {
+        // For Android 12+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            try {
+                alarmManager.setAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, timeInMillis, pendingIntent);
+                android.util.Log.d("ReminderPlugin", "Alarm scheduled with setAndAllowWhileIdle (Android 12+)");
+            } catch (SecurityException e) {
+                android.util.Log.w("ReminderPlugin", "SCHEDULE_EXACT_ALARM not available, using inexact");
+                alarmManager.setAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, timeInMillis, pendingIntent);
             }
-            // Fallback for older devices
-            else {
-                alarmManager.set(AlarmManager.RTC_WAKEUP, timeInMillis, pendingIntent);
-                android.util.Log.d("ReminderPlugin", "Alarm scheduled with set() (older Android)");
+        }
+        // For Android 5-11
+        else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            try {
+                alarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, timeInMillis, pendingIntent);
+                android.util.Log.d("ReminderPlugin",
+                        "Alarm scheduled with setExactAndAllowWhileIdle (Android 5-11)");
+            } catch (SecurityException e) {
+                alarmManager.setAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, timeInMillis, pendingIntent);
             }
-
-            long delayMs = timeInMillis - System.currentTimeMillis();
-            android.util.Log.d("ReminderPlugin",
-                    "Alarm will trigger in " + delayMs + "ms for notification " + notificationId);
-        } catch (Exception e) {
-            android.util.Log.e("ReminderPlugin", "Error setting alarm: " + e.getMessage());
-            throw e;
+        }
+        // Fallback for older devices
+        else {
+            alarmManager.set(AlarmManager.RTC_WAKEUP, timeInMillis, pendingIntent);
+            android.util.Log.d("ReminderPlugin", "Alarm scheduled with set() (older Android)");
         }
     }
 
     private void cancelReminderInternal(int notificationId) {
-        Context context = getActivity().getApplicationContext();
-        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
-
-        Intent intent = new Intent(context, ReminderReceiver.class);
-        intent.setAction("com.rexforge.quantumhabits.REMINDER");
-
-        int flags = PendingIntent.FLAG_UPDATE_CURRENT;
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            flags |= PendingIntent.FLAG_IMMUTABLE;
-        }
-
-        PendingIntent pendingIntent = PendingIntent.getBroadcast(
-                context,
-                notificationId,
-                intent,
-                flags);
-
-        try {
-            alarmManager.cancel(pendingIntent);
-            android.util.Log.d("ReminderPlugin", "Alarm canceled for notification " + notificationId);
-        } catch (Exception e) {
-            android.util.Log.e("ReminderPlugin", "Error canceling alarm: " + e.getMessage());
-        }
+        ReminderRuntime.get(getContext()).cancel(reminderId(notificationId));
+        cancelLegacyAlarm(getContext(), notificationId);
+        android.util.Log.d("ReminderPlugin", "Reminder canceled for notification " + notificationId);
     }
 
     @PluginMethod
@@ -0,0 +1,582 @@
+package com.rexforge.quantumhabits;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import androidx.core.app.NotificationCompat;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The process-wide {@link ReminderEngine} on its {@link ReminderWorker}
+ * thread. Both plugins, the receivers and FCM schedule through it; it posts
+ * due reminders and leaves wakeups to the backend of the alarm mode.
+ *
+ * The engine's store is loaded by the first command after the process
+ * starts and stays open for the life of the process.
+ */
+public class ReminderRuntime {
+    // One AlarmManager alarm per reminder
+    static final String MODE_EXACT = "exact";
+    // Only the earliest deadline is an alarm
+    static final String MODE_NEXT = "next";
+    // HabitReminderService runs the worker's timer for near reminders; an alarm wakes it for later ones
+    static final String MODE_TICK = "tick";
+
+    public static final int NOTIFICATION_ID_BASE = 1000;
+    private static final int SUMMARY_NOTIFICATION_ID = NOTIFICATION_ID_BASE - 2;
+    private static final long[] HABIT_VIBRATION = {0, 250, 250, 250};
+    private static final long[] REMINDER_VIBRATION = {0, 500, 250, 500};
+
+    private static final String PREFS_NAME = "reminder_prefs";
+    private static final String KEY_ALARM_MODE = "alarm_mode";
+
+    // Guards "sync_state" and "recurrence_rules", which both HabitReminderPlugin and schedule deltas rewrite
+    static final Object SYNC_LOCK = new Object();
+
+    private static ReminderRuntime instance;
+
+    private final Context context;
+    private final ReminderClock clock;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    // Only touched from the worker's thread
+    private final ReminderEngine engine;
+    private final ReminderWorker worker;
+    // The current backend when it is the tick one; worker thread only
+    private TickBackend tick;
+
+    private ReminderRuntime(Context context, ReminderClock clock) {
+        this.context = context;
+        this.clock = clock;
+        engine = new ReminderEngine(new ReminderScheduler());
+        worker = new ReminderWorker(engine.scheduler(), new ReminderWorker.Listener() {
+            @Override
+            public long dueHorizon(long now) {
+                // Reminders due within the coalescing window are posted with the current ones
+                return ReminderNotifier.coalescer(ReminderRuntime.this.context).horizon(now);
+            }
+
+            @Override
+            public void onDue(ReminderScheduler scheduler, List<ScheduledReminder> due, long now) {
+                showDueReminders(due, now);
+            }
+
+            @Override
+            public void onCommandFailed(RuntimeException e) {
+                android.util.Log.e("ReminderRuntime", "Reminder command failed", e);
+            }
+        }, clock);
+        worker.execute(new ReminderWorker.Command() {
+            @Override
+            public void run(ReminderScheduler scheduler) {
+                load();
+            }
+        });
+        worker.start("ReminderWorker");
+    }
+
+    public static synchronized ReminderRuntime get(Context context) {
+        return get(context, ReminderClock.SYSTEM);
+    }
+
+    /**
+     * The runtime on {@code clock}, if it is the first one of the
+     * application; tests call this before anything else gets the runtime.
+     */
+    static synchronized ReminderRuntime get(Context context, ReminderClock clock) {
+        Context appContext = context.getApplicationContext();
+        // A new application instance (only happens under test) gets a fresh runtime
+        if (instance == null || instance.context != appContext) {
+            if (instance != null) instance.worker.shutdown();
+            instance = new ReminderRuntime(appContext, clock);
+        }
+        return instance;
+    }
+
+    /**
+     * The clock the runtime schedules and delivers by.
+     */
+    ReminderClock clock() {
+        return clock;
+    }
+
+    private void load() {
+        long now = clock.currentTimeMillis();
+        try {
+            engine.open(new File(context.getFilesDir(), "reminders"),
+                new File(context.getFilesDir(), "fired_reminders"), now);
+        } catch (IOException e) {
+            android.util.Log.e("ReminderRuntime", "Cannot open reminder store", e);
+        }
+        engine.setRecurrences(loadRecurrences());
+        // Without the store the migrated reminders would only live in memory; try again next start
+        if (engine.isOpen()) {
+            migrateLegacyReminders();
+            migrateLegacyStore("alarm_queue");
+            migrateLegacyStore("exact_alarms");
+        }
+        // Alarms set before the process started are still registered
+        engine.attach(backend(mode()));
+        android.util.Log.d("ReminderRuntime", "Loaded " + engine.size() + " reminder(s) in "
+            + (clock.currentTimeMillis() - now) + "ms, " + engine.estimatedBytes() / 1024 + " KB");
+    }
+
+    // Written by HabitReminderPlugin before it hands over a batch, and by schedule deltas
+    private RecurrenceSchedule loadRecurrences() {
+        SharedPreferences prefs = context.getSharedPreferences("habit_reminders", Context.MODE_PRIVATE);
+        return RecurrenceSchedule.decode(prefs.getString("recurrence_rules", null));
+    }
+
+    // Moves reminders saved by older versions as a JSON string preference into the store
+    private void migrateLegacyReminders() {
+        SharedPreferences prefs = context.getSharedPreferences("habit_reminders", Context.MODE_PRIVATE);
+        String remindersJson = prefs.getString("scheduled_reminders", null);
+        if (remindersJson == null) return;
+
+        ReminderBatch batch = new ReminderBatch();
+        try {
+            JSONArray remindersArray = new JSONArray(remindersJson);
+            for (int i = 0; i < remindersArray.length(); i++) {
+                JSONObject reminderObj = remindersArray.getJSONObject(i);
+                batch.add(new ScheduledReminder(
+                    reminderObj.getString("id"),
+                    reminderObj.getString("habitName"),
+                    reminderObj.getString("message"),
+                    reminderObj.getString("habitColor"),
+                    reminderObj.getLong("timestamp"),
+                    reminderObj.getInt("habitId"),
+                    reminderObj.getInt("reminderIndex")));
+            }
+            engine.apply(batch);
+        } catch (JSONException | IOException e) {
+            // Kept for the next start rather than lost
+            android.util.Log.e("ReminderRuntime", "Cannot migrate saved reminders", e);
+            return;
+        }
+        prefs.edit().remove("scheduled_reminders").apply();
+    }
+
+    // Moves the queue and exact-alarm ledger of the old ReminderPlugin schedule into the engine
+    private void migrateLegacyStore(String name) {
+        File dir = new File(context.getFilesDir(), name);
+        if (!dir.isDirectory()) return;
+        try {
+            ReminderStore legacy = ReminderStore.open(dir);
+            List<ScheduledReminder> reminders = new ArrayList<>(legacy.size());
+            legacy.readAll(reminders);
+            legacy.close();
+            engine.apply(new ReminderBatch().addAll(reminders));
+            android.util.Log.d("ReminderRuntime", "Migrated " + reminders.size() + " reminder(s) from " + name);
+        } catch (IOException e) {
+            android.util.Log.e("ReminderRuntime", "Cannot migrate " + name, e);
+            return;
+        }
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private ReminderEngine.Backend backend(String mode) {
+        tick = null;
+        switch (mode) {
+            case MODE_EXACT:
+                return new ExactAlarmBackend(context);
+            case MODE_TICK:
+                tick = new TickBackend(context, clock);
+                return tick;
+            default:
+                return new NextAlarmBackend(context);
+        }
+    }
+
+    static boolean isMode(String mode) {
+        return MODE_EXACT.equals(mode) || MODE_NEXT.equals(mode) || MODE_TICK.equals(mode);
+    }
+
+    String mode() {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+            .getString(KEY_ALARM_MODE, MODE_NEXT);
+    }
+
+    /**
+     * Switches the alarm mode; reminders already scheduled move to the new
+     * backend.
+     */
+    void setMode(final String mode) {
+        if (mode.equals(mode())) return;
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+            .edit()
+            .putString(KEY_ALARM_MODE, mode)
+            .apply();
+        worker.execute(new ReminderWorker.Command() {
+            @Override
+            public void run(ReminderScheduler scheduler) {
+                engine.switchTo(backend(mode));
+            }
+        });
+    }
+
+    /**
+     * Schedules {@code reminder}, replacing the one with the same id.
+     */
+    void schedule(final ScheduledReminder reminder) {
+        final long start = System.nanoTime();
+        worker.execute(new ReminderWorker.Command() {
+            @Override
+            public void run(ReminderScheduler scheduler) {
+                try {
+                    engine.schedule(reminder);
+                } catch (IOException e) {
+                    android.util.Log.e("ReminderRuntime", "Cannot store reminder " + reminder.id, e);
+                }
+                SchedulerMetrics.get().recordSchedule(start);
+            }
+        });
+    }
+
+    /**
+     * Applies the batch with the rules HabitReminderPlugin saved before
+     * handing it over.
+     */
+    void scheduleAll(final ReminderBatch batch) {
+        if (batch.isEmpty()) return;
+        final long start = System.nanoTime();
+        worker.execute(new ReminderWorker.Command() {
+            @Override
+            public void run(ReminderScheduler scheduler) {
+                engine.setRecurrences(loadRecurrences());
+                try {
+                    engine.apply(batch);
+                } catch (IOException e) {
+                    android.util.Log.e("ReminderRuntime", "Cannot store reminder batch", e);
+                }
+                SchedulerMetrics.get().recordSchedule(start);
+            }
+        });
+    }
+
+    void cancel(final String reminderId) {
+        final long start = System.nanoTime();
+        worker.execute(new ReminderWorker.Command() {
+            @Override
+            public void run(ReminderScheduler scheduler) {
+                try {
+                    engine.cancel(reminderId);
+                } catch (IOException e) {
+                    android.util.Log.e("ReminderRuntime", "Cannot remove reminder " + reminderId, e);
+                }
+                SchedulerMetrics.get().recordCancel(start);
+            }
+        });
+    }
+
+    void cancelHabit(final int habitId) {
+        final long start = System.nanoTime();
+        worker.execute(new ReminderWorker.Command() {
+            @Override
+            public void run(ReminderScheduler scheduler) {
+                try {
+                    engine.cancelHabit(habitId);
+                } catch (IOException e) {
+                    android.util.Log.e("ReminderRuntime", "Cannot remove reminders of habit " + habitId, e);
+                }
+                SchedulerMetrics.get().recordCancel(start);
+            }
+        });
+    }
+
+    /**
+     * Re-schedules a shown reminder after the policy's next snooze delay.
+     */
+    void snooze(final String reminderId) {
+        worker.execute(new ReminderWorker.Command() {
+            @Override
+            public void run(ReminderScheduler scheduler) {
+                snoozeReminder(reminderId, clock.currentTimeMillis());
+            }
+        });
+    }
+
+    private void snoozeReminder(String reminderId, long now) {
+        // Read on every snooze so changed durations apply right away
+        SharedPreferences prefs = context.getSharedPreferences("habit_reminders", Context.MODE_PRIVATE);
+        SnoozePolicy policy = new SnoozePolicy(SnoozePolicy.parseDelays(prefs.getString("snooze_delays", null)));
+        policy.decodeCounts(prefs.getString("snooze_counts", null));
+        policy.prune(now);
+
+        long delay;
+        try {
+            delay = engine.snooze(reminderId, policy, now);
+        } catch (IOException e) {
+            android.util.Log.e("ReminderRuntime", "Cannot store snoozed reminder", e);
+            return;
+        }
+        if (delay < 0) {
+            android.util.Log.w("ReminderRuntime", "Cannot snooze unknown reminder " + reminderId);
+            return;
+        }
+        prefs.edit().putString("snooze_counts", policy.encodeCounts()).apply();
+
+        android.util.Log.d("ReminderRuntime", "Snoozed " + reminderId + " for " + (delay / 60000) + " min");
+        final long minutes = delay / 60000;
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                android.widget.Toast.makeText(context, "Snoozed for " + minutes + " minutes",
+                    android.widget.Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    /**
+     * Applies a schedule delta pushed by the server, unless it is one that
+     * was already applied or arrives out of order, then runs {@code done},
+     * if not null, on the worker thread.
+     */
+    void applyDelta(final byte[] data, final Runnable done) {
+        final long start = System.nanoTime();
+        worker.execute(new ReminderWorker.Command() {
+            @Override
+            public void run(ReminderScheduler scheduler) {
+                try {
+                    applyScheduleDelta(data, clock.currentTimeMillis());
+                    SchedulerMetrics.get().recordSchedule(start);
+                } finally {
+                    if (done != null) done.run();
+                }
+            }
+        });
+    }
+
+    private void applyScheduleDelta(byte[] data, long now) {
+        ScheduleDelta delta;
+        try {
+            delta = ScheduleDelta.decode(data);
+        } catch (IOException e) {
+            android.util.Log.e("ReminderRuntime", "Cannot read schedule delta", e);
+            return;
+        }
+        SharedPreferences prefs = context.getSharedPreferences("habit_reminders", Context.MODE_PRIVATE);
+        // FCM may redeliver a message or deliver them out of order
+        if (delta.sequence() <= prefs.getLong("delta_sequence", Long.MIN_VALUE)) {
+            android.util.Log.d("ReminderRuntime", "Skipping stale schedule delta " + delta.sequence());
+            return;
+        }
+
+        synchronized (SYNC_LOCK) {
+            engine.setRecurrences(loadRecurrences());
+            try {
+                engine.apply(delta, clock.zone(), now);
+            } catch (IOException e) {
+                android.util.Log.e("ReminderRuntime", "Cannot store schedule delta", e);
+            }
+            // The hashes of the last sync from JS no longer describe these habits; the next sync replaces them
+            ReminderSyncState state = ReminderSyncState.decode(prefs.getString("sync_state", null));
+            for (int i = 0; i < delta.size(); i++) {
+                state.forgetHabit(delta.habitId(i));
+            }
+            prefs.edit()
+                .putString("sync_state", state.encode())
+                .putString("recurrence_rules", engine.recurrences().encode())
+                .putLong("delta_sequence", delta.sequence())
+                .apply();
+        }
+    }
+
+    /**
+     * Rebuilds the schedule after a reboot (see
+     * {@link ReminderEngine#rehydrate(long, long)}), then runs {@code done},
+     * if not null, on the worker thread.
+     */
+    void rehydrate(final long now, final long graceMs, final Runnable done) {
+        worker.execute(new ReminderWorker.Command() {
+            @Override
+            public void run(ReminderScheduler scheduler) {
+                long start = System.nanoTime();
+                try {
+                    ScheduleRehydrator rehydrator = engine.rehydrate(now, graceMs);
+                    android.util.Log.d("ReminderRuntime", "Rehydrated " + rehydrator + " in "
+                        + (System.nanoTime() - start) / 1000000 + "ms");
+                } catch (IOException e) {
+                    android.util.Log.e("ReminderRuntime", "Cannot persist rehydrated reminders", e);
+                } finally {
+                    if (done != null) done.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Posts a reminder from an alarm set by a version before the shared
+     * schedule, unless the schedule has an entry of its own for it by now,
+     * then runs {@code done}, if not null, on the worker thread.
+     */
+    void postLegacyReminder(final ScheduledReminder reminder, final Runnable done) {
+        worker.execute(new ReminderWorker.Command() {
+            @Override
+            public void run(ReminderScheduler scheduler) {
+                try {
+                    if (scheduler.contains(reminder.id)) {
+                        android.util.Log.d("ReminderRuntime", "Legacy alarm for " + reminder.id + " is rescheduled");
+                        return;
+                    }
+                    NotificationFactory.get(context).notify(reminder.habitId, buildNotification(reminder));
+                } finally {
+                    if (done != null) done.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Posts whatever is due now, then runs {@code done}, if not null, on the
+     * worker thread; for alarms, which only need to wake the process up.
+     */
+    void fire(final Runnable done) {
+        worker.fire();
+        worker.execute(new ReminderWorker.Command() {
+            @Override
+            public void run(ReminderScheduler scheduler) {
+                // The tick alarm goes off before the deadline, which has not changed since
+                if (tick != null) tick.update();
+                if (done != null) done.run();
+            }
+        });
+    }
+
+    /**
+     * HabitReminderService started; {@code stop} is run, on the worker
+     * thread, as soon as no reminder is near or the alarm mode is not tick.
+     */
+    void hostStarted(final Runnable stop) {
+        worker.execute(new ReminderWorker.Command() {
+            @Override
+            public void run(ReminderScheduler scheduler) {
+                if (tick != null) {
+                    tick.hostStarted(stop);
+                } else {
+                    stop.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * HabitReminderService was destroyed.
+     */
+    void hostStopped() {
+        worker.execute(new ReminderWorker.Command() {
+            @Override
+            public void run(ReminderScheduler scheduler) {
+                if (tick != null) tick.hostStopped();
+            }
+        });
+    }
+
+    /**
+     * HabitReminderService could not go to the foreground; the tick mode
+     * delivers on alarms at the deadlines instead.
+     */
+    void hostRefused() {
+        worker.execute(new ReminderWorker.Command() {
+            @Override
+            public void run(ReminderScheduler scheduler) {
+                if (tick != null) tick.hostRefused();
+            }
+        });
+    }
+
+    int pendingReminderCount() {
+        return worker.snapshot().size;
+    }
+
+    /**
+     * Waits for the commands queued so far; for tests.
+     */
+    boolean awaitIdle(long timeoutMs) throws InterruptedException {
+        return worker.flush(timeoutMs);
+    }
+
+    private void showDueReminders(List<ScheduledReminder> due, long now) {
+        List<ScheduledReminder> shown = new ArrayList<>(due.size());
+        try {
+            engine.deliver(due, now, shown);
+        } catch (IOException e) {
+            android.util.Log.e("ReminderRuntime", "Cannot store next occurrences", e);
+        }
+        postReminders(ReminderNotifier.coalescer(context).coalesce(shown, now));
+    }
+
+    private void postReminders(NotificationCoalescer.Batch batch) {
+        ReminderNotifier.post(context, NotificationFactory.CHANNEL_REMINDERS, SUMMARY_NOTIFICATION_ID, batch,
+                new ReminderNotifier.GroupContent() {
+            @Override
+            public NotificationCompat.Builder build(NotificationCoalescer.HabitGroup group) {
+                ScheduledReminder reminder = group.latest();
+                return reminder.isNotification() ? buildNotification(reminder) : buildHabitNotification(reminder);
+            }
+
+            @Override
+            public int notificationId(NotificationCoalescer.HabitGroup group) {
+                return group.latest().isNotification() ? group.habitId() : NOTIFICATION_ID_BASE + group.habitId();
+            }
+
+            @Override
+            public CharSequence summaryLine(NotificationCoalescer.HabitGroup group) {
+                return group.latest().habitName + ": " + group.latest().message;
+            }
+        });
+    }
+
+    private NotificationCompat.Builder buildNotification(ScheduledReminder reminder) {
+        NotificationFactory factory = NotificationFactory.get(context);
+        return factory.builder(NotificationFactory.CHANNEL_REMINDERS)
+            .setContentTitle(reminder.habitName)
+            .setContentText(reminder.message)
+            .setContentIntent(factory.contentIntent(reminder.habitId, NotificationFactory.NO_HABIT))
+            .setVibrate(REMINDER_VIBRATION);
+    }
+
+    private NotificationCompat.Builder buildHabitNotification(ScheduledReminder reminder) {
+        NotificationFactory factory = NotificationFactory.get(context);
+
+        // Complete action
+        Intent completeIntent = new Intent(context, NotificationActionReceiver.class);
+        completeIntent.setAction("COMPLETE_HABIT");
+        completeIntent.putExtra("habitId", reminder.habitId);
+        completeIntent.putExtra("reminderId", reminder.id);
+        PendingIntent completePendingIntent = PendingIntent.getBroadcast(
+            context, reminder.habitId * 100, completeIntent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+
+        // Snooze action
+        Intent snoozeIntent = new Intent(context, NotificationActionReceiver.class);
+        snoozeIntent.setAction("SNOOZE_HABIT");
+        snoozeIntent.putExtra("habitId", reminder.habitId);
+        snoozeIntent.putExtra("reminderId", reminder.id);
+        PendingIntent snoozePendingIntent = PendingIntent.getBroadcast(
+            context, reminder.habitId * 100 + 1, snoozeIntent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+
+        return factory.builder(NotificationFactory.CHANNEL_REMINDERS)
+            .setContentTitle("🔔 " + reminder.habitName)
+            .setContentText(reminder.message)
+            .setStyle(new NotificationCompat.BigTextStyle()
+                .bigText(reminder.message))
+            .setContentIntent(factory.contentIntent(reminder.habitId, reminder.habitId))
+            .setVibrate(HABIT_VIBRATION)
+            .setLights(0xFF0000FF, 1000, 1000)
+            .addAction(android.R.drawable.ic_menu_save, "Mark Complete", completePendingIntent)
+            .addAction(android.R.drawable.ic_menu_recent_history, "Remind Later", snoozePendingIntent);
+    }
+}
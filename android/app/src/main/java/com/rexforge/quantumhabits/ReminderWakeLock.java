@@ -0,0 +1,48 @@
+package com.rexforge.quantumhabits;
+
+import android.content.Context;
+import android.os.PowerManager;
+import android.os.SystemClock;
+
+/**
+ * The process-wide {@link WakeLockManager}, backed by a single partial wake
+ * lock that is not reference counted by the platform.
+ */
+public final class ReminderWakeLock {
+    private static final String TAG = "QuantumHabits:reminder";
+
+    private static WakeLockManager instance;
+
+    private ReminderWakeLock() {
+    }
+
+    public static synchronized WakeLockManager get(Context context) {
+        if (instance == null) {
+            PowerManager pm = (PowerManager) context.getApplicationContext().getSystemService(Context.POWER_SERVICE);
+            final PowerManager.WakeLock wakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+            wakeLock.setReferenceCounted(false);
+            instance = new WakeLockManager(new WakeLockManager.Lock() {
+                @Override
+                public void acquire(long timeoutMs) {
+                    wakeLock.acquire(timeoutMs);
+                }
+
+                @Override
+                public void release() {
+                    wakeLock.release();
+                }
+
+                @Override
+                public boolean isHeld() {
+                    return wakeLock.isHeld();
+                }
+            }, new WakeLockManager.Clock() {
+                @Override
+                public long elapsedRealtime() {
+                    return SystemClock.elapsedRealtime();
+                }
+            }, SchedulerMetrics.get());
+        }
+        return instance;
+    }
+}
@@ -0,0 +1,162 @@
+package com.rexforge.quantumhabits;
+
+import android.Manifest;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.os.Build;
+
+/**
+ * Runs {@link HabitReminderService} in the foreground only while a reminder
+ * is due within {@link #TICK_LEAD_MS}, so the engine's worker delivers it on
+ * its own timer. Longer waits are left to a single alarm shortly before the
+ * deadline, and the service stops itself once nothing is near, letting the
+ * process go; the schedule is back from the engine's store when it returns.
+ *
+ * From Android 12 the app may only start the service from the background
+ * while it handles an exact alarm, so the alarm before the deadline is an
+ * exact one and {@link ReminderReceiver} starts the service before it
+ * finishes. Without exact alarms, without the special-use service
+ * permission on Android 14, or once the system refused the service, the
+ * alarm goes off at the deadline itself and delivers the way
+ * {@link NextAlarmBackend} does.
+ */
+class TickBackend implements ReminderEngine.Backend {
+    static final String ACTION_TICK_ALARM = "com.rexforge.quantumhabits.REMINDER_TICK";
+    // Reminders due within this keep the service running; later ones wait on the alarm
+    static final long TICK_LEAD_MS = 5 * 60 * 1000L;
+    // Request code of the alarm, next to the one of NextAlarmBackend
+    private static final int ALARM_REQUEST_CODE = Integer.MAX_VALUE - 2;
+
+    private final Context context;
+    private final ReminderClock clock;
+    private final AlarmManager alarmManager;
+    private long deadline = ReminderScheduler.NO_DEADLINE;
+    // Stops the running service; null while it is not running
+    private Runnable stopHost;
+    // Asked the system for the service, which has not reported back yet
+    private boolean starting;
+    // The system would not run the service; alarms deliver until the mode is set again or the process restarts
+    private boolean refused;
+
+    TickBackend(Context context, ReminderClock clock) {
+        this.context = context;
+        this.clock = clock;
+        alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+    }
+
+    @Override
+    public void scheduled(ScheduledReminder reminder) {
+    }
+
+    @Override
+    public void removed(String id) {
+    }
+
+    @Override
+    public void deadlineChanged(long deadline) {
+        this.deadline = deadline;
+        update();
+    }
+
+    /**
+     * The service is running; {@code stop} stops it again.
+     */
+    void hostStarted(Runnable stop) {
+        starting = false;
+        refused = false;
+        stopHost = stop;
+        update();
+    }
+
+    /**
+     * The service could not go to the foreground and has stopped.
+     */
+    void hostRefused() {
+        starting = false;
+        refused = true;
+        update();
+    }
+
+    /**
+     * The service was destroyed, by itself or by the system; the next
+     * update starts it again when a reminder is near. Until then the alarm
+     * at the deadline delivers.
+     */
+    void hostStopped() {
+        starting = false;
+        stopHost = null;
+    }
+
+    /**
+     * Starts the service when the deadline is near, otherwise stops it and
+     * sets the alarm for shortly before the deadline.
+     */
+    void update() {
+        if (deadline == ReminderScheduler.NO_DEADLINE) {
+            alarmManager.cancel(alarmIntent());
+            stopHost();
+            return;
+        }
+        if (refused || !canHost()) {
+            ReminderPlugin.setWakeupAlarm(alarmManager, deadline, alarmIntent());
+            stopHost();
+            return;
+        }
+        if (deadline - clock.currentTimeMillis() > TICK_LEAD_MS) {
+            // Only an exact alarm lets the receiver start the service from the background
+            alarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, deadline - TICK_LEAD_MS, alarmIntent());
+            stopHost();
+            return;
+        }
+        // Delivers the reminder if the service cannot start or dies with the process
+        ReminderPlugin.setWakeupAlarm(alarmManager, deadline, alarmIntent());
+        if (stopHost == null && !starting) startHost();
+    }
+
+    private void startHost() {
+        Intent serviceIntent = new Intent(context, HabitReminderService.class);
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                context.startForegroundService(serviceIntent);
+            } else {
+                context.startService(serviceIntent);
+            }
+            starting = true;
+        } catch (IllegalStateException e) {
+            // Not allowed from the background right now; the alarm at the deadline delivers instead
+            android.util.Log.w("TickBackend", "Cannot start reminder service", e);
+            refused = true;
+        }
+    }
+
+    private boolean canHost() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S && !alarmManager.canScheduleExactAlarms()) {
+            return false;
+        }
+        // Android 14 only runs a special-use service with its permission, on top of the type in the manifest
+        return Build.VERSION.SDK_INT < Build.VERSION_CODES.UPSIDE_DOWN_CAKE
+            || context.checkSelfPermission(Manifest.permission.FOREGROUND_SERVICE_SPECIAL_USE)
+                == PackageManager.PERMISSION_GRANTED;
+    }
+
+    private void stopHost() {
+        if (stopHost == null) return;
+        Runnable stop = stopHost;
+        stopHost = null;
+        stop.run();
+    }
+
+    private PendingIntent alarmIntent() {
+        Intent intent = new Intent(context, ReminderReceiver.class);
+        intent.setAction(ACTION_TICK_ALARM);
+
+        int flags = PendingIntent.FLAG_UPDATE_CURRENT;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            flags |= PendingIntent.FLAG_IMMUTABLE;
+        }
+        return PendingIntent.getBroadcast(context, ALARM_REQUEST_CODE, intent, flags);
+    }
+}
@@ -0,0 +1,150 @@
+package com.rexforge.quantumhabits;
+
+import static org.junit.Assert.*;
+
+import android.app.AlarmManager;
+import android.app.Application;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Looper;
+import java.io.File;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+import org.robolectric.shadows.ShadowAlarmManager;
+
+@RunWith(RobolectricTestRunner.class)
+public class BootReceiverTest {
+
+    private static final long MINUTE = 60000;
+    // Foreground broadcast timeout; a goAsync() receiver has the same budget
+    private static final long BROADCAST_TIMEOUT_MS = 10000;
+
+    private static ScheduledReminder reminder(int notificationId, long timestamp) {
+        return new ScheduledReminder(ReminderPlugin.reminderId(notificationId), "🎯 Habit " + notificationId,
+            "Time for your habit!", "", timestamp, notificationId, -1);
+    }
+
+    // Future, recently expired and long expired reminders in a 4:1:1 mix
+    private static void fill(ReminderStore store, int from, int count, long now) throws Exception {
+        for (int i = from; i < from + count; i++) {
+            long timestamp;
+            switch (i % 6) {
+                case 4:
+                    timestamp = now - 5 * MINUTE;
+                    break;
+                case 5:
+                    timestamp = now - 120 * MINUTE;
+                    break;
+                default:
+                    timestamp = now + (i + 1) * MINUTE;
+            }
+            store.put(reminder(i + 1, timestamp));
+        }
+        store.close();
+    }
+
+    @Test
+    public void rehydratesFiveThousandRemindersWithOneAlarm() throws Exception {
+        Application app = RuntimeEnvironment.getApplication();
+        // Boot time ahead of the clock, so the worker leaves fast-forwarded reminders queued
+        long now = System.currentTimeMillis() + 60 * MINUTE;
+        // The two stores of older versions, moved into the runtime's store on first load
+        fill(ReminderStore.open(new File(app.getFilesDir(), "alarm_queue")), 0, 3000, now);
+        fill(ReminderStore.open(new File(app.getFilesDir(), "exact_alarms")), 3000, 2000, now);
+
+        long start = System.nanoTime();
+        BootReceiver.rehydrate(app, now, null);
+        ReminderRuntime runtime = ReminderRuntime.get(app);
+        assertTrue(runtime.awaitIdle(BROADCAST_TIMEOUT_MS));
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        assertTrue("took " + elapsedMs + "ms", elapsedMs < BROADCAST_TIMEOUT_MS / 4);
+        // One in six reminders expired too long ago and is dropped
+        assertEquals(5000 - 5000 / 6, runtime.pendingReminderCount(), 1);
+        assertFalse(new File(app.getFilesDir(), "exact_alarms").exists());
+
+        ShadowAlarmManager alarms = Shadows.shadowOf((AlarmManager) app.getSystemService(Context.ALARM_SERVICE));
+        assertEquals(1, alarms.getScheduledAlarms().size());
+        // Recently expired reminders are fast-forwarded to boot time
+        assertEquals(now, alarms.getNextScheduledAlarm().getTriggerAtMs());
+    }
+
+    @Test
+    public void repeatingRemindersMoveOnInsteadOfBeingDropped() throws Exception {
+        Application app = RuntimeEnvironment.getApplication();
+        long now = System.currentTimeMillis() + 60 * MINUTE;
+        app.getSharedPreferences("habit_reminders", Context.MODE_PRIVATE)
+            .edit()
+            .putString("recurrence_rules", "habit-1-reminder-0-interval|1|"
+                + RecurrenceRule.interval(0, 1430, 10, ZoneOffset.UTC).encode() + ";")
+            .commit();
+        ReminderRuntime runtime = ReminderRuntime.get(app);
+        runtime.schedule(new ScheduledReminder("habit-1-reminder-0-interval", "Read", "Time to read", "#3b82f6",
+            now - 120 * MINUTE, 1, 0));
+        runtime.schedule(new ScheduledReminder("habit-2-reminder-0-time-0", "Run", "Time to run", "#3b82f6",
+            now - 120 * MINUTE, 2, 0));
+        assertTrue(runtime.awaitIdle(5000));
+
+        BootReceiver.rehydrate(app, now, null);
+        assertTrue(runtime.awaitIdle(5000));
+
+        // The one-off reminder expired too long ago; the repeating one is due again within the grace period
+        assertEquals(1, runtime.pendingReminderCount());
+        long next = Shadows.shadowOf((AlarmManager) app.getSystemService(Context.ALARM_SERVICE))
+            .getNextScheduledAlarm().getTriggerAtMs();
+        assertTrue(next >= now - ScheduleRehydrator.DEFAULT_GRACE_MS && next <= now + 10 * MINUTE);
+    }
+
+    @Test
+    public void bootBroadcastReArmsTheScheduleTheDeviceForgot() throws Exception {
+        Application app = RuntimeEnvironment.getApplication();
+        final long boot = System.currentTimeMillis() + 60 * MINUTE;
+        final long[] now = {boot - 60 * MINUTE};
+        ReminderRuntime runtime = ReminderRuntime.get(app, new ReminderClock() {
+            @Override
+            public long currentTimeMillis() {
+                return now[0];
+            }
+
+            @Override
+            public ZoneId zone() {
+                return ZoneOffset.UTC;
+            }
+        });
+        runtime.schedule(reminder(1, boot + 30 * MINUTE));
+        runtime.schedule(reminder(2, boot - 5 * MINUTE));
+        assertTrue(runtime.awaitIdle(5000));
+
+        // A reboot clears every alarm; the second reminder came due while the device was off
+        AlarmManager alarmManager = (AlarmManager) app.getSystemService(Context.ALARM_SERVICE);
+        ShadowAlarmManager alarms = Shadows.shadowOf(alarmManager);
+        for (ShadowAlarmManager.ScheduledAlarm alarm : alarms.getScheduledAlarms()) {
+            alarmManager.cancel(alarm.operation);
+        }
+        assertEquals(0, alarms.getScheduledAlarms().size());
+        now[0] = boot;
+
+        app.registerReceiver(new BootReceiver(), new IntentFilter(Intent.ACTION_BOOT_COMPLETED),
+            Context.RECEIVER_EXPORTED);
+        app.sendBroadcast(new Intent(Intent.ACTION_BOOT_COMPLETED));
+        Shadows.shadowOf(Looper.getMainLooper()).idle();
+        assertTrue(runtime.awaitIdle(BROADCAST_TIMEOUT_MS));
+        // The worker's own timer may not have come round yet
+        runtime.fire(null);
+        assertTrue(runtime.awaitIdle(5000));
+
+        // Fast-forwarded to boot time by the runtime's clock and shown, the other one re-armed
+        assertEquals(1, runtime.pendingReminderCount());
+        NotificationManager notifications = (NotificationManager) app.getSystemService(Context.NOTIFICATION_SERVICE);
+        assertFalse(Shadows.shadowOf(notifications).getAllNotifications().isEmpty());
+        assertEquals(1, alarms.getScheduledAlarms().size());
+        assertEquals(boot + 30 * MINUTE, alarms.getNextScheduledAlarm().getTriggerAtMs());
+    }
+}
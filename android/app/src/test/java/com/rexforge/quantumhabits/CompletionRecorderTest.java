@@ -0,0 +1,72 @@
+package com.rexforge.quantumhabits;
+
+import static org.junit.Assert.*;
+
+import android.app.Application;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+@RunWith(RobolectricTestRunner.class)
+public class CompletionRecorderTest {
+
+    private static final class TestClock implements ReminderClock {
+        volatile long now;
+        final ZoneId zone;
+
+        TestClock(long now, ZoneId zone) {
+            this.now = now;
+            this.zone = zone;
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return now;
+        }
+
+        @Override
+        public ZoneId zone() {
+            return zone;
+        }
+    }
+
+    // Monday 2024-03-04 23:30 UTC, already Tuesday at UTC+14
+    private static final long LATE_MONDAY_UTC = 1709595000000L;
+    private static final long MONDAY = LocalDate.of(2024, 3, 4).toEpochDay();
+    private static final long TUESDAY = MONDAY + 1;
+
+    @Test
+    public void bucketsCompletionsByTheClockZone() throws Exception {
+        Application app = RuntimeEnvironment.getApplication();
+        TestClock clock = new TestClock(LATE_MONDAY_UTC, ZoneId.of("Pacific/Kiritimati"));
+        CompletionRecorder recorder = CompletionRecorder.get(app, clock);
+
+        assertEquals(1, recorder.record(5, clock.now));
+
+        assertTrue(recorder.history().isSet(5, TUESDAY));
+        assertFalse(recorder.history().isSet(5, MONDAY));
+        assertEquals(TUESDAY, recorder.today());
+        assertEquals(1, recorder.history().currentStreak(5, recorder.today()));
+    }
+
+    @Test
+    public void daysFollowTheSimulatedClock() throws Exception {
+        Application app = RuntimeEnvironment.getApplication();
+        TestClock clock = new TestClock(LATE_MONDAY_UTC, ZoneId.of("UTC"));
+        CompletionRecorder recorder = CompletionRecorder.get(app, clock);
+
+        recorder.record(5, clock.now);
+        // Forty minutes later it is Tuesday in UTC too
+        clock.now += 40 * 60000L;
+        recorder.record(5, clock.now);
+
+        assertEquals(TUESDAY, recorder.today());
+        assertTrue(recorder.history().isSet(5, MONDAY));
+        assertTrue(recorder.history().isSet(5, TUESDAY));
+        assertEquals(2, recorder.history().currentStreak(5, recorder.today()));
+        assertEquals(2, recorder.count(5));
+    }
+}
@@ -0,0 +1,215 @@
+package com.rexforge.quantumhabits;
+
+import static org.junit.Assert.*;
+
+import android.Manifest;
+import android.app.AlarmManager;
+import android.app.Application;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.content.Intent;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+import org.robolectric.android.controller.ServiceController;
+import org.robolectric.shadows.ShadowAlarmManager;
+
+@RunWith(RobolectricTestRunner.class)
+public class HabitReminderServiceTest {
+
+    private static final long MINUTE = 60000;
+
+    private static final class TestClock implements ReminderClock {
+        volatile long now;
+
+        TestClock(long now) {
+            this.now = now;
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return now;
+        }
+
+        @Override
+        public ZoneId zone() {
+            return ZoneOffset.UTC;
+        }
+    }
+
+    private static ShadowAlarmManager alarms(Application app) {
+        return Shadows.shadowOf((AlarmManager) app.getSystemService(Context.ALARM_SERVICE));
+    }
+
+    // What the installed app has on Android 14: exact alarms and the special-use service permission
+    private static ReminderRuntime tickRuntime(Application app, TestClock clock) throws Exception {
+        ShadowAlarmManager.setCanScheduleExactAlarms(true);
+        Shadows.shadowOf(app).grantPermissions(Manifest.permission.FOREGROUND_SERVICE_SPECIAL_USE);
+        ReminderRuntime runtime = ReminderRuntime.get(app, clock);
+        runtime.setMode(ReminderRuntime.MODE_TICK);
+        assertTrue(runtime.awaitIdle(5000));
+        return runtime;
+    }
+
+    // What the system does with the intent TickBackend started the service with
+    private static HabitReminderService startService(Application app, ReminderRuntime runtime) throws Exception {
+        ServiceController<HabitReminderService> controller = Robolectric.buildService(HabitReminderService.class,
+            new Intent(app, HabitReminderService.class));
+        HabitReminderService service = controller.create().startCommand(0, 1).get();
+        assertTrue(runtime.awaitIdle(5000));
+        return service;
+    }
+
+    @Test
+    public void stopsItselfWithAnEmptySchedule() throws Exception {
+        Application app = RuntimeEnvironment.getApplication();
+        ReminderRuntime runtime = tickRuntime(app, new TestClock(1_700_000_000_000L));
+
+        HabitReminderService service = startService(app, runtime);
+
+        assertTrue(Shadows.shadowOf(service).isStoppedBySelf());
+        assertNull(Shadows.shadowOf(app).getNextStartedService());
+        assertEquals(0, alarms(app).getScheduledAlarms().size());
+    }
+
+    @Test
+    public void waitsForAFarReminderOnAnAlarmAndComesBackOnTime() throws Exception {
+        Application app = RuntimeEnvironment.getApplication();
+        TestClock clock = new TestClock(1_700_000_000_000L);
+        ReminderRuntime runtime = tickRuntime(app, clock);
+        long at = clock.now + 180 * MINUTE;
+        runtime.schedule(new ScheduledReminder("habit-1-reminder-0-time-0", "Read", "Time to read", "#fff", at, 1, 0));
+        assertTrue(runtime.awaitIdle(5000));
+
+        // Three hours out: no service, and one alarm shortly before the reminder
+        assertNull(Shadows.shadowOf(app).getNextStartedService());
+        assertEquals(1, alarms(app).getScheduledAlarms().size());
+        ShadowAlarmManager.ScheduledAlarm alarm = alarms(app).getNextScheduledAlarm();
+        assertEquals(at - TickBackend.TICK_LEAD_MS, alarm.getTriggerAtMs());
+        // Only an exact alarm lets the receiver start the service from the background
+        assertEquals(ShadowAlarmManager.WINDOW_EXACT, alarm.getWindowLengthMs());
+        assertEquals(TickBackend.ACTION_TICK_ALARM,
+            Shadows.shadowOf(alarm.operation).getSavedIntent().getAction());
+        // A service left over from before stops right away
+        assertTrue(Shadows.shadowOf(startService(app, runtime)).isStoppedBySelf());
+
+        // What ReminderReceiver does when the alarm goes off
+        clock.now = alarm.getTriggerAtMs();
+        runtime.fire(null);
+        assertTrue(runtime.awaitIdle(5000));
+        assertEquals(HabitReminderService.class.getName(),
+            Shadows.shadowOf(app).getNextStartedService().getComponent().getClassName());
+        // The alarm stays as a fallback at the deadline itself
+        assertEquals(at, alarms(app).getNextScheduledAlarm().getTriggerAtMs());
+
+        HabitReminderService service = startService(app, runtime);
+        assertFalse(Shadows.shadowOf(service).isStoppedBySelf());
+
+        // The worker's timer delivers on time, then the idle service stops itself
+        clock.now = at;
+        runtime.fire(null);
+        assertTrue(runtime.awaitIdle(5000));
+        assertEquals(0, runtime.pendingReminderCount());
+        assertTrue(Shadows.shadowOf(service).isStoppedBySelf());
+        assertEquals(0, alarms(app).getScheduledAlarms().size());
+        NotificationManager notifications = (NotificationManager) app.getSystemService(Context.NOTIFICATION_SERVICE);
+        assertFalse(Shadows.shadowOf(notifications).getAllNotifications().isEmpty());
+    }
+
+    @Test
+    public void startsAgainAfterTheSystemStoppedIt() throws Exception {
+        Application app = RuntimeEnvironment.getApplication();
+        TestClock clock = new TestClock(1_700_000_000_000L);
+        ReminderRuntime runtime = tickRuntime(app, clock);
+        runtime.schedule(new ScheduledReminder("habit-1-reminder-0-time-0", "Read", "Time to read", "#fff",
+            clock.now + 2 * MINUTE, 1, 0));
+        assertTrue(runtime.awaitIdle(5000));
+        assertNotNull(Shadows.shadowOf(app).getNextStartedService());
+        ServiceController<HabitReminderService> controller = Robolectric.buildService(HabitReminderService.class,
+            new Intent(app, HabitReminderService.class));
+        controller.create().startCommand(0, 1);
+        assertTrue(runtime.awaitIdle(5000));
+
+        // Stopped from outside while the reminder is still near
+        controller.destroy();
+        assertTrue(runtime.awaitIdle(5000));
+        runtime.schedule(new ScheduledReminder("habit-2-reminder-0-time-0", "Walk", "Time to walk", "#fff",
+            clock.now + MINUTE, 2, 0));
+        assertTrue(runtime.awaitIdle(5000));
+
+        assertEquals(HabitReminderService.class.getName(),
+            Shadows.shadowOf(app).getNextStartedService().getComponent().getClassName());
+    }
+
+    @Test
+    public void deliversOnAnAlarmAtTheDeadlineWithoutExactAlarms() throws Exception {
+        Application app = RuntimeEnvironment.getApplication();
+        TestClock clock = new TestClock(1_700_000_000_000L);
+        ReminderRuntime runtime = tickRuntime(app, clock);
+        ShadowAlarmManager.setCanScheduleExactAlarms(false);
+        long at = clock.now + 180 * MINUTE;
+        runtime.schedule(new ScheduledReminder("habit-1-reminder-0-time-0", "Read", "Time to read", "#fff", at, 1, 0));
+        assertTrue(runtime.awaitIdle(5000));
+
+        assertEquals(1, alarms(app).getScheduledAlarms().size());
+        assertEquals(at, alarms(app).getNextScheduledAlarm().getTriggerAtMs());
+
+        clock.now = at;
+        runtime.fire(null);
+        assertTrue(runtime.awaitIdle(5000));
+        assertEquals(0, runtime.pendingReminderCount());
+        assertNull(Shadows.shadowOf(app).getNextStartedService());
+        assertEquals(0, alarms(app).getScheduledAlarms().size());
+    }
+
+    @Test
+    public void deliversOnAnAlarmAtTheDeadlineWithoutTheServicePermission() throws Exception {
+        Application app = RuntimeEnvironment.getApplication();
+        TestClock clock = new TestClock(1_700_000_000_000L);
+        ReminderRuntime runtime = tickRuntime(app, clock);
+        Shadows.shadowOf(app).denyPermissions(Manifest.permission.FOREGROUND_SERVICE_SPECIAL_USE);
+        long at = clock.now + 2 * MINUTE;
+        runtime.schedule(new ScheduledReminder("habit-1-reminder-0-time-0", "Read", "Time to read", "#fff", at, 1, 0));
+        assertTrue(runtime.awaitIdle(5000));
+
+        // Near enough for the service, which Android 14 would not run
+        assertNull(Shadows.shadowOf(app).getNextStartedService());
+        assertEquals(at, alarms(app).getNextScheduledAlarm().getTriggerAtMs());
+    }
+
+    @Test
+    public void fallsBackToAlarmsOnceTheServiceIsRefused() throws Exception {
+        Application app = RuntimeEnvironment.getApplication();
+        TestClock clock = new TestClock(1_700_000_000_000L);
+        ReminderRuntime runtime = tickRuntime(app, clock);
+        long at = clock.now + 180 * MINUTE;
+        runtime.schedule(new ScheduledReminder("habit-1-reminder-0-time-0", "Read", "Time to read", "#fff", at, 1, 0));
+        assertTrue(runtime.awaitIdle(5000));
+
+        clock.now = at - TickBackend.TICK_LEAD_MS;
+        runtime.fire(null);
+        assertTrue(runtime.awaitIdle(5000));
+        assertNotNull(Shadows.shadowOf(app).getNextStartedService());
+
+        // What HabitReminderService does when startForeground() throws
+        runtime.hostRefused();
+        assertTrue(runtime.awaitIdle(5000));
+        assertEquals(at, alarms(app).getNextScheduledAlarm().getTriggerAtMs());
+
+        // A later reminder gets its alarm at the deadline, and nobody asks for the service again
+        long later = at + 180 * MINUTE;
+        runtime.schedule(new ScheduledReminder("habit-2-reminder-0-time-0", "Walk", "Time to walk", "#fff", later, 2, 0));
+        clock.now = at;
+        runtime.fire(null);
+        assertTrue(runtime.awaitIdle(5000));
+        assertEquals(1, runtime.pendingReminderCount());
+        assertEquals(1, alarms(app).getScheduledAlarms().size());
+        assertEquals(later, alarms(app).getNextScheduledAlarm().getTriggerAtMs());
+        assertNull(Shadows.shadowOf(app).getNextStartedService());
+    }
+}
@@ -0,0 +1,49 @@
+package com.rexforge.quantumhabits;
+
+import static org.junit.Assert.*;
+
+import android.app.Application;
+import android.app.NotificationManager;
+import android.content.Context;
+import androidx.core.app.NotificationCompat;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+import org.robolectric.shadows.ShadowNotificationManager;
+
+@RunWith(RobolectricTestRunner.class)
+public class NotificationFactoryTest {
+
+    @Test
+    public void createsChannelsOnce() {
+        Application app = RuntimeEnvironment.getApplication();
+        NotificationFactory factory = NotificationFactory.get(app);
+        factory.ensureChannels();
+        factory.ensureChannels();
+
+        ShadowNotificationManager shadow = Shadows.shadowOf(
+            (NotificationManager) app.getSystemService(Context.NOTIFICATION_SERVICE));
+        assertEquals(2, shadow.getNotificationChannels().size());
+    }
+
+    @Test
+    public void reusesContentIntentsAndBuilders() {
+        NotificationFactory factory = NotificationFactory.get(RuntimeEnvironment.getApplication());
+
+        assertSame(factory.contentIntent(42, 7), factory.contentIntent(42, 7));
+        assertNotSame(factory.contentIntent(42, 7), factory.contentIntent(43, 7));
+
+        NotificationCompat.Builder first = factory.builder(NotificationFactory.CHANNEL_REMINDERS);
+        factory.notify(1, first.setContentTitle("first"));
+        NotificationCompat.Builder second = factory.builder(NotificationFactory.CHANNEL_REMINDERS);
+        assertSame(first, second);
+        factory.notify(2, second.setContentTitle("second"));
+
+        ShadowNotificationManager shadow = Shadows.shadowOf(
+            (NotificationManager) RuntimeEnvironment.getApplication().getSystemService(Context.NOTIFICATION_SERVICE));
+        assertEquals(2, shadow.size());
+        assertTrue(factory.postCount() >= 2);
+    }
+}
@@ -0,0 +1,104 @@
+package com.rexforge.quantumhabits;
+
+import static org.junit.Assert.*;
+
+import android.app.AlarmManager;
+import android.app.Application;
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Looper;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+import org.robolectric.shadows.ShadowAlarmManager;
+import org.robolectric.shadows.ShadowNotificationManager;
+
+@RunWith(RobolectricTestRunner.class)
+public class ReminderReceiverTest {
+
+    private static final long MINUTE = 60000;
+
+    // The alarm ReminderPlugin set before reminders went into the shared schedule
+    private static Intent legacyIntent(Context context, int notificationId) {
+        Intent intent = new Intent(context, ReminderReceiver.class);
+        intent.setAction(ExactAlarmBackend.ACTION_REMINDER);
+        intent.putExtra("habitIcon", "📚");
+        intent.putExtra("habitName", "Read");
+        intent.putExtra("message", "");
+        intent.putExtra("notificationId", notificationId);
+        return intent;
+    }
+
+    private static void setLegacyAlarm(Application app, int notificationId, long at) {
+        PendingIntent pendingIntent = PendingIntent.getBroadcast(app, notificationId,
+            legacyIntent(app, notificationId), PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+        ((AlarmManager) app.getSystemService(Context.ALARM_SERVICE))
+            .setAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, at, pendingIntent);
+    }
+
+    // Delivers the alarm's broadcast the way the system does, goAsync() included
+    private static void deliver(Application app, Intent intent) {
+        app.registerReceiver(new ReminderReceiver(), new IntentFilter(ExactAlarmBackend.ACTION_REMINDER),
+            Context.RECEIVER_EXPORTED);
+        app.sendBroadcast(new Intent(intent).setComponent(null));
+        Shadows.shadowOf(Looper.getMainLooper()).idle();
+    }
+
+    private static ShadowNotificationManager notifications(Application app) {
+        return Shadows.shadowOf((NotificationManager) app.getSystemService(Context.NOTIFICATION_SERVICE));
+    }
+
+    @Test
+    public void legacyAlarmIsPostedFromItsExtras() throws Exception {
+        Application app = RuntimeEnvironment.getApplication();
+        ReminderRuntime runtime = ReminderRuntime.get(app);
+
+        deliver(app, legacyIntent(app, 77));
+        assertTrue(runtime.awaitIdle(5000));
+
+        Notification notification = notifications(app).getNotification(77);
+        assertNotNull(notification);
+        assertEquals("📚 Read", notification.extras.getCharSequence(Notification.EXTRA_TITLE).toString());
+        assertEquals("Time for your Read habit!",
+            notification.extras.getCharSequence(Notification.EXTRA_TEXT).toString());
+        assertEquals(0, runtime.pendingReminderCount());
+    }
+
+    @Test
+    public void legacyAlarmOfARescheduledReminderLeavesItToTheSchedule() throws Exception {
+        Application app = RuntimeEnvironment.getApplication();
+        ReminderRuntime runtime = ReminderRuntime.get(app);
+        long at = System.currentTimeMillis() + 60 * MINUTE;
+        runtime.schedule(ReminderPlugin.notificationReminder(77, "📚", "Read", "", at));
+        assertTrue(runtime.awaitIdle(5000));
+
+        deliver(app, legacyIntent(app, 77));
+        assertTrue(runtime.awaitIdle(5000));
+
+        assertNull(notifications(app).getNotification(77));
+        assertEquals(1, runtime.pendingReminderCount());
+    }
+
+    @Test
+    public void cancellingANotificationAlsoCancelsItsLegacyAlarm() throws Exception {
+        Application app = RuntimeEnvironment.getApplication();
+        long at = System.currentTimeMillis() + 60 * MINUTE;
+        setLegacyAlarm(app, 77, at);
+        setLegacyAlarm(app, 78, at);
+        ShadowAlarmManager alarms = Shadows.shadowOf((AlarmManager) app.getSystemService(Context.ALARM_SERVICE));
+        assertEquals(2, alarms.getScheduledAlarms().size());
+
+        // What ReminderPlugin.cancelReminder and scheduleReminder do besides the schedule
+        ReminderPlugin.cancelLegacyAlarm(app, 77);
+        ReminderPlugin.cancelLegacyAlarm(app, 79);
+
+        assertEquals(1, alarms.getScheduledAlarms().size());
+        assertEquals(78, Shadows.shadowOf(alarms.getNextScheduledAlarm().operation).getRequestCode());
+    }
+}
@@ -0,0 +1,222 @@
+package com.rexforge.quantumhabits;
+
+import static org.junit.Assert.*;
+
+import android.app.AlarmManager;
+import android.app.Application;
+import android.content.Context;
+import android.content.SharedPreferences;
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+import org.robolectric.shadows.ShadowAlarmManager;
+
+@RunWith(RobolectricTestRunner.class)
+public class ReminderRuntimeTest {
+
+    private static final long MINUTE = 60000;
+
+    private static ShadowAlarmManager alarms(Application app) {
+        return Shadows.shadowOf((AlarmManager) app.getSystemService(Context.ALARM_SERVICE));
+    }
+
+    @Test
+    public void schedulingTwiceDoesNotDuplicate() throws Exception {
+        Application app = RuntimeEnvironment.getApplication();
+        ReminderRuntime runtime = ReminderRuntime.get(app);
+        long at = System.currentTimeMillis() + 3600000;
+
+        runtime.schedule(new ScheduledReminder("habit-1-reminder-0-time-0", "Read", "Time to read", "#fff", at, 1, 0));
+        runtime.schedule(new ScheduledReminder("habit-1-reminder-0-time-0", "Read", "Time to read", "#fff", at, 1, 0));
+        runtime.schedule(new ScheduledReminder("habit-1-reminder-0-time-1", "Read", "Time to read", "#fff", at, 1, 0));
+
+        assertTrue(runtime.awaitIdle(5000));
+        assertEquals(2, runtime.pendingReminderCount());
+    }
+
+    @Test
+    public void cancelRemovesOnlyThatHabit() throws Exception {
+        Application app = RuntimeEnvironment.getApplication();
+        ReminderRuntime runtime = ReminderRuntime.get(app);
+        long at = System.currentTimeMillis() + 3600000;
+
+        runtime.scheduleAll(new ReminderBatch()
+            .add(new ScheduledReminder("habit-1-reminder-0-time-0", "One", "m", "#fff", at, 1, 0))
+            .add(new ScheduledReminder("habit-1-reminder-0-time-1", "One", "m", "#fff", at + 1, 1, 0))
+            .add(new ScheduledReminder("habit-2-reminder-0-time-0", "Two", "m", "#fff", at, 2, 0)));
+        runtime.cancelHabit(1);
+
+        assertTrue(runtime.awaitIdle(5000));
+        assertEquals(1, runtime.pendingReminderCount());
+    }
+
+    @Test
+    public void thousandRemindersAreOneCommandAndOneAlarm() throws Exception {
+        Application app = RuntimeEnvironment.getApplication();
+        long base = System.currentTimeMillis() + 3600000;
+        ReminderBatch batch = new ReminderBatch();
+        for (int i = 0; i < 1000; i++) {
+            batch.add(new ScheduledReminder("habit-" + (i / 10) + "-reminder-0-interval-" + (i % 10),
+                "Habit " + (i / 10), "Time for your habit!", "#3b82f6", base + i * 60000L, i / 10, 0));
+        }
+
+        ReminderRuntime runtime = ReminderRuntime.get(app);
+        runtime.scheduleAll(batch);
+        assertTrue(runtime.awaitIdle(5000));
+
+        assertEquals(1000, runtime.pendingReminderCount());
+        assertEquals(1, alarms(app).getScheduledAlarms().size());
+        assertEquals(base, alarms(app).getNextScheduledAlarm().getTriggerAtMs());
+    }
+
+    @Test
+    public void batchCancelsBeforeScheduling() throws Exception {
+        Application app = RuntimeEnvironment.getApplication();
+        ReminderRuntime runtime = ReminderRuntime.get(app);
+        long base = System.currentTimeMillis() + 3600000;
+        runtime.scheduleAll(new ReminderBatch()
+            .add(new ScheduledReminder("habit-1-reminder-0-time-0", "One", "m", "#fff", base, 1, 0))
+            .add(new ScheduledReminder("habit-2-reminder-0-time-0", "Two", "m", "#fff", base, 2, 0)));
+        runtime.scheduleAll(new ReminderBatch()
+            .cancelHabit(1)
+            .add(new ScheduledReminder("habit-1-reminder-0-time-1", "One", "m", "#fff", base + 1, 1, 0)));
+
+        assertTrue(runtime.awaitIdle(5000));
+        assertEquals(2, runtime.pendingReminderCount());
+    }
+
+    @Test
+    public void bothPluginsShareOneScheduleAndStore() throws Exception {
+        Application app = RuntimeEnvironment.getApplication();
+        ReminderRuntime runtime = ReminderRuntime.get(app);
+        long at = System.currentTimeMillis() + 3600000;
+
+        // As HabitReminderPlugin and ReminderPlugin hand them over
+        runtime.scheduleAll(new ReminderBatch()
+            .add(new ScheduledReminder("habit-1-reminder-0-time-0", "Read", "Time to read", "#fff", at, 1, 0)));
+        runtime.schedule(new ScheduledReminder(ReminderPlugin.reminderId(123456789), "📚 Read", "Time to read", "",
+            at - MINUTE, 123456789, -1));
+        assertTrue(runtime.awaitIdle(5000));
+
+        assertEquals(2, runtime.pendingReminderCount());
+        assertEquals(1, alarms(app).getScheduledAlarms().size());
+        assertEquals(at - MINUTE, alarms(app).getNextScheduledAlarm().getTriggerAtMs());
+        assertTrue(new File(app.getFilesDir(), "reminders").isDirectory());
+        assertFalse(new File(app.getFilesDir(), "alarm_queue").exists());
+    }
+
+    @Test
+    public void legacyRemindersStayWhenTheStoreCannotOpen() throws Exception {
+        Application app = RuntimeEnvironment.getApplication();
+        SharedPreferences prefs = app.getSharedPreferences("habit_reminders", Context.MODE_PRIVATE);
+        prefs.edit().putString("scheduled_reminders", "[{\"id\":\"habit-1-reminder-0-time-0\","
+            + "\"habitName\":\"Read\",\"message\":\"Time to read\",\"habitColor\":\"#fff\","
+            + "\"timestamp\":" + (System.currentTimeMillis() + 3600000) + ",\"habitId\":1,\"reminderIndex\":0}]")
+            .commit();
+        assertTrue(new File(app.getFilesDir(), "alarm_queue").mkdirs());
+        // A file where the store's directory goes
+        assertTrue(new File(app.getFilesDir(), "reminders").createNewFile());
+
+        ReminderRuntime runtime = ReminderRuntime.get(app);
+        assertTrue(runtime.awaitIdle(5000));
+
+        assertNotNull(prefs.getString("scheduled_reminders", null));
+        assertTrue(new File(app.getFilesDir(), "alarm_queue").isDirectory());
+    }
+
+    @Test
+    public void unreadableLegacyRemindersAreKept() throws Exception {
+        Application app = RuntimeEnvironment.getApplication();
+        SharedPreferences prefs = app.getSharedPreferences("habit_reminders", Context.MODE_PRIVATE);
+        prefs.edit().putString("scheduled_reminders", "[{\"id\":").commit();
+
+        ReminderRuntime runtime = ReminderRuntime.get(app);
+        assertTrue(runtime.awaitIdle(5000));
+
+        assertEquals("[{\"id\":", prefs.getString("scheduled_reminders", null));
+        assertEquals(0, runtime.pendingReminderCount());
+    }
+
+    @Test
+    public void switchingToExactAlarmsMovesEveryReminder() throws Exception {
+        Application app = RuntimeEnvironment.getApplication();
+        ReminderRuntime runtime = ReminderRuntime.get(app);
+        long at = System.currentTimeMillis() + 3600000;
+        for (int i = 1; i <= 3; i++) {
+            runtime.schedule(new ScheduledReminder(ReminderPlugin.reminderId(i), "Habit " + i, "m", "",
+                at + i * MINUTE, i, -1));
+        }
+        assertTrue(runtime.awaitIdle(5000));
+        assertEquals(1, alarms(app).getScheduledAlarms().size());
+
+        runtime.setMode(ReminderRuntime.MODE_EXACT);
+        assertTrue(runtime.awaitIdle(5000));
+        assertEquals(ReminderRuntime.MODE_EXACT, runtime.mode());
+        assertEquals(3, alarms(app).getScheduledAlarms().size());
+
+        runtime.cancel(ReminderPlugin.reminderId(2));
+        assertTrue(runtime.awaitIdle(5000));
+        assertEquals(2, alarms(app).getScheduledAlarms().size());
+
+        runtime.setMode(ReminderRuntime.MODE_NEXT);
+        assertTrue(runtime.awaitIdle(5000));
+        assertEquals(1, alarms(app).getScheduledAlarms().size());
+        assertEquals(at + MINUTE, alarms(app).getNextScheduledAlarm().getTriggerAtMs());
+    }
+
+    @Test
+    public void scheduleDeltaRunsDoneEvenWhenSkipped() throws Exception {
+        Application app = RuntimeEnvironment.getApplication();
+        ReminderRuntime runtime = ReminderRuntime.get(app);
+        byte[] delta = new ScheduleDelta(1)
+            .upsertDaily(7, 0, 0, "Water", "Drink", "#00f", 8 * 60, RecurrenceRule.ALL_DAYS, null)
+            .encode();
+
+        // What FCMService releases its wake lock from; the redelivered delta is stale
+        final AtomicInteger done = new AtomicInteger();
+        Runnable release = new Runnable() {
+            @Override
+            public void run() {
+                done.incrementAndGet();
+            }
+        };
+        runtime.applyDelta(delta, release);
+        runtime.applyDelta(delta, release);
+        assertTrue(runtime.awaitIdle(5000));
+
+        assertEquals(2, done.get());
+        assertEquals(1, runtime.pendingReminderCount());
+    }
+
+    @Test
+    public void scheduleDeltaInvalidatesTheSyncStateOfItsHabits() throws Exception {
+        Application app = RuntimeEnvironment.getApplication();
+        // What HabitReminderPlugin saved after syncing habits 7 and 8
+        ReminderSyncState synced = new ReminderSyncState();
+        synced.begin();
+        for (int habitId = 7; habitId <= 8; habitId++) {
+            synced.startHabit(habitId, habitId);
+            synced.classifyRule(0, 1);
+            synced.endHabit();
+        }
+        synced.finish();
+        SharedPreferences prefs = app.getSharedPreferences("habit_reminders", Context.MODE_PRIVATE);
+        prefs.edit().putString("sync_state", synced.encode()).commit();
+
+        ReminderRuntime runtime = ReminderRuntime.get(app);
+        runtime.applyDelta(new ScheduleDelta(1)
+            .upsertDaily(7, 0, 0, "Water", "Drink", "#00f", 8 * 60, RecurrenceRule.ALL_DAYS, null)
+            .encode(), null);
+        assertTrue(runtime.awaitIdle(5000));
+
+        // The next sync from JS schedules habit 7 again and still skips habit 8
+        ReminderSyncState state = ReminderSyncState.decode(prefs.getString("sync_state", null));
+        state.begin();
+        assertFalse(state.startHabit(7, 7));
+        assertTrue(state.startHabit(8, 8));
+    }
+}
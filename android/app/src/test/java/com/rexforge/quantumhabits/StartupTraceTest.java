@@ -0,0 +1,55 @@
+package com.rexforge.quantumhabits;
+
+import static org.junit.Assert.*;
+
+import android.app.Activity;
+import java.util.concurrent.Executor;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class StartupTraceTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final StartupGraph.Task NO_PLUGINS = new StartupGraph.Task() {
+        @Override
+        public void run() {
+            // The bridge is not started under test
+        }
+    };
+
+    @Test
+    public void onlyPluginsAreOnTheCriticalPath() {
+        Activity activity = Robolectric.buildActivity(Activity.class).create().get();
+
+        // Before: every step ran inside onCreate, ahead of the first frame
+        StartupGraph inline = AppStartup.build(activity, NO_PLUGINS);
+        long start = System.nanoTime();
+        inline.runCritical();
+        inline.runDeferred(DIRECT, DIRECT, null);
+        long inlineMicros = (System.nanoTime() - start) / 1000;
+
+        // After: a later launch, where only the critical steps block the first frame
+        StartupGraph deferred = AppStartup.build(activity, NO_PLUGINS);
+        start = System.nanoTime();
+        deferred.runCritical();
+        long criticalMicros = (System.nanoTime() - start) / 1000;
+        deferred.runDeferred(DIRECT, DIRECT, null);
+
+        assertTrue(criticalMicros < inlineMicros);
+        assertEquals(StartupGraph.DONE, inline.timing(AppStartup.STEP_CHANNELS).state);
+        // Channels already exist from the first launch
+        assertEquals(StartupGraph.SKIPPED, deferred.timing(AppStartup.STEP_CHANNELS).state);
+        assertEquals(StartupGraph.DONE, deferred.timing(AppStartup.STEP_PERMISSIONS).state);
+        // No FirebaseApp under test: the token step fails without blocking the others
+        assertNotEquals(StartupGraph.PENDING, deferred.timing(AppStartup.STEP_FCM_TOKEN).state);
+    }
+}
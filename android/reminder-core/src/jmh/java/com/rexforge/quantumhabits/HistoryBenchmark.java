@@ -0,0 +1,63 @@
+package com.rexforge.quantumhabits;
+
+import java.time.LocalDate;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * What the stats screen asks {@link CompletionHistory} for: streaks and a
+ * 30-day count per habit, and the totals behind a year-long heatmap, over
+ * {@code habits} habits completed on four days in five for five years.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HistoryBenchmark {
+    private static final long TODAY = LocalDate.of(2024, 3, 4).toEpochDay();
+
+    @Param({"30", "300"})
+    public int habits;
+
+    private CompletionHistory history;
+    private final int[] totals = new int[365];
+
+    @Setup
+    public void setUp() {
+        history = new CompletionHistory();
+        Random random = new Random(1);
+        for (int habit = 0; habit < habits; habit++) {
+            for (long day = TODAY - 5 * 365; day <= TODAY; day++) {
+                if (random.nextInt(10) < 8) history.set(habit, day);
+            }
+        }
+    }
+
+    @Benchmark
+    public long stats() {
+        long sum = 0;
+        for (int habit = 0; habit < habits; habit++) {
+            sum += history.currentStreak(habit, TODAY) + history.longestStreak(habit)
+                + history.count(habit, TODAY - 29, TODAY);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int[] heatmap() {
+        history.dailyTotals(TODAY - 364, 365, totals);
+        return totals;
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return history.encode();
+    }
+}
@@ -0,0 +1,120 @@
+package com.rexforge.quantumhabits;
+
+import java.util.concurrent.TimeUnit;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Reading a {@code scheduleHabitReminders} payload of {@code size}
+ * reminders with {@link HabitPayloadReader} against the org.json DOM the
+ * plugin used to build. Run with {@code -prof gc} for the bytes allocated
+ * per read.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PayloadBenchmark {
+    private static final int RULES_PER_HABIT = 2;
+    private static final int TIMES_PER_RULE = 5;
+
+    @Param({"1000", "10000", "50000"})
+    public int size;
+
+    private String json;
+    private final HabitPayloadReader reader = new HabitPayloadReader();
+    // The habit hashes differ between the two (the DOM reorders keys), so they are kept out of the checksum
+    private long hashes;
+
+    @Setup
+    public void setUp() throws JSONException {
+        json = payload(size);
+        if (dom() != streaming()) {
+            throw new IllegalStateException("readers diverged");
+        }
+    }
+
+    /**
+     * What scheduleHabitReminders did before: parse, then read the fields it
+     * schedules from.
+     */
+    @Benchmark
+    public long dom() throws JSONException {
+        long checksum = 0;
+        JSONArray habits = new JSONArray(json);
+        for (int i = 0; i < habits.length(); i++) {
+            JSONObject habit = habits.getJSONObject(i);
+            hashes ^= ReminderSyncState.hash(habit.toString());
+            checksum += habit.getInt("id") + habit.getString("name").length() + habit.optString("color").length();
+            JSONArray rules = habit.optJSONArray("reminders");
+            for (int j = 0; rules != null && j < rules.length(); j++) {
+                JSONObject rule = rules.getJSONObject(j);
+                if (!rule.optBoolean("enabled", false)) continue;
+                checksum += rule.optString("message").length();
+                JSONArray times = rule.getJSONArray("times");
+                for (int k = 0; k < times.length(); k++) {
+                    checksum += RecurrenceRule.parseTime(times.getString(k));
+                }
+            }
+        }
+        return checksum;
+    }
+
+    @Benchmark
+    public long streaming() throws JSONException {
+        final long[] checksum = new long[1];
+        reader.read(json, new HabitPayloadReader.Handler() {
+            @Override
+            public boolean habit(int habitId, long habitHash, String name, String color) {
+                hashes ^= habitHash;
+                checksum[0] += habitId + name.length() + color.length();
+                return true;
+            }
+
+            @Override
+            public void rule(int index, long ruleHash, HabitPayloadReader.Rule rule) {
+                if (!rule.enabled) return;
+                checksum[0] += rule.message.length();
+                for (int k = 0; k < rule.timeCount; k++) {
+                    checksum[0] += rule.times[k];
+                }
+            }
+
+            @Override
+            public void endHabit(int habitId) {
+            }
+        });
+        return checksum[0];
+    }
+
+    private static String payload(int reminders) {
+        int habits = reminders / (RULES_PER_HABIT * TIMES_PER_RULE);
+        StringBuilder json = new StringBuilder("[");
+        for (int h = 0; h < habits; h++) {
+            if (h > 0) json.append(',');
+            json.append("{\"id\":").append(h).append(",\"name\":\"Habit ").append(h)
+                .append("\",\"color\":\"#3b82f6\",\"icon\":\"droplet\",\"reminders\":[");
+            for (int j = 0; j < RULES_PER_HABIT; j++) {
+                if (j > 0) json.append(',');
+                json.append("{\"enabled\":true,\"type\":\"specific\",\"message\":\"Time for your habit!\",\"times\":[");
+                for (int k = 0; k < TIMES_PER_RULE; k++) {
+                    if (k > 0) json.append(',');
+                    int minute = (h * 7 + j * 3 + k * 60) % 1440;
+                    json.append('"').append(minute / 600).append(minute / 60 % 10).append(':')
+                        .append(minute % 60 / 10).append(minute % 10).append('"');
+                }
+                json.append("],\"days\":[1,2,3,4,5]}");
+            }
+            json.append("]}");
+        }
+        return json.append(']').toString();
+    }
+}
@@ -0,0 +1,140 @@
+package com.rexforge.quantumhabits;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Serialization cost of {@code size} reminders: the {@link ReminderStore}
+ * files the service keeps, the {@link ReminderBatch} commands the plugin
+ * sends, and the {@link CompletionJournal} append behind a "done" tap.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PersistenceBenchmark {
+    @Param({"100", "10000", "100000"})
+    public int size;
+
+    private List<ScheduledReminder> reminders;
+    private ScheduledReminder[] moved;
+    private byte[] encodedBatch;
+    private File saveDir;
+    private File loadDir;
+    private File journalDir;
+    private ReminderStore store;
+    private CompletionJournal journal;
+    private final List<ScheduledReminder> loaded = new ArrayList<>();
+    private int cursor;
+    private long timestamp;
+
+    @Setup
+    public void setUp() throws IOException {
+        reminders = ReminderFixtures.reminders(size);
+        moved = new ScheduledReminder[size];
+        for (int i = 0; i < size; i++) {
+            moved[i] = ReminderFixtures.reminder(i, reminders.get(i).timestamp + 3600000L);
+        }
+        encodedBatch = new ReminderBatch().addAll(reminders).encode();
+
+        loadDir = ReminderFixtures.tempDir("reminder-load");
+        ReminderStore written = ReminderStore.open(loadDir);
+        written.putAll(reminders);
+        written.close();
+
+        saveDir = ReminderFixtures.tempDir("reminder-save");
+        store = ReminderStore.open(saveDir);
+        store.putAll(reminders);
+
+        journalDir = ReminderFixtures.tempDir("completions");
+        journal = CompletionJournal.open(journalDir);
+        timestamp = ReminderFixtures.START;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        store.close();
+        journal.close();
+        ReminderFixtures.delete(saveDir);
+        ReminderFixtures.delete(loadDir);
+        ReminderFixtures.delete(journalDir);
+    }
+
+    /**
+     * Replacing every stored reminder, as a full resync does.
+     */
+    @Benchmark
+    public int storeSaveAll() throws IOException {
+        store.clear();
+        store.putAll(reminders);
+        return store.size();
+    }
+
+    /**
+     * Rewriting one stored reminder in place, as each fired reminder does.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int storeUpdate() throws IOException {
+        ScheduledReminder reminder = moved[cursor];
+        if (++cursor == size) {
+            cursor = 0;
+        }
+        reminder.timestamp += 1;
+        store.put(reminder);
+        return store.size();
+    }
+
+    /**
+     * Opening the store and reading everything back, as the service does on start.
+     */
+    @Benchmark
+    public int storeLoad() throws IOException {
+        loaded.clear();
+        ReminderStore opened = ReminderStore.open(loadDir);
+        try {
+            opened.readAll(loaded);
+        } finally {
+            opened.close();
+        }
+        return loaded.size();
+    }
+
+    @Benchmark
+    public int batchEncode() {
+        return new ReminderBatch().addAll(reminders).encode().length;
+    }
+
+    @Benchmark
+    public int batchDecode() throws IOException {
+        return ReminderBatch.decode(encodedBatch).reminders().size();
+    }
+
+    /**
+     * Recording one completion, folding the journal when it asks for it.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int journalAppend() throws IOException {
+        int habitId = cursor;
+        if (++cursor == size) {
+            cursor = 0;
+        }
+        int count = journal.append(habitId / ReminderFixtures.REMINDERS_PER_HABIT, timestamp++, 1);
+        if (journal.needsCompaction()) {
+            journal.compact();
+        }
+        return count;
+    }
+}
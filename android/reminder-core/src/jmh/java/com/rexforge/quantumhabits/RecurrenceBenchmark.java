@@ -0,0 +1,75 @@
+package com.rexforge.quantumhabits;
+
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of computing occurrences from {@link RecurrenceRule}s, which replaced
+ * the per-reminder next-time and interval expansion of the JSON schedule.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RecurrenceBenchmark {
+    private static final String[] ZONES = {"Europe/Berlin", "America/New_York", "Asia/Kolkata", "UTC"};
+    private static final long WEEK_MS = 7 * 24 * 3600000L;
+
+    @Param({"100", "10000", "100000"})
+    public int size;
+
+    private RecurrenceRule[] rules;
+    private final long[] occurrences = new long[7 * 24 * 60];
+    private int cursor;
+    private long after;
+
+    @Setup
+    public void setUp() {
+        ZoneId[] zones = new ZoneId[ZONES.length];
+        for (int i = 0; i < zones.length; i++) {
+            zones[i] = ZoneId.of(ZONES[i]);
+        }
+        rules = new RecurrenceRule[size];
+        for (int i = 0; i < size; i++) {
+            ZoneId zone = zones[i % zones.length];
+            // Two in three rules are daily times, the rest intervals; some skip weekends
+            RecurrenceRule rule = i % 3 == 2
+                ? RecurrenceRule.interval(8 * 60, 20 * 60, 30 + i % 4 * 30, zone)
+                : RecurrenceRule.daily(i * 7 % (24 * 60), zone);
+            rules[i] = i % 5 == 0 ? rule.withDays(0x1f) : rule;
+        }
+        after = ReminderFixtures.START;
+    }
+
+    /**
+     * Next occurrence of one rule, cycling through all of them.
+     */
+    @Benchmark
+    public long next() {
+        RecurrenceRule rule = rules[cursor];
+        if (++cursor == size) {
+            cursor = 0;
+            after += 97 * ReminderFixtures.STEP_MS;
+        }
+        return rule.next(after);
+    }
+
+    /**
+     * A week of occurrences of one rule, as when filling the alarm horizon.
+     */
+    @Benchmark
+    public int nextWeek() {
+        RecurrenceRule rule = rules[cursor];
+        if (++cursor == size) {
+            cursor = 0;
+        }
+        return rule.nextOccurrences(after, after + WEEK_MS, occurrences);
+    }
+}
@@ -0,0 +1,50 @@
+package com.rexforge.quantumhabits;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reminder sets shaped like a real schedule: a few reminders per habit,
+ * one minute apart, sharing the habit's name, message and color.
+ */
+final class ReminderFixtures {
+    static final int REMINDERS_PER_HABIT = 8;
+    static final long STEP_MS = 60000L;
+    // Monday 2024-03-04 00:00 UTC
+    static final long START = 1709510400000L;
+
+    private ReminderFixtures() {
+    }
+
+    static List<ScheduledReminder> reminders(int count) {
+        List<ScheduledReminder> reminders = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            reminders.add(reminder(i, START + i * STEP_MS));
+        }
+        return reminders;
+    }
+
+    static ScheduledReminder reminder(int i, long timestamp) {
+        int habitId = i / REMINDERS_PER_HABIT;
+        int slot = i % REMINDERS_PER_HABIT;
+        return new ScheduledReminder("habit-" + habitId + "-reminder-0-interval-" + slot, "Habit " + habitId,
+            "Time for your habit!", "#3b82f6", timestamp, habitId, 0);
+    }
+
+    static File tempDir(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+}
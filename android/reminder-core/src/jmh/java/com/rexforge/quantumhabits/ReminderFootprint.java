@@ -0,0 +1,51 @@
+package com.rexforge.quantumhabits;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Memory per reminder at 100, 10k and 100k reminders: retained heap of the
+ * {@link ReminderScheduler} (ids and strings included), its own estimate,
+ * and the bytes per reminder of the store files and of a batch command.
+ *
+ * JMH measures time, not retained size, so this is a plain main; run it
+ * with {@code ./gradlew :reminder-core:footprint}.
+ */
+public class ReminderFootprint {
+    private static final int[] SIZES = {100, 10000, 100000};
+
+    public static void main(String[] args) throws IOException {
+        System.out.println("reminders  heap-bytes/rem  estimated-bytes/rem  store-bytes/rem  batch-bytes/rem");
+        for (int size : SIZES) {
+            long before = usedHeap();
+            ReminderScheduler scheduler = new ReminderScheduler();
+            scheduler.scheduleAll(ReminderFixtures.reminders(size));
+            long heap = usedHeap() - before;
+
+            List<ScheduledReminder> reminders = ReminderFixtures.reminders(size);
+            File dir = ReminderFixtures.tempDir("reminder-footprint");
+            long storeBytes;
+            try {
+                ReminderStore store = ReminderStore.open(dir);
+                store.putAll(reminders);
+                storeBytes = store.usedBytes();
+                store.close();
+            } finally {
+                ReminderFixtures.delete(dir);
+            }
+            long batchBytes = new ReminderBatch().addAll(reminders).encode().length;
+
+            System.out.printf("%9d  %14d  %19d  %15d  %15d%n", scheduler.size(), heap / size,
+                scheduler.estimatedBytes() / size, storeBytes / size, batchBytes / size);
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
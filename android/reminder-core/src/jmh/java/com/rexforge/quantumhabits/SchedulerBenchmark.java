@@ -0,0 +1,113 @@
+package com.rexforge.quantumhabits;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Schedule throughput and due-scan latency of {@link ReminderScheduler}
+ * holding {@code size} reminders. Every benchmark leaves the queue at the
+ * same size, so a measurement never drifts towards an empty queue.
+ */
+@State(Scope.Thread)
+public class SchedulerBenchmark {
+    @Param({"100", "10000", "100000"})
+    public int size;
+
+    private List<ScheduledReminder> reminders;
+    // The same reminders an hour later, so upserting one really moves it
+    private ScheduledReminder[] original;
+    private ScheduledReminder[] moved;
+    private ReminderScheduler scheduler;
+    private final List<ScheduledReminder> due = new ArrayList<>();
+    private int cursor;
+    private int pass;
+    private long now;
+
+    @Setup
+    public void setUp() {
+        reminders = ReminderFixtures.reminders(size);
+        original = reminders.toArray(new ScheduledReminder[0]);
+        moved = new ScheduledReminder[size];
+        for (int i = 0; i < size; i++) {
+            moved[i] = ReminderFixtures.reminder(i, original[i].timestamp + 3600000L);
+        }
+        scheduler = new ReminderScheduler();
+        scheduler.scheduleAll(reminders);
+        now = ReminderFixtures.START - ReminderFixtures.STEP_MS;
+    }
+
+    /**
+     * Rescheduling one reminder, as each fired reminder and each edited habit does.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int upsert() {
+        ScheduledReminder reminder = (pass & 1) == 0 ? moved[cursor] : original[cursor];
+        if (++cursor == size) {
+            cursor = 0;
+            pass++;
+        }
+        return scheduler.upsert(reminder);
+    }
+
+    /**
+     * Rebuilding the whole queue, as after a reboot or a full resync.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int scheduleAll() {
+        ReminderScheduler fresh = new ReminderScheduler();
+        fresh.scheduleAll(reminders);
+        return fresh.size();
+    }
+
+    /**
+     * Cancelling one habit, as a habit edit or delete does, and putting its
+     * reminders back for the next call.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int cancelHabit() {
+        int habits = (size + ReminderFixtures.REMINDERS_PER_HABIT - 1) / ReminderFixtures.REMINDERS_PER_HABIT;
+        // Strides across the queue rather than cancelling neighbours
+        int habitId = cursor;
+        cursor = (cursor + 7919) % habits;
+        int count = scheduler.cancelHabit(habitId);
+        int first = habitId * ReminderFixtures.REMINDERS_PER_HABIT;
+        for (int i = first; i < first + count; i++) {
+            scheduler.schedule(original[i]);
+        }
+        return count;
+    }
+
+    /**
+     * One wakeup: advance the clock a step, take what is due and queue its
+     * next occurrence behind everything else.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int pollDue() {
+        now += ReminderFixtures.STEP_MS;
+        due.clear();
+        int count = scheduler.pollDue(now, due);
+        for (int i = 0; i < count; i++) {
+            ScheduledReminder reminder = due.get(i);
+            reminder.timestamp += size * ReminderFixtures.STEP_MS;
+            scheduler.schedule(reminder);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,411 @@
+package com.rexforge.quantumhabits;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Arrays;
+
+/**
+ * Per-habit completion history as a bitset indexed by epoch day: bit
+ * {@code day & 63} of word {@code day >> 6} is set when the habit was done
+ * that day. Each habit only keeps the words between its first and last
+ * completion, so a few years of history are a few dozen longs.
+ *
+ * Streaks, counts and windows work a 64-day word at a time with shifts,
+ * {@link Long#bitCount} and leading/trailing zero counts, so queries cost
+ * microseconds even for multi-year histories.
+ *
+ * The encoding drops runs of empty words:
+ * <pre>
+ *   int magic "QHCH", int version, int habitCount, then per habit:
+ *     int habitId, int firstWord, int wordCount,
+ *     runs of (varint emptyWords, varint literalWords, long[literalWords])
+ *     until wordCount words are covered
+ * </pre>
+ * Thread-safe.
+ */
+public class CompletionHistory {
+    private static final int MAGIC = 0x51484348; // "QHCH"
+    private static final int VERSION = 1;
+    private static final long MILLIS_PER_DAY = 24 * 3600 * 1000L;
+    // Days up to the year 13000, which also bounds a habit to 64k words
+    private static final int MAX_WORDS = 1 << 16;
+    static final long MAX_DAY = MAX_WORDS * 64L - 1;
+
+    private static final class Bits {
+        final int habitId;
+        // Word index of words[0]
+        int firstWord;
+        long[] words;
+
+        Bits(int habitId, int firstWord, long[] words) {
+            this.habitId = habitId;
+            this.firstWord = firstWord;
+            this.words = words;
+        }
+
+        long word(int index) {
+            int i = index - firstWord;
+            return i >= 0 && i < words.length ? words[i] : 0;
+        }
+    }
+
+    private final IntIntMap slots = new IntIntMap();
+    private Bits[] habits = new Bits[16];
+    private int habitCount;
+
+    /**
+     * The local calendar day of {@code timestamp} in {@code zone}, counted from 1970-01-01.
+     */
+    public static long epochDay(long timestamp, ZoneId zone) {
+        int offsetSeconds = zone.getRules().getOffset(Instant.ofEpochMilli(timestamp)).getTotalSeconds();
+        return Math.floorDiv(timestamp + offsetSeconds * 1000L, MILLIS_PER_DAY);
+    }
+
+    public synchronized int size() {
+        return habitCount;
+    }
+
+    public synchronized int[] habitIds() {
+        int[] ids = new int[habitCount];
+        for (int i = 0; i < habitCount; i++) {
+            ids[i] = habits[i].habitId;
+        }
+        return ids;
+    }
+
+    /**
+     * @return true if the day was not marked yet
+     */
+    public synchronized boolean set(int habitId, long epochDay) {
+        int day = checkDay(epochDay);
+        Bits bits = bits(habitId, true);
+        int index = ensureWord(bits, day >> 6);
+        long mask = 1L << day;
+        boolean added = (bits.words[index] & mask) == 0;
+        bits.words[index] |= mask;
+        return added;
+    }
+
+    /**
+     * @return true if the day was marked
+     */
+    public synchronized boolean clear(int habitId, long epochDay) {
+        int day = checkDay(epochDay);
+        Bits bits = bits(habitId, false);
+        if (bits == null) return false;
+        int index = (day >> 6) - bits.firstWord;
+        if (index < 0 || index >= bits.words.length) return false;
+        long mask = 1L << day;
+        boolean removed = (bits.words[index] & mask) != 0;
+        bits.words[index] &= ~mask;
+        return removed;
+    }
+
+    public synchronized boolean isSet(int habitId, long epochDay) {
+        int day = checkDay(epochDay);
+        Bits bits = bits(habitId, false);
+        return bits != null && (bits.word(day >> 6) & (1L << day)) != 0;
+    }
+
+    public synchronized void removeHabit(int habitId) {
+        int slot = slots.remove(habitId);
+        if (slot == IntIntMap.MISSING) return;
+        Bits last = habits[--habitCount];
+        habits[habitCount] = null;
+        if (slot != habitCount) {
+            habits[slot] = last;
+            slots.put(last.habitId, slot);
+        }
+    }
+
+    public synchronized void clear() {
+        slots.clear();
+        Arrays.fill(habits, 0, habitCount, null);
+        habitCount = 0;
+    }
+
+    /**
+     * Consecutive days done up to and including {@code today}; 0 when today
+     * is not done yet.
+     */
+    public synchronized int currentStreak(int habitId, long today) {
+        int day = checkDay(today);
+        Bits bits = bits(habitId, false);
+        if (bits == null) return 0;
+        int word = day >> 6;
+        int bit = day & 63;
+        int streak = 0;
+        while (word >= bits.firstWord) {
+            // Move 'bit' to the top; the bits shifted in count as not done
+            long shifted = bits.word(word) << (63 - bit);
+            int ones = Long.numberOfLeadingZeros(~shifted);
+            if (ones <= bit) return streak + ones;
+            streak += bit + 1;
+            word--;
+            bit = 63;
+        }
+        return streak;
+    }
+
+    public synchronized int longestStreak(int habitId) {
+        Bits bits = bits(habitId, false);
+        if (bits == null) return 0;
+        int best = 0;
+        // Run of done days reaching the top of the previous word
+        int run = 0;
+        for (long word : bits.words) {
+            if (word == -1L) {
+                run += 64;
+                continue;
+            }
+            best = Math.max(best, run + Long.numberOfTrailingZeros(~word));
+            best = Math.max(best, longestRun(word));
+            run = Long.numberOfLeadingZeros(~word);
+        }
+        return Math.max(best, run);
+    }
+
+    /**
+     * Days done from {@code fromDay} to {@code toDay}, both inclusive.
+     */
+    public synchronized int count(int habitId, long fromDay, long toDay) {
+        int from = checkDay(fromDay);
+        int to = checkDay(toDay);
+        Bits bits = bits(habitId, false);
+        if (bits == null || to < from) return 0;
+        int firstWord = from >> 6;
+        int lastWord = to >> 6;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> (63 - (to & 63));
+        if (firstWord == lastWord) return Long.bitCount(bits.word(firstWord) & firstMask & lastMask);
+        int count = Long.bitCount(bits.word(firstWord) & firstMask) + Long.bitCount(bits.word(lastWord) & lastMask);
+        int start = Math.max(firstWord + 1, bits.firstWord);
+        int end = Math.min(lastWord - 1, bits.firstWord + bits.words.length - 1);
+        for (int w = start; w <= end; w++) {
+            count += Long.bitCount(bits.words[w - bits.firstWord]);
+        }
+        return count;
+    }
+
+    public synchronized int total(int habitId) {
+        Bits bits = bits(habitId, false);
+        if (bits == null) return 0;
+        int count = 0;
+        for (long word : bits.words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * Copies {@code days} days from {@code fromDay} into {@code out}, bit
+     * {@code i & 63} of {@code out[i >> 6]} being day {@code fromDay + i}.
+     *
+     * @return the number of words written
+     */
+    public synchronized int window(int habitId, long fromDay, int days, long[] out) {
+        int from = checkDay(fromDay);
+        int wordCount = (days + 63) >> 6;
+        if (out.length < wordCount) throw new IllegalArgumentException("Window needs " + wordCount + " words");
+        Bits bits = bits(habitId, false);
+        int shift = from & 63;
+        int word = from >> 6;
+        for (int i = 0; i < wordCount; i++, word++) {
+            if (bits == null) {
+                out[i] = 0;
+            } else if (shift == 0) {
+                out[i] = bits.word(word);
+            } else {
+                out[i] = (bits.word(word) >>> shift) | (bits.word(word + 1) << (64 - shift));
+            }
+        }
+        int tail = days & 63;
+        if (tail != 0) out[wordCount - 1] &= (1L << tail) - 1;
+        return wordCount;
+    }
+
+    /**
+     * Adds, for every day in the window, the number of habits done that day
+     * to {@code totals}, as a calendar heatmap across all habits.
+     */
+    public synchronized void dailyTotals(long fromDay, int days, int[] totals) {
+        int words = (days + 63) >> 6;
+        long[] window = new long[words];
+        // Bit-sliced counters: plane p holds bit p of every day's count
+        long[][] planes = new long[32 - Integer.numberOfLeadingZeros(habitCount)][words];
+        for (int h = 0; h < habitCount; h++) {
+            window(habits[h].habitId, fromDay, days, window);
+            for (int i = 0; i < words; i++) {
+                long carry = window[i];
+                for (int p = 0; carry != 0; p++) {
+                    long next = planes[p][i] & carry;
+                    planes[p][i] ^= carry;
+                    carry = next;
+                }
+            }
+        }
+        for (int p = 0; p < planes.length; p++) {
+            for (int i = 0; i < words; i++) {
+                long word = planes[p][i];
+                while (word != 0) {
+                    totals[(i << 6) + Long.numberOfTrailingZeros(word)] += 1 << p;
+                    word &= word - 1;
+                }
+            }
+        }
+    }
+
+    public synchronized byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + habitCount * 32);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(habitCount);
+            for (int h = 0; h < habitCount; h++) {
+                Bits bits = habits[h];
+                out.writeInt(bits.habitId);
+                out.writeInt(bits.firstWord);
+                out.writeInt(bits.words.length);
+                int i = 0;
+                while (i < bits.words.length) {
+                    int empty = i;
+                    while (empty < bits.words.length && bits.words[empty] == 0) empty++;
+                    int literal = empty;
+                    while (literal < bits.words.length && bits.words[literal] != 0) literal++;
+                    writeVarint(out, empty - i);
+                    writeVarint(out, literal - empty);
+                    for (int w = empty; w < literal; w++) {
+                        out.writeLong(bits.words[w]);
+                    }
+                    i = literal;
+                }
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // ByteArrayOutputStream does not throw
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static CompletionHistory decode(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (in.readInt() != MAGIC) throw new IOException("Not a completion history");
+        int version = in.readInt();
+        if (version != VERSION) throw new IOException("Unsupported completion history version " + version);
+
+        CompletionHistory history = new CompletionHistory();
+        int count = checkCount(in.readInt(), data.length);
+        for (int h = 0; h < count; h++) {
+            int habitId = in.readInt();
+            int firstWord = in.readInt();
+            // Empty words cost nothing on disk, so bound by the day range instead
+            int wordCount = in.readInt();
+            if (firstWord < 0 || wordCount < 0 || wordCount > MAX_WORDS - firstWord) {
+                throw new IOException("Bad word range " + firstWord + "+" + wordCount);
+            }
+            long[] words = new long[wordCount];
+            int i = 0;
+            while (i < wordCount) {
+                int empty = readVarint(in);
+                int literal = readVarint(in);
+                if (empty < 0 || literal < 0 || empty > wordCount - i || literal > wordCount - i - empty) {
+                    throw new IOException("Bad run for habit " + habitId);
+                }
+                i += empty;
+                for (int w = 0; w < literal; w++) {
+                    words[i++] = in.readLong();
+                }
+            }
+            if (history.slots.containsKey(habitId)) throw new IOException("Duplicate habit " + habitId);
+            history.add(new Bits(habitId, firstWord, words));
+        }
+        if (in.available() != 0) throw new IOException("Trailing bytes in completion history");
+        return history;
+    }
+
+    private static int checkDay(long epochDay) {
+        if (epochDay < 0 || epochDay > MAX_DAY) {
+            throw new IllegalArgumentException("Day out of range: " + epochDay);
+        }
+        return (int) epochDay;
+    }
+
+    private Bits bits(int habitId, boolean create) {
+        int slot = slots.get(habitId);
+        if (slot != IntIntMap.MISSING) return habits[slot];
+        if (!create) return null;
+        Bits bits = new Bits(habitId, 0, new long[0]);
+        add(bits);
+        return bits;
+    }
+
+    private void add(Bits bits) {
+        if (habitCount == habits.length) {
+            habits = Arrays.copyOf(habits, habitCount * 2);
+        }
+        slots.put(bits.habitId, habitCount);
+        habits[habitCount++] = bits;
+    }
+
+    // Grows the habit's words to cover 'word' and returns its index in them
+    private static int ensureWord(Bits bits, int word) {
+        if (bits.words.length == 0) {
+            bits.firstWord = word;
+            bits.words = new long[1];
+            return 0;
+        }
+        int index = word - bits.firstWord;
+        if (index < 0) {
+            long[] grown = new long[bits.words.length - index];
+            System.arraycopy(bits.words, 0, grown, -index, bits.words.length);
+            bits.words = grown;
+            bits.firstWord = word;
+            return 0;
+        }
+        if (index >= bits.words.length) {
+            int grown = Math.max(index + 1, bits.words.length + (bits.words.length >> 1));
+            bits.words = Arrays.copyOf(bits.words, Math.min(grown, MAX_WORDS - bits.firstWord));
+        }
+        return index;
+    }
+
+    private static int longestRun(long word) {
+        int length = 0;
+        while (word != 0) {
+            word &= word << 1;
+            length++;
+        }
+        return length;
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static int checkCount(int count, int limit) throws IOException {
+        // Every habit takes at least a dozen bytes, so this also bounds the allocation
+        if (count < 0 || count > limit) throw new IOException("Bad count " + count);
+        return count;
+    }
+}
@@ -0,0 +1,253 @@
+package com.rexforge.quantumhabits;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Append-only journal of habit completions with folded per-habit counts.
+ *
+ * Two files live in the journal directory:
+ * <ul>
+ *   <li>{@code completions.log} - a header with a generation number followed
+ *   by fixed-width (habitId, delta, timestamp) records. Completing a habit
+ *   appends one record, so concurrent taps never read-modify-write shared
+ *   state on disk.</li>
+ *   <li>{@code completions.dat} - the folded counts as of the end of a given
+ *   journal generation, replaced atomically by {@link #compact()}.</li>
+ * </ul>
+ * Opening loads the snapshot and replays the journal on top of it unless the
+ * snapshot already covers the journal's generation, so a crash between
+ * writing the snapshot and truncating the journal cannot count twice. A torn
+ * record at the end of the journal is dropped.
+ *
+ * Thread-safe; appends and compaction serialize on the journal.
+ */
+public class CompletionJournal implements Closeable {
+    static final String JOURNAL_FILE = "completions.log";
+    static final String SNAPSHOT_FILE = "completions.dat";
+
+    private static final int JOURNAL_MAGIC = 0x5148434C; // "QHCL"
+    private static final int SNAPSHOT_MAGIC = 0x51484353; // "QHCS"
+    private static final int VERSION = 1;
+
+    // Header: magic, version, generation
+    private static final int JOURNAL_HEADER = 16;
+    // Record: habitId, delta, timestamp
+    static final int RECORD_SIZE = 4 + 4 + 8;
+
+    // Fold the journal into the snapshot once it holds this many records
+    private static final int COMPACT_THRESHOLD = 1024;
+
+    private final File dir;
+    private final IntIntMap counts = new IntIntMap();
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private RandomAccessFile journalFile;
+    private FileChannel journal;
+    private long generation;
+    private long journalEnd;
+    private int pendingRecords;
+    private boolean fresh;
+
+    private CompletionJournal(File dir) {
+        this.dir = dir;
+    }
+
+    public static CompletionJournal open(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create completion journal directory " + dir);
+        }
+        CompletionJournal journal = new CompletionJournal(dir);
+        journal.load();
+        return journal;
+    }
+
+    /**
+     * Records a completion (or, with a negative delta, an undo) and returns
+     * the habit's new count. The record reaches the OS before this returns,
+     * so it survives process death; {@link #force()} makes it survive power
+     * loss too.
+     */
+    public synchronized int append(int habitId, long timestamp, int delta) throws IOException {
+        record.clear();
+        record.putInt(habitId).putInt(delta).putLong(timestamp);
+        record.flip();
+        while (record.hasRemaining()) {
+            journalEnd += journal.write(record, journalEnd);
+        }
+        pendingRecords++;
+
+        int count = counts.get(habitId);
+        count = (count == IntIntMap.MISSING ? 0 : count) + delta;
+        counts.put(habitId, count);
+        return count;
+    }
+
+    public synchronized int count(int habitId) {
+        int count = counts.get(habitId);
+        return count == IntIntMap.MISSING ? 0 : count;
+    }
+
+    /**
+     * Folded counts as interleaved (habitId, count) pairs.
+     */
+    public synchronized int[] snapshot() {
+        int[] habitIds = counts.keys();
+        int[] out = new int[habitIds.length * 2];
+        for (int i = 0; i < habitIds.length; i++) {
+            out[2 * i] = habitIds[i];
+            out[2 * i + 1] = counts.get(habitIds[i]);
+        }
+        return out;
+    }
+
+    /**
+     * Journal records not yet folded into the snapshot.
+     */
+    public synchronized int pendingRecords() {
+        return pendingRecords;
+    }
+
+    public synchronized boolean needsCompaction() {
+        return pendingRecords >= COMPACT_THRESHOLD;
+    }
+
+    /**
+     * True when neither a snapshot nor journal records existed at open, so
+     * the caller may {@link #seed(int, int)} counts from an older store.
+     */
+    public synchronized boolean isFresh() {
+        return fresh;
+    }
+
+    /**
+     * Sets a habit's base count; persisted by the next {@link #compact()}.
+     */
+    public synchronized void seed(int habitId, int count) {
+        counts.put(habitId, count);
+        fresh = false;
+    }
+
+    /**
+     * Writes the folded counts to a new snapshot covering the current
+     * generation, then starts the next generation with an empty journal.
+     */
+    public synchronized void compact() throws IOException {
+        File tmp = new File(dir, SNAPSHOT_FILE + ".tmp");
+        int[] pairs = snapshot();
+        try (FileOutputStream file = new FileOutputStream(tmp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(generation);
+            out.writeInt(pairs.length / 2);
+            for (int i = 0; i < pairs.length; i++) {
+                out.writeInt(pairs[i]);
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        if (!tmp.renameTo(new File(dir, SNAPSHOT_FILE))) {
+            throw new IOException("Cannot replace completion snapshot in " + dir);
+        }
+        resetJournal(generation + 1);
+    }
+
+    public synchronized void force() throws IOException {
+        journal.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (journalFile != null) {
+            journal.force(false);
+            journalFile.close();
+            journalFile = null;
+            journal = null;
+        }
+    }
+
+    private void load() throws IOException {
+        long covered = readSnapshot();
+
+        journalFile = new RandomAccessFile(new File(dir, JOURNAL_FILE), "rw");
+        journal = journalFile.getChannel();
+        ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER);
+        boolean valid = journal.size() >= JOURNAL_HEADER && journal.read(header, 0) == JOURNAL_HEADER
+            && header.getInt(0) == JOURNAL_MAGIC && header.getInt(4) == VERSION;
+        if (!valid || header.getLong(8) <= covered) {
+            // Missing, unreadable, or already folded into the snapshot
+            fresh = covered < 0;
+            resetJournal(covered + 1);
+            return;
+        }
+
+        generation = header.getLong(8);
+        long records = (journal.size() - JOURNAL_HEADER) / RECORD_SIZE;
+        journalEnd = JOURNAL_HEADER + records * RECORD_SIZE;
+        // Drop a record torn by a crash mid-write
+        journal.truncate(journalEnd);
+        replay();
+        pendingRecords = (int) records;
+        fresh = covered < 0 && records == 0;
+    }
+
+    private long readSnapshot() throws IOException {
+        File file = new File(dir, SNAPSHOT_FILE);
+        if (!file.isFile()) return -1;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != VERSION) return -1;
+            long covered = in.readLong();
+            int entries = in.readInt();
+            for (int i = 0; i < entries; i++) {
+                counts.put(in.readInt(), in.readInt());
+            }
+            return covered;
+        }
+    }
+
+    private void replay() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 256);
+        long position = JOURNAL_HEADER;
+        while (position < journalEnd) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), journalEnd - position));
+            while (buffer.hasRemaining()) {
+                int read = journal.read(buffer, position + buffer.position());
+                if (read < 0) throw new IOException("Completion journal shrank while reading");
+            }
+            buffer.flip();
+            while (buffer.remaining() >= RECORD_SIZE) {
+                int habitId = buffer.getInt();
+                int delta = buffer.getInt();
+                buffer.getLong(); // timestamp
+                int count = counts.get(habitId);
+                counts.put(habitId, (count == IntIntMap.MISSING ? 0 : count) + delta);
+            }
+            position += buffer.limit();
+        }
+    }
+
+    private void resetJournal(long nextGeneration) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER);
+        header.putInt(JOURNAL_MAGIC).putInt(VERSION).putLong(nextGeneration);
+        header.flip();
+        journal.truncate(0);
+        while (header.hasRemaining()) {
+            journal.write(header, header.position());
+        }
+        journal.force(false);
+        generation = nextGeneration;
+        journalEnd = JOURNAL_HEADER;
+        pendingRecords = 0;
+    }
+}
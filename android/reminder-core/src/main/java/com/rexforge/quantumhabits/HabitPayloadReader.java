@@ -0,0 +1,241 @@
+package com.rexforge.quantumhabits;
+
+import org.json.JSONException;
+
+/**
+ * Streams the habits JSON sent by {@code scheduleHabitReminders} into a
+ * {@link Handler} without building a DOM.
+ *
+ * Each habit is first skipped over once to hash its text, so an unchanged
+ * habit costs one scan and no allocation beyond its name and color. Only
+ * when the handler wants the habit's rules are they read, one at a time
+ * into a single reused {@link Rule}.
+ */
+public class HabitPayloadReader {
+    public static final int TYPE_OTHER = 0;
+    public static final int TYPE_SPECIFIC = 1;
+    public static final int TYPE_INTERVAL = 2;
+
+    private static final String DEFAULT_COLOR = "#3b82f6";
+    private static final String DEFAULT_MESSAGE = "Time for your habit!";
+
+    private static final String[] HABIT_FIELDS = {"id", "name", "color", "reminders"};
+    private static final String[] RULE_FIELDS = {
+        "enabled", "type", "message", "times", "startTime", "endTime", "interval", "days"};
+
+    /**
+     * One reminder rule of a habit. Reused for every rule; copy what you keep.
+     */
+    public static final class Rule {
+        public boolean enabled;
+        public int type;
+        public String message;
+        // Minutes of the day, -1 for times that do not parse
+        public int[] times = new int[4];
+        public int timeCount;
+        public int startMinute;
+        public int endMinute;
+        public int intervalMinutes;
+        // RecurrenceRule day mask
+        public int days;
+
+        void reset() {
+            enabled = false;
+            type = TYPE_SPECIFIC;
+            message = DEFAULT_MESSAGE;
+            timeCount = 0;
+            startMinute = 9 * 60;
+            endMinute = 18 * 60;
+            intervalMinutes = 120;
+            days = RecurrenceRule.ALL_DAYS;
+        }
+
+        void addTime(int minute) {
+            if (timeCount == times.length) {
+                times = java.util.Arrays.copyOf(times, timeCount * 2);
+            }
+            times[timeCount++] = minute;
+        }
+    }
+
+    public interface Handler {
+        /**
+         * @param habitHash hash of the habit's JSON text
+         * @return true to read the habit's rules, false to skip them
+         */
+        boolean habit(int habitId, long habitHash, String name, String color) throws JSONException;
+
+        /**
+         * @param index position in the habit's reminders array
+         * @param ruleHash hash of the rule's JSON text and the habit's name and color
+         */
+        void rule(int index, long ruleHash, Rule rule) throws JSONException;
+
+        /**
+         * Called after the rules of a habit for which {@link #habit} returned true.
+         */
+        void endHabit(int habitId) throws JSONException;
+    }
+
+    private final Rule rule = new Rule();
+
+    /**
+     * @return the number of habits read
+     */
+    public int read(CharSequence payload, Handler handler) throws JSONException {
+        JsonPullParser parser = new JsonPullParser(payload);
+        int habits = 0;
+        parser.beginArray();
+        while (parser.hasNext()) {
+            if (parser.peek() != JsonPullParser.BEGIN_OBJECT) {
+                parser.skipValue();
+                continue;
+            }
+            readHabit(parser, handler);
+            habits++;
+        }
+        parser.endArray();
+        return habits;
+    }
+
+    private void readHabit(JsonPullParser parser, Handler handler) throws JSONException {
+        int start = parser.position();
+        parser.skipValue();
+        int end = parser.position();
+        long habitHash = ReminderSyncState.hash(parser.text(), start, end);
+
+        parser.seek(start);
+        parser.beginObject();
+        boolean hasId = false;
+        int habitId = 0;
+        String name = null;
+        String color = DEFAULT_COLOR;
+        int reminders = -1;
+        while (parser.hasNext()) {
+            switch (parser.nextNameIn(HABIT_FIELDS)) {
+                case 0:
+                    habitId = parser.nextInt();
+                    hasId = true;
+                    break;
+                case 1:
+                    name = optString(parser, null);
+                    break;
+                case 2:
+                    color = optString(parser, DEFAULT_COLOR);
+                    break;
+                case 3:
+                    if (parser.peek() == JsonPullParser.BEGIN_ARRAY) reminders = parser.position();
+                    parser.skipValue();
+                    break;
+                default:
+                    parser.skipValue();
+            }
+        }
+        if (!hasId) throw new JSONException("Habit without id at " + start);
+        if (name == null) throw new JSONException("Habit " + habitId + " has no name");
+
+        if (handler.habit(habitId, habitHash, name, color)) {
+            if (reminders >= 0) {
+                readRules(parser, reminders, ReminderSyncState.hash(name + '\u0000' + color + '\u0000'), handler);
+            }
+            handler.endHabit(habitId);
+        }
+        parser.seek(end);
+    }
+
+    private void readRules(JsonPullParser parser, int position, long seed, Handler handler) throws JSONException {
+        parser.seek(position);
+        parser.beginArray();
+        for (int index = 0; parser.hasNext(); index++) {
+            if (parser.peek() != JsonPullParser.BEGIN_OBJECT) {
+                parser.skipValue();
+                continue;
+            }
+            int start = parser.position();
+            readRule(parser);
+            long ruleHash = ReminderSyncState.hash(seed, parser.text(), start, parser.position());
+            handler.rule(index, ruleHash, rule);
+        }
+        parser.endArray();
+    }
+
+    private void readRule(JsonPullParser parser) throws JSONException {
+        rule.reset();
+        parser.beginObject();
+        while (parser.hasNext()) {
+            int field = parser.nextNameIn(RULE_FIELDS);
+            int token = parser.peek();
+            if (token == JsonPullParser.NULL) {
+                parser.skipValue();
+                continue;
+            }
+            switch (field) {
+                case 0: // enabled
+                    rule.enabled = token == JsonPullParser.BOOLEAN && parser.nextBoolean();
+                    break;
+                case 1: // type
+                    String type = parser.nextString();
+                    rule.type = "specific".equals(type) ? TYPE_SPECIFIC
+                        : "interval".equals(type) ? TYPE_INTERVAL : TYPE_OTHER;
+                    break;
+                case 2: // message
+                    rule.message = parser.nextString();
+                    break;
+                case 3: // times
+                    parser.beginArray();
+                    while (parser.hasNext()) {
+                        if (parser.peek() == JsonPullParser.STRING) {
+                            rule.addTime(parser.nextTimeOfDay());
+                        } else {
+                            parser.skipValue();
+                            rule.addTime(-1);
+                        }
+                    }
+                    parser.endArray();
+                    break;
+                case 4: // startTime
+                    rule.startMinute = parser.nextTimeOfDay();
+                    break;
+                case 5: // endTime
+                    rule.endMinute = parser.nextTimeOfDay();
+                    break;
+                case 6: // interval
+                    rule.intervalMinutes = parser.nextInt();
+                    break;
+                case 7: // days
+                    rule.days = readDays(parser);
+                    break;
+                default:
+                    parser.skipValue();
+            }
+        }
+        parser.endObject();
+    }
+
+    // JS day numbers (0 = Sunday) to a RecurrenceRule day mask; every day when empty
+    private static int readDays(JsonPullParser parser) throws JSONException {
+        int mask = 0;
+        boolean any = false;
+        parser.beginArray();
+        while (parser.hasNext()) {
+            if (parser.peek() != JsonPullParser.NUMBER) {
+                parser.skipValue();
+                continue;
+            }
+            int day = parser.nextInt();
+            any = true;
+            if (day >= 0 && day <= 6) {
+                mask |= 1 << ((day + 6) % 7);
+            }
+        }
+        parser.endArray();
+        return any ? mask : RecurrenceRule.ALL_DAYS;
+    }
+
+    private static String optString(JsonPullParser parser, String fallback) throws JSONException {
+        int token = parser.peek();
+        if (token == JsonPullParser.STRING) return parser.nextString();
+        parser.skipValue();
+        return fallback;
+    }
+}
@@ -0,0 +1,174 @@
+package com.rexforge.quantumhabits;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from int to int with linear probing.
+ *
+ * Keys and values live in two parallel arrays, so lookups and updates never
+ * box. Removal uses backward-shift deletion, so the table never fills up
+ * with tombstones.
+ */
+public class IntIntMap {
+    public static final int MISSING = Integer.MIN_VALUE;
+
+    private static final int FREE = 0;
+
+    // Key 0 cannot be stored in the table (it marks a free cell) and is kept aside
+    private boolean hasZeroKey;
+    private int zeroValue;
+
+    private int[] keys;
+    private int[] values;
+    private int size;
+    private int mask;
+    private int resizeAt;
+
+    public IntIntMap() {
+        this(16);
+    }
+
+    public IntIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        allocate(capacity);
+    }
+
+    public int size() {
+        return size + (hasZeroKey ? 1 : 0);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return the value for {@code key}, or {@link #MISSING}
+     */
+    public int get(int key) {
+        if (key == FREE) return hasZeroKey ? zeroValue : MISSING;
+        int slot = mix(key) & mask;
+        while (keys[slot] != FREE) {
+            if (keys[slot] == key) return values[slot];
+            slot = (slot + 1) & mask;
+        }
+        return MISSING;
+    }
+
+    public boolean containsKey(int key) {
+        if (key == FREE) return hasZeroKey;
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * @return the previous value, or {@link #MISSING}
+     */
+    public int put(int key, int value) {
+        if (key == FREE) {
+            int previous = hasZeroKey ? zeroValue : MISSING;
+            hasZeroKey = true;
+            zeroValue = value;
+            return previous;
+        }
+        int slot = mix(key) & mask;
+        while (keys[slot] != FREE) {
+            if (keys[slot] == key) {
+                int previous = values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size >= resizeAt) {
+            rehash(keys.length * 2);
+        }
+        return MISSING;
+    }
+
+    /**
+     * @return the removed value, or {@link #MISSING}
+     */
+    public int remove(int key) {
+        if (key == FREE) {
+            if (!hasZeroKey) return MISSING;
+            hasZeroKey = false;
+            return zeroValue;
+        }
+        int slot = indexOf(key);
+        if (slot < 0) return MISSING;
+        int removed = values[slot];
+        size--;
+
+        // Shift later entries of the probe chain back into the hole
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (keys[next] != FREE) {
+            int home = mix(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[hole] = FREE;
+        return removed;
+    }
+
+    /**
+     * Copies the keys into a new array, in no particular order.
+     */
+    public int[] keys() {
+        int[] out = new int[size()];
+        int n = 0;
+        if (hasZeroKey) {
+            out[n++] = FREE;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE) {
+                out[n++] = keys[i];
+            }
+        }
+        return out;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        size = 0;
+        hasZeroKey = false;
+    }
+
+    private int indexOf(int key) {
+        int slot = mix(key) & mask;
+        while (keys[slot] != FREE) {
+            if (keys[slot] == key) return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        resizeAt = capacity * 3 / 4;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,331 @@
+package com.rexforge.quantumhabits;
+
+import org.json.JSONException;
+
+/**
+ * Minimal pull parser over JSON text that is already in memory.
+ *
+ * Values are read in place, so skipping a subtree or reading a number
+ * allocates nothing; only {@link #nextString()} and {@link #nextName()}
+ * create strings. Commas and colons are treated as separators and not
+ * validated, which is enough for payloads produced by our own JS layer.
+ * The position can be saved and restored with {@link #position()} and
+ * {@link #seek(int)} to read an object's fields in a different order than
+ * they appear.
+ */
+public class JsonPullParser {
+    public static final int END = 0;
+    public static final int BEGIN_OBJECT = 1;
+    public static final int END_OBJECT = 2;
+    public static final int BEGIN_ARRAY = 3;
+    public static final int END_ARRAY = 4;
+    public static final int STRING = 5;
+    public static final int NUMBER = 6;
+    public static final int BOOLEAN = 7;
+    public static final int NULL = 8;
+
+    private final CharSequence json;
+    private final int length;
+    private int pos;
+    private final StringBuilder buffer = new StringBuilder();
+
+    public JsonPullParser(CharSequence json) {
+        this.json = json;
+        this.length = json.length();
+    }
+
+    public int position() {
+        return pos;
+    }
+
+    public void seek(int position) {
+        pos = position;
+    }
+
+    public CharSequence text() {
+        return json;
+    }
+
+    /**
+     * @return the kind of the next token without consuming it
+     */
+    public int peek() throws JSONException {
+        skipSeparators();
+        if (pos >= length) return END;
+        char c = json.charAt(pos);
+        switch (c) {
+            case '{': return BEGIN_OBJECT;
+            case '}': return END_OBJECT;
+            case '[': return BEGIN_ARRAY;
+            case ']': return END_ARRAY;
+            case '"': return STRING;
+            case 't':
+            case 'f': return BOOLEAN;
+            case 'n': return NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) return NUMBER;
+                throw syntaxError("Unexpected character '" + c + "'");
+        }
+    }
+
+    public void beginObject() throws JSONException {
+        expect('{');
+    }
+
+    public void endObject() throws JSONException {
+        expect('}');
+    }
+
+    public void beginArray() throws JSONException {
+        expect('[');
+    }
+
+    public void endArray() throws JSONException {
+        expect(']');
+    }
+
+    /**
+     * @return true if the current object or array has another member
+     */
+    public boolean hasNext() throws JSONException {
+        int token = peek();
+        return token != END_OBJECT && token != END_ARRAY && token != END;
+    }
+
+    public String nextName() throws JSONException {
+        return nextString();
+    }
+
+    /**
+     * Reads a name and looks it up in {@code names} without allocating.
+     *
+     * @return the index of the name in {@code names}, or -1
+     */
+    public int nextNameIn(String[] names) throws JSONException {
+        if (peek() != STRING) throw syntaxError("Expected a name");
+        int start = pos + 1;
+        int end = start;
+        while (end < length && json.charAt(end) != '"' && json.charAt(end) != '\\') end++;
+        if (end >= length || json.charAt(end) != '"') {
+            // Escaped name, compare the decoded string
+            String name = nextString();
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(name)) return i;
+            }
+            return -1;
+        }
+        pos = end + 1;
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].length() == end - start && regionMatches(start, names[i])) return i;
+        }
+        return -1;
+    }
+
+    public String nextString() throws JSONException {
+        if (peek() != STRING) throw syntaxError("Expected a string");
+        int start = ++pos;
+        // Fast path: no escapes, one substring
+        while (pos < length) {
+            char c = json.charAt(pos);
+            if (c == '"') {
+                return json.subSequence(start, pos++).toString();
+            }
+            if (c == '\\') break;
+            pos++;
+        }
+        buffer.setLength(0);
+        buffer.append(json, start, pos);
+        while (pos < length) {
+            char c = json.charAt(pos++);
+            if (c == '"') return buffer.toString();
+            if (c != '\\') {
+                buffer.append(c);
+                continue;
+            }
+            if (pos >= length) break;
+            char escaped = json.charAt(pos++);
+            switch (escaped) {
+                case 'n': buffer.append('\n'); break;
+                case 't': buffer.append('\t'); break;
+                case 'r': buffer.append('\r'); break;
+                case 'b': buffer.append('\b'); break;
+                case 'f': buffer.append('\f'); break;
+                case 'u':
+                    if (pos + 4 > length) throw syntaxError("Truncated escape");
+                    try {
+                        buffer.append((char) Integer.parseInt(json.subSequence(pos, pos + 4).toString(), 16));
+                    } catch (NumberFormatException e) {
+                        throw syntaxError("Bad unicode escape");
+                    }
+                    pos += 4;
+                    break;
+                default: buffer.append(escaped);
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    /**
+     * Reads an {@code "HH:mm"} string as a minute of the day without
+     * allocating.
+     *
+     * @return the minute of the day, or -1 if the string is not a valid time
+     */
+    public int nextTimeOfDay() throws JSONException {
+        if (peek() != STRING) throw syntaxError("Expected a time");
+        int start = pos + 1;
+        int end = start;
+        while (end < length && json.charAt(end) != '"') {
+            if (json.charAt(end) == '\\') return RecurrenceRule.parseTime(nextString());
+            end++;
+        }
+        if (end >= length) throw syntaxError("Unterminated string");
+        pos = end + 1;
+        int hours = 0;
+        int i = start;
+        int digits = 0;
+        while (i < end && isDigit(json.charAt(i))) {
+            hours = hours * 10 + json.charAt(i++) - '0';
+            digits++;
+        }
+        if (digits == 0 || digits > 2 || i >= end || json.charAt(i++) != ':') return -1;
+        int minutes = 0;
+        digits = 0;
+        while (i < end && isDigit(json.charAt(i))) {
+            minutes = minutes * 10 + json.charAt(i++) - '0';
+            digits++;
+        }
+        if (digits == 0 || digits > 2 || i != end || hours > 23 || minutes > 59) return -1;
+        return hours * 60 + minutes;
+    }
+
+    /**
+     * Reads a number, dropping any fraction or exponent like
+     * {@link Number#longValue()}.
+     */
+    public long nextLong() throws JSONException {
+        int token = peek();
+        if (token == STRING) {
+            // JS sometimes sends ids as strings
+            try {
+                return Long.parseLong(nextString().trim());
+            } catch (NumberFormatException e) {
+                throw syntaxError("Expected a number");
+            }
+        }
+        if (token != NUMBER) throw syntaxError("Expected a number");
+        boolean negative = json.charAt(pos) == '-';
+        if (negative) pos++;
+        long value = 0;
+        while (pos < length && isDigit(json.charAt(pos))) {
+            value = value * 10 + json.charAt(pos++) - '0';
+        }
+        // Fraction and exponent
+        while (pos < length && isNumberChar(json.charAt(pos))) pos++;
+        return negative ? -value : value;
+    }
+
+    public int nextInt() throws JSONException {
+        return (int) nextLong();
+    }
+
+    public boolean nextBoolean() throws JSONException {
+        if (peek() != BOOLEAN) throw syntaxError("Expected a boolean");
+        if (json.charAt(pos) == 't') {
+            expectLiteral("true");
+            return true;
+        }
+        expectLiteral("false");
+        return false;
+    }
+
+    public void nextNull() throws JSONException {
+        if (peek() != NULL) throw syntaxError("Expected null");
+        expectLiteral("null");
+    }
+
+    /**
+     * Skips the next value, including nested objects and arrays.
+     */
+    public void skipValue() throws JSONException {
+        int depth = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_OBJECT:
+                case BEGIN_ARRAY:
+                    pos++;
+                    depth++;
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    pos++;
+                    depth--;
+                    break;
+                case STRING:
+                    skipString();
+                    break;
+                case NUMBER:
+                    while (pos < length && isNumberChar(json.charAt(pos))) pos++;
+                    break;
+                case BOOLEAN:
+                    nextBoolean();
+                    break;
+                case NULL:
+                    nextNull();
+                    break;
+                default:
+                    throw syntaxError("Unexpected end of input");
+            }
+        } while (depth > 0);
+    }
+
+    private void skipString() throws JSONException {
+        pos++;
+        while (pos < length) {
+            char c = json.charAt(pos++);
+            if (c == '"') return;
+            if (c == '\\') pos++;
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    private void skipSeparators() {
+        while (pos < length) {
+            char c = json.charAt(pos);
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t' && c != ',' && c != ':') return;
+            pos++;
+        }
+    }
+
+    private void expect(char c) throws JSONException {
+        skipSeparators();
+        if (pos >= length || json.charAt(pos) != c) throw syntaxError("Expected '" + c + "'");
+        pos++;
+    }
+
+    private void expectLiteral(String literal) throws JSONException {
+        if (pos + literal.length() > length || !regionMatches(pos, literal)) {
+            throw syntaxError("Expected " + literal);
+        }
+        pos += literal.length();
+    }
+
+    private boolean regionMatches(int start, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (json.charAt(start + i) != value.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isNumberChar(char c) {
+        return isDigit(c) || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-';
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " at " + pos);
+    }
+}
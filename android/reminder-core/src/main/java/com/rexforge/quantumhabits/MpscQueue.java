@@ -0,0 +1,57 @@
+package com.rexforge.quantumhabits;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unbounded lock-free queue for many producers and a single consumer.
+ *
+ * Producers swap themselves in as the tail with one atomic exchange and then
+ * link the previous tail to their node, so {@link #offer(Object)} never
+ * blocks or retries. Between those two steps the consumer can briefly see
+ * the queue as empty; a producer that wakes the consumer after offering
+ * covers that window.
+ *
+ * {@link #poll()} and {@link #isEmpty()} must only be called from the
+ * consumer thread.
+ */
+public class MpscQueue<E> {
+    private static final class Node<E> {
+        E value;
+        volatile Node<E> next;
+
+        Node(E value) {
+            this.value = value;
+        }
+    }
+
+    private final AtomicReference<Node<E>> tail;
+    // Consumer only; always a node whose value has been taken
+    private Node<E> head;
+
+    public MpscQueue() {
+        head = new Node<>(null);
+        tail = new AtomicReference<>(head);
+    }
+
+    public void offer(E value) {
+        if (value == null) throw new NullPointerException();
+        Node<E> node = new Node<>(value);
+        tail.getAndSet(node).next = node;
+    }
+
+    /**
+     * @return the oldest element, or null if none is visible yet
+     */
+    public E poll() {
+        Node<E> next = head.next;
+        if (next == null) return null;
+        E value = next.value;
+        next.value = null;
+        head = next;
+        return value;
+    }
+
+    public boolean isEmpty() {
+        return head.next == null;
+    }
+}
@@ -0,0 +1,136 @@
+package com.rexforge.quantumhabits;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Turns a burst of due reminders into one notification batch.
+ *
+ * Callers collect every reminder due up to {@link #horizon(long)}, so
+ * reminders a few seconds apart are posted together, and
+ * {@link #coalesce(List, long)} groups them per habit in deadline order.
+ * Vibration is rate-limited across batches: a batch only vibrates when the
+ * previous vibrating batch is at least the minimum interval old.
+ *
+ * Free of Android dependencies; {@link ReminderNotifier} does the posting.
+ */
+public class NotificationCoalescer {
+    public static final long DEFAULT_WINDOW_MS = 30000;
+    public static final long DEFAULT_MIN_VIBRATION_INTERVAL_MS = 10000;
+
+    private final long windowMs;
+    private final long minVibrationIntervalMs;
+    private long lastVibration;
+    private boolean hasVibrated;
+
+    public NotificationCoalescer() {
+        this(DEFAULT_WINDOW_MS, DEFAULT_MIN_VIBRATION_INTERVAL_MS);
+    }
+
+    public NotificationCoalescer(long windowMs, long minVibrationIntervalMs) {
+        if (windowMs < 0 || minVibrationIntervalMs < 0) {
+            throw new IllegalArgumentException("Negative interval");
+        }
+        this.windowMs = windowMs;
+        this.minVibrationIntervalMs = minVibrationIntervalMs;
+    }
+
+    public long windowMs() {
+        return windowMs;
+    }
+
+    /**
+     * Latest deadline that should be posted together with reminders due at
+     * {@code now}.
+     */
+    public long horizon(long now) {
+        return now > Long.MAX_VALUE - windowMs ? Long.MAX_VALUE : now + windowMs;
+    }
+
+    /**
+     * Groups {@code due} (in deadline order) per habit, and plain
+     * notifications per notification id, apart from any habit with the same
+     * number. Groups keep the order in which their key first appears.
+     */
+    public synchronized Batch coalesce(List<ScheduledReminder> due, long now) {
+        List<HabitGroup> groups = new ArrayList<>();
+        IntIntMap groupOfHabit = new IntIntMap();
+        IntIntMap groupOfNotification = new IntIntMap();
+        for (int i = 0; i < due.size(); i++) {
+            ScheduledReminder reminder = due.get(i);
+            IntIntMap groupOf = reminder.isNotification() ? groupOfNotification : groupOfHabit;
+            int index = groupOf.get(reminder.habitId);
+            if (index == IntIntMap.MISSING) {
+                index = groups.size();
+                groupOf.put(reminder.habitId, index);
+                groups.add(new HabitGroup(reminder.habitId));
+            }
+            groups.get(index).reminders.add(reminder);
+        }
+
+        boolean vibrate = false;
+        if (!groups.isEmpty() && (!hasVibrated || now - lastVibration >= minVibrationIntervalMs)) {
+            vibrate = true;
+            hasVibrated = true;
+            lastVibration = now;
+        }
+        return new Batch(groups, due.size(), vibrate);
+    }
+
+    /**
+     * Reminders of one habit, or of one plain notification id, within a
+     * batch, in deadline order.
+     */
+    public static class HabitGroup {
+        final int habitId;
+        final List<ScheduledReminder> reminders = new ArrayList<>(2);
+
+        HabitGroup(int habitId) {
+            this.habitId = habitId;
+        }
+
+        public int habitId() {
+            return habitId;
+        }
+
+        public List<ScheduledReminder> reminders() {
+            return Collections.unmodifiableList(reminders);
+        }
+
+        /**
+         * Most recent reminder of the group; its text represents the group.
+         */
+        public ScheduledReminder latest() {
+            return reminders.get(reminders.size() - 1);
+        }
+    }
+
+    public static class Batch {
+        private final List<HabitGroup> groups;
+        private final int reminderCount;
+        private final boolean vibrate;
+
+        Batch(List<HabitGroup> groups, int reminderCount, boolean vibrate) {
+            this.groups = groups;
+            this.reminderCount = reminderCount;
+            this.vibrate = vibrate;
+        }
+
+        public List<HabitGroup> groups() {
+            return Collections.unmodifiableList(groups);
+        }
+
+        public int reminderCount() {
+            return reminderCount;
+        }
+
+        public boolean isEmpty() {
+            return reminderCount == 0;
+        }
+
+        public boolean shouldVibrate() {
+            return vibrate;
+        }
+    }
+}
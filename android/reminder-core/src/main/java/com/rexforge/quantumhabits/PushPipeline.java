@@ -0,0 +1,157 @@
+package com.rexforge.quantumhabits;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Validates, de-duplicates and hands push messages to a {@link Poster} on a
+ * background executor.
+ *
+ * Each message becomes at most one notification, whether it carries a data
+ * payload, a notification payload or both. Message ids seen recently are kept
+ * in a bounded LRU so a redelivered message is dropped. The notification id
+ * is derived from a stable 64-bit hash of the payload's key, so a message for
+ * the same key replaces its earlier notification instead of stacking, and
+ * unrelated keys practically never collide.
+ */
+public class PushPipeline {
+    public static final int SUBMITTED = 0;
+    public static final int DUPLICATE = 1;
+    public static final int INVALID = 2;
+
+    static final String DEFAULT_TITLE = "Habit Reminder";
+    static final String DEFAULT_BODY = "Time for your habit!";
+    static final int MAX_TITLE_LENGTH = 256;
+    static final int MAX_BODY_LENGTH = 4096;
+
+    /**
+     * A validated push, ready to be posted.
+     */
+    public static final class Push {
+        public final String messageId;
+        // What the notification id is derived from: the payload's notificationId, else the message id
+        public final String key;
+        public final String title;
+        public final String body;
+        public final int notificationId;
+
+        Push(String messageId, String key, String title, String body) {
+            this.messageId = messageId;
+            this.key = key;
+            this.title = title;
+            this.body = body;
+            this.notificationId = notificationId(key);
+        }
+    }
+
+    public interface Poster {
+        void post(Push push);
+    }
+
+    private final Executor executor;
+    private final Poster poster;
+    private final Map<String, Boolean> seen;
+    private final AtomicLong posted = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public PushPipeline(Executor executor, final int dedupCapacity, Poster poster) {
+        this.executor = executor;
+        this.poster = poster;
+        this.seen = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > dedupCapacity;
+            }
+        };
+    }
+
+    /**
+     * Queues one push message. Returns without waiting for the notification.
+     *
+     * @param data the message's data payload, possibly empty
+     * @param title the notification payload's title, or null
+     * @param body the notification payload's body, or null
+     * @return {@link #SUBMITTED}, {@link #DUPLICATE} or {@link #INVALID}
+     */
+    public int submit(String messageId, Map<String, String> data, String title, String body) {
+        final Push push = validate(messageId, data, title, body);
+        if (push == null) return INVALID;
+        if (messageId != null) {
+            synchronized (seen) {
+                if (seen.put(messageId, Boolean.TRUE) != null) {
+                    duplicates.incrementAndGet();
+                    return DUPLICATE;
+                }
+            }
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    poster.post(push);
+                    posted.incrementAndGet();
+                } catch (RuntimeException e) {
+                    // One bad message must not take the executor thread down with it
+                    failed.incrementAndGet();
+                }
+            }
+        });
+        return SUBMITTED;
+    }
+
+    /**
+     * @return null if the message has nothing to show
+     */
+    static Push validate(String messageId, Map<String, String> data, String title, String body) {
+        boolean hasData = data != null && !data.isEmpty();
+        if (!hasData && title == null && body == null) return null;
+
+        // The data payload repeats the notification's fields and wins when both are present
+        if (hasData) {
+            title = firstNonEmpty(data.get("title"), title);
+            body = firstNonEmpty(data.get("body"), body);
+        }
+        String key = hasData ? data.get("notificationId") : null;
+        if (key == null || key.trim().isEmpty()) key = messageId;
+        if (key == null) key = title + '\u0000' + body;
+
+        return new Push(messageId, key.trim(),
+            truncate(firstNonEmpty(title, DEFAULT_TITLE), MAX_TITLE_LENGTH),
+            truncate(firstNonEmpty(body, DEFAULT_BODY), MAX_BODY_LENGTH));
+    }
+
+    /**
+     * Stable notification id for {@code key}. Always negative, so it never
+     * meets the reminder notifications, which use small positive ids.
+     */
+    public static int notificationId(String key) {
+        long hash = ReminderSyncState.hash(key);
+        return (int) (hash ^ (hash >>> 32)) | Integer.MIN_VALUE;
+    }
+
+    public long posted() {
+        return posted.get();
+    }
+
+    public long duplicates() {
+        return duplicates.get();
+    }
+
+    public long failed() {
+        return failed.get();
+    }
+
+    private static String firstNonEmpty(String value, String fallback) {
+        return value != null && !value.isEmpty() ? value : fallback;
+    }
+
+    private static String truncate(String value, int maxLength) {
+        if (value.length() <= maxLength) return value;
+        // Do not split a surrogate pair
+        int end = Character.isHighSurrogate(value.charAt(maxLength - 1)) ? maxLength - 1 : maxLength;
+        return value.substring(0, end);
+    }
+}
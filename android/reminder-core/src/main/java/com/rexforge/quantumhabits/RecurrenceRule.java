@@ -0,0 +1,213 @@
+package com.rexforge.quantumhabits;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+
+/**
+ * A repeating reminder rule: slots every {@code step} minutes from
+ * {@code start} to {@code end} (minutes of the day, inclusive) on the
+ * enabled days of the week, in a fixed time zone.
+ *
+ * A window whose end is before its start spans midnight and belongs to the
+ * day it starts on, so {@code 22:00-01:00} on Friday ends Saturday at 01:00.
+ * A rule with step 0 has a single slot per day at {@code start}.
+ *
+ * Occurrences are computed on demand from the wall-clock slot, so the rule is
+ * the whole schedule; nothing per occurrence is stored. Across DST changes a
+ * slot inside the spring-forward gap is moved forward by the gap length, and
+ * a slot inside the fall-back overlap fires once, at the earlier offset.
+ */
+public class RecurrenceRule {
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    private static final long MILLIS_PER_MINUTE = 60000;
+    private static final long MAX_OFFSET_SECONDS = ZoneOffset.MAX.getTotalSeconds();
+    public static final int ALL_DAYS = 0x7f;
+
+    final int start;
+    final int end;
+    final int step;
+    // Bit n is set when DayOfWeek.of(n + 1) is enabled, Monday is bit 0
+    final int days;
+    final ZoneId zone;
+
+    private final ZoneRules rules;
+    // Minutes from the start of the window to its last slot
+    private final int span;
+
+    RecurrenceRule(int start, int end, int step, int days, ZoneId zone) {
+        if (start < 0 || start >= MINUTES_PER_DAY || end < 0 || end >= MINUTES_PER_DAY) {
+            throw new IllegalArgumentException("Minute of day out of range: " + start + "-" + end);
+        }
+        if (step < 0) throw new IllegalArgumentException("Negative step: " + step);
+        this.start = start;
+        this.end = end;
+        this.step = step;
+        this.days = days & ALL_DAYS;
+        this.zone = zone;
+        this.rules = zone.getRules();
+        int window = end >= start ? end - start : end + MINUTES_PER_DAY - start;
+        this.span = step == 0 ? 0 : window - window % step;
+    }
+
+    public static RecurrenceRule daily(int minuteOfDay, ZoneId zone) {
+        return new RecurrenceRule(minuteOfDay, minuteOfDay, 0, ALL_DAYS, zone);
+    }
+
+    public static RecurrenceRule interval(int start, int end, int stepMinutes, ZoneId zone) {
+        if (stepMinutes <= 0) throw new IllegalArgumentException("Interval must be positive: " + stepMinutes);
+        return new RecurrenceRule(start, end, stepMinutes, ALL_DAYS, zone);
+    }
+
+    public RecurrenceRule withDays(int days) {
+        return new RecurrenceRule(start, end, step, days, zone);
+    }
+
+    /**
+     * Parses {@code "HH:mm"} into a minute of the day.
+     *
+     * @return the minute of the day, or -1 if {@code time} does not parse
+     */
+    public static int parseTime(String time) {
+        int colon = time == null ? -1 : time.indexOf(':');
+        if (colon <= 0) return -1;
+        try {
+            int hours = Integer.parseInt(time.substring(0, colon).trim());
+            int minutes = Integer.parseInt(time.substring(colon + 1).trim());
+            if (hours < 0 || hours > 23 || minutes < 0 || minutes > 59) return -1;
+            return hours * 60 + minutes;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public int slotsPerDay() {
+        return step == 0 ? 1 : span / step + 1;
+    }
+
+    /**
+     * @return the first occurrence strictly after {@code after}, or -1 if the
+     *         rule has no enabled day
+     */
+    public long next(long after) {
+        if (days == 0) return -1;
+        long afterMinute = Math.floorDiv(after + rules.getOffset(Instant.ofEpochMilli(after))
+            .getTotalSeconds() * 1000L, MILLIS_PER_MINUTE);
+        // Start one day back: yesterday's window may run past midnight
+        long day = Math.floorDiv(afterMinute, MINUTES_PER_DAY) - 1;
+        // Yesterday plus a full week always reaches an enabled day
+        for (long last = day + 8; day <= last; day++) {
+            if (!isEnabled(day)) continue;
+            long found = nextInWindow(day, afterMinute - day * MINUTES_PER_DAY, after);
+            if (found >= 0) return found;
+        }
+        return -1;
+    }
+
+    /**
+     * Fills {@code out} with consecutive occurrences after {@code after} that
+     * are before {@code until}.
+     *
+     * @return the number of occurrences written
+     */
+    public int nextOccurrences(long after, long until, long[] out) {
+        int count = 0;
+        long at = after;
+        while (count < out.length) {
+            at = next(at);
+            if (at < 0 || at >= until) break;
+            out[count++] = at;
+        }
+        return count;
+    }
+
+    private boolean isEnabled(long epochDay) {
+        // 1970-01-01 was a Thursday, bit 3
+        int dayOfWeek = (int) Math.floorMod(epochDay + 3, 7L);
+        return (days & (1 << dayOfWeek)) != 0;
+    }
+
+    // localMinute is the wall-clock minute of 'after' counted from the window's day
+    private long nextInWindow(long epochDay, long localMinute, long after) {
+        // Two hours of slack covers any DST shift between wall clock and instant
+        if (localMinute - start - 120 > span) return -1;
+        long windowStart = (epochDay * MINUTES_PER_DAY + start) * 60;
+        // Any instant of the window is within the largest offset of its wall-clock seconds
+        ZoneOffsetTransition transition = rules.nextTransition(Instant.ofEpochSecond(windowStart - MAX_OFFSET_SECONDS));
+        if (transition != null && transition.toEpochSecond() <= windowStart + span * 60L + MAX_OFFSET_SECONDS) {
+            return nextInShiftedWindow(epochDay, localMinute, after);
+        }
+        // One offset for the whole window, so the slot after 'after' is on the grid from its first
+        long first = (windowStart - rules.getOffset(Instant.ofEpochSecond(windowStart)).getTotalSeconds()) * 1000L;
+        if (first > after) return first;
+        if (step == 0) return -1;
+        long slot = ((after - first) / (step * MILLIS_PER_MINUTE) + 1) * step;
+        return slot <= span ? first + slot * MILLIS_PER_MINUTE : -1;
+    }
+
+    // Slot by slot in wall-clock time, for the few windows a DST change falls into
+    private long nextInShiftedWindow(long epochDay, long localMinute, long after) {
+        int first = 0;
+        long behind = localMinute - start - 120;
+        if (step > 0 && behind > 0) first = (int) (behind / step);
+        long best = -1;
+        // A slot moved forward by a gap can overtake later slots; keep looking until it is passed
+        long limit = Long.MAX_VALUE;
+        for (int slot = first * step; slot <= span && start + slot < limit; slot += step == 0 ? 1 : step) {
+            int minute = start + slot;
+            LocalDateTime local = LocalDateTime.ofEpochSecond((epochDay * MINUTES_PER_DAY + minute) * 60, 0, ZoneOffset.UTC);
+            // The offset before the transition: gap slots move forward, overlap slots take the earlier offset
+            ZoneOffset offset = rules.getOffset(local);
+            long at = local.toEpochSecond(offset) * 1000L;
+            if (at > after && (best < 0 || at < best)) {
+                best = at;
+                ZoneOffsetTransition transition = rules.getTransition(local);
+                limit = transition != null && transition.isGap()
+                    ? minute + transition.getDuration().toMinutes()
+                    : minute;
+            }
+        }
+        return best;
+    }
+
+    // Format: start,end,step,days,zone
+    public String encode() {
+        return start + "," + end + "," + step + "," + days + "," + zone.getId();
+    }
+
+    /**
+     * @return the rule saved by {@link #encode()}, or null if it does not parse
+     */
+    public static RecurrenceRule decode(String encoded) {
+        String[] parts = encoded.split(",", 5);
+        if (parts.length != 5) return null;
+        try {
+            return new RecurrenceRule(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]),
+                Integer.parseInt(parts[2]), Integer.parseInt(parts[3]), ZoneId.of(parts[4]));
+        } catch (RuntimeException e) {
+            // Malformed number, minute out of range or unknown zone
+            return null;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof RecurrenceRule)) return false;
+        RecurrenceRule other = (RecurrenceRule) o;
+        return start == other.start && end == other.end && step == other.step && days == other.days
+            && zone.equals(other.zone);
+    }
+
+    @Override
+    public int hashCode() {
+        return ((start * 31 + end) * 31 + step) * 31 + days + zone.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return encode();
+    }
+}
@@ -0,0 +1,132 @@
+package com.rexforge.quantumhabits;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@link RecurrenceRule} behind each repeating reminder, keyed by reminder
+ * id. Only the next occurrence of a rule is ever scheduled; when it fires,
+ * {@link #next(String, long)} gives the one after it.
+ */
+public class RecurrenceSchedule {
+    private static class Entry {
+        final int habitId;
+        final RecurrenceRule rule;
+
+        Entry(int habitId, RecurrenceRule rule) {
+            this.habitId = habitId;
+            this.rule = rule;
+        }
+    }
+
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    public void put(String reminderId, int habitId, RecurrenceRule rule) {
+        entries.put(reminderId, new Entry(habitId, rule));
+    }
+
+    public RecurrenceRule get(String reminderId) {
+        Entry entry = entries.get(reminderId);
+        return entry == null ? null : entry.rule;
+    }
+
+    public void remove(String reminderId) {
+        entries.remove(reminderId);
+    }
+
+    public void removeHabit(int habitId) {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().habitId == habitId) it.remove();
+        }
+    }
+
+    /**
+     * Removes the reminders of rule {@code ruleIndex} of a habit, whose ids
+     * start with {@code habit-<habitId>-reminder-<ruleIndex>-}.
+     */
+    public void removeRule(int habitId, int ruleIndex, List<String> removedIds) {
+        String prefix = "habit-" + habitId + "-reminder-" + ruleIndex + "-";
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Entry> entry = it.next();
+            if (entry.getValue().habitId == habitId && entry.getKey().startsWith(prefix)) {
+                removedIds.add(entry.getKey());
+                it.remove();
+            }
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the occurrence of {@code reminderId} after {@code after}, or -1
+     *         if it does not repeat
+     */
+    public long next(String reminderId, long after) {
+        Entry entry = entries.get(reminderId);
+        return entry == null ? -1 : entry.rule.next(after);
+    }
+
+    /**
+     * Handles reminders {@code scheduler} reported due at {@code now}. Those
+     * less than {@code missedWindowMs} late are appended to {@code shown}.
+     * A repeating reminder goes back into {@code scheduler} at its next
+     * occurrence under the same id and is appended to {@code changed}; the
+     * ids of the others are appended to {@code removed}.
+     */
+    public void advance(ReminderScheduler scheduler, List<ScheduledReminder> due, long now, long missedWindowMs,
+            List<ScheduledReminder> shown, List<ScheduledReminder> changed, List<String> removed) {
+        for (int i = 0; i < due.size(); i++) {
+            ScheduledReminder reminder = due.get(i);
+            if (now < reminder.timestamp + missedWindowMs) {
+                shown.add(reminder);
+            }
+            // Reminders posted early with a coalesced batch move past their own slot
+            long next = next(reminder.id, Math.max(reminder.timestamp, now));
+            if (next < 0) {
+                removed.add(reminder.id);
+                continue;
+            }
+            ScheduledReminder following = new ScheduledReminder(reminder.id, reminder.habitName,
+                reminder.message, reminder.habitColor, next, reminder.habitId, reminder.reminderIndex);
+            scheduler.schedule(following);
+            changed.add(following);
+        }
+    }
+
+    // Format: id|habitId|rule;...
+    public String encode() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            sb.append(entry.getKey()).append('|').append(entry.getValue().habitId).append('|')
+                .append(entry.getValue().rule.encode()).append(';');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the schedule saved by {@link #encode()}; entries that do not
+     *         parse are skipped
+     */
+    public static RecurrenceSchedule decode(String encoded) {
+        RecurrenceSchedule schedule = new RecurrenceSchedule();
+        if (encoded == null) return schedule;
+        for (String line : encoded.split(";")) {
+            String[] parts = line.split("\\|", 3);
+            if (parts.length != 3) continue;
+            RecurrenceRule rule = RecurrenceRule.decode(parts[2]);
+            if (rule == null) continue;
+            try {
+                schedule.put(parts[0], Integer.parseInt(parts[1]), rule);
+            } catch (NumberFormatException e) {
+                // Skip the damaged entry
+            }
+        }
+        return schedule;
+    }
+}
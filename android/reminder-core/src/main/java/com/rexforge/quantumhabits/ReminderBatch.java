@@ -0,0 +1,153 @@
+package com.rexforge.quantumhabits;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A set of reminder changes applied by the {@link ReminderEngine} in a
+ * single command: habits whose reminders are cancelled first, then reminders
+ * to schedule.
+ *
+ * The wire format is a small binary encoding with a shared string table, so
+ * a thousand reminders of the same habit carry its name and message once:
+ * <pre>
+ *   int version
+ *   int cancelCount, int[cancelCount] habitIds
+ *   int stringCount, UTF[stringCount]
+ *   int reminderCount, then per reminder:
+ *     int id, int habitName, int message, int habitColor (string indexes)
+ *     long timestamp, int habitId, int reminderIndex
+ * </pre>
+ */
+public class ReminderBatch {
+    private static final int VERSION = 1;
+
+    private int[] cancelledHabits = new int[4];
+    private int cancelCount;
+    private final List<ScheduledReminder> reminders = new ArrayList<>();
+
+    public ReminderBatch cancelHabit(int habitId) {
+        if (cancelCount == cancelledHabits.length) {
+            cancelledHabits = Arrays.copyOf(cancelledHabits, cancelCount * 2);
+        }
+        cancelledHabits[cancelCount++] = habitId;
+        return this;
+    }
+
+    public ReminderBatch add(ScheduledReminder reminder) {
+        reminders.add(reminder);
+        return this;
+    }
+
+    public ReminderBatch addAll(List<ScheduledReminder> reminders) {
+        this.reminders.addAll(reminders);
+        return this;
+    }
+
+    public int cancelCount() {
+        return cancelCount;
+    }
+
+    public int cancelledHabit(int index) {
+        return cancelledHabits[index];
+    }
+
+    public List<ScheduledReminder> reminders() {
+        return reminders;
+    }
+
+    public boolean isEmpty() {
+        return cancelCount == 0 && reminders.isEmpty();
+    }
+
+    public byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + reminders.size() * 32);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(VERSION);
+            out.writeInt(cancelCount);
+            for (int i = 0; i < cancelCount; i++) {
+                out.writeInt(cancelledHabits[i]);
+            }
+
+            Map<String, Integer> index = new HashMap<>();
+            List<String> table = new ArrayList<>();
+            int[] refs = new int[reminders.size() * 4];
+            for (int i = 0; i < reminders.size(); i++) {
+                ScheduledReminder reminder = reminders.get(i);
+                refs[i * 4] = ref(reminder.id, index, table);
+                refs[i * 4 + 1] = ref(reminder.habitName, index, table);
+                refs[i * 4 + 2] = ref(reminder.message, index, table);
+                refs[i * 4 + 3] = ref(reminder.habitColor, index, table);
+            }
+            out.writeInt(table.size());
+            for (String value : table) {
+                out.writeUTF(value);
+            }
+
+            out.writeInt(reminders.size());
+            for (int i = 0; i < reminders.size(); i++) {
+                ScheduledReminder reminder = reminders.get(i);
+                out.writeInt(refs[i * 4]);
+                out.writeInt(refs[i * 4 + 1]);
+                out.writeInt(refs[i * 4 + 2]);
+                out.writeInt(refs[i * 4 + 3]);
+                out.writeLong(reminder.timestamp);
+                out.writeInt(reminder.habitId);
+                out.writeInt(reminder.reminderIndex);
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // ByteArrayOutputStream does not throw
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static ReminderBatch decode(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported reminder batch version " + version);
+        }
+
+        ReminderBatch batch = new ReminderBatch();
+        int cancels = in.readInt();
+        for (int i = 0; i < cancels; i++) {
+            batch.cancelHabit(in.readInt());
+        }
+
+        String[] table = new String[in.readInt()];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = in.readUTF();
+        }
+
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String id = table[in.readInt()];
+            String habitName = table[in.readInt()];
+            String message = table[in.readInt()];
+            String habitColor = table[in.readInt()];
+            batch.reminders.add(new ScheduledReminder(id, habitName, message, habitColor,
+                in.readLong(), in.readInt(), in.readInt()));
+        }
+        return batch;
+    }
+
+    private static int ref(String value, Map<String, Integer> index, List<String> table) {
+        if (value == null) value = "";
+        Integer existing = index.get(value);
+        if (existing != null) return existing;
+        index.put(value, table.size());
+        table.add(value);
+        return table.size() - 1;
+    }
+}
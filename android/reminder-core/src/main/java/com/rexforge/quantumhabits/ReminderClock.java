@@ -0,0 +1,31 @@
+package com.rexforge.quantumhabits;
+
+import java.time.ZoneId;
+
+/**
+ * Wall-clock time and time zone as seen by the reminder code.
+ *
+ * Production code uses {@link #SYSTEM}; tests and the schedule simulator
+ * pass a clock of their own, so days, DST changes and reboots can be played
+ * through without waiting for them.
+ */
+public interface ReminderClock {
+    ReminderClock SYSTEM = new ReminderClock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public ZoneId zone() {
+            return ZoneId.systemDefault();
+        }
+    };
+
+    long currentTimeMillis();
+
+    /**
+     * Zone that new repeating reminders follow.
+     */
+    ZoneId zone();
+}
@@ -0,0 +1,411 @@
+package com.rexforge.quantumhabits;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The one reminder schedule of the app, whichever plugin a reminder came
+ * from: the {@link ReminderScheduler} with its id index, the
+ * {@link ReminderStore} behind it, and the {@link RecurrenceSchedule} that
+ * moves repeating reminders on after they fire.
+ *
+ * How the device gets woken up for a deadline is left to a {@link Backend}:
+ * an alarm per reminder, a single alarm for the earliest deadline, or a
+ * foreground service that keeps the worker's own timer running. The engine
+ * tells the backend about every change, so backends can be swapped without
+ * touching the schedule.
+ *
+ * Methods that write to storage apply the change in memory and notify the
+ * backend first, then throw if the store could not be written.
+ *
+ * Not thread-safe; {@link ReminderWorker} confines it to its thread.
+ */
+public class ReminderEngine {
+
+    /**
+     * Wakes the device up for the engine's deadlines.
+     */
+    public interface Backend {
+        /**
+         * The reminder was added or moved.
+         */
+        void scheduled(ScheduledReminder reminder);
+
+        /**
+         * The reminder left the schedule, because it was cancelled or shown.
+         */
+        void removed(String id);
+
+        /**
+         * The earliest deadline changed; {@link ReminderScheduler#NO_DEADLINE}
+         * when the schedule is empty.
+         */
+        void deadlineChanged(long deadline);
+    }
+
+    public static final Backend NO_BACKEND = new Backend() {
+        @Override
+        public void scheduled(ScheduledReminder reminder) {
+        }
+
+        @Override
+        public void removed(String id) {
+        }
+
+        @Override
+        public void deadlineChanged(long deadline) {
+        }
+    };
+
+    // Reminders older than this when their deadline is reached are dropped instead of shown
+    public static final long MISSED_REMINDER_WINDOW_MS = 60000;
+    // How long a shown reminder can still be snoozed
+    public static final long FIRED_RETENTION_MS = 24 * 60 * 60 * 1000L;
+    // Snoozed copies are one-off reminders of their own, so a repeating reminder stays on its rule
+    public static final String SNOOZE_SUFFIX = "#snooze";
+
+    private final ReminderScheduler scheduler;
+    private ReminderStore store;
+    // Reminders shown recently, indexed by id so a snooze can find them
+    private ReminderStore fired;
+    private RecurrenceSchedule recurrences = new RecurrenceSchedule();
+    private Backend backend = NO_BACKEND;
+    // Last deadline reported to the backend
+    private long armed = ReminderScheduler.NO_DEADLINE;
+
+    // Turned off by the simulator; unforced writes still reach the files unless the kernel goes down
+    boolean forceWrites = true;
+
+    private final List<ScheduledReminder> changed = new ArrayList<>();
+    private final List<String> removed = new ArrayList<>();
+
+    public ReminderEngine(ReminderScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Loads the schedule from the store in {@code dir} and opens the store of
+     * shown reminders in {@code firedDir}, dropping those past
+     * {@link #FIRED_RETENTION_MS}. Until a store opens, the engine schedules
+     * in memory only.
+     */
+    public void open(File dir, File firedDir, long now) throws IOException {
+        store = ReminderStore.open(dir);
+        List<ScheduledReminder> reminders = new ArrayList<>(store.size());
+        store.readAll(reminders);
+        scheduler.clear();
+        scheduler.scheduleAll(reminders);
+
+        fired = ReminderStore.open(firedDir);
+        List<ScheduledReminder> shown = new ArrayList<>(fired.size());
+        fired.readAll(shown);
+        for (int i = 0; i < shown.size(); i++) {
+            if (shown.get(i).timestamp < now - FIRED_RETENTION_MS) {
+                fired.remove(shown.get(i).id);
+            }
+        }
+        fired.compactIfNeeded();
+        fired.force();
+    }
+
+    public boolean isOpen() {
+        return store != null;
+    }
+
+    public void close() throws IOException {
+        try {
+            if (store != null) store.close();
+        } finally {
+            store = null;
+            if (fired != null) {
+                fired.close();
+                fired = null;
+            }
+        }
+    }
+
+    public ReminderScheduler scheduler() {
+        return scheduler;
+    }
+
+    public RecurrenceSchedule recurrences() {
+        return recurrences;
+    }
+
+    public void setRecurrences(RecurrenceSchedule recurrences) {
+        this.recurrences = recurrences;
+    }
+
+    /**
+     * Takes over a backend that already knows the schedule, such as alarms
+     * set before the process was restarted; only the deadline is reported.
+     */
+    public void attach(Backend backend) {
+        this.backend = backend;
+        armed = scheduler.nextDeadline();
+        backend.deadlineChanged(armed);
+    }
+
+    /**
+     * Hands delivery over to {@code backend}: the current backend forgets
+     * every reminder and the new one is told about all of them.
+     */
+    public void switchTo(Backend backend) {
+        List<ScheduledReminder> all = new ArrayList<>(scheduler.size());
+        scheduler.copyTo(all);
+        for (int i = 0; i < all.size(); i++) {
+            this.backend.removed(all.get(i).id);
+        }
+        this.backend.deadlineChanged(ReminderScheduler.NO_DEADLINE);
+        this.backend = backend;
+        replay(all);
+    }
+
+    public int size() {
+        return scheduler.size();
+    }
+
+    public long nextDeadline() {
+        return scheduler.nextDeadline();
+    }
+
+    /**
+     * Approximate heap bytes of the schedule.
+     */
+    public long estimatedBytes() {
+        return scheduler.estimatedBytes();
+    }
+
+    /**
+     * Bytes the schedule takes on disk, tombstones included.
+     */
+    public long storedBytes() {
+        return store == null ? 0 : store.usedBytes();
+    }
+
+    /**
+     * Schedules {@code reminder}, replacing the one with the same id.
+     * Scheduling an identical reminder again changes and writes nothing.
+     *
+     * @return {@link ReminderScheduler#INSERTED}, {@link ReminderScheduler#UPDATED}
+     *         or {@link ReminderScheduler#UNCHANGED}
+     */
+    public int schedule(ScheduledReminder reminder) throws IOException {
+        int result = scheduler.upsert(reminder);
+        if (result == ReminderScheduler.UNCHANGED) return result;
+        backend.scheduled(reminder);
+        try {
+            if (store != null) {
+                store.put(reminder);
+                persist();
+            }
+        } finally {
+            rearmIfChanged();
+        }
+        return result;
+    }
+
+    /**
+     * Applies the batch's cancellations, then upserts its reminders, with a
+     * single flush. The rules of the batch's reminders must already be in
+     * {@link #recurrences()}.
+     *
+     * @return number of reminders cancelled, inserted or moved
+     */
+    public int apply(ReminderBatch batch) throws IOException {
+        changed.clear();
+        removed.clear();
+        for (int i = 0; i < batch.cancelCount(); i++) {
+            scheduler.cancelHabit(batch.cancelledHabit(i), removed);
+        }
+        // Reminders already queued exactly like this are neither duplicated nor rewritten
+        scheduler.upsertAll(batch.reminders(), changed);
+        return commit();
+    }
+
+    /**
+     * @return true if the reminder was scheduled
+     */
+    public boolean cancel(String id) throws IOException {
+        recurrences.remove(id);
+        if (!scheduler.cancel(id)) return false;
+        changed.clear();
+        removed.clear();
+        removed.add(id);
+        commit();
+        return true;
+    }
+
+    /**
+     * Cancels every reminder of a habit; walks only the habit's own reminders.
+     *
+     * @return number of reminders cancelled
+     */
+    public int cancelHabit(int habitId) throws IOException {
+        recurrences.removeHabit(habitId);
+        changed.clear();
+        removed.clear();
+        scheduler.cancelHabit(habitId, removed);
+        return commit();
+    }
+
+    /**
+     * Applies a schedule delta to the rules and the schedule.
+     *
+     * @return the number of operations that changed something
+     */
+    public int apply(ScheduleDelta delta, ZoneId deviceZone, long now) throws IOException {
+        changed.clear();
+        removed.clear();
+        int applied = delta.applyTo(recurrences, scheduler, deviceZone, now, changed, removed);
+        commit();
+        return applied;
+    }
+
+    /**
+     * Shows a shown reminder again after the policy's next snooze delay, as
+     * a one-off copy under {@link #snoozeId(String)}. The reminder itself
+     * stays where it is, so a repeating one still fires at its next
+     * occurrence; snoozing the copy again moves the copy.
+     *
+     * @return the delay, or -1 if no reminder with that id was shown recently
+     */
+    public long snooze(String id, SnoozePolicy policy, long now) throws IOException {
+        ScheduledReminder shown = id == null || fired == null ? null : fired.get(id);
+        if (shown == null) return -1;
+        String snoozeId = snoozeId(id);
+        // Escalates per reminder, however often its copy is snoozed
+        long delay = policy.nextDelay(snoozeId.substring(0, snoozeId.length() - SNOOZE_SUFFIX.length()), now);
+        ScheduledReminder copy = new ScheduledReminder(snoozeId, shown.habitName, shown.message, shown.habitColor,
+            now + delay, shown.habitId, shown.reminderIndex);
+        scheduler.upsert(copy);
+        changed.clear();
+        removed.clear();
+        changed.add(copy);
+        try {
+            commit();
+        } finally {
+            fired.remove(id);
+            flushFired();
+        }
+        return delay;
+    }
+
+    public static String snoozeId(String id) {
+        return id.endsWith(SNOOZE_SUFFIX) ? id : id + SNOOZE_SUFFIX;
+    }
+
+    /**
+     * Handles reminders the scheduler reported due at {@code now}: those
+     * still within {@link #MISSED_REMINDER_WINDOW_MS} are appended to
+     * {@code shown} and kept for snoozing, repeating ones move on to their
+     * next occurrence, and the rest leave the schedule.
+     */
+    public void deliver(List<ScheduledReminder> due, long now, List<ScheduledReminder> shown) throws IOException {
+        changed.clear();
+        removed.clear();
+        int first = shown.size();
+        recurrences.advance(scheduler, due, now, MISSED_REMINDER_WINDOW_MS, shown, changed, removed);
+        SchedulerMetrics metrics = SchedulerMetrics.get();
+        for (int i = first; i < shown.size(); i++) {
+            metrics.recordFired(shown.get(i).timestamp, now);
+        }
+        try {
+            commit();
+        } finally {
+            if (fired != null && shown.size() > first) {
+                fired.putAll(shown.subList(first, shown.size()));
+                flushFired();
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the schedule after the device was off: reminders that expired
+     * meanwhile are fast-forwarded, advanced or dropped as
+     * {@link ScheduleRehydrator} decides, and the backend, which lost
+     * whatever it had registered with the system, is told about every
+     * reminder again.
+     */
+    public ScheduleRehydrator rehydrate(long now, long graceMs) throws IOException {
+        ScheduleRehydrator rehydrator = new ScheduleRehydrator(now, graceMs);
+        List<ScheduledReminder> expired = new ArrayList<>();
+        scheduler.pollDue(now, expired);
+        // What is left is still in the future
+        rehydrator.addKept(scheduler.size());
+        changed.clear();
+        removed.clear();
+        for (int i = 0; i < expired.size(); i++) {
+            ScheduledReminder reminder = expired.get(i);
+            if (rehydrator.apply(reminder, recurrences) == ScheduleRehydrator.DROP) {
+                removed.add(reminder.id);
+            } else {
+                scheduler.schedule(reminder);
+                changed.add(reminder);
+            }
+        }
+
+        List<ScheduledReminder> all = new ArrayList<>(scheduler.size());
+        scheduler.copyTo(all);
+        try {
+            write();
+        } finally {
+            replay(all);
+        }
+        return rehydrator;
+    }
+
+    // Writes and reports changed and removed, then the deadline
+    private int commit() throws IOException {
+        for (int i = 0; i < removed.size(); i++) {
+            backend.removed(removed.get(i));
+        }
+        for (int i = 0; i < changed.size(); i++) {
+            backend.scheduled(changed.get(i));
+        }
+        try {
+            write();
+        } finally {
+            rearmIfChanged();
+        }
+        return changed.size() + removed.size();
+    }
+
+    private void write() throws IOException {
+        if (store == null || changed.isEmpty() && removed.isEmpty()) return;
+        for (int i = 0; i < removed.size(); i++) {
+            store.remove(removed.get(i));
+        }
+        store.putAll(changed);
+        persist();
+    }
+
+    private void persist() throws IOException {
+        store.compactIfNeeded();
+        if (forceWrites) store.force();
+        SchedulerMetrics.get().recordStoreSize(store.size(), store.usedBytes());
+    }
+
+    private void flushFired() throws IOException {
+        fired.compactIfNeeded();
+        if (forceWrites) fired.force();
+    }
+
+    private void replay(List<ScheduledReminder> all) {
+        for (int i = 0; i < all.size(); i++) {
+            backend.scheduled(all.get(i));
+        }
+        armed = scheduler.nextDeadline();
+        backend.deadlineChanged(armed);
+    }
+
+    private void rearmIfChanged() {
+        long deadline = scheduler.nextDeadline();
+        if (deadline == armed) return;
+        armed = deadline;
+        backend.deadlineChanged(deadline);
+    }
+}
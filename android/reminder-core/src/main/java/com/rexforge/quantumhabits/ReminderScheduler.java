@@ -0,0 +1,243 @@
+package com.rexforge.quantumhabits;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Deadline-ordered reminder queue.
+ *
+ * Reminders are rows of a {@link ReminderTable}; a binary min-heap of row
+ * indexes keyed on the timestamp column orders them, so the owner only has
+ * to wake up at {@link #nextDeadline()} instead of polling. The heap keeps
+ * each row's position, which makes removing an arbitrary row O(log n) and
+ * cancelling a habit O(k log n) for its k reminders.
+ *
+ * All methods take the current time explicitly which keeps the class free of
+ * Android dependencies and lets tests drive it with a fake clock.
+ *
+ * Not thread-safe; callers confine it to a single thread.
+ */
+public class ReminderScheduler {
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    public static final int UNCHANGED = 0;
+    public static final int INSERTED = 1;
+    public static final int UPDATED = 2;
+
+    private final ReminderTable table = new ReminderTable();
+    private int[] heap = new int[16];
+    // Row -> position in heap
+    private int[] heapIndex = new int[16];
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void schedule(ScheduledReminder reminder) {
+        int row = table.insert(reminder);
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+        }
+        if (table.rowCapacity() > heapIndex.length) {
+            heapIndex = Arrays.copyOf(heapIndex, table.rowCapacity());
+        }
+        heap[size] = row;
+        heapIndex[row] = size;
+        siftUp(size++);
+    }
+
+    public void scheduleAll(List<ScheduledReminder> reminders) {
+        for (int i = 0; i < reminders.size(); i++) {
+            schedule(reminders.get(i));
+        }
+    }
+
+    /**
+     * Schedules {@code reminder}, replacing a queued reminder with the same id.
+     *
+     * @return {@link #INSERTED}, {@link #UPDATED}, or {@link #UNCHANGED} if an
+     *         identical reminder was already queued
+     */
+    public int upsert(ScheduledReminder reminder) {
+        int row = table.findById(reminder.id);
+        if (row == ReminderTable.NO_ROW) {
+            schedule(reminder);
+            return INSERTED;
+        }
+        if (table.sameAs(row, reminder)) return UNCHANGED;
+        removeRow(row);
+        schedule(reminder);
+        return UPDATED;
+    }
+
+    /**
+     * Upserts every reminder, appending the ones that were inserted or
+     * updated to {@code changed}.
+     *
+     * @return number of reminders appended to {@code changed}
+     */
+    public int upsertAll(List<ScheduledReminder> reminders, List<ScheduledReminder> changed) {
+        int count = 0;
+        for (int i = 0; i < reminders.size(); i++) {
+            ScheduledReminder reminder = reminders.get(i);
+            if (upsert(reminder) != UNCHANGED) {
+                changed.add(reminder);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Earliest timestamp in the queue, or {@link #NO_DEADLINE} when empty.
+     */
+    public long nextDeadline() {
+        return size == 0 ? NO_DEADLINE : table.timestamp(heap[0]);
+    }
+
+    /**
+     * Milliseconds until the next deadline, clamped at zero, or -1 when the
+     * queue is empty.
+     */
+    public long delayUntilNext(long now) {
+        if (size == 0) return -1;
+        return Math.max(0, table.timestamp(heap[0]) - now);
+    }
+
+    /**
+     * Removes every reminder whose timestamp is at or before {@code now} and
+     * appends them to {@code out} in deadline order.
+     *
+     * @return number of reminders moved into {@code out}
+     */
+    public int pollDue(long now, List<ScheduledReminder> out) {
+        int count = 0;
+        while (size > 0 && table.timestamp(heap[0]) <= now) {
+            int row = heap[0];
+            out.add(table.toReminder(row));
+            removeRow(row);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Removes all reminders of a habit.
+     *
+     * @return number of reminders removed
+     */
+    public int cancelHabit(int habitId) {
+        return cancelHabit(habitId, null);
+    }
+
+    /**
+     * Removes all reminders of a habit, appending their ids to
+     * {@code removedIds} when it is not null.
+     *
+     * @return number of reminders removed
+     */
+    public int cancelHabit(int habitId, List<String> removedIds) {
+        int count = 0;
+        int row = table.firstRowOfHabit(habitId);
+        while (row != ReminderTable.NO_ROW) {
+            int next = table.nextRowOfHabit(row);
+            if (removedIds != null) {
+                removedIds.add(table.id(row));
+            }
+            removeRow(row);
+            row = next;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Removes the reminder with the given id.
+     *
+     * @return true if it was queued
+     */
+    public boolean cancel(String id) {
+        int row = table.findById(id);
+        if (row == ReminderTable.NO_ROW) return false;
+        removeRow(row);
+        return true;
+    }
+
+    public boolean contains(String id) {
+        return table.findById(id) != ReminderTable.NO_ROW;
+    }
+
+    /**
+     * Copies the queued reminders into {@code out} in heap (not deadline) order.
+     */
+    public void copyTo(List<ScheduledReminder> out) {
+        for (int i = 0; i < size; i++) {
+            out.add(table.toReminder(heap[i]));
+        }
+    }
+
+    public void clear() {
+        table.clear();
+        size = 0;
+    }
+
+    /**
+     * Approximate heap bytes used by the queue and its table.
+     */
+    public long estimatedBytes() {
+        return table.estimatedBytes() + heap.length * 4L + heapIndex.length * 4L;
+    }
+
+    private void removeRow(int row) {
+        int index = heapIndex[row];
+        int last = --size;
+        if (index != last) {
+            int moved = heap[last];
+            heap[index] = moved;
+            heapIndex[moved] = index;
+            siftDown(index);
+            siftUp(heapIndex[moved]);
+        }
+        table.remove(row);
+    }
+
+    private void siftUp(int index) {
+        int row = heap[index];
+        long timestamp = table.timestamp(row);
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            int parentRow = heap[parent];
+            if (table.timestamp(parentRow) <= timestamp) break;
+            heap[index] = parentRow;
+            heapIndex[parentRow] = index;
+            index = parent;
+        }
+        heap[index] = row;
+        heapIndex[row] = index;
+    }
+
+    private void siftDown(int index) {
+        int row = heap[index];
+        long timestamp = table.timestamp(row);
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < size && table.timestamp(heap[right]) < table.timestamp(heap[child])) {
+                child = right;
+            }
+            int childRow = heap[child];
+            if (timestamp <= table.timestamp(childRow)) break;
+            heap[index] = childRow;
+            heapIndex[childRow] = index;
+            index = child;
+        }
+        heap[index] = row;
+        heapIndex[row] = index;
+    }
+}
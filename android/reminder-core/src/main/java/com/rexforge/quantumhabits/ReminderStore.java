@@ -0,0 +1,437 @@
+package com.rexforge.quantumhabits;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary, memory-mapped persistence for {@link ScheduledReminder}s.
+ *
+ * Two files live in the store directory:
+ * <ul>
+ *   <li>{@code reminders.dat} - a header followed by fixed-width records. A
+ *   record can be rewritten in place, deletes only flip its state to a
+ *   tombstone.</li>
+ *   <li>{@code strings.dat} - an append-only table of length-prefixed UTF-8
+ *   strings. Records point at strings by byte offset, so a habit name or
+ *   message shared by many reminders is stored once.</li>
+ * </ul>
+ * Tombstoned records and unreferenced strings are dropped by {@link #compact()}.
+ * Records only make sense next to the strings file they were written with,
+ * so compaction swaps both files in as a pair: a {@code compact.commit}
+ * marker, written once the new files are complete, makes {@link #open(File)}
+ * finish an interrupted swap instead of mixing old and new files.
+ *
+ * Not thread-safe; callers confine it to a single thread.
+ */
+public class ReminderStore implements Closeable {
+    static final String RECORDS_FILE = "reminders.dat";
+    static final String STRINGS_FILE = "strings.dat";
+    static final String COMMIT_FILE = "compact.commit";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static final int RECORDS_MAGIC = 0x51485253; // "QHRS"
+    private static final int STRINGS_MAGIC = 0x51485354; // "QHST"
+    private static final int VERSION = 1;
+
+    // Header: magic, version, slot count (high-water mark), live count
+    private static final int RECORDS_HEADER = 16;
+    // Header: magic, version, end of used bytes
+    private static final int STRINGS_HEADER = 12;
+
+    // Record: state, timestamp, habitId, reminderIndex, id, habitName, message, habitColor
+    static final int RECORD_SIZE = 4 + 8 + 4 + 4 + 4 * 4;
+    private static final int OFF_STATE = 0;
+    private static final int OFF_TIMESTAMP = 4;
+    private static final int OFF_HABIT_ID = 12;
+    private static final int OFF_REMINDER_INDEX = 16;
+    private static final int OFF_ID = 20;
+    private static final int OFF_NAME = 24;
+    private static final int OFF_MESSAGE = 28;
+    private static final int OFF_COLOR = 32;
+
+    private static final int STATE_LIVE = 1;
+    private static final int STATE_TOMBSTONE = 2;
+
+    private static final int MIN_CAPACITY = 4096;
+    // Compact once tombstones outnumber live records (and there are enough to bother)
+    private static final int COMPACT_MIN_TOMBSTONES = 64;
+
+    private final File dir;
+    private RandomAccessFile recordsFile;
+    private RandomAccessFile stringsFile;
+    private MappedByteBuffer records;
+    private MappedByteBuffer strings;
+
+    private int slotCount;
+    private int liveCount;
+    private int stringsEnd;
+
+    private final Map<String, Integer> idToSlot = new HashMap<>();
+    private final Map<String, Integer> stringToRef = new HashMap<>();
+    private final Map<Integer, String> refToString = new HashMap<>();
+
+    // Runs between the two renames of compact(); tests throw from it to simulate a crash
+    Runnable beforeRecordsSwap;
+
+    private ReminderStore(File dir) {
+        this.dir = dir;
+    }
+
+    public static ReminderStore open(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create reminder store directory " + dir);
+        }
+        ReminderStore store = new ReminderStore(dir);
+        store.recover();
+        store.map();
+        return store;
+    }
+
+    /**
+     * Number of live reminders.
+     */
+    public int size() {
+        return liveCount;
+    }
+
+    /**
+     * Bytes in use across both files, tombstones included.
+     */
+    public long usedBytes() {
+        return RECORDS_HEADER + (long) slotCount * RECORD_SIZE + stringsEnd;
+    }
+
+    public int tombstones() {
+        return slotCount - liveCount;
+    }
+
+    public boolean contains(String id) {
+        return idToSlot.containsKey(id);
+    }
+
+    /**
+     * @return the live reminder with the given id, or null
+     */
+    public ScheduledReminder get(String id) {
+        Integer slot = idToSlot.get(id);
+        return slot == null ? null : readRecord(RECORDS_HEADER + slot * RECORD_SIZE);
+    }
+
+    /**
+     * Receives reminders one at a time from {@link #forEach(Visitor)}.
+     */
+    public interface Visitor {
+        void visit(ScheduledReminder reminder);
+    }
+
+    /**
+     * Decodes live reminders one at a time, without collecting them. The
+     * visitor must not modify the store.
+     */
+    public void forEach(Visitor visitor) {
+        for (int slot = 0; slot < slotCount; slot++) {
+            int base = RECORDS_HEADER + slot * RECORD_SIZE;
+            if (records.getInt(base + OFF_STATE) == STATE_LIVE) {
+                visitor.visit(readRecord(base));
+            }
+        }
+    }
+
+    /**
+     * Decodes every live reminder into {@code out}.
+     */
+    public void readAll(List<ScheduledReminder> out) {
+        for (int slot = 0; slot < slotCount; slot++) {
+            int base = RECORDS_HEADER + slot * RECORD_SIZE;
+            if (records.getInt(base + OFF_STATE) == STATE_LIVE) {
+                out.add(readRecord(base));
+            }
+        }
+    }
+
+    /**
+     * Inserts the reminder, or overwrites the record with the same id in place.
+     */
+    public void put(ScheduledReminder reminder) throws IOException {
+        Integer slot = idToSlot.get(reminder.id);
+        if (slot == null) {
+            ensureRecordCapacity(slotCount + 1);
+            slot = slotCount++;
+            liveCount++;
+            idToSlot.put(reminder.id, slot);
+            writeHeaderCounts();
+        }
+        writeRecord(RECORDS_HEADER + slot * RECORD_SIZE, reminder);
+    }
+
+    public void putAll(List<ScheduledReminder> reminders) throws IOException {
+        for (int i = 0; i < reminders.size(); i++) {
+            put(reminders.get(i));
+        }
+    }
+
+    /**
+     * Marks the reminder's record as a tombstone.
+     *
+     * @return true if a live record was removed
+     */
+    public boolean remove(String id) {
+        Integer slot = idToSlot.remove(id);
+        if (slot == null) return false;
+        records.putInt(RECORDS_HEADER + slot * RECORD_SIZE + OFF_STATE, STATE_TOMBSTONE);
+        liveCount--;
+        writeHeaderCounts();
+        return true;
+    }
+
+    public void clear() throws IOException {
+        unmap();
+        new File(dir, RECORDS_FILE).delete();
+        new File(dir, STRINGS_FILE).delete();
+        map();
+    }
+
+    /**
+     * Runs {@link #compact()} when tombstones dominate the record file.
+     *
+     * @return true if the store was compacted
+     */
+    public boolean compactIfNeeded() throws IOException {
+        int dead = tombstones();
+        if (dead >= COMPACT_MIN_TOMBSTONES && dead > liveCount) {
+            compact();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Rewrites both files keeping only live records and the strings they use.
+     */
+    public void compact() throws IOException {
+        List<ScheduledReminder> live = new ArrayList<>(liveCount);
+        readAll(live);
+        unmap();
+
+        File recordsTmp = new File(dir, RECORDS_FILE + TMP_SUFFIX);
+        File stringsTmp = new File(dir, STRINGS_FILE + TMP_SUFFIX);
+        recordsTmp.delete();
+        stringsTmp.delete();
+        ReminderStore fresh = new ReminderStore(dir);
+        fresh.map(recordsTmp, stringsTmp);
+        fresh.putAll(live);
+        fresh.force();
+        fresh.close();
+
+        // From here on, open() completes the swap if it is interrupted
+        new File(dir, COMMIT_FILE).createNewFile();
+        swapIn(stringsTmp, STRINGS_FILE);
+        if (beforeRecordsSwap != null) beforeRecordsSwap.run();
+        swapIn(recordsTmp, RECORDS_FILE);
+        new File(dir, COMMIT_FILE).delete();
+        map();
+    }
+
+    // Finishes a committed compaction, or discards the files of one that never committed
+    private void recover() throws IOException {
+        File recordsTmp = new File(dir, RECORDS_FILE + TMP_SUFFIX);
+        File stringsTmp = new File(dir, STRINGS_FILE + TMP_SUFFIX);
+        File commit = new File(dir, COMMIT_FILE);
+        if (!commit.exists()) {
+            recordsTmp.delete();
+            stringsTmp.delete();
+            return;
+        }
+        if (stringsTmp.exists()) swapIn(stringsTmp, STRINGS_FILE);
+        if (recordsTmp.exists()) swapIn(recordsTmp, RECORDS_FILE);
+        commit.delete();
+    }
+
+    private void swapIn(File tmp, String name) throws IOException {
+        if (!tmp.renameTo(new File(dir, name))) {
+            throw new IOException("Cannot replace " + name + " in " + dir);
+        }
+    }
+
+    /**
+     * Flushes mapped pages to disk.
+     */
+    public void force() {
+        // Strings first, so a record on disk never points past the strings that reached it
+        strings.force();
+        records.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (records != null) {
+            force();
+        }
+        unmap();
+    }
+
+    private void map() throws IOException {
+        map(new File(dir, RECORDS_FILE), new File(dir, STRINGS_FILE));
+    }
+
+    private void map(File recordsPath, File stringsPath) throws IOException {
+        idToSlot.clear();
+        stringToRef.clear();
+        refToString.clear();
+
+        recordsFile = new RandomAccessFile(recordsPath, "rw");
+        stringsFile = new RandomAccessFile(stringsPath, "rw");
+        boolean fresh = recordsFile.length() < RECORDS_HEADER || stringsFile.length() < STRINGS_HEADER;
+
+        records = mapFile(recordsFile, Math.max(MIN_CAPACITY, recordsFile.length()));
+        strings = mapFile(stringsFile, Math.max(MIN_CAPACITY, stringsFile.length()));
+
+        if (fresh || records.getInt(0) != RECORDS_MAGIC || strings.getInt(0) != STRINGS_MAGIC
+                || records.getInt(4) != VERSION || strings.getInt(4) != VERSION) {
+            records.putInt(0, RECORDS_MAGIC);
+            records.putInt(4, VERSION);
+            strings.putInt(0, STRINGS_MAGIC);
+            strings.putInt(4, VERSION);
+            slotCount = 0;
+            liveCount = 0;
+            stringsEnd = STRINGS_HEADER;
+            writeHeaderCounts();
+            strings.putInt(8, stringsEnd);
+            return;
+        }
+
+        slotCount = records.getInt(8);
+        stringsEnd = strings.getInt(8);
+        liveCount = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            int base = RECORDS_HEADER + slot * RECORD_SIZE;
+            if (records.getInt(base + OFF_STATE) == STATE_LIVE) {
+                idToSlot.put(stringAt(records.getInt(base + OFF_ID)), slot);
+                liveCount++;
+            }
+        }
+        // Rebuild the intern table so new records reuse existing strings
+        int ref = STRINGS_HEADER;
+        while (ref < stringsEnd) {
+            String value = stringAt(ref);
+            stringToRef.put(value, ref);
+            ref += 4 + strings.getInt(ref);
+        }
+    }
+
+    private void unmap() throws IOException {
+        records = null;
+        strings = null;
+        if (recordsFile != null) {
+            recordsFile.close();
+            recordsFile = null;
+        }
+        if (stringsFile != null) {
+            stringsFile.close();
+            stringsFile = null;
+        }
+    }
+
+    private static MappedByteBuffer mapFile(RandomAccessFile file, long size) throws IOException {
+        return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private void ensureRecordCapacity(int slots) throws IOException {
+        long needed = RECORDS_HEADER + (long) slots * RECORD_SIZE;
+        if (needed > records.capacity()) {
+            records = mapFile(recordsFile, grow(records.capacity(), needed));
+        }
+    }
+
+    private void ensureStringCapacity(int bytes) throws IOException {
+        long needed = (long) stringsEnd + bytes;
+        if (needed > strings.capacity()) {
+            strings = mapFile(stringsFile, grow(strings.capacity(), needed));
+        }
+    }
+
+    private static long grow(long current, long needed) {
+        long size = Math.max(current, MIN_CAPACITY);
+        while (size < needed) {
+            size *= 2;
+        }
+        return size;
+    }
+
+    private void writeHeaderCounts() {
+        records.putInt(8, slotCount);
+        records.putInt(12, liveCount);
+    }
+
+    private ScheduledReminder readRecord(int base) {
+        return new ScheduledReminder(
+            stringAt(records.getInt(base + OFF_ID)),
+            stringAt(records.getInt(base + OFF_NAME)),
+            stringAt(records.getInt(base + OFF_MESSAGE)),
+            stringAt(records.getInt(base + OFF_COLOR)),
+            records.getLong(base + OFF_TIMESTAMP),
+            records.getInt(base + OFF_HABIT_ID),
+            records.getInt(base + OFF_REMINDER_INDEX)
+        );
+    }
+
+    private void writeRecord(int base, ScheduledReminder reminder) throws IOException {
+        // Intern first: growing the string table must not leave a half-written record
+        int idRef = intern(reminder.id);
+        int nameRef = intern(reminder.habitName);
+        int messageRef = intern(reminder.message);
+        int colorRef = intern(reminder.habitColor);
+
+        records.putLong(base + OFF_TIMESTAMP, reminder.timestamp);
+        records.putInt(base + OFF_HABIT_ID, reminder.habitId);
+        records.putInt(base + OFF_REMINDER_INDEX, reminder.reminderIndex);
+        records.putInt(base + OFF_ID, idRef);
+        records.putInt(base + OFF_NAME, nameRef);
+        records.putInt(base + OFF_MESSAGE, messageRef);
+        records.putInt(base + OFF_COLOR, colorRef);
+        records.putInt(base + OFF_STATE, STATE_LIVE);
+    }
+
+    private int intern(String value) throws IOException {
+        if (value == null) value = "";
+        Integer existing = stringToRef.get(value);
+        if (existing != null) return existing;
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensureStringCapacity(4 + bytes.length);
+        int ref = stringsEnd;
+        strings.putInt(ref, bytes.length);
+        for (int i = 0; i < bytes.length; i++) {
+            strings.put(ref + 4 + i, bytes[i]);
+        }
+        stringsEnd += 4 + bytes.length;
+        strings.putInt(8, stringsEnd);
+
+        stringToRef.put(value, ref);
+        refToString.put(ref, value);
+        return ref;
+    }
+
+    private String stringAt(int ref) {
+        String cached = refToString.get(ref);
+        if (cached != null) return cached;
+
+        int length = strings.getInt(ref);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = strings.get(ref + 4 + i);
+        }
+        String value = new String(bytes, StandardCharsets.UTF_8);
+        refToString.put(ref, value);
+        return value;
+    }
+}
@@ -0,0 +1,232 @@
+package com.rexforge.quantumhabits;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers a content hash for every habit and reminder rule that has been
+ * handed to the {@link ReminderEngine}, so a sync from JS only has to apply
+ * the difference to what is already scheduled.
+ *
+ * A sync walks the incoming habits in order:
+ * <pre>
+ *   state.begin();
+ *   for each habit:
+ *     if (!state.startHabit(id, habitHash)) {
+ *       for each enabled rule: state.classifyRule(j, ruleHash);
+ *       boolean reschedule = state.endHabit();
+ *     }
+ *   state.finish();   // habits that disappeared are in removedHabits()
+ * </pre>
+ * Rules are identified the same way as reminder ids, by habit id and rule
+ * index ({@code habit-{id}-reminder-{j}}).
+ */
+public class ReminderSyncState {
+    public static final int RULE_ADDED = 0;
+    public static final int RULE_CHANGED = 1;
+    public static final int RULE_KEPT = 2;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static class HabitEntry {
+        final long hash;
+        final Map<Integer, Long> rules = new HashMap<>();
+
+        HabitEntry(long hash) {
+            this.hash = hash;
+        }
+    }
+
+    private Map<Integer, HabitEntry> habits = new HashMap<>();
+    private Map<Integer, HabitEntry> next;
+    private HabitEntry previousHabit;
+    private HabitEntry currentHabit;
+    private boolean currentHabitChanged;
+
+    private int added;
+    private int changed;
+    private int removed;
+    private int kept;
+    private int rescheduledHabits;
+    private int[] removedHabits = new int[0];
+
+    /**
+     * 64-bit FNV-1a hash of a string, stable across processes and releases.
+     */
+    public static long hash(String value) {
+        return hash(FNV_OFFSET, value, 0, value.length());
+    }
+
+    public static long hash(CharSequence value, int start, int end) {
+        return hash(FNV_OFFSET, value, start, end);
+    }
+
+    /**
+     * Continues {@code hash} over {@code value[start, end)}; hashing a string
+     * in pieces gives the same result as hashing it whole.
+     */
+    public static long hash(long hash, CharSequence value, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    public void begin() {
+        next = new HashMap<>();
+        added = changed = removed = kept = rescheduledHabits = 0;
+        removedHabits = new int[0];
+    }
+
+    /**
+     * @return true if the habit is identical to the last sync; its rules are
+     *         then kept as they are and must not be classified
+     */
+    public boolean startHabit(int habitId, long habitHash) {
+        previousHabit = habits.get(habitId);
+        if (previousHabit != null && previousHabit.hash == habitHash) {
+            next.put(habitId, previousHabit);
+            kept += previousHabit.rules.size();
+            currentHabit = null;
+            return true;
+        }
+        currentHabit = new HabitEntry(habitHash);
+        currentHabitChanged = false;
+        next.put(habitId, currentHabit);
+        return false;
+    }
+
+    public int classifyRule(int reminderIndex, long ruleHash) {
+        currentHabit.rules.put(reminderIndex, ruleHash);
+        Long previous = previousHabit != null ? previousHabit.rules.get(reminderIndex) : null;
+        if (previous == null) {
+            added++;
+            return RULE_ADDED;
+        }
+        if (previous != ruleHash) {
+            changed++;
+            currentHabitChanged = true;
+            return RULE_CHANGED;
+        }
+        kept++;
+        return RULE_KEPT;
+    }
+
+    /**
+     * @return true if reminders already scheduled for the habit are stale
+     *         (a rule changed or disappeared) and the habit has to be cancelled
+     *         and scheduled again; false if only added rules need scheduling
+     */
+    public boolean endHabit() {
+        if (previousHabit != null) {
+            for (Integer reminderIndex : previousHabit.rules.keySet()) {
+                if (!currentHabit.rules.containsKey(reminderIndex)) {
+                    removed++;
+                    currentHabitChanged = true;
+                }
+            }
+        }
+        if (currentHabitChanged) {
+            rescheduledHabits++;
+        }
+        currentHabit = null;
+        previousHabit = null;
+        return currentHabitChanged;
+    }
+
+    public void finish() {
+        int count = 0;
+        int[] gone = new int[habits.size()];
+        for (Map.Entry<Integer, HabitEntry> entry : habits.entrySet()) {
+            if (!next.containsKey(entry.getKey())) {
+                gone[count++] = entry.getKey();
+                removed += entry.getValue().rules.size();
+            }
+        }
+        removedHabits = Arrays.copyOf(gone, count);
+        habits = next;
+        next = null;
+    }
+
+    /**
+     * Drops the hashes of a habit whose reminders were cancelled outside a sync.
+     */
+    public void forgetHabit(int habitId) {
+        habits.remove(habitId);
+    }
+
+    /**
+     * Habits present in the previous sync but missing from the last one.
+     */
+    public int[] removedHabits() {
+        return removedHabits;
+    }
+
+    public int added() {
+        return added;
+    }
+
+    public int changed() {
+        return changed;
+    }
+
+    public int removed() {
+        return removed;
+    }
+
+    public int kept() {
+        return kept;
+    }
+
+    public int rescheduledHabits() {
+        return rescheduledHabits;
+    }
+
+    /**
+     * Serializes the hashes as {@code habitId:hash:j=hash,j=hash;...} (hex).
+     */
+    public String encode() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<Integer, HabitEntry> habit : habits.entrySet()) {
+            if (sb.length() > 0) sb.append(';');
+            sb.append(habit.getKey()).append(':').append(Long.toHexString(habit.getValue().hash)).append(':');
+            boolean first = true;
+            for (Map.Entry<Integer, Long> rule : habit.getValue().rules.entrySet()) {
+                if (!first) sb.append(',');
+                sb.append(rule.getKey()).append('=').append(Long.toHexString(rule.getValue()));
+                first = false;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Restores hashes written by {@link #encode()}. Malformed input yields an
+     * empty state, which makes the next sync schedule everything again.
+     */
+    public static ReminderSyncState decode(String encoded) {
+        ReminderSyncState state = new ReminderSyncState();
+        if (encoded == null || encoded.isEmpty()) return state;
+        try {
+            for (String habit : encoded.split(";")) {
+                String[] parts = habit.split(":", -1);
+                HabitEntry entry = new HabitEntry(Long.parseUnsignedLong(parts[1], 16));
+                if (!parts[2].isEmpty()) {
+                    for (String rule : parts[2].split(",")) {
+                        int eq = rule.indexOf('=');
+                        entry.rules.put(Integer.parseInt(rule.substring(0, eq)),
+                            Long.parseUnsignedLong(rule.substring(eq + 1), 16));
+                    }
+                }
+                state.habits.put(Integer.parseInt(parts[0]), entry);
+            }
+        } catch (RuntimeException e) {
+            return new ReminderSyncState();
+        }
+        return state;
+    }
+}
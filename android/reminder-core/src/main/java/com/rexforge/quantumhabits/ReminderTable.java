@@ -0,0 +1,313 @@
+package com.rexforge.quantumhabits;
+
+import java.util.Arrays;
+
+/**
+ * Struct-of-arrays storage for pending reminders.
+ *
+ * Every reminder is a row index into parallel primitive columns instead of
+ * an object, and habit names, messages and colors are interned in a
+ * {@link StringPool}. Two indexes sit on top of the rows:
+ * <ul>
+ *   <li>habitId to the head of a doubly linked list threaded through the
+ *   rows of that habit, so cancelling a habit touches only its own rows.
+ *   Plain notifications (negative reminderIndex) carry a notification id in
+ *   habitId and are kept out of these lists;</li>
+ *   <li>an open-addressing table from reminder id to row.</li>
+ * </ul>
+ * Freed rows are recycled, so row indexes are stable only while a row is live.
+ *
+ * Not thread-safe; callers confine it to a single thread.
+ */
+public class ReminderTable {
+    public static final int NO_ROW = -1;
+
+    private long[] timestamps;
+    private int[] habitIds;
+    private int[] reminderIndexes;
+    private String[] ids;
+    private int[] nameRefs;
+    private int[] messageRefs;
+    private int[] colorRefs;
+    // Per-habit row list; nextInHabit also chains free rows
+    private int[] nextInHabit;
+    private int[] prevInHabit;
+
+    private int highWater;
+    private int size;
+    private int freeHead = NO_ROW;
+
+    private final StringPool strings = new StringPool();
+    private final IntIntMap habitHeads = new IntIntMap();
+
+    // Reminder id -> row + 1 (0 marks a free cell)
+    private int[] idSlots;
+    private int idMask;
+
+    public ReminderTable() {
+        this(16);
+    }
+
+    public ReminderTable(int initialCapacity) {
+        int capacity = Math.max(4, initialCapacity);
+        timestamps = new long[capacity];
+        habitIds = new int[capacity];
+        reminderIndexes = new int[capacity];
+        ids = new String[capacity];
+        nameRefs = new int[capacity];
+        messageRefs = new int[capacity];
+        colorRefs = new int[capacity];
+        nextInHabit = new int[capacity];
+        prevInHabit = new int[capacity];
+        allocateIdSlots(Integer.highestOneBit(capacity * 2 - 1) << 1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Upper bound (exclusive) of row indexes handed out so far; callers size
+     * side arrays keyed by row with it.
+     */
+    public int rowCapacity() {
+        return timestamps.length;
+    }
+
+    public int insert(String id, String habitName, String message, String habitColor,
+                      long timestamp, int habitId, int reminderIndex) {
+        int row = allocateRow();
+        timestamps[row] = timestamp;
+        habitIds[row] = habitId;
+        reminderIndexes[row] = reminderIndex;
+        ids[row] = id;
+        nameRefs[row] = strings.acquire(habitName);
+        messageRefs[row] = strings.acquire(message);
+        colorRefs[row] = strings.acquire(habitColor);
+
+        prevInHabit[row] = NO_ROW;
+        nextInHabit[row] = NO_ROW;
+        if (reminderIndex >= 0) {
+            int head = habitHeads.get(habitId);
+            if (head != IntIntMap.MISSING) {
+                nextInHabit[row] = head;
+                prevInHabit[head] = row;
+            }
+            habitHeads.put(habitId, row);
+        }
+
+        indexId(row);
+        size++;
+        return row;
+    }
+
+    public int insert(ScheduledReminder reminder) {
+        return insert(reminder.id, reminder.habitName, reminder.message, reminder.habitColor,
+            reminder.timestamp, reminder.habitId, reminder.reminderIndex);
+    }
+
+    public void remove(int row) {
+        unindexId(row);
+
+        if (reminderIndexes[row] >= 0) {
+            int prev = prevInHabit[row];
+            int next = nextInHabit[row];
+            if (prev != NO_ROW) {
+                nextInHabit[prev] = next;
+            } else if (next != NO_ROW) {
+                habitHeads.put(habitIds[row], next);
+            } else {
+                habitHeads.remove(habitIds[row]);
+            }
+            if (next != NO_ROW) {
+                prevInHabit[next] = prev;
+            }
+        }
+
+        strings.release(nameRefs[row]);
+        strings.release(messageRefs[row]);
+        strings.release(colorRefs[row]);
+        ids[row] = null;
+
+        nextInHabit[row] = freeHead;
+        prevInHabit[row] = NO_ROW;
+        freeHead = row;
+        size--;
+    }
+
+    /**
+     * @return the row holding reminder {@code id}, or {@link #NO_ROW}
+     */
+    public int findById(String id) {
+        int slot = spread(id.hashCode()) & idMask;
+        while (idSlots[slot] != 0) {
+            int row = idSlots[slot] - 1;
+            if (ids[row].equals(id)) return row;
+            slot = (slot + 1) & idMask;
+        }
+        return NO_ROW;
+    }
+
+    /**
+     * @return the first row of the habit, or {@link #NO_ROW}
+     */
+    public int firstRowOfHabit(int habitId) {
+        int head = habitHeads.get(habitId);
+        return head == IntIntMap.MISSING ? NO_ROW : head;
+    }
+
+    /**
+     * @return the next row of the same habit, or {@link #NO_ROW}
+     */
+    public int nextRowOfHabit(int row) {
+        return nextInHabit[row];
+    }
+
+    public long timestamp(int row) {
+        return timestamps[row];
+    }
+
+    public void setTimestamp(int row, long timestamp) {
+        timestamps[row] = timestamp;
+    }
+
+    public int habitId(int row) {
+        return habitIds[row];
+    }
+
+    public int reminderIndex(int row) {
+        return reminderIndexes[row];
+    }
+
+    public String id(int row) {
+        return ids[row];
+    }
+
+    public String habitName(int row) {
+        return strings.get(nameRefs[row]);
+    }
+
+    public String message(int row) {
+        return strings.get(messageRefs[row]);
+    }
+
+    public String habitColor(int row) {
+        return strings.get(colorRefs[row]);
+    }
+
+    /**
+     * @return true if the row holds exactly the values of {@code reminder}
+     *         (ids are not compared)
+     */
+    public boolean sameAs(int row, ScheduledReminder reminder) {
+        return timestamps[row] == reminder.timestamp
+            && habitIds[row] == reminder.habitId
+            && reminderIndexes[row] == reminder.reminderIndex
+            && strings.get(nameRefs[row]).equals(nullToEmpty(reminder.habitName))
+            && strings.get(messageRefs[row]).equals(nullToEmpty(reminder.message))
+            && strings.get(colorRefs[row]).equals(nullToEmpty(reminder.habitColor));
+    }
+
+    public ScheduledReminder toReminder(int row) {
+        return new ScheduledReminder(ids[row], habitName(row), message(row), habitColor(row),
+            timestamps[row], habitIds[row], reminderIndexes[row]);
+    }
+
+    public void clear() {
+        Arrays.fill(ids, 0, highWater, null);
+        Arrays.fill(idSlots, 0);
+        habitHeads.clear();
+        strings.clear();
+        highWater = 0;
+        size = 0;
+        freeHead = NO_ROW;
+    }
+
+    /**
+     * Approximate heap bytes held by the columns and indexes, excluding the
+     * reminder id strings themselves.
+     */
+    public long estimatedBytes() {
+        long perRow = 8 + 4 * 7 + 4; // timestamp, 7 int columns, id reference
+        return timestamps.length * perRow + idSlots.length * 4L;
+    }
+
+    private static int spread(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    private int allocateRow() {
+        if (freeHead != NO_ROW) {
+            int row = freeHead;
+            freeHead = nextInHabit[row];
+            return row;
+        }
+        if (highWater == timestamps.length) {
+            grow(highWater * 2);
+        }
+        return highWater++;
+    }
+
+    private void grow(int capacity) {
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        habitIds = Arrays.copyOf(habitIds, capacity);
+        reminderIndexes = Arrays.copyOf(reminderIndexes, capacity);
+        ids = Arrays.copyOf(ids, capacity);
+        nameRefs = Arrays.copyOf(nameRefs, capacity);
+        messageRefs = Arrays.copyOf(messageRefs, capacity);
+        colorRefs = Arrays.copyOf(colorRefs, capacity);
+        nextInHabit = Arrays.copyOf(nextInHabit, capacity);
+        prevInHabit = Arrays.copyOf(prevInHabit, capacity);
+    }
+
+    private void allocateIdSlots(int capacity) {
+        idSlots = new int[capacity];
+        idMask = capacity - 1;
+    }
+
+    private void indexId(int row) {
+        // Keep the id table at most half full
+        if ((size + 1) * 2 > idSlots.length) {
+            int[] old = idSlots;
+            allocateIdSlots(old.length * 2);
+            for (int i = 0; i < old.length; i++) {
+                if (old[i] != 0) {
+                    placeId(old[i] - 1);
+                }
+            }
+        }
+        placeId(row);
+    }
+
+    private void placeId(int row) {
+        int slot = spread(ids[row].hashCode()) & idMask;
+        while (idSlots[slot] != 0) {
+            slot = (slot + 1) & idMask;
+        }
+        idSlots[slot] = row + 1;
+    }
+
+    private void unindexId(int row) {
+        int slot = spread(ids[row].hashCode()) & idMask;
+        while (idSlots[slot] != row + 1) {
+            slot = (slot + 1) & idMask;
+        }
+        // Backward-shift deletion keeps probe chains intact without tombstones
+        int hole = slot;
+        int next = (hole + 1) & idMask;
+        while (idSlots[next] != 0) {
+            int home = spread(ids[idSlots[next] - 1].hashCode()) & idMask;
+            if (((next - home) & idMask) >= ((next - hole) & idMask)) {
+                idSlots[hole] = idSlots[next];
+                hole = next;
+            }
+            next = (next + 1) & idMask;
+        }
+        idSlots[hole] = 0;
+    }
+}
@@ -0,0 +1,221 @@
+package com.rexforge.quantumhabits;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a {@link ReminderScheduler} on a dedicated thread.
+ *
+ * Any thread may submit commands; they go through a lock-free
+ * {@link MpscQueue} and are applied one at a time by the worker thread, which
+ * is the only thread that ever touches the scheduler. Commands change the
+ * schedule through the {@link ReminderEngine} that owns the scheduler, so its
+ * store and backend see every change. Between commands the
+ * worker sleeps until the earliest deadline and then hands the due reminders
+ * to the {@link Listener}, still on the worker thread.
+ *
+ * Other threads read the scheduler's state through {@link #snapshot()}, an
+ * immutable value republished after every round of commands.
+ */
+public class ReminderWorker {
+
+    /**
+     * Work applied on the worker thread with exclusive access to the scheduler.
+     */
+    public interface Command {
+        void run(ReminderScheduler scheduler);
+    }
+
+    public interface Listener {
+        /**
+         * Latest timestamp that is shown together with reminders due at {@code now}.
+         */
+        long dueHorizon(long now);
+
+        /**
+         * Called on the worker thread with the due reminders, already removed
+         * from {@code scheduler}, in deadline order.
+         */
+        void onDue(ReminderScheduler scheduler, List<ScheduledReminder> due, long now);
+
+        void onCommandFailed(RuntimeException e);
+    }
+
+    public static final class Snapshot {
+        public final int size;
+        public final long nextDeadline;
+        // Commands applied so far
+        public final long applied;
+
+        Snapshot(int size, long nextDeadline, long applied) {
+            this.size = size;
+            this.nextDeadline = nextDeadline;
+            this.applied = applied;
+        }
+    }
+
+    private final ReminderScheduler scheduler;
+    private final Listener listener;
+    private final ReminderClock clock;
+    private final MpscQueue<Command> commands = new MpscQueue<>();
+    private final List<ScheduledReminder> due = new ArrayList<>();
+    private volatile Snapshot snapshot = new Snapshot(0, ReminderScheduler.NO_DEADLINE, 0);
+    private volatile boolean sleeping;
+    private volatile boolean stopped;
+    private volatile Thread thread;
+    private long applied;
+
+    public ReminderWorker(ReminderScheduler scheduler, Listener listener) {
+        this(scheduler, listener, ReminderClock.SYSTEM);
+    }
+
+    public ReminderWorker(ReminderScheduler scheduler, Listener listener, ReminderClock clock) {
+        this.scheduler = scheduler;
+        this.listener = listener;
+        this.clock = clock;
+    }
+
+    public synchronized void start(String name) {
+        if (thread != null) return;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, name);
+        thread.start();
+    }
+
+    /**
+     * Stops the worker once the commands submitted so far have been applied.
+     */
+    public void shutdown() {
+        stopped = true;
+        wake();
+    }
+
+    public void execute(Command command) {
+        commands.offer(command);
+        if (sleeping) wake();
+    }
+
+    /**
+     * Delivers whatever is due now without waiting for the worker's own timer.
+     */
+    public void fire() {
+        execute(new Command() {
+            @Override
+            public void run(ReminderScheduler scheduler) {
+                fireDue(clock.currentTimeMillis());
+            }
+        });
+    }
+
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Waits until the commands submitted before this call have been applied.
+     *
+     * @return false if that took longer than {@code timeoutMs}
+     */
+    public boolean flush(long timeoutMs) throws InterruptedException {
+        Flush flush = new Flush();
+        execute(flush);
+        return flush.done.await(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Not counted as applied, so the snapshot a flush waits for stays the latest one
+    private final class Flush implements Command {
+        final CountDownLatch done = new CountDownLatch(1);
+
+        @Override
+        public void run(ReminderScheduler scheduler) {
+            publish();
+            done.countDown();
+        }
+    }
+
+    private void wake() {
+        Thread worker = thread;
+        if (worker != null) LockSupport.unpark(worker);
+    }
+
+    /**
+     * One round of the worker loop: applies the queued commands, then
+     * delivers what is due by the worker's clock. Without
+     * {@link #start(String)} this steps the worker on the caller's thread,
+     * which is how simulations drive it through simulated time.
+     *
+     * @return milliseconds until the next deadline, or -1 when nothing is queued
+     */
+    public long runOnce() {
+        boolean changed = drain();
+        long now = clock.currentTimeMillis();
+        if (scheduler.nextDeadline() <= now) {
+            fireDue(now);
+            changed = true;
+        }
+        if (changed) {
+            publish();
+        }
+        return scheduler.delayUntilNext(now);
+    }
+
+    private void loop() {
+        while (true) {
+            long delay = runOnce();
+            if (stopped && commands.isEmpty()) return;
+
+            sleeping = true;
+            // A producer that saw sleeping == false has already made its command visible
+            if (commands.isEmpty() && !stopped) {
+                if (delay < 0) {
+                    LockSupport.park(this);
+                } else if (delay > 0) {
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(delay));
+                }
+                SchedulerMetrics.get().recordWorkerWakeup();
+            }
+            sleeping = false;
+        }
+    }
+
+    private void publish() {
+        snapshot = new Snapshot(scheduler.size(), scheduler.nextDeadline(), applied);
+    }
+
+    private boolean drain() {
+        boolean any = false;
+        Command command;
+        while ((command = commands.poll()) != null) {
+            if (command instanceof Flush) {
+                command.run(scheduler);
+                continue;
+            }
+            try {
+                command.run(scheduler);
+            } catch (RuntimeException e) {
+                listener.onCommandFailed(e);
+            }
+            applied++;
+            any = true;
+        }
+        return any;
+    }
+
+    private void fireDue(long now) {
+        due.clear();
+        if (scheduler.pollDue(listener.dueHorizon(now), due) == 0) return;
+        try {
+            listener.onDue(scheduler, due, now);
+        } catch (RuntimeException e) {
+            listener.onCommandFailed(e);
+        }
+        due.clear();
+    }
+}
@@ -0,0 +1,377 @@
+package com.rexforge.quantumhabits;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.DateTimeException;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Changes to the device's reminder rules sent by the server in one FCM data
+ * message, so reminders fire locally instead of as individual timed pushes.
+ *
+ * Operations are applied in order: upsert one reminder of a rule, delete all
+ * reminders of a rule, or delete all reminders of a habit. A rule without a
+ * zone follows the device's zone. Each delta carries a sequence number; the
+ * receiver ignores deltas it has already applied or that arrive out of order.
+ *
+ * The wire format shares a string table like {@link ReminderBatch}, writes
+ * ints as varints (zigzag for habit ids) to fit FCM's 4 KB data limit, and
+ * ends with a CRC32 of everything before it:
+ * <pre>
+ *   byte[2] magic 'Q' 'D', byte version, long sequence
+ *   varint stringCount, UTF[stringCount]
+ *   varint opCount, then per op a type byte, zigzag habitId and:
+ *     UPSERT:       varint ruleIndex, varint slot + 1,
+ *                   varint habitName, message, habitColor, zone (string indexes),
+ *                   varint start, end, step, byte days
+ *     DELETE_RULE:  varint ruleIndex
+ *     DELETE_HABIT: nothing
+ *   int crc32
+ * </pre>
+ * In FCM the bytes travel base64 encoded in the {@link #DATA_KEY} field.
+ */
+public class ScheduleDelta {
+    public static final String DATA_KEY = "scheduleDelta";
+
+    public static final int UPSERT = 1;
+    public static final int DELETE_RULE = 2;
+    public static final int DELETE_HABIT = 3;
+    // Slot of the single reminder of an interval rule
+    public static final int INTERVAL_SLOT = -1;
+
+    private static final int VERSION = 1;
+    private static final byte MAGIC_0 = 'Q';
+    private static final byte MAGIC_1 = 'D';
+    private static final int MIN_LENGTH = 3 + 8 + 1 + 1 + 4;
+
+    private static final class Op {
+        final int type;
+        final int habitId;
+        final int ruleIndex;
+        final int slot;
+        final String habitName;
+        final String message;
+        final String habitColor;
+        // Empty for the device's zone
+        final String zone;
+        final int start;
+        final int end;
+        final int step;
+        final int days;
+
+        Op(int type, int habitId, int ruleIndex, int slot, String habitName, String message, String habitColor,
+           String zone, int start, int end, int step, int days) {
+            this.type = type;
+            this.habitId = habitId;
+            this.ruleIndex = ruleIndex;
+            this.slot = slot;
+            this.habitName = habitName;
+            this.message = message;
+            this.habitColor = habitColor;
+            this.zone = zone;
+            this.start = start;
+            this.end = end;
+            this.step = step;
+            this.days = days;
+        }
+    }
+
+    private final long sequence;
+    private final List<Op> ops = new ArrayList<>();
+
+    public ScheduleDelta(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public long sequence() {
+        return sequence;
+    }
+
+    public int size() {
+        return ops.size();
+    }
+
+    public int type(int index) {
+        return ops.get(index).type;
+    }
+
+    public int habitId(int index) {
+        return ops.get(index).habitId;
+    }
+
+    /**
+     * Upserts the reminder of a rule that fires at {@code minuteOfDay}.
+     *
+     * @param zone zone id, or null for the device's zone
+     */
+    public ScheduleDelta upsertDaily(int habitId, int ruleIndex, int slot, String habitName, String message,
+                                     String habitColor, int minuteOfDay, int days, String zone) {
+        return upsert(habitId, ruleIndex, slot, habitName, message, habitColor, zone, minuteOfDay, minuteOfDay, 0,
+            days);
+    }
+
+    /**
+     * Upserts the single reminder of a rule that repeats every
+     * {@code stepMinutes} between {@code start} and {@code end}.
+     */
+    public ScheduleDelta upsertInterval(int habitId, int ruleIndex, String habitName, String message,
+                                        String habitColor, int start, int end, int stepMinutes, int days,
+                                        String zone) {
+        if (stepMinutes <= 0) throw new IllegalArgumentException("Interval must be positive: " + stepMinutes);
+        return upsert(habitId, ruleIndex, INTERVAL_SLOT, habitName, message, habitColor, zone, start, end,
+            stepMinutes, days);
+    }
+
+    public ScheduleDelta deleteRule(int habitId, int ruleIndex) {
+        ops.add(new Op(DELETE_RULE, habitId, ruleIndex, 0, null, null, null, null, 0, 0, 0, 0));
+        return this;
+    }
+
+    public ScheduleDelta deleteHabit(int habitId) {
+        ops.add(new Op(DELETE_HABIT, habitId, 0, 0, null, null, null, null, 0, 0, 0, 0));
+        return this;
+    }
+
+    private ScheduleDelta upsert(int habitId, int ruleIndex, int slot, String habitName, String message,
+                                 String habitColor, String zone, int start, int end, int step, int days) {
+        if (slot < INTERVAL_SLOT) throw new IllegalArgumentException("Bad slot " + slot);
+        if (zone == null) zone = "";
+        // Fails here rather than on the device
+        new RecurrenceRule(start, end, step, days, zone.isEmpty() ? ZoneOffset.UTC : ZoneId.of(zone));
+        ops.add(new Op(UPSERT, habitId, ruleIndex, slot, nonNull(habitName), nonNull(message), nonNull(habitColor),
+            zone, start, end, step, days));
+        return this;
+    }
+
+    /**
+     * Reminder id of an upserted reminder; the same ids HabitReminderPlugin
+     * gives the reminders of JS rules.
+     */
+    static String reminderId(int habitId, int ruleIndex, int slot) {
+        return "habit-" + habitId + "-reminder-" + ruleIndex
+            + (slot == INTERVAL_SLOT ? "-interval" : "-time-" + slot);
+    }
+
+    /**
+     * Applies the operations to the rules and the queued reminders.
+     *
+     * @param changed receives reminders that were inserted or moved
+     * @param removed receives ids of reminders that were cancelled
+     * @return the number of operations that changed something
+     */
+    public int applyTo(RecurrenceSchedule recurrences, ReminderScheduler scheduler, ZoneId deviceZone, long now,
+                       List<ScheduledReminder> changed, List<String> removed) {
+        int applied = 0;
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < ops.size(); i++) {
+            Op op = ops.get(i);
+            switch (op.type) {
+                case UPSERT: {
+                    String id = reminderId(op.habitId, op.ruleIndex, op.slot);
+                    ZoneId zone = op.zone.isEmpty() ? deviceZone : ZoneId.of(op.zone);
+                    RecurrenceRule rule = new RecurrenceRule(op.start, op.end, op.step, op.days, zone);
+                    long next = rule.next(now);
+                    if (next < 0) {
+                        // A rule with no enabled day schedules nothing
+                        recurrences.remove(id);
+                        if (scheduler.cancel(id)) {
+                            removed.add(id);
+                            applied++;
+                        }
+                        break;
+                    }
+                    recurrences.put(id, op.habitId, rule);
+                    ScheduledReminder reminder = new ScheduledReminder(id, op.habitName, op.message, op.habitColor,
+                        next, op.habitId, op.ruleIndex);
+                    if (scheduler.upsert(reminder) != ReminderScheduler.UNCHANGED) {
+                        changed.add(reminder);
+                        applied++;
+                    }
+                    break;
+                }
+                case DELETE_RULE:
+                    ids.clear();
+                    recurrences.removeRule(op.habitId, op.ruleIndex, ids);
+                    int before = removed.size();
+                    for (int j = 0; j < ids.size(); j++) {
+                        if (scheduler.cancel(ids.get(j))) removed.add(ids.get(j));
+                    }
+                    if (removed.size() > before) applied++;
+                    break;
+                case DELETE_HABIT:
+                    recurrences.removeHabit(op.habitId);
+                    if (scheduler.cancelHabit(op.habitId, removed) > 0) applied++;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return applied;
+    }
+
+    public byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + ops.size() * 40);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(MAGIC_0);
+            out.writeByte(MAGIC_1);
+            out.writeByte(VERSION);
+            out.writeLong(sequence);
+
+            Map<String, Integer> index = new HashMap<>();
+            List<String> table = new ArrayList<>();
+            int[] refs = new int[ops.size() * 4];
+            for (int i = 0; i < ops.size(); i++) {
+                Op op = ops.get(i);
+                if (op.type != UPSERT) continue;
+                refs[i * 4] = ref(op.habitName, index, table);
+                refs[i * 4 + 1] = ref(op.message, index, table);
+                refs[i * 4 + 2] = ref(op.habitColor, index, table);
+                refs[i * 4 + 3] = ref(op.zone, index, table);
+            }
+            writeVarint(out, table.size());
+            for (String value : table) {
+                out.writeUTF(value);
+            }
+
+            writeVarint(out, ops.size());
+            for (int i = 0; i < ops.size(); i++) {
+                Op op = ops.get(i);
+                out.writeByte(op.type);
+                writeVarint(out, (op.habitId << 1) ^ (op.habitId >> 31));
+                if (op.type == DELETE_HABIT) continue;
+                writeVarint(out, op.ruleIndex);
+                if (op.type == DELETE_RULE) continue;
+                writeVarint(out, op.slot + 1);
+                for (int r = 0; r < 4; r++) {
+                    writeVarint(out, refs[i * 4 + r]);
+                }
+                writeVarint(out, op.start);
+                writeVarint(out, op.end);
+                writeVarint(out, op.step);
+                out.writeByte(op.days);
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeInt((int) crc.getValue());
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // ByteArrayOutputStream does not throw
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @throws IOException if the data is truncated, corrupted or from an
+     *         unsupported version
+     */
+    public static ScheduleDelta decode(byte[] data) throws IOException {
+        if (data.length < MIN_LENGTH) throw new IOException("Schedule delta too short: " + data.length);
+        if (data[0] != MAGIC_0 || data[1] != MAGIC_1) throw new IOException("Not a schedule delta");
+        if (data[2] != VERSION) throw new IOException("Unsupported schedule delta version " + data[2]);
+
+        int bodyLength = data.length - 4;
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, bodyLength);
+        int expected = ((data[bodyLength] & 0xff) << 24) | ((data[bodyLength + 1] & 0xff) << 16)
+            | ((data[bodyLength + 2] & 0xff) << 8) | (data[bodyLength + 3] & 0xff);
+        if ((int) crc.getValue() != expected) throw new IOException("Schedule delta checksum mismatch");
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 3, bodyLength - 3));
+        ScheduleDelta delta = new ScheduleDelta(in.readLong());
+        String[] table = new String[checkCount(readVarint(in), bodyLength)];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = in.readUTF();
+        }
+
+        int count = checkCount(readVarint(in), bodyLength);
+        for (int i = 0; i < count; i++) {
+            int type = in.readByte();
+            int zigzag = readVarint(in);
+            int habitId = (zigzag >>> 1) ^ -(zigzag & 1);
+            switch (type) {
+                case DELETE_HABIT:
+                    delta.deleteHabit(habitId);
+                    break;
+                case DELETE_RULE:
+                    delta.deleteRule(habitId, readVarint(in));
+                    break;
+                case UPSERT:
+                    int ruleIndex = readVarint(in);
+                    int slot = readVarint(in) - 1;
+                    String habitName = string(table, readVarint(in));
+                    String message = string(table, readVarint(in));
+                    String habitColor = string(table, readVarint(in));
+                    String zone = string(table, readVarint(in));
+                    int start = readVarint(in);
+                    int end = readVarint(in);
+                    int step = readVarint(in);
+                    int days = in.readByte();
+                    try {
+                        delta.upsert(habitId, ruleIndex, slot, habitName, message, habitColor, zone, start, end,
+                            step, days);
+                    } catch (IllegalArgumentException | DateTimeException e) {
+                        throw new IOException("Bad rule for habit " + habitId, e);
+                    }
+                    break;
+                default:
+                    throw new IOException("Unknown schedule delta op " + type);
+            }
+        }
+        if (in.available() != 0) throw new IOException("Trailing bytes in schedule delta");
+        return delta;
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static int checkCount(int count, int limit) throws IOException {
+        // Every entry takes at least a byte, so this also bounds the allocation
+        if (count < 0 || count > limit) throw new IOException("Bad count " + count);
+        return count;
+    }
+
+    private static String string(String[] table, int ref) throws IOException {
+        if (ref < 0 || ref >= table.length) throw new IOException("Bad string index " + ref);
+        return table[ref];
+    }
+
+    private static String nonNull(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static int ref(String value, Map<String, Integer> index, List<String> table) {
+        if (value == null) value = "";
+        Integer existing = index.get(value);
+        if (existing != null) return existing;
+        index.put(value, table.size());
+        table.add(value);
+        return table.size() - 1;
+    }
+}
@@ -0,0 +1,96 @@
+package com.rexforge.quantumhabits;
+
+/**
+ * Decides what happens to persisted reminders after the device was off.
+ *
+ * Reminders still in the future are kept. Reminders that came due while the
+ * device was off are fast-forwarded to {@code now}, so they are shown right
+ * after boot, as long as they are at most the grace period old; older ones
+ * are dropped. Keeps counts of each outcome for logging and tests.
+ */
+public class ScheduleRehydrator {
+    public static final long DEFAULT_GRACE_MS = 15 * 60 * 1000L;
+
+    public static final int KEEP = 0;
+    public static final int FAST_FORWARD = 1;
+    public static final int DROP = 2;
+    // Moved on to a later occurrence of its rule and kept
+    public static final int ADVANCE = 3;
+
+    private final long now;
+    private final long graceMs;
+    private int kept;
+    private int fastForwarded;
+    private int dropped;
+
+    public ScheduleRehydrator(long now, long graceMs) {
+        this.now = now;
+        this.graceMs = graceMs;
+    }
+
+    /**
+     * Classifies {@code reminder}, moving its timestamp to {@code now} when
+     * it is fast-forwarded.
+     *
+     * @return {@link #KEEP}, {@link #FAST_FORWARD} or {@link #DROP}
+     */
+    public int apply(ScheduledReminder reminder) {
+        if (reminder.timestamp > now) {
+            kept++;
+            return KEEP;
+        }
+        if (now - reminder.timestamp <= graceMs) {
+            reminder.timestamp = now;
+            fastForwarded++;
+            return FAST_FORWARD;
+        }
+        dropped++;
+        return DROP;
+    }
+
+    /**
+     * Like {@link #apply(ScheduledReminder)}, but a repeating reminder older
+     * than the grace period first moves on to its first occurrence within
+     * it, so only occurrences that are too old are lost.
+     *
+     * @return {@link #KEEP}, {@link #FAST_FORWARD}, {@link #DROP}, or
+     *         {@link #ADVANCE} when the reminder was moved to a later
+     *         occurrence that is still in the future
+     */
+    public int apply(ScheduledReminder reminder, RecurrenceSchedule recurrences) {
+        boolean advanced = false;
+        if (reminder.timestamp < now - graceMs) {
+            long next = recurrences.next(reminder.id, now - graceMs);
+            if (next >= 0) {
+                reminder.timestamp = next;
+                advanced = true;
+            }
+        }
+        int outcome = apply(reminder);
+        return advanced && outcome == KEEP ? ADVANCE : outcome;
+    }
+
+    /**
+     * Counts reminders known to be in the future without classifying them.
+     */
+    public void addKept(int count) {
+        kept += count;
+    }
+
+    public int kept() {
+        return kept;
+    }
+
+    public int fastForwarded() {
+        return fastForwarded;
+    }
+
+    public int dropped() {
+        return dropped;
+    }
+
+    @Override
+    public String toString() {
+        return "kept=" + kept + " fastForwarded=" + fastForwarded + " dropped=" + dropped;
+    }
+}
@@ -0,0 +1,36 @@
+package com.rexforge.quantumhabits;
+
+/**
+ * A single reminder occurrence waiting to be shown by the {@link ReminderEngine}.
+ */
+public class ScheduledReminder {
+    // reminderIndex of a plain ReminderPlugin notification; its habitId is then the notification id
+    public static final int NOTIFICATION = -1;
+
+    String id;
+    String habitName;
+    String message;
+    String habitColor;
+    long timestamp;
+    int habitId;
+    int reminderIndex;
+
+    ScheduledReminder(String id, String habitName, String message, String habitColor,
+                     long timestamp, int habitId, int reminderIndex) {
+        this.id = id;
+        this.habitName = habitName;
+        this.message = message;
+        this.habitColor = habitColor;
+        this.timestamp = timestamp;
+        this.habitId = habitId;
+        this.reminderIndex = reminderIndex;
+    }
+
+    /**
+     * A plain notification rather than a habit's reminder. Its habitId is a
+     * notification id of its own and never names a habit.
+     */
+    boolean isNotification() {
+        return reminderIndex < 0;
+    }
+}
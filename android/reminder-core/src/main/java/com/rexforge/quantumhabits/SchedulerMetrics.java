@@ -0,0 +1,160 @@
+package com.rexforge.quantumhabits;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Process-wide counters and latency histograms for the reminder subsystem.
+ *
+ * Every record method is a handful of atomic operations and allocates
+ * nothing, so they are called inline from the scheduling and posting paths.
+ * Latencies are in microseconds, fire lateness in milliseconds.
+ */
+public class SchedulerMetrics {
+    private static final SchedulerMetrics INSTANCE = new SchedulerMetrics();
+
+    // Actual minus scheduled time of each reminder shown, 0 when early
+    public final LatencyHistogram fireLatenessMs = new LatencyHistogram();
+    public final LatencyHistogram scheduleMicros = new LatencyHistogram();
+    public final LatencyHistogram cancelMicros = new LatencyHistogram();
+    public final LatencyHistogram notifyMicros = new LatencyHistogram();
+    // How long each shared wake lock hold lasted, see WakeLockManager
+    public final LatencyHistogram wakeLockMs = new LatencyHistogram();
+
+    private final AtomicLong alarmWakeups = new AtomicLong();
+    private final AtomicLong workerWakeups = new AtomicLong();
+    private final AtomicLong remindersFired = new AtomicLong();
+    private final AtomicLong storeEntries = new AtomicLong();
+    private final AtomicLong storeBytes = new AtomicLong();
+    private final AtomicLong wakeLockTotalMs = new AtomicLong();
+    private final AtomicLong wakeLockTimeouts = new AtomicLong();
+    private final long startedAt = System.currentTimeMillis();
+
+    public static SchedulerMetrics get() {
+        return INSTANCE;
+    }
+
+    public void recordFired(long scheduledAt, long firedAt) {
+        remindersFired.incrementAndGet();
+        fireLatenessMs.record(firedAt - scheduledAt);
+    }
+
+    public void recordSchedule(long startNanos) {
+        scheduleMicros.record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    public void recordCancel(long startNanos) {
+        cancelMicros.record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    public void recordNotify(long nanos) {
+        notifyMicros.record(nanos / 1000);
+    }
+
+    public void recordAlarmWakeup() {
+        alarmWakeups.incrementAndGet();
+    }
+
+    public void recordWorkerWakeup() {
+        workerWakeups.incrementAndGet();
+    }
+
+    public void recordStoreSize(int entries, long bytes) {
+        storeEntries.set(entries);
+        storeBytes.set(bytes);
+    }
+
+    /**
+     * @param timedOut true when the lock expired before it was released
+     */
+    public void recordWakeLock(long heldMs, boolean timedOut) {
+        wakeLockMs.record(heldMs);
+        wakeLockTotalMs.addAndGet(Math.max(0, heldMs));
+        if (timedOut) {
+            wakeLockTimeouts.incrementAndGet();
+        }
+    }
+
+    public long alarmWakeups() {
+        return alarmWakeups.get();
+    }
+
+    public long workerWakeups() {
+        return workerWakeups.get();
+    }
+
+    public long remindersFired() {
+        return remindersFired.get();
+    }
+
+    public long wakeLockTotalMs() {
+        return wakeLockTotalMs.get();
+    }
+
+    public long wakeLockTimeouts() {
+        return wakeLockTimeouts.get();
+    }
+
+    public JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("sinceMs", startedAt);
+        json.put("alarmWakeups", alarmWakeups.get());
+        json.put("workerWakeups", workerWakeups.get());
+        json.put("remindersFired", remindersFired.get());
+        json.put("storeEntries", storeEntries.get());
+        json.put("storeBytes", storeBytes.get());
+        json.put("wakeLockTotalMs", wakeLockTotalMs.get());
+        json.put("wakeLockTimeouts", wakeLockTimeouts.get());
+        json.put("fireLatenessMs", histogram(fireLatenessMs));
+        json.put("scheduleMicros", histogram(scheduleMicros));
+        json.put("cancelMicros", histogram(cancelMicros));
+        json.put("notifyMicros", histogram(notifyMicros));
+        json.put("wakeLockMs", histogram(wakeLockMs));
+        return json;
+    }
+
+    /**
+     * Writes the metrics as one JSON object to {@code file}, replacing it.
+     */
+    public void dumpTo(File file) throws IOException {
+        String text;
+        try {
+            text = toJson().toString(2);
+        } catch (JSONException e) {
+            throw new IOException("Cannot encode scheduler metrics", e);
+        }
+        try (Writer out = new FileWriter(file)) {
+            out.write(text);
+            out.write('\n');
+        }
+    }
+
+    public void reset() {
+        fireLatenessMs.reset();
+        scheduleMicros.reset();
+        cancelMicros.reset();
+        notifyMicros.reset();
+        wakeLockMs.reset();
+        alarmWakeups.set(0);
+        workerWakeups.set(0);
+        remindersFired.set(0);
+        wakeLockTotalMs.set(0);
+        wakeLockTimeouts.set(0);
+    }
+
+    private static JSONObject histogram(LatencyHistogram histogram) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("count", histogram.count());
+        json.put("mean", histogram.mean());
+        json.put("p50", histogram.percentile(0.50));
+        json.put("p90", histogram.percentile(0.90));
+        json.put("p99", histogram.percentile(0.99));
+        json.put("max", histogram.max());
+        return json;
+    }
+}
@@ -0,0 +1,137 @@
+package com.rexforge.quantumhabits;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Escalating snooze delays per reminder.
+ *
+ * The n-th snooze of a reminder waits {@code delays[n]}, and every snooze
+ * past the end of the list waits the last delay. A reminder that has not
+ * been snoozed for {@link #RESET_AFTER_MS} starts over at the first delay,
+ * so yesterday's snoozes do not carry over to today's reminder with the
+ * same id.
+ *
+ * The per-reminder counts survive process death through
+ * {@link #encodeCounts()}/{@link #decodeCounts(String)}.
+ */
+public class SnoozePolicy {
+    private static final long MINUTE = 60000;
+    public static final long[] DEFAULT_DELAYS_MS = {5 * MINUTE, 10 * MINUTE, 20 * MINUTE, 40 * MINUTE};
+    public static final long RESET_AFTER_MS = 6 * 60 * MINUTE;
+
+    private final long[] delays;
+    private final Map<String, Snoozes> snoozes = new HashMap<>();
+
+    private static class Snoozes {
+        int count;
+        long last;
+
+        Snoozes(int count, long last) {
+            this.count = count;
+            this.last = last;
+        }
+    }
+
+    public SnoozePolicy() {
+        this(DEFAULT_DELAYS_MS);
+    }
+
+    public SnoozePolicy(long[] delays) {
+        if (delays.length == 0) throw new IllegalArgumentException("No snooze delays");
+        for (long delay : delays) {
+            if (delay <= 0) throw new IllegalArgumentException("Snooze delay must be positive: " + delay);
+        }
+        this.delays = delays.clone();
+    }
+
+    /**
+     * Parses a comma separated list of minutes, e.g. {@code "5,10,30"}.
+     * Returns the defaults for null, empty or malformed input.
+     */
+    public static long[] parseDelays(String minutes) {
+        if (minutes == null || minutes.trim().isEmpty()) return DEFAULT_DELAYS_MS.clone();
+        String[] parts = minutes.split(",");
+        long[] out = new long[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                out[i] = Long.parseLong(parts[i].trim()) * MINUTE;
+                if (out[i] <= 0) return DEFAULT_DELAYS_MS.clone();
+            }
+        } catch (NumberFormatException e) {
+            return DEFAULT_DELAYS_MS.clone();
+        }
+        return out;
+    }
+
+    /**
+     * Records a snooze of {@code reminderId} at {@code now} and returns how
+     * long it should wait.
+     */
+    public long nextDelay(String reminderId, long now) {
+        Snoozes state = snoozes.get(reminderId);
+        if (state == null || now - state.last >= RESET_AFTER_MS) {
+            state = new Snoozes(0, now);
+            snoozes.put(reminderId, state);
+        }
+        long delay = delays[Math.min(state.count, delays.length - 1)];
+        state.count++;
+        state.last = now;
+        return delay;
+    }
+
+    /**
+     * Number of snoozes counted against {@code reminderId} at {@code now}.
+     */
+    public int snoozeCount(String reminderId, long now) {
+        Snoozes state = snoozes.get(reminderId);
+        return state == null || now - state.last >= RESET_AFTER_MS ? 0 : state.count;
+    }
+
+    public void reset(String reminderId) {
+        snoozes.remove(reminderId);
+    }
+
+    /**
+     * Drops counts that have expired by {@code now}.
+     */
+    public void prune(long now) {
+        Iterator<Snoozes> it = snoozes.values().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().last >= RESET_AFTER_MS) it.remove();
+        }
+    }
+
+    // Format: id=count@hexLastSnooze;...
+    public String encodeCounts() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Snoozes> entry : snoozes.entrySet()) {
+            Snoozes state = entry.getValue();
+            sb.append(entry.getKey()).append('=').append(state.count).append('@')
+                .append(Long.toHexString(state.last)).append(';');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Replaces the counts with ones saved by {@link #encodeCounts()}; entries
+     * that do not parse are skipped.
+     */
+    public void decodeCounts(String encoded) {
+        snoozes.clear();
+        if (encoded == null) return;
+        for (String entry : encoded.split(";")) {
+            int eq = entry.lastIndexOf('=');
+            int at = entry.lastIndexOf('@');
+            if (eq <= 0 || at < eq) continue;
+            try {
+                snoozes.put(entry.substring(0, eq), new Snoozes(
+                    Integer.parseInt(entry.substring(eq + 1, at)),
+                    Long.parseUnsignedLong(entry.substring(at + 1), 16)));
+            } catch (NumberFormatException e) {
+                // Skip the damaged entry
+            }
+        }
+    }
+}
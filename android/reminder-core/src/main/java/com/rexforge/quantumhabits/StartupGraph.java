@@ -0,0 +1,283 @@
+package com.rexforge.quantumhabits;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Cold-start work as a graph of named steps, so that only what the first
+ * frame needs runs before it.
+ *
+ * {@link #CRITICAL} steps run inline, in dependency order, from
+ * {@link #runCritical()}. The rest run from {@link #runDeferred} once every
+ * step they depend on has finished: {@link #MAIN} steps on the main-thread
+ * executor, {@link #BACKGROUND} steps on the background one. A step added
+ * with a fingerprint is skipped when its {@link Memo} holds the same
+ * fingerprint from an earlier successful run, i.e. when its inputs have not
+ * changed. A deferred step that throws is recorded as failed and the steps
+ * that depend on it do not run; a critical one fails startup.
+ *
+ * Every step gets a {@link Timing}; {@link #report()} formats them.
+ */
+public class StartupGraph {
+    public static final int CRITICAL = 0;
+    public static final int MAIN = 1;
+    public static final int BACKGROUND = 2;
+
+    public static final int PENDING = 0;
+    public static final int DONE = 1;
+    public static final int SKIPPED = 2;
+    public static final int FAILED = 3;
+    // A step it depends on failed
+    public static final int BLOCKED = 4;
+
+    private static final String[] WHERE_NAMES = {"critical", "main", "background"};
+    private static final String[] STATE_NAMES = {"pending", "done", "skipped", "failed", "blocked"};
+
+    public interface Task {
+        void run() throws Exception;
+    }
+
+    /**
+     * Remembers the fingerprint each step last ran with.
+     */
+    public interface Memo {
+        String get(String step);
+
+        void put(String step, String fingerprint);
+    }
+
+    public interface Clock {
+        long nanoTime();
+    }
+
+    public static final class Timing {
+        public final String name;
+        public final int where;
+        public volatile int state = PENDING;
+        // Relative to the graph's creation
+        public volatile long startMicros;
+        public volatile long durationMicros;
+        public volatile Exception error;
+
+        Timing(String name, int where) {
+            this.name = name;
+            this.where = where;
+        }
+    }
+
+    private static final class Step {
+        final Timing timing;
+        final String fingerprint;
+        final String[] dependsOn;
+        final Task task;
+        final List<Step> dependents = new ArrayList<>();
+        int remaining;
+
+        Step(Timing timing, String fingerprint, String[] dependsOn, Task task) {
+            this.timing = timing;
+            this.fingerprint = fingerprint;
+            this.dependsOn = dependsOn;
+            this.task = task;
+        }
+    }
+
+    private final Memo memo;
+    private final Clock clock;
+    private final long createdAt;
+    private final Map<String, Step> steps = new HashMap<>();
+    // In insertion order, for stable runs and reports
+    private final List<Step> order = new ArrayList<>();
+    private Executor mainExecutor;
+    private Executor backgroundExecutor;
+    private Runnable onComplete;
+    private int unfinished;
+
+    public StartupGraph(Memo memo, Clock clock) {
+        this.memo = memo;
+        this.clock = clock;
+        this.createdAt = clock.nanoTime();
+    }
+
+    public StartupGraph add(String name, int where, String[] dependsOn, Task task) {
+        return add(name, where, null, dependsOn, task);
+    }
+
+    /**
+     * @param fingerprint describes the step's inputs, or null to run it every time
+     * @param dependsOn names of steps added before this one
+     */
+    public synchronized StartupGraph add(String name, int where, String fingerprint, String[] dependsOn,
+            Task task) {
+        if (steps.containsKey(name)) throw new IllegalArgumentException("Duplicate step " + name);
+        Step step = new Step(new Timing(name, where), fingerprint, dependsOn, task);
+        for (String dependency : dependsOn) {
+            Step before = steps.get(dependency);
+            if (before == null) {
+                // Requiring dependencies to exist already also rules out cycles
+                throw new IllegalArgumentException(name + " depends on unknown step " + dependency);
+            }
+            if (where == CRITICAL && before.timing.where != CRITICAL) {
+                throw new IllegalArgumentException("Critical step " + name + " depends on deferred " + dependency);
+            }
+            before.dependents.add(step);
+        }
+        step.remaining = dependsOn.length;
+        steps.put(name, step);
+        order.add(step);
+        return this;
+    }
+
+    /**
+     * Runs every critical step on the calling thread.
+     *
+     * @throws IllegalStateException if one of them throws
+     */
+    public void runCritical() {
+        List<Step> ready = new ArrayList<>();
+        synchronized (this) {
+            for (Step step : order) {
+                if (step.timing.where == CRITICAL) ready.add(step);
+            }
+        }
+        // Insertion order is a valid order: dependencies are always added first
+        for (Step step : ready) {
+            if (step.timing.state != PENDING) continue;
+            execute(step);
+            if (step.timing.state == FAILED) {
+                throw new IllegalStateException("Startup step " + step.timing.name + " failed", step.timing.error);
+            }
+            synchronized (this) {
+                for (Step dependent : step.dependents) {
+                    dependent.remaining--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts the deferred steps and returns. Call after {@link #runCritical()};
+     * {@code onComplete}, if not null, runs on the thread that finishes the
+     * last of them.
+     */
+    public void runDeferred(Executor main, Executor background, Runnable onComplete) {
+        List<Step> ready = new ArrayList<>();
+        synchronized (this) {
+            mainExecutor = main;
+            backgroundExecutor = background;
+            this.onComplete = onComplete;
+            for (Step step : order) {
+                if (step.timing.where == CRITICAL) continue;
+                unfinished++;
+                if (step.remaining == 0 && step.timing.state == PENDING) ready.add(step);
+            }
+        }
+        if (ready.isEmpty()) {
+            complete();
+            return;
+        }
+        for (Step step : ready) {
+            dispatch(step);
+        }
+    }
+
+    public synchronized List<Timing> timings() {
+        List<Timing> timings = new ArrayList<>(order.size());
+        for (Step step : order) {
+            timings.add(step.timing);
+        }
+        return timings;
+    }
+
+    public Timing timing(String name) {
+        Step step;
+        synchronized (this) {
+            step = steps.get(name);
+        }
+        return step == null ? null : step.timing;
+    }
+
+    /**
+     * One line per step: name, thread, outcome, start and duration.
+     */
+    public String report() {
+        StringBuilder out = new StringBuilder("startup:");
+        for (Timing timing : timings()) {
+            out.append("\n  ").append(timing.name)
+                .append(' ').append(WHERE_NAMES[timing.where])
+                .append(' ').append(STATE_NAMES[timing.state])
+                .append(" at ").append(timing.startMicros / 1000.0).append("ms")
+                .append(" took ").append(timing.durationMicros / 1000.0).append("ms");
+            if (timing.error != null) out.append(' ').append(timing.error);
+        }
+        return out.toString();
+    }
+
+    private void dispatch(final Step step) {
+        Executor executor = step.timing.where == MAIN ? mainExecutor : backgroundExecutor;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                execute(step);
+                finishDeferred(step);
+            }
+        });
+    }
+
+    private void execute(Step step) {
+        Timing timing = step.timing;
+        long start = clock.nanoTime();
+        timing.startMicros = (start - createdAt) / 1000;
+        if (blocked(step)) {
+            timing.state = BLOCKED;
+            return;
+        }
+        if (step.fingerprint != null && step.fingerprint.equals(memo.get(timing.name))) {
+            timing.state = SKIPPED;
+            return;
+        }
+        try {
+            step.task.run();
+            if (step.fingerprint != null) memo.put(timing.name, step.fingerprint);
+            timing.state = DONE;
+        } catch (Exception e) {
+            timing.error = e;
+            timing.state = FAILED;
+        } finally {
+            timing.durationMicros = (clock.nanoTime() - start) / 1000;
+        }
+    }
+
+    private synchronized boolean blocked(Step step) {
+        for (String dependency : step.dependsOn) {
+            int state = steps.get(dependency).timing.state;
+            if (state == FAILED || state == BLOCKED) return true;
+        }
+        return false;
+    }
+
+    private void finishDeferred(Step step) {
+        List<Step> ready = new ArrayList<>();
+        boolean last;
+        synchronized (this) {
+            for (Step dependent : step.dependents) {
+                if (--dependent.remaining == 0) ready.add(dependent);
+            }
+            last = --unfinished == 0;
+        }
+        for (Step dependent : ready) {
+            dispatch(dependent);
+        }
+        if (last) complete();
+    }
+
+    private void complete() {
+        Runnable callback;
+        synchronized (this) {
+            callback = onComplete;
+        }
+        if (callback != null) callback.run();
+    }
+}
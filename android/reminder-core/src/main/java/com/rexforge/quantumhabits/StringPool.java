@@ -0,0 +1,70 @@
+package com.rexforge.quantumhabits;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reference-counted string interning. Each distinct string gets a small int
+ * ref that stays valid until the last user releases it, after which the ref
+ * is recycled.
+ */
+public class StringPool {
+    private final Map<String, Integer> index = new HashMap<>();
+    private String[] values = new String[16];
+    private int[] refCounts = new int[16];
+    private int[] freeRefs = new int[16];
+    private int freeCount;
+    private int highWater;
+
+    public int acquire(String value) {
+        if (value == null) value = "";
+        Integer existing = index.get(value);
+        if (existing != null) {
+            refCounts[existing]++;
+            return existing;
+        }
+        int ref;
+        if (freeCount > 0) {
+            ref = freeRefs[--freeCount];
+        } else {
+            if (highWater == values.length) {
+                values = Arrays.copyOf(values, highWater * 2);
+                refCounts = Arrays.copyOf(refCounts, highWater * 2);
+            }
+            ref = highWater++;
+        }
+        values[ref] = value;
+        refCounts[ref] = 1;
+        index.put(value, ref);
+        return ref;
+    }
+
+    public void release(int ref) {
+        if (--refCounts[ref] > 0) return;
+        index.remove(values[ref]);
+        values[ref] = null;
+        if (freeCount == freeRefs.length) {
+            freeRefs = Arrays.copyOf(freeRefs, freeCount * 2);
+        }
+        freeRefs[freeCount++] = ref;
+    }
+
+    public String get(int ref) {
+        return values[ref];
+    }
+
+    /**
+     * Number of distinct strings currently referenced.
+     */
+    public int size() {
+        return index.size();
+    }
+
+    public void clear() {
+        index.clear();
+        Arrays.fill(values, 0, highWater, null);
+        highWater = 0;
+        freeCount = 0;
+    }
+}
@@ -0,0 +1,73 @@
+package com.rexforge.quantumhabits;
+
+/**
+ * Shares one wake lock between everything that posts reminders.
+ *
+ * Callers pair {@link #acquire()} with {@link #release()}. The first
+ * acquire takes the underlying lock and the last release drops it, so a
+ * burst of alarms or pushes keeps a single lock for exactly as long as
+ * something is still being posted, instead of each holding its own for a
+ * fixed time. The lock is taken with {@link #MAX_HOLD_MS} as a timeout so a
+ * missed release cannot drain the battery; if it expires while still in use
+ * the next acquire takes it again.
+ *
+ * Every hold is recorded in {@link SchedulerMetrics}. Thread-safe.
+ */
+public class WakeLockManager {
+    static final long MAX_HOLD_MS = 10000;
+
+    /**
+     * The platform lock, not reference counted: one acquire, one release.
+     */
+    public interface Lock {
+        void acquire(long timeoutMs);
+
+        void release();
+
+        boolean isHeld();
+    }
+
+    public interface Clock {
+        long elapsedRealtime();
+    }
+
+    private final Lock lock;
+    private final Clock clock;
+    private final SchedulerMetrics metrics;
+    private int references;
+    private long heldSince;
+
+    public WakeLockManager(Lock lock, Clock clock, SchedulerMetrics metrics) {
+        this.lock = lock;
+        this.clock = clock;
+        this.metrics = metrics;
+    }
+
+    public synchronized void acquire() {
+        if (references++ == 0 || !lock.isHeld()) {
+            if (references > 1) {
+                // The timeout ran out while still in use; that hold is over
+                metrics.recordWakeLock(MAX_HOLD_MS, true);
+            }
+            lock.acquire(MAX_HOLD_MS);
+            heldSince = clock.elapsedRealtime();
+        }
+    }
+
+    public synchronized void release() {
+        if (references == 0) {
+            throw new IllegalStateException("Wake lock released more often than acquired");
+        }
+        if (--references > 0) return;
+        if (lock.isHeld()) {
+            lock.release();
+            metrics.recordWakeLock(clock.elapsedRealtime() - heldSince, false);
+        } else {
+            metrics.recordWakeLock(MAX_HOLD_MS, true);
+        }
+    }
+
+    public synchronized int references() {
+        return references;
+    }
+}
@@ -0,0 +1,213 @@
+package com.rexforge.quantumhabits;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+import org.junit.Test;
+
+public class CompletionHistoryTest {
+    private static final long TODAY = LocalDate.of(2024, 3, 4).toEpochDay();
+
+    // The same streak rules as statsHelpers.js, one day at a time
+    private static int naiveCurrentStreak(BitSet days, long today) {
+        int streak = 0;
+        for (long day = today; day >= 0 && days.get((int) day); day--) {
+            streak++;
+        }
+        return streak;
+    }
+
+    private static int naiveLongestStreak(BitSet days) {
+        int best = 0;
+        int run = 0;
+        for (int day = 0; day <= days.length(); day++) {
+            run = days.get(day) ? run + 1 : 0;
+            best = Math.max(best, run);
+        }
+        return best;
+    }
+
+    @Test
+    public void streaksFollowTheCalendar() {
+        CompletionHistory history = new CompletionHistory();
+        for (long day = TODAY - 9; day <= TODAY; day++) {
+            history.set(1, day);
+        }
+        history.set(1, TODAY - 30);
+        history.set(1, TODAY - 31);
+
+        assertEquals(10, history.currentStreak(1, TODAY));
+        assertEquals(10, history.longestStreak(1));
+        assertEquals(0, history.currentStreak(1, TODAY + 1));
+        assertEquals(12, history.total(1));
+        assertEquals(10, history.count(1, TODAY - 6 - 3, TODAY));
+        assertEquals(0, history.currentStreak(2, TODAY));
+
+        assertTrue(history.clear(1, TODAY - 5));
+        assertFalse(history.clear(1, TODAY - 5));
+        assertEquals(5, history.currentStreak(1, TODAY));
+        assertEquals(5, history.longestStreak(1));
+    }
+
+    @Test
+    public void matchesADayByDayScanOnRandomHistories() {
+        Random random = new Random(22);
+        for (int round = 0; round < 200; round++) {
+            CompletionHistory history = new CompletionHistory();
+            BitSet expected = new BitSet();
+            int start = 18000 + random.nextInt(2000);
+            int span = 1 + random.nextInt(1500);
+            // Mostly done days in long runs, so streaks cross word boundaries
+            double density = random.nextDouble();
+            boolean on = false;
+            for (int day = start; day < start + span; day++) {
+                if (random.nextDouble() > density * 0.98) on = !on;
+                if (on) {
+                    history.set(7, day);
+                    expected.set(day);
+                }
+            }
+            for (int q = 0; q < 20; q++) {
+                long today = start - 5 + random.nextInt(span + 10);
+                assertEquals(naiveCurrentStreak(expected, today), history.currentStreak(7, today));
+                long from = start - 70 + random.nextInt(span + 140);
+                long to = from + random.nextInt(400);
+                assertEquals(expected.get((int) from, (int) to + 1).cardinality(), history.count(7, from, to));
+            }
+            assertEquals(naiveLongestStreak(expected), history.longestStreak(7));
+            assertEquals(expected.cardinality(), history.total(7));
+        }
+    }
+
+    @Test
+    public void windowsAreShiftedCopies() {
+        CompletionHistory history = new CompletionHistory();
+        BitSet expected = new BitSet();
+        Random random = new Random(3);
+        for (int i = 0; i < 400; i++) {
+            int day = 19000 + random.nextInt(700);
+            history.set(1, day);
+            expected.set(day);
+        }
+        long[] out = new long[6];
+        for (int from = 18900; from < 19800; from += 37) {
+            int days = 1 + (from * 7) % 365;
+            int words = history.window(1, from, days, out);
+            assertEquals((days + 63) / 64, words);
+            for (int i = 0; i < words * 64; i++) {
+                boolean bit = (out[i >> 6] & (1L << i)) != 0;
+                assertEquals("day " + (from + i), i < days && expected.get(from + i), bit);
+            }
+        }
+    }
+
+    @Test
+    public void dailyTotalsCountHabitsPerDay() {
+        CompletionHistory history = new CompletionHistory();
+        history.set(1, TODAY);
+        history.set(2, TODAY);
+        history.set(2, TODAY - 1);
+        history.set(3, TODAY - 40);
+        int[] totals = new int[30];
+        history.dailyTotals(TODAY - 29, 30, totals);
+
+        assertEquals(2, totals[29]);
+        assertEquals(1, totals[28]);
+        assertEquals(3, Arrays.stream(totals).sum());
+
+        Random random = new Random(5);
+        int[] expected = new int[200];
+        for (int habit = 10; habit < 150; habit++) {
+            for (int i = 0; i < 120; i++) {
+                int offset = random.nextInt(260) - 30;
+                if (history.set(habit, TODAY + offset) && offset >= 0 && offset < expected.length) {
+                    expected[offset]++;
+                }
+            }
+        }
+        int[] all = new int[200];
+        history.dailyTotals(TODAY, 200, all);
+        // Habits 1-3 add their days at TODAY and TODAY - 1 only
+        expected[0] += 2;
+        assertArrayEquals(expected, all);
+    }
+
+    @Test
+    public void removedHabitsAreGone() {
+        CompletionHistory history = new CompletionHistory();
+        for (int habit = 1; habit <= 3; habit++) {
+            history.set(habit, TODAY);
+        }
+        history.removeHabit(1);
+        assertEquals(2, history.size());
+        assertFalse(history.isSet(1, TODAY));
+        assertTrue(history.isSet(3, TODAY));
+        assertEquals(1, history.currentStreak(3, TODAY));
+    }
+
+    @Test
+    public void epochDayIsTheLocalDate() {
+        ZoneId zone = ZoneId.of("America/Los_Angeles");
+        long lateEvening = ZonedDateTime.of(2024, 3, 4, 23, 30, 0, 0, zone).toInstant().toEpochMilli();
+        assertEquals(TODAY, CompletionHistory.epochDay(lateEvening, zone));
+        assertEquals(TODAY + 1, CompletionHistory.epochDay(lateEvening, ZoneId.of("UTC")));
+    }
+
+    @Test
+    public void roundTripDropsEmptyWords() throws IOException {
+        CompletionHistory history = new CompletionHistory();
+        history.set(5, TODAY - 2000);
+        history.set(5, TODAY);
+        history.set(-3, TODAY);
+        for (long day = TODAY - 900; day < TODAY - 100; day++) {
+            history.set(9, day);
+        }
+
+        byte[] data = history.encode();
+        CompletionHistory decoded = CompletionHistory.decode(data);
+
+        // Two single days 2000 days apart take two literal words, not 32
+        assertTrue("encoded " + data.length + " bytes", data.length < 12 + 3 * 12 + 2 * 16 + 13 * 8 + 16);
+        assertEquals(3, decoded.size());
+        assertTrue(decoded.isSet(5, TODAY - 2000));
+        assertTrue(decoded.isSet(-3, TODAY));
+        assertEquals(800, decoded.longestStreak(9));
+        assertArrayEquals(data, decoded.encode());
+    }
+
+    @Test
+    public void truncatedAndCorruptedDataIsRejected() {
+        CompletionHistory history = new CompletionHistory();
+        history.set(1, TODAY);
+        history.set(1, TODAY - 600);
+        byte[] data = history.encode();
+        for (int length = 0; length < data.length; length++) {
+            try {
+                CompletionHistory.decode(Arrays.copyOf(data, length));
+                fail("length " + length + " accepted");
+            } catch (IOException expected) {
+                // Rejected as it should be
+            }
+        }
+        byte[] badRange = data.clone();
+        // First word count byte, making the habit span far past MAX_DAY
+        badRange[12 + 8] = 0x7f;
+        try {
+            CompletionHistory.decode(badRange);
+            fail("bad word range accepted");
+        } catch (IOException expected) {
+            // Rejected as it should be
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void daysBeforeTheEpochAreRejected() {
+        new CompletionHistory().set(1, -1);
+    }
+}
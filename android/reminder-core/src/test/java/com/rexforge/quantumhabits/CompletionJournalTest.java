@@ -0,0 +1,181 @@
+package com.rexforge.quantumhabits;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompletionJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private long now = 1_700_000_000_000L;
+
+    @Test
+    public void countsSurviveReopen() throws Exception {
+        File dir = folder.newFolder("completions");
+        CompletionJournal journal = CompletionJournal.open(dir);
+        assertTrue(journal.isFresh());
+        assertEquals(1, journal.append(7, now, 1));
+        assertEquals(2, journal.append(7, now + 1, 1));
+        assertEquals(1, journal.append(0, now + 2, 1));
+        assertEquals(1, journal.append(7, now + 3, -1));
+        journal.close();
+
+        CompletionJournal reopened = CompletionJournal.open(dir);
+        assertFalse(reopened.isFresh());
+        assertEquals(1, reopened.count(7));
+        assertEquals(1, reopened.count(0));
+        assertEquals(0, reopened.count(99));
+        assertEquals(4, reopened.pendingRecords());
+        reopened.close();
+    }
+
+    @Test
+    public void compactionFoldsJournalIntoSnapshot() throws Exception {
+        File dir = folder.newFolder("completions");
+        CompletionJournal journal = CompletionJournal.open(dir);
+        journal.seed(3, 10);
+        for (int i = 0; i < 5; i++) {
+            journal.append(3, now + i, 1);
+        }
+        journal.compact();
+        assertEquals(0, journal.pendingRecords());
+        assertEquals(16, new File(dir, CompletionJournal.JOURNAL_FILE).length());
+        journal.append(3, now + 10, 1);
+        journal.close();
+
+        CompletionJournal reopened = CompletionJournal.open(dir);
+        assertEquals(16, reopened.count(3));
+        assertEquals(1, reopened.pendingRecords());
+        reopened.close();
+    }
+
+    @Test
+    public void crashBeforeJournalTruncateDoesNotCountTwice() throws Exception {
+        File dir = folder.newFolder("completions");
+        CompletionJournal journal = CompletionJournal.open(dir);
+        for (int i = 0; i < 100; i++) {
+            journal.append(i % 4, now + i, 1);
+        }
+        journal.force();
+        File log = new File(dir, CompletionJournal.JOURNAL_FILE);
+        File saved = folder.newFile("saved.log");
+        Files.copy(log.toPath(), saved.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        journal.compact();
+        journal.close();
+
+        // Snapshot written, but the old journal is still there
+        Files.copy(saved.toPath(), log.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        CompletionJournal reopened = CompletionJournal.open(dir);
+        for (int habit = 0; habit < 4; habit++) {
+            assertEquals(25, reopened.count(habit));
+        }
+        reopened.close();
+    }
+
+    @Test
+    public void tornTailRecordIsDropped() throws Exception {
+        File dir = folder.newFolder("completions");
+        CompletionJournal journal = CompletionJournal.open(dir);
+        journal.append(1, now, 1);
+        journal.append(1, now + 1, 1);
+        journal.close();
+
+        File log = new File(dir, CompletionJournal.JOURNAL_FILE);
+        try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+            file.setLength(file.length() - CompletionJournal.RECORD_SIZE / 2);
+        }
+
+        CompletionJournal reopened = CompletionJournal.open(dir);
+        assertEquals(1, reopened.count(1));
+        assertEquals(2, reopened.append(1, now + 2, 1));
+        reopened.close();
+
+        CompletionJournal again = CompletionJournal.open(dir);
+        assertEquals(2, again.count(1));
+        again.close();
+    }
+
+    @Test
+    public void concurrentAppendsAndCompactionsLoseNothing() throws Exception {
+        File dir = folder.newFolder("completions");
+        final CompletionJournal journal = CompletionJournal.open(dir);
+        final int threads = 8;
+        final int perThread = 5000;
+        final int habits = 50;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final AtomicBoolean appending = new AtomicBoolean(true);
+
+        for (int t = 0; t < threads; t++) {
+            final int seed = t;
+            new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < perThread; i++) {
+                        journal.append((seed * 31 + i) % habits, now + i, 1);
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        Thread compactor = new Thread(() -> {
+            try {
+                while (appending.get()) {
+                    if (journal.pendingRecords() > 500) {
+                        journal.compact();
+                    } else {
+                        Thread.sleep(1);
+                    }
+                }
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        });
+        compactor.start();
+
+        long startNanos = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsedNanos = System.nanoTime() - startNanos;
+        appending.set(false);
+        compactor.join();
+        if (failure.get() != null) throw new AssertionError(failure.get());
+
+        int total = threads * perThread;
+        double perSecond = total / (elapsedNanos / 1e9);
+        assertTrue("expected thousands of completions per second, got " + perSecond, perSecond > 2000);
+
+        int[] expected = new int[habits];
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < perThread; i++) {
+                expected[(t * 31 + i) % habits]++;
+            }
+        }
+        for (int habit = 0; habit < habits; habit++) {
+            assertEquals(expected[habit], journal.count(habit));
+        }
+        journal.close();
+
+        CompletionJournal reopened = CompletionJournal.open(dir);
+        for (int habit = 0; habit < habits; habit++) {
+            assertEquals(expected[habit], reopened.count(habit));
+        }
+        reopened.close();
+    }
+}
@@ -0,0 +1,143 @@
+package com.rexforge.quantumhabits;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.json.JSONException;
+import org.junit.Test;
+
+public class HabitPayloadReaderTest {
+
+    // Records every callback as a line of text
+    private static class Recorder implements HabitPayloadReader.Handler {
+        final List<String> events = new ArrayList<>();
+        final List<Long> habitHashes = new ArrayList<>();
+        final List<Long> ruleHashes = new ArrayList<>();
+        boolean readRules = true;
+
+        @Override
+        public boolean habit(int habitId, long habitHash, String name, String color) {
+            events.add("habit " + habitId + " " + name + " " + color);
+            habitHashes.add(habitHash);
+            return readRules;
+        }
+
+        @Override
+        public void rule(int index, long ruleHash, HabitPayloadReader.Rule rule) {
+            StringBuilder times = new StringBuilder();
+            for (int i = 0; i < rule.timeCount; i++) {
+                times.append(rule.times[i]).append(' ');
+            }
+            events.add("rule " + index + " " + rule.enabled + " " + rule.type + " " + rule.message + " ["
+                + times.toString().trim() + "] " + rule.startMinute + "-" + rule.endMinute + "/"
+                + rule.intervalMinutes + " days=" + rule.days);
+            ruleHashes.add(ruleHash);
+        }
+
+        @Override
+        public void endHabit(int habitId) {
+            events.add("end " + habitId);
+        }
+    }
+
+    private static Recorder read(String json) throws JSONException {
+        Recorder recorder = new Recorder();
+        new HabitPayloadReader().read(json, recorder);
+        return recorder;
+    }
+
+    @Test
+    public void readsHabitsAndRules() throws JSONException {
+        Recorder recorder = read("[{\"id\":1,\"name\":\"Water\",\"color\":\"#fff\",\"reminders\":["
+            + "{\"enabled\":true,\"type\":\"specific\",\"times\":[\"08:00\",\"bad\",\"21:30\"],\"message\":\"Drink\"},"
+            + "{\"enabled\":false,\"type\":\"interval\",\"startTime\":\"10:00\",\"endTime\":\"12:00\",\"interval\":30,"
+            + "\"days\":[0,6]}]},"
+            + "{\"id\":2,\"name\":\"Read\"}]");
+
+        assertEquals(6, recorder.events.size());
+        assertEquals("habit 1 Water #fff", recorder.events.get(0));
+        assertEquals("rule 0 true 1 Drink [480 -1 1290] 540-1080/120 days=127", recorder.events.get(1));
+        // Sunday is bit 6 and Saturday bit 5 in RecurrenceRule's Monday-first mask
+        assertEquals("rule 1 false 2 Time for your habit! [] 600-720/30 days=96", recorder.events.get(2));
+        assertEquals("end 1", recorder.events.get(3));
+        assertEquals("habit 2 Read #3b82f6", recorder.events.get(4));
+        assertEquals("end 2", recorder.events.get(5));
+    }
+
+    @Test
+    public void fieldOrderDoesNotMatter() throws JSONException {
+        Recorder recorder = read("[{\"reminders\":[{\"times\":[\"07:05\"],\"enabled\":true}],"
+            + "\"color\":\"red\",\"extra\":{\"nested\":[1,2,{\"a\":null}]},\"name\":\"Run\",\"id\":\"7\"}]");
+
+        assertEquals("habit 7 Run red", recorder.events.get(0));
+        assertEquals("rule 0 true 1 Time for your habit! [425] 540-1080/120 days=127", recorder.events.get(1));
+        assertEquals("end 7", recorder.events.get(2));
+    }
+
+    @Test
+    public void skippedHabitReadsNoRules() throws JSONException {
+        Recorder recorder = new Recorder();
+        recorder.readRules = false;
+        new HabitPayloadReader().read("[{\"id\":1,\"name\":\"A\",\"reminders\":[{\"enabled\":true}]},"
+            + "{\"id\":2,\"name\":\"B\"}]", recorder);
+
+        assertEquals(2, recorder.events.size());
+        assertEquals("habit 1 A #3b82f6", recorder.events.get(0));
+        assertEquals("habit 2 B #3b82f6", recorder.events.get(1));
+    }
+
+    @Test
+    public void decodesEscapes() throws JSONException {
+        Recorder recorder = read("[{\"id\":3,\"na\\u006de\":\"Tea \\\"green\\\"\\n\",\"reminders\":["
+            + "{\"enabled\":true,\"message\":\"caf\\u00e9\",\"times\":[\"0\\u0039:15\"]}]}]");
+
+        assertEquals("habit 3 Tea \"green\"\n #3b82f6", recorder.events.get(0));
+        assertEquals("rule 0 true 1 caf\u00e9 [555] 540-1080/120 days=127", recorder.events.get(1));
+    }
+
+    @Test
+    public void hashesFollowTheHabitText() throws JSONException {
+        String habit = "{\"id\":1,\"name\":\"A\",\"reminders\":[{\"enabled\":true,\"times\":[\"08:00\"]}]}";
+        String edited = "{\"id\":1,\"name\":\"A\",\"reminders\":[{\"enabled\":true,\"times\":[\"08:01\"]}]}";
+        String renamed = "{\"id\":1,\"name\":\"B\",\"reminders\":[{\"enabled\":true,\"times\":[\"08:00\"]}]}";
+
+        Recorder first = read("[" + habit + "]");
+        Recorder again = read("[ " + habit + " ,{\"id\":2,\"name\":\"X\"}]");
+        Recorder changed = read("[" + edited + "]");
+        Recorder moved = read("[" + renamed + "]");
+
+        assertEquals(first.habitHashes.get(0), again.habitHashes.get(0));
+        assertEquals(first.ruleHashes.get(0), again.ruleHashes.get(0));
+        assertEquals(ReminderSyncState.hash(habit), (long) first.habitHashes.get(0));
+        assertNotEquals(first.habitHashes.get(0), changed.habitHashes.get(0));
+        assertNotEquals(first.ruleHashes.get(0), changed.ruleHashes.get(0));
+        // Reminders carry the habit's name, so renaming it changes every rule
+        assertNotEquals(first.ruleHashes.get(0), moved.ruleHashes.get(0));
+    }
+
+    @Test
+    public void numbersDropFractions() throws JSONException {
+        Recorder recorder = read("[{\"id\":4.0,\"name\":\"N\",\"reminders\":[{\"enabled\":true,\"type\":\"interval\","
+            + "\"interval\":45.5e0,\"startTime\":\"25:00\"}]}]");
+
+        assertEquals("habit 4 N #3b82f6", recorder.events.get(0));
+        assertEquals("rule 0 true 2 Time for your habit! [] -1-1080/45 days=127", recorder.events.get(1));
+    }
+
+    @Test
+    public void emptyPayload() throws JSONException {
+        assertEquals(0, new HabitPayloadReader().read("[]", new Recorder()));
+        assertEquals(0, new HabitPayloadReader().read("  [ ]  ", new Recorder()));
+    }
+
+    @Test(expected = JSONException.class)
+    public void habitWithoutIdIsRejected() throws JSONException {
+        read("[{\"name\":\"A\"}]");
+    }
+
+    @Test(expected = JSONException.class)
+    public void truncatedPayloadIsRejected() throws JSONException {
+        read("[{\"id\":1,\"name\":\"A\",\"reminders\":[{\"enabled\":tr");
+    }
+}
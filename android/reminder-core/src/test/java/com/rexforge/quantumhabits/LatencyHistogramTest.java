@@ -0,0 +1,141 @@
+package com.rexforge.quantumhabits;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Random;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10; i++) {
+            histogram.record(i);
+        }
+        assertEquals(10, histogram.count());
+        assertEquals(5, histogram.mean());
+        assertEquals(5, histogram.percentile(0.5));
+        assertEquals(9, histogram.percentile(0.9));
+        assertEquals(10, histogram.percentile(1.0));
+        assertEquals(10, histogram.max());
+    }
+
+    @Test
+    public void bucketsCoverEveryValueWithBoundedError() {
+        Random random = new Random(7);
+        int lastBucket = -1;
+        for (long value = 0; value < 5000; value++) {
+            int bucket = LatencyHistogram.bucket(value);
+            assertTrue(bucket == lastBucket || bucket == lastBucket + 1);
+            assertTrue(value <= LatencyHistogram.highestValue(bucket));
+            lastBucket = bucket;
+        }
+        for (int i = 0; i < 100000; i++) {
+            long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+            long highest = LatencyHistogram.highestValue(LatencyHistogram.bucket(value));
+            assertTrue(value <= highest);
+            assertTrue(value + " -> " + highest, highest - value <= Math.max(1, value / 16));
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValue(LatencyHistogram.bucket(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void percentilesOfAUniformSpread() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(50000, histogram.percentile(0.5), 50000 / 16.0);
+        assertEquals(99000, histogram.percentile(0.99), 99000 / 16.0);
+        assertEquals(100000, histogram.percentile(1.0));
+    }
+
+    @Test
+    public void negativeValuesCountAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-250);
+        assertEquals(1, histogram.count());
+        assertEquals(0, histogram.percentile(0.5));
+        assertEquals(0, histogram.max());
+    }
+
+    @Test
+    public void concurrentRecordsAreNotLost() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final int perThread = 200000;
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        histogram.record(i % 1000 + offset);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(threads.length * perThread, histogram.count());
+        assertEquals(999 + threads.length - 1, histogram.max());
+    }
+
+    @Test
+    public void recordingDoesNotAllocate() {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        SchedulerMetrics metrics = SchedulerMetrics.get();
+        long start = System.nanoTime();
+        // Warm up so the measured loop runs compiled code
+        for (int i = 0; i < 100000; i++) {
+            metrics.recordFired(i, i + (i & 1023));
+            metrics.recordSchedule(start);
+            metrics.recordNotify(i * 1000L);
+            metrics.recordWorkerWakeup();
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = bean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 1000000; i++) {
+            metrics.recordFired(i, i + (i & 1023));
+            metrics.recordSchedule(start);
+            metrics.recordNotify(i * 1000L);
+            metrics.recordWorkerWakeup();
+        }
+        long allocated = bean.getThreadAllocatedBytes(threadId) - before;
+        // The measurement itself may allocate a little
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    @Test
+    public void metricsDumpAsJson() throws Exception {
+        SchedulerMetrics metrics = SchedulerMetrics.get();
+        metrics.reset();
+        metrics.recordFired(1000, 1250);
+        metrics.recordFired(1000, 900);
+        metrics.recordAlarmWakeup();
+        metrics.recordStoreSize(12, 4096);
+
+        File file = File.createTempFile("scheduler-stats", ".json");
+        try {
+            metrics.dumpTo(file);
+            JSONObject json = new JSONObject(new String(Files.readAllBytes(file.toPath()), "UTF-8"));
+            assertEquals(1, json.getLong("alarmWakeups"));
+            assertEquals(2, json.getLong("remindersFired"));
+            assertEquals(12, json.getLong("storeEntries"));
+            assertEquals(4096, json.getLong("storeBytes"));
+            JSONObject lateness = json.getJSONObject("fireLatenessMs");
+            assertEquals(2, lateness.getLong("count"));
+            assertEquals(250, lateness.getLong("max"));
+            assertEquals(0, lateness.getLong("p50"));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.rexforge.quantumhabits;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class NotificationCoalescerTest {
+
+    private static final long SECOND = 1000;
+
+    private long now = 1_700_000_000_000L;
+
+    private static ScheduledReminder reminder(String id, long timestamp, int habitId) {
+        return new ScheduledReminder(id, "Habit " + habitId, "msg " + id, "#3b82f6", timestamp, habitId, 0);
+    }
+
+    @Test
+    public void windowExtendsHorizon() {
+        NotificationCoalescer coalescer = new NotificationCoalescer(30 * SECOND, 10 * SECOND);
+        assertEquals(now + 30 * SECOND, coalescer.horizon(now));
+        assertEquals(Long.MAX_VALUE, coalescer.horizon(Long.MAX_VALUE - 1));
+    }
+
+    @Test
+    public void collectsBurstFromSchedulerWithinWindow() {
+        ReminderScheduler scheduler = new ReminderScheduler();
+        for (int i = 0; i < 30; i++) {
+            scheduler.schedule(reminder("interval-" + i, now + i * SECOND, i % 5));
+        }
+        scheduler.schedule(reminder("outside", now + 31 * SECOND, 7));
+
+        NotificationCoalescer coalescer = new NotificationCoalescer(30 * SECOND, 10 * SECOND);
+        List<ScheduledReminder> due = new ArrayList<>();
+        scheduler.pollDue(coalescer.horizon(now), due);
+        NotificationCoalescer.Batch batch = coalescer.coalesce(due, now);
+
+        assertEquals(30, batch.reminderCount());
+        assertEquals(5, batch.groups().size());
+        assertEquals(1, scheduler.size());
+    }
+
+    @Test
+    public void groupsPerHabitInFirstSeenOrder() {
+        List<ScheduledReminder> due = new ArrayList<>();
+        due.add(reminder("a1", now, 2));
+        due.add(reminder("b1", now + 1, 1));
+        due.add(reminder("a2", now + 2, 2));
+        due.add(reminder("c1", now + 3, 0));
+
+        NotificationCoalescer.Batch batch = new NotificationCoalescer().coalesce(due, now);
+
+        List<NotificationCoalescer.HabitGroup> groups = batch.groups();
+        assertEquals(3, groups.size());
+        assertEquals(2, groups.get(0).habitId());
+        assertEquals(2, groups.get(0).reminders().size());
+        assertEquals("a2", groups.get(0).latest().id);
+        assertEquals(1, groups.get(1).habitId());
+        assertEquals(0, groups.get(2).habitId());
+    }
+
+    @Test
+    public void keepsANotificationApartFromTheHabitWithItsNumber() {
+        List<ScheduledReminder> due = new ArrayList<>();
+        due.add(reminder("habit-7-reminder-0-time-0", now, 7));
+        due.add(new ScheduledReminder("notification-7", "Read", "msg", "", now + 1, 7, ScheduledReminder.NOTIFICATION));
+        due.add(reminder("habit-7-reminder-0-time-1", now + 2, 7));
+
+        List<NotificationCoalescer.HabitGroup> groups = new NotificationCoalescer().coalesce(due, now).groups();
+        assertEquals(2, groups.size());
+        assertEquals(2, groups.get(0).reminders().size());
+        assertEquals("habit-7-reminder-0-time-1", groups.get(0).latest().id);
+        assertEquals(1, groups.get(1).reminders().size());
+        assertTrue(groups.get(1).latest().isNotification());
+    }
+
+    @Test
+    public void vibratesOncePerInterval() {
+        NotificationCoalescer coalescer = new NotificationCoalescer(0, 10 * SECOND);
+        List<ScheduledReminder> due = new ArrayList<>();
+        due.add(reminder("a", now, 1));
+
+        assertTrue(coalescer.coalesce(due, now).shouldVibrate());
+        assertFalse(coalescer.coalesce(due, now + 5 * SECOND).shouldVibrate());
+        assertTrue(coalescer.coalesce(due, now + 10 * SECOND).shouldVibrate());
+    }
+
+    @Test
+    public void emptyBatchDoesNotUseVibrationBudget() {
+        NotificationCoalescer coalescer = new NotificationCoalescer(0, 10 * SECOND);
+        NotificationCoalescer.Batch empty = coalescer.coalesce(new ArrayList<>(), now);
+        assertTrue(empty.isEmpty());
+        assertFalse(empty.shouldVibrate());
+
+        List<ScheduledReminder> due = new ArrayList<>();
+        due.add(reminder("a", now, 1));
+        assertTrue(coalescer.coalesce(due, now + 1).shouldVibrate());
+    }
+}
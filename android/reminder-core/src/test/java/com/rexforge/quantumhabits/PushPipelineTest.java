@@ -0,0 +1,205 @@
+package com.rexforge.quantumhabits;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class PushPipelineTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static class Recorder implements PushPipeline.Poster {
+        final List<PushPipeline.Push> pushes = Collections.synchronizedList(new ArrayList<PushPipeline.Push>());
+
+        @Override
+        public void post(PushPipeline.Push push) {
+            pushes.add(push);
+        }
+    }
+
+    private static Map<String, String> data(String... keyValues) {
+        Map<String, String> data = new HashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            data.put(keyValues[i], keyValues[i + 1]);
+        }
+        return data;
+    }
+
+    @Test
+    public void stringNotificationIdsAreHashed() {
+        Recorder recorder = new Recorder();
+        PushPipeline pipeline = new PushPipeline(DIRECT, 16, recorder);
+
+        assertEquals(PushPipeline.SUBMITTED,
+            pipeline.submit("m1", data("title", "Water", "body", "Drink", "notificationId", "habit_1"), null, null));
+
+        PushPipeline.Push push = recorder.pushes.get(0);
+        assertEquals("habit_1", push.key);
+        assertEquals("Water", push.title);
+        assertEquals("Drink", push.body);
+        assertEquals(PushPipeline.notificationId("habit_1"), push.notificationId);
+        assertTrue(push.notificationId < 0);
+    }
+
+    @Test
+    public void sameKeyReplacesItsNotification() {
+        Recorder recorder = new Recorder();
+        PushPipeline pipeline = new PushPipeline(DIRECT, 16, recorder);
+
+        pipeline.submit("m1", data("notificationId", "habit_1"), null, null);
+        pipeline.submit("m2", data("notificationId", "habit_1"), null, null);
+        pipeline.submit("m3", data("notificationId", "habit_2"), null, null);
+
+        assertEquals(3, recorder.pushes.size());
+        assertEquals(recorder.pushes.get(0).notificationId, recorder.pushes.get(1).notificationId);
+        assertNotEquals(recorder.pushes.get(0).notificationId, recorder.pushes.get(2).notificationId);
+    }
+
+    @Test
+    public void dataAndNotificationPayloadsPostOnce() {
+        Recorder recorder = new Recorder();
+        PushPipeline pipeline = new PushPipeline(DIRECT, 16, recorder);
+
+        pipeline.submit("m1", data("habitIcon", "x"), "From notification", "Body");
+
+        assertEquals(1, recorder.pushes.size());
+        assertEquals("From notification", recorder.pushes.get(0).title);
+        assertEquals("m1", recorder.pushes.get(0).key);
+    }
+
+    @Test
+    public void notificationOnlyMessagesFallBackToDefaults() {
+        Recorder recorder = new Recorder();
+        PushPipeline pipeline = new PushPipeline(DIRECT, 16, recorder);
+
+        pipeline.submit(null, Collections.<String, String>emptyMap(), "Hi", null);
+
+        assertEquals("Hi", recorder.pushes.get(0).title);
+        assertEquals(PushPipeline.DEFAULT_BODY, recorder.pushes.get(0).body);
+    }
+
+    @Test
+    public void emptyMessagesAreInvalid() {
+        Recorder recorder = new Recorder();
+        PushPipeline pipeline = new PushPipeline(DIRECT, 16, recorder);
+
+        assertEquals(PushPipeline.INVALID, pipeline.submit("m1", Collections.<String, String>emptyMap(), null, null));
+        assertEquals(PushPipeline.INVALID, pipeline.submit("m2", null, null, null));
+        assertTrue(recorder.pushes.isEmpty());
+    }
+
+    @Test
+    public void longFieldsAreTruncated() {
+        StringBuilder title = new StringBuilder();
+        for (int i = 0; i < PushPipeline.MAX_TITLE_LENGTH - 1; i++) {
+            title.append('a');
+        }
+        title.append("🎯");
+        Recorder recorder = new Recorder();
+        new PushPipeline(DIRECT, 16, recorder).submit("m1", data("title", title.toString()), null, null);
+
+        // The emoji's high surrogate would have been the last char kept
+        assertEquals(PushPipeline.MAX_TITLE_LENGTH - 1, recorder.pushes.get(0).title.length());
+    }
+
+    @Test
+    public void redeliveredMessagesAreDropped() {
+        Recorder recorder = new Recorder();
+        PushPipeline pipeline = new PushPipeline(DIRECT, 2, recorder);
+
+        assertEquals(PushPipeline.SUBMITTED, pipeline.submit("m1", data("title", "a"), null, null));
+        assertEquals(PushPipeline.DUPLICATE, pipeline.submit("m1", data("title", "a"), null, null));
+        pipeline.submit("m2", data("title", "b"), null, null);
+        // Touching m1 keeps it; m2 is the eldest when m3 arrives
+        pipeline.submit("m1", data("title", "a"), null, null);
+        pipeline.submit("m3", data("title", "c"), null, null);
+
+        assertEquals(PushPipeline.DUPLICATE, pipeline.submit("m1", data("title", "a"), null, null));
+        assertEquals(PushPipeline.SUBMITTED, pipeline.submit("m2", data("title", "b"), null, null));
+        assertEquals(4, recorder.pushes.size());
+        assertEquals(3, pipeline.duplicates());
+    }
+
+    @Test
+    public void failingPostDoesNotStopThePipeline() {
+        final List<String> titles = new ArrayList<>();
+        PushPipeline pipeline = new PushPipeline(DIRECT, 16, new PushPipeline.Poster() {
+            @Override
+            public void post(PushPipeline.Push push) {
+                if (push.title.equals("bad")) throw new IllegalStateException();
+                titles.add(push.title);
+            }
+        });
+
+        pipeline.submit("m1", data("title", "bad"), null, null);
+        pipeline.submit("m2", data("title", "good"), null, null);
+
+        assertEquals(Collections.singletonList("good"), titles);
+        assertEquals(1, pipeline.failed());
+        assertEquals(1, pipeline.posted());
+    }
+
+    @Test
+    public void multicastBurstPostsEveryMessageOnce() throws Exception {
+        final int messages = 500;
+        final int senders = 4;
+        final Recorder recorder = new Recorder();
+        ExecutorService posters = Executors.newFixedThreadPool(2);
+        final PushPipeline pipeline = new PushPipeline(posters, 1024, recorder);
+
+        // Each sender redelivers every message it sends, as FCM may under load
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[senders];
+        for (int t = 0; t < senders; t++) {
+            final int sender = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = sender; i < messages; i += senders) {
+                        Map<String, String> payload = data("title", "Habit " + i, "notificationId", "habit_" + i);
+                        pipeline.submit("msg-" + i, payload, "Habit " + i, null);
+                        pipeline.submit("msg-" + i, payload, "Habit " + i, null);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        posters.shutdown();
+        assertTrue(posters.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(messages, recorder.pushes.size());
+        assertEquals(messages, pipeline.posted());
+        assertEquals(messages, pipeline.duplicates());
+        Set<Integer> ids = new HashSet<>();
+        for (PushPipeline.Push push : recorder.pushes) {
+            ids.add(push.notificationId);
+        }
+        assertEquals(messages, ids.size());
+    }
+}
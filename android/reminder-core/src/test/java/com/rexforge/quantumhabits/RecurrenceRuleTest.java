@@ -0,0 +1,193 @@
+package com.rexforge.quantumhabits;
+
+import static org.junit.Assert.*;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.TreeSet;
+import org.junit.Test;
+
+public class RecurrenceRuleTest {
+
+    private static final ZoneId NEW_YORK = ZoneId.of("America/New_York");
+    private static final ZoneId UTC = ZoneId.of("UTC");
+
+    private static long at(ZoneId zone, int year, int month, int day, int hour, int minute) {
+        return ZonedDateTime.of(LocalDateTime.of(year, month, day, hour, minute), zone).toInstant().toEpochMilli();
+    }
+
+    private static String local(ZoneId zone, long millis) {
+        return ZonedDateTime.ofInstant(java.time.Instant.ofEpochMilli(millis), zone).toString();
+    }
+
+    @Test
+    public void dailyRuleRepeatsEveryDay() {
+        RecurrenceRule rule = RecurrenceRule.daily(9 * 60, UTC);
+        assertEquals(at(UTC, 2024, 5, 1, 9, 0), rule.next(at(UTC, 2024, 5, 1, 8, 0)));
+        // Strictly after: the slot itself moves on to tomorrow
+        assertEquals(at(UTC, 2024, 5, 2, 9, 0), rule.next(at(UTC, 2024, 5, 1, 9, 0)));
+        assertEquals(at(UTC, 2024, 5, 2, 9, 0), rule.next(at(UTC, 2024, 5, 1, 23, 59)));
+    }
+
+    @Test
+    public void intervalRuleWalksWindowThenNextDay() {
+        RecurrenceRule rule = RecurrenceRule.interval(9 * 60, 18 * 60, 120, UTC);
+        assertEquals(5, rule.slotsPerDay());
+        long[] out = new long[7];
+        int count = rule.nextOccurrences(at(UTC, 2024, 5, 1, 12, 0), Long.MAX_VALUE, out);
+        assertEquals(7, count);
+        assertEquals(at(UTC, 2024, 5, 1, 13, 0), out[0]);
+        assertEquals(at(UTC, 2024, 5, 1, 17, 0), out[2]);
+        // 18:00 is not on the 2 hour grid from 09:00, so the day ends at 17:00
+        assertEquals(at(UTC, 2024, 5, 2, 9, 0), out[3]);
+        assertEquals(at(UTC, 2024, 5, 2, 15, 0), out[6]);
+    }
+
+    @Test
+    public void occurrencesStopAtHorizon() {
+        RecurrenceRule rule = RecurrenceRule.interval(0, 23 * 60 + 59, 60, UTC);
+        long from = at(UTC, 2024, 5, 1, 0, 0);
+        long[] out = new long[100];
+        assertEquals(48, rule.nextOccurrences(from - 1, from + 48 * 3600000L, out));
+        assertEquals(from + 47 * 3600000L, out[47]);
+    }
+
+    @Test
+    public void windowSpanningMidnightBelongsToItsStartDay() {
+        // 22:00 to 02:00 every hour, Fridays only
+        RecurrenceRule rule = RecurrenceRule.interval(22 * 60, 2 * 60, 60, UTC)
+            .withDays(1 << (DayOfWeek.FRIDAY.getValue() - 1));
+        long[] out = new long[6];
+        // 2024-05-03 is a Friday
+        assertEquals(6, rule.nextOccurrences(at(UTC, 2024, 5, 3, 12, 0), Long.MAX_VALUE, out));
+        assertEquals(at(UTC, 2024, 5, 3, 22, 0), out[0]);
+        assertEquals(at(UTC, 2024, 5, 4, 0, 0), out[2]);
+        assertEquals(at(UTC, 2024, 5, 4, 2, 0), out[4]);
+        assertEquals(at(UTC, 2024, 5, 10, 22, 0), out[5]);
+
+        // Saturday after midnight still finishes Friday's window
+        assertEquals(at(UTC, 2024, 5, 4, 1, 0), rule.next(at(UTC, 2024, 5, 4, 0, 30)));
+    }
+
+    @Test
+    public void disabledDaysAreSkipped() {
+        int weekdays = 0x1f;
+        RecurrenceRule rule = RecurrenceRule.daily(8 * 60, UTC).withDays(weekdays);
+        // 2024-05-03 is a Friday; the next one is Monday
+        assertEquals(at(UTC, 2024, 5, 6, 8, 0), rule.next(at(UTC, 2024, 5, 3, 9, 0)));
+        assertEquals(-1, rule.withDays(0).next(at(UTC, 2024, 5, 3, 9, 0)));
+    }
+
+    @Test
+    public void springForwardGapMovesSlotForward() {
+        // 2024-03-10 02:00 EST jumps to 03:00 EDT
+        RecurrenceRule rule = RecurrenceRule.daily(2 * 60 + 30, NEW_YORK);
+        long first = rule.next(at(NEW_YORK, 2024, 3, 10, 0, 0));
+        assertEquals("2024-03-10T03:30-04:00[America/New_York]", local(NEW_YORK, first));
+        assertEquals(at(NEW_YORK, 2024, 3, 11, 2, 30), rule.next(first));
+    }
+
+    @Test
+    public void intervalAcrossSpringForwardNeitherRepeatsNorGoesBack() {
+        RecurrenceRule rule = RecurrenceRule.interval(60, 5 * 60, 45, NEW_YORK);
+        long[] out = new long[8];
+        int count = rule.nextOccurrences(at(NEW_YORK, 2024, 3, 10, 0, 0), at(NEW_YORK, 2024, 3, 10, 12, 0), out);
+        // Wall-clock slots 01:00 01:45 02:30 03:15 04:00 04:45; 02:30 falls in the gap and
+        // moves to 03:30, after the 03:15 slot
+        assertEquals(6, count);
+        assertEquals("2024-03-10T01:00-05:00[America/New_York]", local(NEW_YORK, out[0]));
+        assertEquals("2024-03-10T01:45-05:00[America/New_York]", local(NEW_YORK, out[1]));
+        assertEquals("2024-03-10T03:15-04:00[America/New_York]", local(NEW_YORK, out[2]));
+        assertEquals("2024-03-10T03:30-04:00[America/New_York]", local(NEW_YORK, out[3]));
+        assertEquals("2024-03-10T04:00-04:00[America/New_York]", local(NEW_YORK, out[4]));
+        assertEquals("2024-03-10T04:45-04:00[America/New_York]", local(NEW_YORK, out[5]));
+    }
+
+    @Test
+    public void fallBackOverlapFiresOnce() {
+        // 2024-11-03 02:00 EDT falls back to 01:00 EST, so 01:30 happens twice
+        RecurrenceRule rule = RecurrenceRule.daily(60 + 30, NEW_YORK);
+        long first = rule.next(at(NEW_YORK, 2024, 11, 3, 0, 0));
+        assertEquals("2024-11-03T01:30-04:00[America/New_York]", local(NEW_YORK, first));
+        long second = rule.next(first);
+        assertEquals(at(NEW_YORK, 2024, 11, 4, 1, 30), second);
+    }
+
+    @Test
+    public void intervalAcrossFallBackKeepsWallClock() {
+        RecurrenceRule rule = RecurrenceRule.interval(0, 3 * 60, 30, NEW_YORK);
+        long[] out = new long[10];
+        int count = rule.nextOccurrences(at(NEW_YORK, 2024, 11, 2, 23, 0), at(NEW_YORK, 2024, 11, 3, 12, 0), out);
+        // 00:00 00:30 01:00 01:30 (EDT) then 02:00 02:30 03:00 (EST)
+        assertEquals(7, count);
+        for (int i = 1; i < count; i++) {
+            assertTrue(out[i] > out[i - 1]);
+        }
+        assertEquals("2024-11-03T01:30-04:00[America/New_York]", local(NEW_YORK, out[3]));
+        assertEquals("2024-11-03T02:00-05:00[America/New_York]", local(NEW_YORK, out[4]));
+        // 90 real minutes between 01:30 EDT and 02:00 EST
+        assertEquals(90 * 60000L, out[4] - out[3]);
+    }
+
+    @Test
+    public void nextFromInsideOverlapDoesNotGoBack() {
+        RecurrenceRule rule = RecurrenceRule.interval(0, 3 * 60, 30, NEW_YORK);
+        // 01:15 EST, after 01:30 EDT has already happened
+        long secondPass = ZonedDateTime.of(LocalDateTime.of(2024, 11, 3, 1, 15), NEW_YORK)
+            .withLaterOffsetAtOverlap().toInstant().toEpochMilli();
+        assertEquals("2024-11-03T02:00-05:00[America/New_York]", local(NEW_YORK, rule.next(secondPass)));
+    }
+
+    @Test
+    public void aYearOfSlotsMatchesTheWallClock() {
+        // Lord Howe shifts by half an hour, so slots near its changes move by less than a step
+        for (ZoneId zone : new ZoneId[] {NEW_YORK, ZoneId.of("Australia/Lord_Howe"), UTC}) {
+            RecurrenceRule rule = RecurrenceRule.interval(10, 23 * 60 + 50, 25, zone);
+            TreeSet<Long> expected = new TreeSet<>();
+            for (LocalDate day = LocalDate.of(2024, 1, 1); day.getYear() == 2024; day = day.plusDays(1)) {
+                for (int minute = 10; minute <= 23 * 60 + 50; minute += 25) {
+                    expected.add(ZonedDateTime.of(day.atStartOfDay().plusMinutes(minute), zone)
+                        .toInstant().toEpochMilli());
+                }
+            }
+            long after = expected.first() - 1;
+            for (long slot : expected) {
+                after = rule.next(after);
+                assertEquals(local(zone, slot), local(zone, after));
+            }
+        }
+    }
+
+    @Test
+    public void parsesTimes() {
+        assertEquals(9 * 60 + 5, RecurrenceRule.parseTime("09:05"));
+        assertEquals(23 * 60 + 59, RecurrenceRule.parseTime("23:59"));
+        assertEquals(-1, RecurrenceRule.parseTime("24:00"));
+        assertEquals(-1, RecurrenceRule.parseTime("noon"));
+        assertEquals(-1, RecurrenceRule.parseTime(null));
+    }
+
+    @Test
+    public void rulesRoundTripThroughEncoding() {
+        RecurrenceRule rule = RecurrenceRule.interval(22 * 60, 60, 15, NEW_YORK).withDays(0x15);
+        assertEquals(rule, RecurrenceRule.decode(rule.encode()));
+        assertNull(RecurrenceRule.decode("1,2,3"));
+        assertNull(RecurrenceRule.decode("1,2,3,4,Mars/Olympus_Mons"));
+
+        RecurrenceSchedule schedule = new RecurrenceSchedule();
+        schedule.put("habit-1-reminder-0-time-0", 1, RecurrenceRule.daily(9 * 60, UTC));
+        schedule.put("habit-1-reminder-1-interval", 1, rule);
+        schedule.put("habit-2-reminder-0-time-0", 2, RecurrenceRule.daily(20 * 60, UTC));
+        RecurrenceSchedule decoded = RecurrenceSchedule.decode(schedule.encode() + "garbage;");
+        assertEquals(3, decoded.size());
+        assertEquals(rule, decoded.get("habit-1-reminder-1-interval"));
+
+        decoded.removeHabit(1);
+        assertEquals(1, decoded.size());
+        assertEquals(-1, decoded.next("habit-1-reminder-0-time-0", 0));
+        assertEquals(at(UTC, 1970, 1, 1, 20, 0), decoded.next("habit-2-reminder-0-time-0", 0));
+    }
+}
@@ -0,0 +1,44 @@
+package com.rexforge.quantumhabits;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ReminderBatchTest {
+
+    @Test
+    public void roundTripsCancelsAndReminders() throws Exception {
+        ReminderBatch batch = new ReminderBatch().cancelHabit(3).cancelHabit(9);
+        for (int i = 0; i < 1000; i++) {
+            batch.add(new ScheduledReminder("habit-" + (i % 10) + "-reminder-0-interval-" + i,
+                "Drink water 💧", "Time for your habit!", "#3b82f6", 1_700_000_000_000L + i, i % 10, 0));
+        }
+
+        ReminderBatch decoded = ReminderBatch.decode(batch.encode());
+        assertEquals(2, decoded.cancelCount());
+        assertEquals(3, decoded.cancelledHabit(0));
+        assertEquals(9, decoded.cancelledHabit(1));
+        assertEquals(1000, decoded.reminders().size());
+        ScheduledReminder last = decoded.reminders().get(999);
+        assertEquals("habit-9-reminder-0-interval-999", last.id);
+        assertEquals("Drink water 💧", last.habitName);
+        assertEquals(1_700_000_000_000L + 999, last.timestamp);
+        assertEquals(9, last.habitId);
+    }
+
+    @Test
+    public void sharedStringsAreEncodedOnce() {
+        ReminderBatch batch = new ReminderBatch();
+        for (int i = 0; i < 1000; i++) {
+            batch.add(new ScheduledReminder("r" + i, "A fairly long habit name", "A fairly long reminder message",
+                "#3b82f6", i, 1, 0));
+        }
+        // 32 bytes of fixed fields per reminder plus its short id; name and message appear once
+        assertTrue(batch.encode().length < 1000 * (32 + 8) + 200);
+    }
+
+    @Test(expected = java.io.IOException.class)
+    public void rejectsUnknownVersion() throws Exception {
+        ReminderBatch.decode(new byte[]{0, 0, 0, 99});
+    }
+}
@@ -0,0 +1,241 @@
+package com.rexforge.quantumhabits;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReminderEngineTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final long MINUTE = 60000;
+    private final long now = 1_700_000_000_000L;
+
+    // Records backend calls as "+id", "-id" and "@deadline"
+    private static final class RecordingBackend implements ReminderEngine.Backend {
+        final List<String> calls = new ArrayList<>();
+
+        @Override
+        public void scheduled(ScheduledReminder reminder) {
+            calls.add("+" + reminder.id);
+        }
+
+        @Override
+        public void removed(String id) {
+            calls.add("-" + id);
+        }
+
+        @Override
+        public void deadlineChanged(long deadline) {
+            calls.add("@" + deadline);
+        }
+    }
+
+    private static ScheduledReminder reminder(String id, int habitId, long timestamp) {
+        return new ScheduledReminder(id, "Habit " + habitId, "Time for it", "#fff", timestamp, habitId, 0);
+    }
+
+    private ReminderEngine open(File dir) throws Exception {
+        ReminderEngine engine = new ReminderEngine(new ReminderScheduler());
+        engine.open(new File(dir, "reminders"), new File(dir, "fired"), now);
+        return engine;
+    }
+
+    @Test
+    public void backendHearsAboutChangesOnly() throws Exception {
+        ReminderEngine engine = open(folder.newFolder());
+        RecordingBackend backend = new RecordingBackend();
+        engine.attach(backend);
+
+        engine.schedule(reminder("a", 1, now + 2 * MINUTE));
+        engine.schedule(reminder("a", 1, now + 2 * MINUTE));
+        engine.schedule(reminder("b", 2, now + MINUTE));
+        engine.schedule(reminder("c", 2, now + 3 * MINUTE));
+        engine.cancelHabit(2);
+        assertFalse(engine.cancel("missing"));
+
+        assertEquals(Arrays.asList("@" + ReminderScheduler.NO_DEADLINE,
+            "+a", "@" + (now + 2 * MINUTE), "+b", "@" + (now + MINUTE), "+c"), backend.calls.subList(0, 6));
+        assertEquals(new HashSet<>(Arrays.asList("-b", "-c")), new HashSet<>(backend.calls.subList(6, 8)));
+        assertEquals(Arrays.asList("@" + (now + 2 * MINUTE)), backend.calls.subList(8, backend.calls.size()));
+        assertEquals(1, engine.size());
+        engine.close();
+    }
+
+    @Test
+    public void habitCancelsNeverTakeANotificationWithTheSameNumber() throws Exception {
+        File dir = folder.newFolder();
+        ReminderEngine engine = open(dir);
+        ScheduledReminder notification = new ScheduledReminder("notification-5", "Read", "Time to read", "",
+            now + 10 * MINUTE, 5, ScheduledReminder.NOTIFICATION);
+        engine.schedule(notification);
+
+        // Once directly, once in a batch from a sync and once from a server delta
+        engine.schedule(reminder("habit-5-reminder-0-time-0", 5, now + MINUTE));
+        assertEquals(1, engine.cancelHabit(5));
+        engine.apply(new ReminderBatch()
+            .add(reminder("habit-5-reminder-0-time-0", 5, now + MINUTE)));
+        engine.apply(new ReminderBatch().cancelHabit(5));
+        engine.schedule(reminder("habit-5-reminder-0-time-0", 5, now + MINUTE));
+        engine.apply(new ScheduleDelta(1).deleteHabit(5), ZoneOffset.UTC, now);
+        assertEquals(1, engine.size());
+        engine.close();
+
+        // Reloaded from the store it is still out of the habit's reach
+        engine = open(dir);
+        assertEquals(0, engine.cancelHabit(5));
+        assertEquals(1, engine.size());
+        assertTrue(engine.cancel("notification-5"));
+        engine.close();
+    }
+
+    @Test
+    public void scheduleSurvivesReopening() throws Exception {
+        File dir = folder.newFolder();
+        ReminderEngine engine = open(dir);
+        engine.apply(new ReminderBatch()
+            .add(reminder("habit-1-reminder-0-time-0", 1, now + MINUTE))
+            .add(reminder("habit-2-reminder-0-time-0", 2, now + 2 * MINUTE)));
+        engine.apply(new ReminderBatch()
+            .cancelHabit(1)
+            .add(reminder("habit-1-reminder-0-time-1", 1, now + 3 * MINUTE)));
+        engine.close();
+
+        ReminderEngine reopened = open(dir);
+        assertEquals(2, reopened.size());
+        assertTrue(reopened.scheduler().contains("habit-1-reminder-0-time-1"));
+        assertFalse(reopened.scheduler().contains("habit-1-reminder-0-time-0"));
+        assertEquals(now + 2 * MINUTE, reopened.nextDeadline());
+        assertTrue(reopened.storedBytes() > 0);
+        reopened.close();
+    }
+
+    @Test
+    public void deliveryMovesRepeatingRemindersOnAndDropsTheRest() throws Exception {
+        ReminderEngine engine = open(folder.newFolder());
+        RecurrenceSchedule recurrences = new RecurrenceSchedule();
+        recurrences.put("repeating", 1, RecurrenceRule.interval(0, 1430, 10, ZoneOffset.UTC));
+        engine.setRecurrences(recurrences);
+        RecordingBackend backend = new RecordingBackend();
+        engine.attach(backend);
+        long slot = now - now % (10 * MINUTE) + 10 * MINUTE;
+        engine.schedule(reminder("repeating", 1, slot));
+        engine.schedule(reminder("notification-7", 7, slot));
+        backend.calls.clear();
+
+        List<ScheduledReminder> due = new ArrayList<>();
+        engine.scheduler().pollDue(slot, due);
+        List<ScheduledReminder> shown = new ArrayList<>();
+        engine.deliver(due, slot, shown);
+
+        assertEquals(2, shown.size());
+        assertEquals(1, engine.size());
+        assertEquals(slot + 10 * MINUTE, engine.nextDeadline());
+        assertEquals(Arrays.asList("-notification-7", "+repeating", "@" + (slot + 10 * MINUTE)),
+            backend.calls);
+
+        // Shown reminders can be snoozed until they are past retention
+        long delay = engine.snooze("notification-7", new SnoozePolicy(), slot + MINUTE);
+        assertEquals(SnoozePolicy.DEFAULT_DELAYS_MS[0], delay);
+        assertEquals(slot + MINUTE + delay, engine.nextDeadline());
+        assertTrue(engine.scheduler().contains("notification-7" + ReminderEngine.SNOOZE_SUFFIX));
+        assertEquals(-1, engine.snooze("notification-7", new SnoozePolicy(), slot + MINUTE));
+        engine.close();
+    }
+
+    @Test
+    public void snoozingARepeatingReminderKeepsItsNextOccurrence() throws Exception {
+        ReminderEngine engine = open(folder.newFolder());
+        RecurrenceSchedule recurrences = new RecurrenceSchedule();
+        recurrences.put("repeating", 1, RecurrenceRule.interval(0, 1430, 10, ZoneOffset.UTC));
+        engine.setRecurrences(recurrences);
+        long slot = now - now % (10 * MINUTE) + 10 * MINUTE;
+        engine.schedule(reminder("repeating", 1, slot));
+
+        List<ScheduledReminder> shown = new ArrayList<>();
+        deliverDue(engine, slot, shown);
+        assertEquals(1, shown.size());
+
+        // Snoozed past the next occurrence, which still fires on its own
+        SnoozePolicy policy = new SnoozePolicy(new long[] {15 * MINUTE, 30 * MINUTE});
+        assertEquals(15 * MINUTE, engine.snooze("repeating", policy, slot + MINUTE));
+        assertEquals(2, engine.size());
+        assertEquals(slot + 10 * MINUTE, engine.nextDeadline());
+
+        shown.clear();
+        deliverDue(engine, slot + 10 * MINUTE, shown);
+        assertEquals("repeating", shown.get(0).id);
+        shown.clear();
+        deliverDue(engine, slot + 16 * MINUTE, shown);
+        assertEquals("repeating" + ReminderEngine.SNOOZE_SUFFIX, shown.get(0).id);
+        assertEquals(slot + 16 * MINUTE, shown.get(0).timestamp);
+        // The copy leaves the schedule once shown; the rule keeps its own row
+        assertEquals(1, engine.size());
+        assertEquals(slot + 20 * MINUTE, engine.nextDeadline());
+
+        // Snoozing the shown copy escalates for the reminder and reuses the copy's id
+        assertEquals(30 * MINUTE, engine.snooze("repeating" + ReminderEngine.SNOOZE_SUFFIX, policy,
+            slot + 17 * MINUTE));
+        assertTrue(engine.scheduler().contains("repeating" + ReminderEngine.SNOOZE_SUFFIX));
+        assertEquals(2, engine.size());
+        engine.close();
+    }
+
+    private static void deliverDue(ReminderEngine engine, long now, List<ScheduledReminder> shown)
+            throws Exception {
+        List<ScheduledReminder> due = new ArrayList<>();
+        engine.scheduler().pollDue(now, due);
+        engine.deliver(due, now, shown);
+    }
+
+    @Test
+    public void rehydrationTellsTheBackendEverything() throws Exception {
+        File dir = folder.newFolder();
+        ReminderEngine engine = open(dir);
+        engine.schedule(reminder("future", 1, now + MINUTE));
+        engine.schedule(reminder("recent", 2, now - 5 * MINUTE));
+        engine.schedule(reminder("stale", 3, now - 120 * MINUTE));
+        engine.close();
+
+        ReminderEngine booted = open(dir);
+        RecordingBackend backend = new RecordingBackend();
+        booted.attach(backend);
+        backend.calls.clear();
+        ScheduleRehydrator rehydrator = booted.rehydrate(now, ScheduleRehydrator.DEFAULT_GRACE_MS);
+
+        assertEquals("kept=1 fastForwarded=1 dropped=1", rehydrator.toString());
+        // The system forgot every alarm while the device was off
+        assertEquals(3, backend.calls.size());
+        assertTrue(backend.calls.contains("+future"));
+        assertTrue(backend.calls.contains("+recent"));
+        assertEquals("@" + now, backend.calls.get(2));
+        booted.close();
+    }
+
+    @Test
+    public void switchingBackendsMovesEveryReminder() throws Exception {
+        ReminderEngine engine = open(folder.newFolder());
+        RecordingBackend first = new RecordingBackend();
+        engine.attach(first);
+        engine.schedule(reminder("a", 1, now + MINUTE));
+        first.calls.clear();
+
+        RecordingBackend second = new RecordingBackend();
+        engine.switchTo(second);
+        assertEquals(Arrays.asList("-a", "@" + ReminderScheduler.NO_DEADLINE), first.calls);
+        assertEquals(Arrays.asList("+a", "@" + (now + MINUTE)), second.calls);
+
+        engine.cancel("a");
+        assertEquals(2, first.calls.size());
+        assertEquals("@" + ReminderScheduler.NO_DEADLINE, second.calls.get(3));
+        engine.close();
+    }
+}
@@ -0,0 +1,183 @@
+package com.rexforge.quantumhabits;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class ReminderSchedulerTest {
+
+    private static final long MINUTE = 60000;
+
+    // Stands in for System.currentTimeMillis(); only moves when a test advances it
+    private long now = 1_700_000_000_000L;
+
+    private static ScheduledReminder reminder(String id, long timestamp, int habitId) {
+        return new ScheduledReminder(id, "Habit " + habitId, "msg", "#3b82f6", timestamp, habitId, 0);
+    }
+
+    @Test
+    public void emptySchedulerHasNoDeadline() {
+        ReminderScheduler scheduler = new ReminderScheduler();
+        assertEquals(ReminderScheduler.NO_DEADLINE, scheduler.nextDeadline());
+        assertEquals(-1, scheduler.delayUntilNext(now));
+        assertEquals(0, scheduler.pollDue(now, new ArrayList<>()));
+    }
+
+    @Test
+    public void sleepsUntilEarliestDeadline() {
+        ReminderScheduler scheduler = new ReminderScheduler();
+        scheduler.schedule(reminder("c", now + 30 * MINUTE, 3));
+        scheduler.schedule(reminder("a", now + 5 * MINUTE, 1));
+        scheduler.schedule(reminder("b", now + 10 * MINUTE, 2));
+
+        assertEquals(now + 5 * MINUTE, scheduler.nextDeadline());
+        assertEquals(5 * MINUTE, scheduler.delayUntilNext(now));
+    }
+
+    @Test
+    public void pollBeforeDeadlineDoesNothing() {
+        ReminderScheduler scheduler = new ReminderScheduler();
+        scheduler.schedule(reminder("a", now + MINUTE, 1));
+
+        List<ScheduledReminder> due = new ArrayList<>();
+        now += MINUTE - 1;
+        assertEquals(0, scheduler.pollDue(now, due));
+        assertTrue(due.isEmpty());
+        assertEquals(1, scheduler.size());
+    }
+
+    @Test
+    public void firesAllDueRemindersInOneBatch() {
+        ReminderScheduler scheduler = new ReminderScheduler();
+        for (int i = 0; i < 30; i++) {
+            scheduler.schedule(reminder("same-minute-" + i, now + 60 * MINUTE, i));
+        }
+        scheduler.schedule(reminder("earlier", now + 59 * MINUTE, 99));
+        scheduler.schedule(reminder("later", now + 61 * MINUTE, 100));
+
+        List<ScheduledReminder> due = new ArrayList<>();
+        now += 60 * MINUTE;
+        assertEquals(31, scheduler.pollDue(now, due));
+        assertEquals("earlier", due.get(0).id);
+        assertEquals(1, scheduler.size());
+        assertEquals(now + MINUTE, scheduler.nextDeadline());
+    }
+
+    @Test
+    public void pollReturnsRemindersInDeadlineOrder() {
+        ReminderScheduler scheduler = new ReminderScheduler();
+        long[] offsets = {7, 3, 9, 1, 5, 2, 8, 4, 6, 0};
+        for (long offset : offsets) {
+            scheduler.schedule(reminder("r" + offset, now + offset * MINUTE, (int) offset));
+        }
+
+        List<ScheduledReminder> due = new ArrayList<>();
+        now += 10 * MINUTE;
+        scheduler.pollDue(now, due);
+        for (int i = 1; i < due.size(); i++) {
+            assertTrue(due.get(i - 1).timestamp <= due.get(i).timestamp);
+        }
+        assertTrue(scheduler.isEmpty());
+    }
+
+    @Test
+    public void cancelHabitKeepsHeapOrdered() {
+        ReminderScheduler scheduler = new ReminderScheduler();
+        for (int i = 0; i < 100; i++) {
+            scheduler.schedule(reminder("r" + i, now + (100 - i) * MINUTE, i % 4));
+        }
+
+        assertEquals(25, scheduler.cancelHabit(2));
+        assertEquals(75, scheduler.size());
+
+        List<ScheduledReminder> due = new ArrayList<>();
+        scheduler.pollDue(now + 200 * MINUTE, due);
+        assertEquals(75, due.size());
+        for (int i = 0; i < due.size(); i++) {
+            assertNotEquals(2, due.get(i).habitId);
+            if (i > 0) assertTrue(due.get(i - 1).timestamp <= due.get(i).timestamp);
+        }
+    }
+
+    @Test
+    public void cancelHabitLeavesANotificationWithTheSameNumber() {
+        ReminderScheduler scheduler = new ReminderScheduler();
+        scheduler.schedule(reminder("habit-42-reminder-0-time-0", now + MINUTE, 42));
+        scheduler.schedule(new ScheduledReminder("notification-42", "Read", "msg", "", now + 2 * MINUTE, 42,
+            ScheduledReminder.NOTIFICATION));
+        scheduler.schedule(reminder("habit-42-reminder-0-time-1", now + 3 * MINUTE, 42));
+
+        List<String> removed = new ArrayList<>();
+        assertEquals(2, scheduler.cancelHabit(42, removed));
+        assertEquals(2, removed.size());
+        assertFalse(removed.contains("notification-42"));
+        assertTrue(scheduler.contains("notification-42"));
+        assertEquals(now + 2 * MINUTE, scheduler.nextDeadline());
+
+        // Removing the notification leaves the habit's list intact for its next reminders
+        scheduler.schedule(reminder("habit-42-reminder-1-time-0", now + 4 * MINUTE, 42));
+        assertTrue(scheduler.cancel("notification-42"));
+        assertEquals(1, scheduler.cancelHabit(42));
+        assertEquals(0, scheduler.size());
+    }
+
+    @Test
+    public void cancelByIdAndListsRemovedIds() {
+        ReminderScheduler scheduler = new ReminderScheduler();
+        scheduler.schedule(reminder("a", now + MINUTE, 1));
+        scheduler.schedule(reminder("b", now + 2 * MINUTE, 1));
+        scheduler.schedule(reminder("c", now + 3 * MINUTE, 2));
+
+        assertTrue(scheduler.cancel("a"));
+        assertFalse(scheduler.cancel("a"));
+        assertEquals(now + 2 * MINUTE, scheduler.nextDeadline());
+
+        List<String> removed = new ArrayList<>();
+        assertEquals(1, scheduler.cancelHabit(1, removed));
+        assertEquals(java.util.Collections.singletonList("b"), removed);
+        assertTrue(scheduler.contains("c"));
+        assertEquals(now + 3 * MINUTE, scheduler.nextDeadline());
+    }
+
+    @Test
+    public void upsertReplacesById() {
+        ReminderScheduler scheduler = new ReminderScheduler();
+        assertEquals(ReminderScheduler.INSERTED, scheduler.upsert(reminder("a", now + 10 * MINUTE, 1)));
+        assertEquals(ReminderScheduler.UNCHANGED, scheduler.upsert(reminder("a", now + 10 * MINUTE, 1)));
+        assertEquals(1, scheduler.size());
+
+        assertEquals(ReminderScheduler.UPDATED, scheduler.upsert(reminder("a", now + 2 * MINUTE, 1)));
+        scheduler.schedule(reminder("b", now + 5 * MINUTE, 2));
+        assertEquals(2, scheduler.size());
+        assertEquals(now + 2 * MINUTE, scheduler.nextDeadline());
+
+        List<ScheduledReminder> due = new ArrayList<>();
+        scheduler.pollDue(now + 30 * MINUTE, due);
+        assertEquals("a", due.get(0).id);
+        assertEquals("b", due.get(1).id);
+    }
+
+    @Test
+    public void upsertAllReportsOnlyChanges() {
+        ReminderScheduler scheduler = new ReminderScheduler();
+        List<ScheduledReminder> batch = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            batch.add(reminder("r" + i, now + i * MINUTE, i % 10));
+        }
+        List<ScheduledReminder> changed = new ArrayList<>();
+        assertEquals(100, scheduler.upsertAll(batch, changed));
+
+        // The same sync again is a no-op
+        changed.clear();
+        assertEquals(0, scheduler.upsertAll(batch, changed));
+        assertEquals(100, scheduler.size());
+
+        batch.set(7, reminder("r7", now + 500 * MINUTE, 7));
+        assertEquals(1, scheduler.upsertAll(batch, changed));
+        assertSame(batch.get(7), changed.get(0));
+        assertEquals(100, scheduler.size());
+        assertEquals(10, scheduler.cancelHabit(7));
+    }
+}
@@ -0,0 +1,77 @@
+package com.rexforge.quantumhabits;
+
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReminderSimulationTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // ./gradlew :reminder-core:simulation runs the year at the simulator's full 2000 habits
+    private static final int HABITS = Integer.getInteger("simulation.habits", 200);
+
+    @Test
+    public void yearWithDstAndRebootsShowsEveryOccurrenceOnceAndOnTime() throws Exception {
+        ReminderSimulator.Config config = new ReminderSimulator.Config();
+        config.habits = HABITS;
+        ReminderSimulator.Report report = new ReminderSimulator(config, folder.newFolder()).run();
+
+        assertEquals(report.problems.toString(), 0, report.missed);
+        assertEquals(report.problems.toString(), 0, report.duplicates);
+        assertEquals(report.problems.toString(), 0, report.late);
+        // Several occurrences per habit and day
+        assertTrue(report.onTime > HABITS * 365 * 5L);
+        // The year crosses DST changes in every hemisphere and reboots of every length
+        assertTrue(report.gapSlots > 0);
+        assertTrue(report.overlapSlots > 0);
+        assertTrue(report.shownAtBoot > 0);
+        assertTrue(report.droppedWhileOff > 0);
+    }
+
+    @Test
+    public void backendsDeliverTheSameMonthAtDifferentAlarmCosts() throws Exception {
+        ReminderSimulator.Report[] reports = new ReminderSimulator.Report[ReminderSimulator.Wakeup.values().length];
+        for (ReminderSimulator.Wakeup wakeup : ReminderSimulator.Wakeup.values()) {
+            ReminderSimulator.Config config = new ReminderSimulator.Config();
+            config.habits = 300;
+            config.days = 30;
+            config.reboots = 3;
+            config.wakeup = wakeup;
+            ReminderSimulator.Report report = new ReminderSimulator(config, folder.newFolder()).run();
+            assertEquals(report.problems.toString(), 0, report.missed + report.duplicates + report.late);
+            reports[wakeup.ordinal()] = report;
+        }
+        ReminderSimulator.Report exact = reports[ReminderSimulator.Wakeup.EXACT.ordinal()];
+        ReminderSimulator.Report next = reports[ReminderSimulator.Wakeup.NEXT.ordinal()];
+        ReminderSimulator.Report tick = reports[ReminderSimulator.Wakeup.TICK.ordinal()];
+
+        // The backend only decides how the device wakes up, not what is shown
+        assertEquals(exact.shown, next.shown);
+        assertEquals(exact.shown, tick.shown);
+        // An alarm per reminder runs into the system's cap of 500 per app
+        assertEquals(exact.reminders, exact.peakAlarms);
+        assertTrue(exact.peakAlarms > 500);
+        assertEquals(1, next.peakAlarms);
+        assertTrue(next.alarmsSet <= exact.alarmsSet);
+        assertEquals(0, tick.alarmsSet);
+    }
+
+    @Test
+    public void deferredWakeupsAreReportedAsLateOrMissed() throws Exception {
+        ReminderSimulator.Config config = new ReminderSimulator.Config();
+        config.habits = 200;
+        config.days = 60;
+        config.reboots = 0;
+        config.dozeRate = 0.05;
+        config.maxDozeMs = 5 * 60000;
+        ReminderSimulator.Report report = new ReminderSimulator(config, folder.newFolder()).run();
+
+        // Wakeups deferred past the missed window lose their reminders, shorter ones show them late
+        assertTrue(report.late > 0);
+        assertTrue(report.missed > 0);
+        assertEquals(report.problems.toString(), 0, report.duplicates);
+    }
+}
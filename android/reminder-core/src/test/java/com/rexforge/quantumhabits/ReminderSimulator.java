@@ -0,0 +1,543 @@
+package com.rexforge.quantumhabits;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Discrete-event simulation of a device running the habit reminder schedule.
+ *
+ * Habits get random daily and interval rules in several zones with DST,
+ * including 30-minute shifts and windows across midnight. The real
+ * {@link ReminderWorker} and {@link ReminderEngine}, with its scheduler,
+ * store, recurrences and rehydration, run on a {@link ReminderClock} that
+ * jumps from one event to the next: worker wakeups, which arrive a random
+ * jitter late and sometimes are deferred like under Doze, power-offs and
+ * boots.
+ *
+ * Every shown reminder is checked against the occurrences of its rule
+ * computed independently with {@link ZonedDateTime}. The check reports
+ * missed, duplicate and late fires. Occurrences the device was off for are
+ * handled as the boot path promises: the first one within the grace period
+ * is shown at boot, older ones are dropped.
+ *
+ * The engine's {@link ReminderEngine.Backend} calls are counted as the
+ * chosen {@link Wakeup} backend would turn them into system alarms, so the
+ * backends can be compared on the same year.
+ */
+public class ReminderSimulator {
+    static final long MISSED_WINDOW_MS = ReminderEngine.MISSED_REMINDER_WINDOW_MS;
+    // Shown more than this after its occurrence counts as late
+    static final long LATE_MS = 10000;
+    private static final long MINUTE = 60000;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+    private static final int MAX_PROBLEMS = 20;
+
+    static final ZoneId[] ZONES = {
+        ZoneId.of("America/New_York"),
+        ZoneId.of("Europe/Berlin"),
+        ZoneId.of("Australia/Sydney"),
+        // DST shifts by 30 minutes
+        ZoneId.of("Australia/Lord_Howe"),
+        ZoneId.of("America/Santiago"),
+        ZoneId.of("Asia/Kolkata"),
+    };
+    private static final int[] STEPS = {30, 45, 60, 90, 120, 180};
+
+    /**
+     * How the app wakes up for deadlines.
+     */
+    public enum Wakeup {
+        // One alarm per reminder
+        EXACT,
+        // One alarm for the earliest deadline
+        NEXT,
+        // A foreground service keeps the process and the worker's timer alive
+        TICK
+    }
+
+    public static final class Config {
+        public long start = Instant.parse("2025-01-01T00:00:00Z").toEpochMilli();
+        public int days = 365;
+        public int habits = 2000;
+        public int reboots = 24;
+        public long maxOffMs = 8 * HOUR;
+        // Every wakeup is up to this late
+        public long maxJitterMs = 2000;
+        // Share of wakeups deferred by up to maxDozeMs more
+        public double dozeRate;
+        public long maxDozeMs;
+        public Wakeup wakeup = Wakeup.NEXT;
+        public long seed = 1;
+    }
+
+    public static final class Report {
+        public int habits;
+        public int reminders;
+        public int days;
+        public int reboots;
+        public long wakeups;
+        public long shown;
+        public long notifications;
+        public long onTime;
+        public long early;
+        public long late;
+        public long missed;
+        public long duplicates;
+        public long shownAtBoot;
+        public long droppedWhileOff;
+        public long coalescedAtBoot;
+        public long gapSlots;
+        public long overlapSlots;
+        public final LatencyHistogram lateness = new LatencyHistogram();
+        public Wakeup wakeup;
+        public long alarmsSet;
+        public long alarmsCancelled;
+        public int peakAlarms;
+        public long peakHeapBytes;
+        public long peakStoreBytes;
+        public long schedulerNanos;
+        public long wallNanos;
+        public final List<String> problems = new ArrayList<>();
+
+        public long firesPerSecond() {
+            return schedulerNanos == 0 ? 0 : shown * 1000000000L / schedulerNanos;
+        }
+
+        @Override
+        public String toString() {
+            return habits + " habits, " + reminders + " reminders, " + days + " days, " + reboots + " reboots: "
+                + shown + " shown in " + notifications + " notifications after " + wakeups + " wakeups\n"
+                + "  on time " + onTime + " (early " + early + "), late " + late + ", missed " + missed
+                + ", duplicate " + duplicates + "\n"
+                + "  boot: shown " + shownAtBoot + ", dropped " + droppedWhileOff + ", coalesced "
+                + coalescedAtBoot + "; DST slots: " + gapSlots + " in gaps, " + overlapSlots + " in overlaps\n"
+                + "  lateness p50 " + lateness.percentile(0.5) + "ms p99 " + lateness.percentile(0.99)
+                + "ms max " + lateness.max() + "ms\n"
+                + "  " + wakeup + " backend: " + alarmsSet + " alarms set, " + alarmsCancelled + " cancelled, peak "
+                + peakAlarms + " pending; schedule peak " + peakHeapBytes / 1024 + " KB heap, "
+                + peakStoreBytes / 1024 + " KB stored\n"
+                + "  scheduler " + schedulerNanos / 1000000 + "ms (" + firesPerSecond() + " fires/s), wall "
+                + wallNanos / 1000000 + "ms";
+        }
+    }
+
+    /**
+     * The system alarms the backend would hold, lost at every power-off.
+     */
+    private final class SimBackend implements ReminderEngine.Backend {
+        final HashSet<String> pending = new HashSet<>();
+        boolean nextArmed;
+
+        @Override
+        public void scheduled(ScheduledReminder reminder) {
+            if (config.wakeup != Wakeup.EXACT) return;
+            report.alarmsSet++;
+            pending.add(reminder.id);
+            report.peakAlarms = Math.max(report.peakAlarms, pending.size());
+        }
+
+        @Override
+        public void removed(String id) {
+            if (config.wakeup == Wakeup.EXACT && pending.remove(id)) report.alarmsCancelled++;
+        }
+
+        @Override
+        public void deadlineChanged(long deadline) {
+            if (config.wakeup != Wakeup.NEXT) return;
+            if (deadline == ReminderScheduler.NO_DEADLINE) {
+                if (nextArmed) report.alarmsCancelled++;
+                nextArmed = false;
+                return;
+            }
+            report.alarmsSet++;
+            nextArmed = true;
+            report.peakAlarms = 1;
+        }
+    }
+
+    private static final class SimClock implements ReminderClock {
+        long now;
+
+        @Override
+        public long currentTimeMillis() {
+            return now;
+        }
+
+        @Override
+        public ZoneId zone() {
+            return ZONES[0];
+        }
+    }
+
+    /**
+     * One repeating reminder and the occurrences it still owes, ascending.
+     */
+    private final class Expected {
+        final String id;
+        final RecurrenceRule rule;
+        final ZoneRules rules;
+        final int window;
+        long[] pending = new long[64];
+        int head;
+        int tail;
+        long last = Long.MIN_VALUE;
+        LocalDate nextDay;
+        // Off period whose boot already showed this reminder
+        int bootShownIn = -1;
+
+        Expected(String id, RecurrenceRule rule, long after) {
+            this.id = id;
+            this.rule = rule;
+            this.rules = rule.zone.getRules();
+            this.window = rule.end >= rule.start ? rule.end - rule.start : rule.end + 24 * 60 - rule.start;
+            // The day before may still have a window running past midnight
+            nextDay = Instant.ofEpochMilli(after).atZone(rule.zone).toLocalDate().minusDays(1);
+            last = after;
+        }
+
+        long peek() {
+            while (true) {
+                if (head < tail && pending[head] < earliestOf(nextDay)) return pending[head];
+                if (nextDay.toEpochDay() > lastDay) return head < tail ? pending[head] : Long.MAX_VALUE;
+                addDay(nextDay);
+                nextDay = nextDay.plusDays(1);
+            }
+        }
+
+        void pop() {
+            last = pending[head++];
+            // A gap slot moved onto a later slot is one occurrence
+            while (head < tail && pending[head] <= last) head++;
+        }
+
+        // No occurrence of a day is before its first slot at the largest possible offset
+        private long earliestOf(LocalDate day) {
+            return (day.toEpochDay() * 24 * 60 + rule.start) * MINUTE - 14 * HOUR;
+        }
+
+        private void addDay(LocalDate day) {
+            if ((rule.days & (1 << (day.getDayOfWeek().getValue() - 1))) == 0) return;
+            if (head > 0) {
+                System.arraycopy(pending, head, pending, 0, tail - head);
+                tail -= head;
+                head = 0;
+            }
+            LocalDateTime midnight = day.atStartOfDay();
+            int step = rule.step == 0 ? window + 1 : rule.step;
+            for (int slot = 0; slot <= window; slot += step) {
+                LocalDateTime local = midnight.plusMinutes(rule.start + slot);
+                long at = ZonedDateTime.ofLocal(local, rule.zone, null).toInstant().toEpochMilli();
+                if (at <= last) continue;
+                ZoneOffsetTransition transition = rules.getTransition(local);
+                if (transition != null) {
+                    if (transition.isGap()) report.gapSlots++; else report.overlapSlots++;
+                }
+                if (tail == pending.length) pending = Arrays.copyOf(pending, tail * 2);
+                pending[tail++] = at;
+            }
+            Arrays.sort(pending, head, tail);
+        }
+    }
+
+    private final Config config;
+    private final File dir;
+    private final Report report = new Report();
+    private final SimClock clock = new SimClock();
+    private final Random random;
+    private final NotificationCoalescer coalescer = new NotificationCoalescer();
+    private final Map<String, Expected> expected = new HashMap<>();
+    private final long end;
+    private final long lastDay;
+    // Occurrences after this may legitimately still be pending when the simulation stops
+    private final long checkedUntil;
+    private long[] offAt = new long[0];
+    private long[] onAt = new long[0];
+
+    // The device's state, lost at every power-off except for the store and the saved rules
+    private String savedRules;
+    private ReminderEngine engine;
+    private ReminderWorker worker;
+
+    private final List<ScheduledReminder> shown = new ArrayList<>();
+    private long checkNanos;
+
+    public ReminderSimulator(Config config, File dir) {
+        this.config = config;
+        this.dir = dir;
+        this.random = new Random(config.seed);
+        this.end = config.start + config.days * DAY;
+        this.lastDay = Math.floorDiv(end, DAY) + 2;
+        this.checkedUntil = end - MISSED_WINDOW_MS - config.maxJitterMs - config.maxDozeMs;
+    }
+
+    public Report run() throws IOException {
+        long wallStart = System.nanoTime();
+        clock.now = config.start;
+        report.habits = config.habits;
+        report.days = config.days;
+        report.reboots = config.reboots;
+        report.wakeup = config.wakeup;
+
+        List<ScheduledReminder> initial = createHabits();
+        report.reminders = initial.size();
+        ReminderStore store = ReminderStore.open(new File(dir, "reminders"));
+        store.clear();
+        store.close();
+        planReboots();
+        startEngine();
+        // What HabitReminderPlugin hands over on the first sync
+        engine.apply(new ReminderBatch().addAll(initial));
+
+        long wakeAt = clock.now;
+        int reboot = 0;
+        while (true) {
+            long powerOff = reboot < offAt.length ? offAt[reboot] : Long.MAX_VALUE;
+            if (wakeAt < powerOff && wakeAt < end) {
+                clock.now = wakeAt;
+                long start = System.nanoTime();
+                long delay = worker.runOnce();
+                report.schedulerNanos += System.nanoTime() - start;
+                report.peakHeapBytes = Math.max(report.peakHeapBytes, engine.estimatedBytes());
+                report.peakStoreBytes = Math.max(report.peakStoreBytes, engine.storedBytes());
+                report.wakeups++;
+                wakeAt = delay < 0 ? Long.MAX_VALUE : clock.now + delay + wakeupDelay();
+                continue;
+            }
+            if (powerOff >= end) break;
+
+            // The process dies with the device; the engine had flushed its store
+            clock.now = powerOff;
+            engine.close();
+            engine = null;
+            worker = null;
+
+            clock.now = onAt[reboot];
+            long start = System.nanoTime();
+            startEngine();
+            // BootReceiver
+            engine.rehydrate(clock.now, ScheduleRehydrator.DEFAULT_GRACE_MS);
+            report.schedulerNanos += System.nanoTime() - start;
+            wakeAt = clock.now;
+            reboot++;
+        }
+        engine.close();
+
+        for (Expected reminder : expected.values()) {
+            check(reminder, Long.MAX_VALUE);
+        }
+        report.schedulerNanos -= checkNanos;
+        report.wallNanos = System.nanoTime() - wallStart;
+        return report;
+    }
+
+    // What HabitReminderPlugin schedules for a random set of habits, with the rules it saves
+    private List<ScheduledReminder> createHabits() {
+        RecurrenceSchedule rules = new RecurrenceSchedule();
+        List<ScheduledReminder> reminders = new ArrayList<>();
+        for (int habitId = 1; habitId <= config.habits; habitId++) {
+            ZoneId zone = ZONES[random.nextInt(ZONES.length)];
+            int ruleCount = 1 + random.nextInt(3);
+            for (int j = 0; j < ruleCount; j++) {
+                int days = random.nextInt(10) < 7 ? RecurrenceRule.ALL_DAYS : 1 + random.nextInt(RecurrenceRule.ALL_DAYS);
+                if (random.nextInt(10) < 6) {
+                    int times = 1 + random.nextInt(3);
+                    for (int k = 0; k < times; k++) {
+                        RecurrenceRule rule = RecurrenceRule.daily(5 * random.nextInt(24 * 12), zone).withDays(days);
+                        add(reminders, rules, "habit-" + habitId + "-reminder-" + j + "-time-" + k, habitId, j, rule);
+                    }
+                } else {
+                    int start = 5 * random.nextInt(24 * 12);
+                    int length = 60 + 5 * random.nextInt(16 * 12);
+                    RecurrenceRule rule = RecurrenceRule.interval(start, (start + length) % (24 * 60),
+                        STEPS[random.nextInt(STEPS.length)], zone).withDays(days);
+                    add(reminders, rules, "habit-" + habitId + "-reminder-" + j + "-interval", habitId, j, rule);
+                }
+            }
+        }
+        savedRules = rules.encode();
+        return reminders;
+    }
+
+    private void add(List<ScheduledReminder> out, RecurrenceSchedule rules, String id, int habitId, int j,
+            RecurrenceRule rule) {
+        long first = rule.next(config.start);
+        if (first < 0) return;
+        rules.put(id, habitId, rule);
+        expected.put(id, new Expected(id, rule, config.start));
+        out.add(new ScheduledReminder(id, "Habit " + habitId, "Reminder " + j, "#4caf50", first, habitId, j));
+    }
+
+    private void planReboots() {
+        offAt = new long[config.reboots];
+        onAt = new long[config.reboots];
+        for (int i = 0; i < config.reboots; i++) {
+            offAt[i] = config.start + (long) (random.nextDouble() * (end - config.start - config.maxOffMs));
+        }
+        Arrays.sort(offAt);
+        for (int i = 0; i < config.reboots; i++) {
+            if (i > 0 && offAt[i] <= onAt[i - 1]) offAt[i] = onAt[i - 1] + MINUTE;
+            long off;
+            switch (i % 3) {
+                case 0:
+                    // Shorter than the grace period: everything missed is shown at boot
+                    off = MINUTE + (long) (random.nextDouble() * 9 * MINUTE);
+                    break;
+                case 1:
+                    off = 10 * MINUTE + (long) (random.nextDouble() * 50 * MINUTE);
+                    break;
+                default:
+                    off = HOUR + (long) (random.nextDouble() * (config.maxOffMs - HOUR));
+            }
+            onAt[i] = offAt[i] + off;
+        }
+        int kept = config.reboots;
+        while (kept > 0 && onAt[kept - 1] >= end) kept--;
+        offAt = Arrays.copyOf(offAt, kept);
+        onAt = Arrays.copyOf(onAt, kept);
+        report.reboots = kept;
+    }
+
+    private long wakeupDelay() {
+        long late = (long) (random.nextDouble() * config.maxJitterMs);
+        if (config.dozeRate > 0 && random.nextDouble() < config.dozeRate) {
+            late += (long) (random.nextDouble() * config.maxDozeMs);
+        }
+        return late;
+    }
+
+    // The app's engine on its worker, as loaded by the first command after a process start
+    private void startEngine() throws IOException {
+        engine = new ReminderEngine(new ReminderScheduler());
+        // A simulated power-off closes the engine first, so nothing needs to be forced to disk
+        engine.forceWrites = false;
+        engine.open(new File(dir, "reminders"), new File(dir, "fired"), clock.now);
+        engine.setRecurrences(RecurrenceSchedule.decode(savedRules));
+        // A new process after a power-off; the system forgot every alarm
+        engine.attach(new SimBackend());
+        worker = new ReminderWorker(engine.scheduler(), new ReminderWorker.Listener() {
+            @Override
+            public long dueHorizon(long now) {
+                return coalescer.horizon(now);
+            }
+
+            @Override
+            public void onDue(ReminderScheduler scheduler, List<ScheduledReminder> due, long now) {
+                showDue(due, now);
+            }
+
+            @Override
+            public void onCommandFailed(RuntimeException e) {
+                throw e;
+            }
+        }, clock);
+    }
+
+    // What the app posts, without the notifications
+    private void showDue(List<ScheduledReminder> due, long now) {
+        shown.clear();
+        try {
+            engine.deliver(due, now, shown);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        report.notifications += coalescer.coalesce(shown, now).groups().size();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < shown.size(); i++) {
+            report.shown++;
+            check(expected.get(shown.get(i).id), now);
+        }
+        checkNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Matches a reminder shown at {@code shownAt} with the occurrence it is
+     * for, classifying every occurrence it passes over. With
+     * {@link Long#MAX_VALUE} it classifies all occurrences still owed.
+     */
+    private void check(Expected reminder, long shownAt) {
+        while (true) {
+            long due = reminder.peek();
+            if (due > checkedUntil && shownAt == Long.MAX_VALUE) return;
+            if (due == Long.MAX_VALUE || shownAt < due - coalescer.windowMs()) {
+                report.duplicates++;
+                problem("duplicate", reminder, shownAt);
+                return;
+            }
+            if (shownAt < due + MISSED_WINDOW_MS) {
+                if (shownAt - due <= LATE_MS) {
+                    report.onTime++;
+                    if (shownAt < due) report.early++;
+                    report.lateness.record(shownAt - due);
+                } else if (shownAtBoot(reminder, due, shownAt)) {
+                    report.shownAtBoot++;
+                } else {
+                    report.late++;
+                    report.lateness.record(shownAt - due);
+                    problem("late " + (shownAt - due) + "ms", reminder, due);
+                }
+                reminder.pop();
+                return;
+            }
+
+            // Not shown in time; acceptable only while the device was off
+            int off = offPeriodOf(due);
+            if (off < 0) {
+                report.missed++;
+                problem("missed", reminder, due);
+            } else if (due < onAt[off] - ScheduleRehydrator.DEFAULT_GRACE_MS) {
+                report.droppedWhileOff++;
+            } else if (reminder.bootShownIn == off) {
+                report.coalescedAtBoot++;
+            } else if (shownAtBoot(reminder, due, shownAt)) {
+                report.shownAtBoot++;
+                reminder.pop();
+                return;
+            } else {
+                report.missed++;
+                problem("not shown at boot", reminder, due);
+            }
+            reminder.pop();
+        }
+    }
+
+    private boolean shownAtBoot(Expected reminder, long due, long shownAt) {
+        int off = offPeriodOf(due);
+        if (off < 0 || reminder.bootShownIn == off || shownAt < onAt[off] || shownAt > onAt[off] + LATE_MS) {
+            return false;
+        }
+        reminder.bootShownIn = off;
+        return true;
+    }
+
+    // Includes the wakeups that were still pending when the device went off
+    private int offPeriodOf(long due) {
+        long slack = MISSED_WINDOW_MS + config.maxJitterMs + config.maxDozeMs;
+        for (int i = 0; i < offAt.length; i++) {
+            if (due > offAt[i] - slack && due <= onAt[i]) return i;
+        }
+        return -1;
+    }
+
+    private void problem(String what, Expected reminder, long at) {
+        if (report.problems.size() >= MAX_PROBLEMS) return;
+        report.problems.add(what + ": " + reminder.id + " (" + reminder.rule + ") at "
+            + Instant.ofEpochMilli(at).atZone(reminder.rule.zone));
+    }
+}
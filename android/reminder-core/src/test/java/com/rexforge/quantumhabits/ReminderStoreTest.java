@@ -0,0 +1,217 @@
+package com.rexforge.quantumhabits;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReminderStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ScheduledReminder reminder(int habitId, int index, long timestamp) {
+        return new ScheduledReminder("habit-" + habitId + "-reminder-" + index + "-time-0",
+            "Habit " + habitId, "Time for your habit!", "#3b82f6", timestamp, habitId, index);
+    }
+
+    private static Map<String, ScheduledReminder> byId(ReminderStore store) {
+        List<ScheduledReminder> all = new ArrayList<>();
+        store.readAll(all);
+        Map<String, ScheduledReminder> map = new HashMap<>();
+        for (ScheduledReminder r : all) {
+            map.put(r.id, r);
+        }
+        return map;
+    }
+
+    @Test
+    public void roundTripsAcrossReopen() throws Exception {
+        File dir = folder.newFolder("store");
+        ReminderStore store = ReminderStore.open(dir);
+        store.put(new ScheduledReminder("a", "Read ✨", "Página 10", "#ff0000", 1234L, 7, 2));
+        store.put(reminder(1, 0, 5000L));
+        store.close();
+
+        ReminderStore reopened = ReminderStore.open(dir);
+        Map<String, ScheduledReminder> all = byId(reopened);
+        assertEquals(2, reopened.size());
+        ScheduledReminder a = all.get("a");
+        assertEquals("Read ✨", a.habitName);
+        assertEquals("Página 10", a.message);
+        assertEquals("#ff0000", a.habitColor);
+        assertEquals(1234L, a.timestamp);
+        assertEquals(7, a.habitId);
+        assertEquals(2, a.reminderIndex);
+        reopened.close();
+    }
+
+    @Test
+    public void getLooksUpLiveRecordById() throws Exception {
+        File dir = folder.newFolder("store");
+        ReminderStore store = ReminderStore.open(dir);
+        for (int i = 0; i < 100; i++) {
+            store.put(reminder(i, 0, 1000L + i));
+        }
+        store.remove(reminder(42, 0, 0).id);
+
+        ScheduledReminder found = store.get(reminder(7, 0, 0).id);
+        assertNotNull(found);
+        assertEquals(1007L, found.timestamp);
+        assertEquals("Habit 7", found.habitName);
+        assertNull(store.get(reminder(42, 0, 0).id));
+        assertNull(store.get("missing"));
+        store.close();
+    }
+
+    @Test
+    public void putWithSameIdUpdatesInPlace() throws Exception {
+        File dir = folder.newFolder("store");
+        ReminderStore store = ReminderStore.open(dir);
+        store.put(reminder(1, 0, 1000L));
+        long recordsLength = new File(dir, ReminderStore.RECORDS_FILE).length();
+
+        store.put(reminder(1, 0, 2000L));
+        assertEquals(1, store.size());
+        assertEquals(0, store.tombstones());
+        assertEquals(2000L, byId(store).get("habit-1-reminder-0-time-0").timestamp);
+        assertEquals(recordsLength, new File(dir, ReminderStore.RECORDS_FILE).length());
+        store.close();
+    }
+
+    @Test
+    public void removeLeavesTombstoneUntilCompaction() throws Exception {
+        File dir = folder.newFolder("store");
+        ReminderStore store = ReminderStore.open(dir);
+        for (int i = 0; i < 200; i++) {
+            store.put(reminder(i, 0, i));
+        }
+        for (int i = 0; i < 150; i++) {
+            assertTrue(store.remove("habit-" + i + "-reminder-0-time-0"));
+        }
+        assertFalse(store.remove("habit-0-reminder-0-time-0"));
+        assertEquals(50, store.size());
+        assertEquals(150, store.tombstones());
+
+        assertTrue(store.compactIfNeeded());
+        assertEquals(50, store.size());
+        assertEquals(0, store.tombstones());
+        assertFalse(store.compactIfNeeded());
+        store.close();
+
+        ReminderStore reopened = ReminderStore.open(dir);
+        Map<String, ScheduledReminder> all = byId(reopened);
+        assertEquals(50, all.size());
+        for (int i = 150; i < 200; i++) {
+            assertEquals(i, all.get("habit-" + i + "-reminder-0-time-0").timestamp);
+        }
+        reopened.close();
+    }
+
+    @Test
+    public void compactionInterruptedBetweenSwapsIsFinishedOnOpen() throws Exception {
+        File dir = folder.newFolder("store");
+        ReminderStore store = ReminderStore.open(dir);
+        for (int i = 0; i < 200; i++) {
+            store.put(reminder(i, 0, i));
+        }
+        for (int i = 0; i < 150; i++) {
+            store.remove("habit-" + i + "-reminder-0-time-0");
+        }
+        store.beforeRecordsSwap = new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("crash");
+            }
+        };
+        try {
+            store.compact();
+            fail("compaction should have been interrupted");
+        } catch (IllegalStateException expected) {
+        }
+        // The new strings file is in place next to the old records file
+        assertTrue(new File(dir, ReminderStore.COMMIT_FILE).exists());
+
+        ReminderStore reopened = ReminderStore.open(dir);
+        Map<String, ScheduledReminder> all = byId(reopened);
+        assertEquals(50, all.size());
+        assertEquals(0, reopened.tombstones());
+        for (int i = 150; i < 200; i++) {
+            ScheduledReminder r = all.get("habit-" + i + "-reminder-0-time-0");
+            assertEquals(i, r.timestamp);
+            assertEquals("Habit " + i, r.habitName);
+        }
+        assertFalse(new File(dir, ReminderStore.COMMIT_FILE).exists());
+        assertFalse(new File(dir, ReminderStore.RECORDS_FILE + ".tmp").exists());
+        reopened.close();
+    }
+
+    @Test
+    public void compactionInterruptedBeforeCommitKeepsTheOldFiles() throws Exception {
+        File dir = folder.newFolder("store");
+        ReminderStore store = ReminderStore.open(dir);
+        store.put(reminder(1, 0, 1000L));
+        store.close();
+        // Half-written files of a compaction that never committed
+        new java.io.FileOutputStream(new File(dir, ReminderStore.STRINGS_FILE + ".tmp")).close();
+        new java.io.FileOutputStream(new File(dir, ReminderStore.RECORDS_FILE + ".tmp")).close();
+
+        ReminderStore reopened = ReminderStore.open(dir);
+        assertEquals(1000L, reopened.get("habit-1-reminder-0-time-0").timestamp);
+        assertFalse(new File(dir, ReminderStore.STRINGS_FILE + ".tmp").exists());
+        reopened.close();
+    }
+
+    @Test
+    public void sharedStringsAreStoredOnce() throws Exception {
+        File dir = folder.newFolder("store");
+        ReminderStore store = ReminderStore.open(dir);
+        store.put(reminder(1, 0, 1L));
+        store.force();
+        long afterFirst = usedStringBytes(dir);
+
+        // Only the id differs, name/message/color are interned
+        store.put(new ScheduledReminder("x", "Habit 1", "Time for your habit!", "#3b82f6", 2L, 1, 0));
+        store.close();
+        assertEquals(afterFirst + 4 + 1, usedStringBytes(dir));
+    }
+
+    @Test
+    public void growsPastInitialMapping() throws Exception {
+        File dir = folder.newFolder("store");
+        ReminderStore store = ReminderStore.open(dir);
+        for (int i = 0; i < 5000; i++) {
+            store.put(reminder(i, i % 5, i * 1000L));
+        }
+        store.close();
+
+        ReminderStore reopened = ReminderStore.open(dir);
+        assertEquals(5000, reopened.size());
+        assertEquals(4999000L, byId(reopened).get("habit-4999-reminder-4-time-0").timestamp);
+        reopened.close();
+    }
+
+    @Test
+    public void clearRemovesEverything() throws Exception {
+        File dir = folder.newFolder("store");
+        ReminderStore store = ReminderStore.open(dir);
+        store.put(reminder(1, 0, 1L));
+        store.clear();
+        assertEquals(0, store.size());
+        assertFalse(store.contains("habit-1-reminder-0-time-0"));
+        store.close();
+    }
+
+    private static long usedStringBytes(File dir) throws Exception {
+        try (java.io.RandomAccessFile file = new java.io.RandomAccessFile(new File(dir, ReminderStore.STRINGS_FILE), "r")) {
+            file.seek(8);
+            return file.readInt();
+        }
+    }
+}
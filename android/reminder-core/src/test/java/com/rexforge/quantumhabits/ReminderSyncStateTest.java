@@ -0,0 +1,109 @@
+package com.rexforge.quantumhabits;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ReminderSyncStateTest {
+
+    // Simulates one scheduleHabitReminders call; ruleVersion[h] changes the hash of habit h's rules
+    private static int sync(ReminderSyncState state, int habits, int rulesPerHabit, int[] ruleVersion) {
+        int rescheduleCalls = 0;
+        state.begin();
+        for (int h = 0; h < habits; h++) {
+            if (state.startHabit(h, ReminderSyncState.hash("habit-" + h + "-v" + ruleVersion[h]))) continue;
+            for (int j = 0; j < rulesPerHabit; j++) {
+                state.classifyRule(j, ReminderSyncState.hash("rule-" + h + "-" + j + "-v" + ruleVersion[h]));
+            }
+            if (state.endHabit()) rescheduleCalls++;
+        }
+        state.finish();
+        return rescheduleCalls;
+    }
+
+    @Test
+    public void firstSyncAddsEverything() {
+        ReminderSyncState state = new ReminderSyncState();
+        assertEquals(0, sync(state, 200, 3, new int[200]));
+        assertEquals(600, state.added());
+        assertEquals(0, state.kept());
+        assertEquals(0, state.removed());
+    }
+
+    @Test
+    public void editingOneHabitReschedulesOnlyThatHabit() {
+        ReminderSyncState state = new ReminderSyncState();
+        int[] versions = new int[200];
+        sync(state, 200, 3, versions);
+
+        versions[42]++;
+        assertEquals(1, sync(state, 200, 3, versions));
+        assertEquals(0, state.added());
+        assertEquals(3, state.changed());
+        assertEquals(597, state.kept());
+        assertEquals(1, state.rescheduledHabits());
+    }
+
+    @Test
+    public void unchangedSyncDoesNothing() {
+        ReminderSyncState state = new ReminderSyncState();
+        int[] versions = new int[50];
+        sync(state, 50, 2, versions);
+
+        assertEquals(0, sync(state, 50, 2, versions));
+        assertEquals(100, state.kept());
+        assertEquals(0, state.added() + state.changed() + state.removed());
+    }
+
+    @Test
+    public void addedRuleDoesNotRescheduleExistingOnes() {
+        ReminderSyncState state = new ReminderSyncState();
+        state.begin();
+        state.startHabit(1, 10);
+        state.classifyRule(0, 100);
+        state.endHabit();
+        state.finish();
+
+        state.begin();
+        assertFalse(state.startHabit(1, 11));
+        assertEquals(ReminderSyncState.RULE_KEPT, state.classifyRule(0, 100));
+        assertEquals(ReminderSyncState.RULE_ADDED, state.classifyRule(1, 200));
+        assertFalse(state.endHabit());
+        state.finish();
+        assertEquals(1, state.added());
+    }
+
+    @Test
+    public void droppedRuleAndHabitAreReportedAsRemoved() {
+        ReminderSyncState state = new ReminderSyncState();
+        sync(state, 3, 2, new int[3]);
+
+        state.begin();
+        state.startHabit(0, 99);
+        state.classifyRule(0, ReminderSyncState.hash("rule-0-0-v0"));
+        assertTrue(state.endHabit());
+        state.startHabit(1, ReminderSyncState.hash("habit-1-v0"));
+        state.finish();
+
+        assertEquals(1 + 2, state.removed());
+        assertArrayEquals(new int[]{2}, state.removedHabits());
+    }
+
+    @Test
+    public void encodeDecodeRoundTrip() {
+        ReminderSyncState state = new ReminderSyncState();
+        int[] versions = new int[20];
+        sync(state, 20, 4, versions);
+
+        ReminderSyncState restored = ReminderSyncState.decode(state.encode());
+        assertEquals(0, sync(restored, 20, 4, versions));
+        assertEquals(80, restored.kept());
+    }
+
+    @Test
+    public void malformedStateStartsOver() {
+        ReminderSyncState state = ReminderSyncState.decode("1:zz:not-a-rule");
+        sync(state, 1, 1, new int[1]);
+        assertEquals(1, state.added());
+    }
+}
@@ -0,0 +1,113 @@
+package com.rexforge.quantumhabits;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+public class ReminderTableTest {
+
+    private static ScheduledReminder reminder(String id, int habitId, long timestamp) {
+        return new ScheduledReminder(id, "Habit " + habitId, "msg", "#3b82f6", timestamp, habitId, 0);
+    }
+
+    private static Set<String> idsOfHabit(ReminderTable table, int habitId) {
+        Set<String> ids = new HashSet<>();
+        for (int row = table.firstRowOfHabit(habitId); row != ReminderTable.NO_ROW; row = table.nextRowOfHabit(row)) {
+            assertEquals(habitId, table.habitId(row));
+            ids.add(table.id(row));
+        }
+        return ids;
+    }
+
+    @Test
+    public void insertAndReadBackColumns() {
+        ReminderTable table = new ReminderTable();
+        int row = table.insert(new ScheduledReminder("a", "Read", "Ten pages", "#ff0000", 42L, 7, 3));
+
+        assertEquals(row, table.findById("a"));
+        assertEquals("Read", table.habitName(row));
+        assertEquals("Ten pages", table.message(row));
+        assertEquals("#ff0000", table.habitColor(row));
+        assertEquals(42L, table.timestamp(row));
+        assertEquals(7, table.habitId(row));
+        assertEquals(3, table.reminderIndex(row));
+        assertTrue(table.sameAs(row, new ScheduledReminder("other", "Read", "Ten pages", "#ff0000", 42L, 7, 3)));
+        assertFalse(table.sameAs(row, new ScheduledReminder("a", "Read", "Ten pages", "#ff0000", 43L, 7, 3)));
+    }
+
+    @Test
+    public void habitChainSurvivesRemovalFromAnyPosition() {
+        ReminderTable table = new ReminderTable(4);
+        int head = 0, middle = 0, tail = 0;
+        for (int i = 0; i < 5; i++) {
+            int row = table.insert(reminder("h1-" + i, 1, i));
+            if (i == 0) tail = row;
+            if (i == 2) middle = row;
+            if (i == 4) head = row;
+            table.insert(reminder("h2-" + i, 2, i));
+        }
+
+        table.remove(middle);
+        table.remove(head);
+        table.remove(tail);
+        assertEquals(new HashSet<>(java.util.Arrays.asList("h1-1", "h1-3")), idsOfHabit(table, 1));
+        assertEquals(5, idsOfHabit(table, 2).size());
+        assertEquals(ReminderTable.NO_ROW, table.findById("h1-2"));
+    }
+
+    @Test
+    public void freedRowsAreRecycled() {
+        ReminderTable table = new ReminderTable(4);
+        for (int i = 0; i < 4; i++) {
+            table.insert(reminder("r" + i, i, i));
+        }
+        int capacity = table.rowCapacity();
+        table.remove(table.findById("r1"));
+        table.insert(reminder("r4", 4, 4));
+        assertEquals(capacity, table.rowCapacity());
+        assertEquals(4, table.size());
+    }
+
+    @Test
+    public void matchesReferenceModelUnderRandomOperations() {
+        Random random = new Random(12345);
+        ReminderTable table = new ReminderTable();
+        Map<String, Integer> model = new HashMap<>();
+        List<String> live = new ArrayList<>();
+
+        for (int op = 0; op < 50000; op++) {
+            if (live.isEmpty() || random.nextInt(3) != 0) {
+                String id = "r" + op;
+                int habitId = random.nextInt(64) - 8; // include 0 and negative habit ids
+                table.insert(reminder(id, habitId, op));
+                model.put(id, habitId);
+                live.add(id);
+            } else {
+                String id = live.remove(random.nextInt(live.size()));
+                int row = table.findById(id);
+                assertNotEquals(ReminderTable.NO_ROW, row);
+                table.remove(row);
+                model.remove(id);
+            }
+        }
+
+        assertEquals(model.size(), table.size());
+        Map<Integer, Set<String>> byHabit = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : model.entrySet()) {
+            byHabit.computeIfAbsent(entry.getValue(), k -> new HashSet<>()).add(entry.getKey());
+            int row = table.findById(entry.getKey());
+            assertEquals((int) entry.getValue(), table.habitId(row));
+        }
+        for (int habitId = -8; habitId < 56; habitId++) {
+            Set<String> expected = byHabit.getOrDefault(habitId, new HashSet<>());
+            assertEquals(expected, idsOfHabit(table, habitId));
+        }
+    }
+}
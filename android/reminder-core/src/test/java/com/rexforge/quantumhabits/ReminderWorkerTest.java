@@ -0,0 +1,290 @@
+package com.rexforge.quantumhabits;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReminderWorkerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<ScheduledReminder> fired = Collections.synchronizedList(new ArrayList<ScheduledReminder>());
+    private final Set<Thread> touchingThreads = Collections.synchronizedSet(new HashSet<Thread>());
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+    private final AtomicInteger backendScheduled = new AtomicInteger();
+    private final AtomicInteger backendRemoved = new AtomicInteger();
+    private CountDownLatch firedLatch = new CountDownLatch(1);
+    private File dir;
+    // Only touched from the worker's thread once it started
+    private ReminderEngine engine;
+    private ReminderWorker worker;
+
+    private ReminderWorker start() throws IOException {
+        dir = folder.newFolder();
+        engine = new ReminderEngine(new ReminderScheduler());
+        engine.open(new File(dir, "reminders"), new File(dir, "fired"), System.currentTimeMillis());
+        engine.forceWrites = false;
+        engine.attach(new ReminderEngine.Backend() {
+            @Override
+            public void scheduled(ScheduledReminder reminder) {
+                touchingThreads.add(Thread.currentThread());
+                backendScheduled.incrementAndGet();
+            }
+
+            @Override
+            public void removed(String id) {
+                backendRemoved.incrementAndGet();
+            }
+
+            @Override
+            public void deadlineChanged(long deadline) {
+            }
+        });
+        worker = new ReminderWorker(engine.scheduler(), new ReminderWorker.Listener() {
+            @Override
+            public long dueHorizon(long now) {
+                return now;
+            }
+
+            @Override
+            public void onDue(ReminderScheduler scheduler, List<ScheduledReminder> due, long now) {
+                touchingThreads.add(Thread.currentThread());
+                List<ScheduledReminder> shown = new ArrayList<>();
+                try {
+                    engine.deliver(due, now, shown);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                fired.addAll(shown);
+                firedLatch.countDown();
+            }
+
+            @Override
+            public void onCommandFailed(RuntimeException e) {
+                failure.compareAndSet(null, e);
+            }
+        });
+        worker.start("ReminderWorkerTest");
+        return worker;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (worker == null) return;
+        worker.execute(new ReminderWorker.Command() {
+            @Override
+            public void run(ReminderScheduler scheduler) {
+                try {
+                    engine.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+        worker.flush(5000);
+        worker.shutdown();
+    }
+
+    private static ScheduledReminder reminder(int habitId, int index, long timestamp) {
+        return new ScheduledReminder("habit-" + habitId + "-reminder-0-time-" + index, "Habit " + habitId,
+            "Time for your habit!", "#3b82f6", timestamp, habitId, 0);
+    }
+
+    // The way ReminderRuntime submits work: engine calls wrapped in commands
+    private void schedule(final ScheduledReminder reminder) {
+        worker.execute(new ReminderWorker.Command() {
+            @Override
+            public void run(ReminderScheduler scheduler) {
+                try {
+                    engine.schedule(reminder);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+    }
+
+    private void cancel(final String id) {
+        worker.execute(new ReminderWorker.Command() {
+            @Override
+            public void run(ReminderScheduler scheduler) {
+                try {
+                    engine.cancel(id);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+    }
+
+    private void cancelHabit(final int habitId) {
+        worker.execute(new ReminderWorker.Command() {
+            @Override
+            public void run(ReminderScheduler scheduler) {
+                try {
+                    engine.cancelHabit(habitId);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+    }
+
+    // Reads the engine's store from the worker thread
+    private int storedCount() throws Exception {
+        final AtomicInteger count = new AtomicInteger(-1);
+        worker.execute(new ReminderWorker.Command() {
+            @Override
+            public void run(ReminderScheduler scheduler) {
+                try {
+                    engine.close();
+                    ReminderStore store = ReminderStore.open(new File(dir, "reminders"));
+                    count.set(store.size());
+                    store.close();
+                    engine.open(new File(dir, "reminders"), new File(dir, "fired"), System.currentTimeMillis());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+        assertTrue(worker.flush(5000));
+        return count.get();
+    }
+
+    @Test
+    public void firesDueRemindersOnWorkerThread() throws Exception {
+        start();
+        long now = System.currentTimeMillis();
+        schedule(reminder(1, 0, now + 50));
+        schedule(reminder(2, 0, now + 3600000));
+        assertTrue(firedLatch.await(5, TimeUnit.SECONDS));
+        assertEquals(1, fired.size());
+        assertEquals("habit-1-reminder-0-time-0", fired.get(0).id);
+        assertTrue(worker.flush(5000));
+        assertEquals(1, worker.snapshot().size);
+        assertEquals(now + 3600000, worker.snapshot().nextDeadline);
+        assertFalse(touchingThreads.contains(Thread.currentThread()));
+        // The shown reminder left the store too
+        assertEquals(1, storedCount());
+    }
+
+    @Test
+    public void snoozeSchedulesAShownReminderAgain() throws Exception {
+        start();
+        final long now = System.currentTimeMillis();
+        schedule(reminder(1, 0, now + 50));
+        assertTrue(firedLatch.await(5, TimeUnit.SECONDS));
+
+        final AtomicReference<Long> delay = new AtomicReference<>();
+        worker.execute(new ReminderWorker.Command() {
+            @Override
+            public void run(ReminderScheduler scheduler) {
+                try {
+                    delay.set(engine.snooze("habit-1-reminder-0-time-0", new SnoozePolicy(), now + 1000));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+        assertTrue(worker.flush(5000));
+        assertEquals(SnoozePolicy.DEFAULT_DELAYS_MS[0], (long) delay.get());
+        assertEquals(1, worker.snapshot().size);
+        assertEquals(now + 1000 + delay.get(), worker.snapshot().nextDeadline);
+        assertEquals(1, storedCount());
+    }
+
+    @Test
+    public void failingCommandDoesNotStopWorker() throws Exception {
+        start();
+        worker.execute(new ReminderWorker.Command() {
+            @Override
+            public void run(ReminderScheduler scheduler) {
+                throw new IllegalStateException("boom");
+            }
+        });
+        schedule(reminder(1, 0, System.currentTimeMillis() + 3600000));
+        assertTrue(worker.flush(5000));
+        assertEquals("boom", failure.get().getMessage());
+        assertEquals(1, worker.snapshot().size);
+    }
+
+    @Test
+    public void concurrentScheduleAndCancelFromManyThreads() throws Exception {
+        start();
+        final int threads = 8;
+        final int perThread = 20000;
+        final long base = System.currentTimeMillis() + 3600000;
+        final CountDownLatch go = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicReference<Throwable> producerFailure = new AtomicReference<>();
+
+        for (int t = 0; t < threads; t++) {
+            final int habitId = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        go.await();
+                        for (int i = 0; i < perThread; i++) {
+                            schedule(reminder(habitId, i, base + i));
+                            // Every third reminder is cancelled again right away; both are applied in order
+                            if (i % 3 == 0) {
+                                cancel("habit-" + habitId + "-reminder-0-time-" + i);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        producerFailure.compareAndSet(null, e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        // Readers only ever see consistent snapshots while the writers run
+        long lastApplied = 0;
+        go.countDown();
+        while (!done.await(1, TimeUnit.MILLISECONDS)) {
+            ReminderWorker.Snapshot snapshot = worker.snapshot();
+            assertTrue(snapshot.applied >= lastApplied);
+            assertTrue(snapshot.size >= 0 && snapshot.size <= threads * perThread);
+            lastApplied = snapshot.applied;
+        }
+        assertTrue(worker.flush(30000));
+        if (producerFailure.get() != null) throw new AssertionError(producerFailure.get());
+        assertNull(failure.get());
+
+        int cancels = threads * ((perThread + 2) / 3);
+        int commands = threads * perThread + cancels;
+        int expected = threads * perThread - cancels;
+        assertEquals(expected, worker.snapshot().size);
+        assertEquals(commands, worker.snapshot().applied);
+        assertEquals(1, touchingThreads.size());
+        assertFalse(touchingThreads.contains(Thread.currentThread()));
+        // Every change reached the backend and the store
+        assertEquals(threads * perThread, backendScheduled.get());
+        assertEquals(cancels, backendRemoved.get());
+        assertEquals(expected, storedCount());
+
+        // Cancelling a whole habit still sees every surviving reminder of it
+        cancelHabit(0);
+        assertTrue(worker.flush(5000));
+        assertEquals(expected - expected / threads, worker.snapshot().size);
+        assertEquals(expected - expected / threads, storedCount());
+    }
+}
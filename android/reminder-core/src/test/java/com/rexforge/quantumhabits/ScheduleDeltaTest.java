@@ -0,0 +1,223 @@
+package com.rexforge.quantumhabits;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import org.junit.Test;
+
+public class ScheduleDeltaTest {
+    private static final ZoneId ZONE = ZoneId.of("Europe/Berlin");
+    // Monday 2024-03-04 06:00 in Berlin
+    private static final long NOW = ZonedDateTime.of(2024, 3, 4, 6, 0, 0, 0, ZONE).toInstant().toEpochMilli();
+
+    // Stands in for the server: numbers its deltas and sends them as FCM data strings
+    private static class FakeSender {
+        private long sequence;
+
+        ScheduleDelta next() {
+            return new ScheduleDelta(++sequence);
+        }
+
+        String send(ScheduleDelta delta) {
+            return Base64.getEncoder().encodeToString(delta.encode());
+        }
+    }
+
+    // The receiving side of HabitReminderService, minus Android
+    private static class Device {
+        final RecurrenceSchedule recurrences = new RecurrenceSchedule();
+        final ReminderScheduler scheduler = new ReminderScheduler();
+        final List<ScheduledReminder> changed = new ArrayList<>();
+        final List<String> removed = new ArrayList<>();
+        long lastSequence = Long.MIN_VALUE;
+
+        boolean receive(String data) throws IOException {
+            ScheduleDelta delta = ScheduleDelta.decode(Base64.getDecoder().decode(data));
+            if (delta.sequence() <= lastSequence) return false;
+            lastSequence = delta.sequence();
+            changed.clear();
+            removed.clear();
+            delta.applyTo(recurrences, scheduler, ZONE, NOW, changed, removed);
+            return true;
+        }
+    }
+
+    private static long at(int hour, int minute) {
+        return ZonedDateTime.of(2024, 3, 4, hour, minute, 0, 0, ZONE).toInstant().toEpochMilli();
+    }
+
+    @Test
+    public void upsertsScheduleTheNextOccurrence() throws IOException {
+        FakeSender sender = new FakeSender();
+        Device device = new Device();
+
+        assertTrue(device.receive(sender.send(sender.next()
+            .upsertDaily(7, 0, 0, "Water", "Drink", "#00f", 8 * 60, RecurrenceRule.ALL_DAYS, null)
+            .upsertDaily(7, 0, 1, "Water", "Drink", "#00f", 20 * 60, RecurrenceRule.ALL_DAYS, null)
+            .upsertInterval(7, 1, "Water", "Stretch", "#00f", 9 * 60, 17 * 60, 120, RecurrenceRule.ALL_DAYS,
+                "UTC"))));
+
+        assertEquals(3, device.scheduler.size());
+        assertEquals(3, device.recurrences.size());
+        assertEquals(3, device.changed.size());
+        ScheduledReminder first = device.changed.get(0);
+        assertEquals("habit-7-reminder-0-time-0", first.id);
+        assertEquals("Water", first.habitName);
+        assertEquals("Drink", first.message);
+        assertEquals(at(8, 0), first.timestamp);
+        assertEquals("habit-7-reminder-1-interval", device.changed.get(2).id);
+        // 09:00 UTC is 10:00 in Berlin in March
+        assertEquals(at(10, 0), device.changed.get(2).timestamp);
+        assertEquals(at(20, 0), device.recurrences.next("habit-7-reminder-0-time-1", at(8, 0)));
+    }
+
+    @Test
+    public void repeatedUpsertChangesNothing() throws IOException {
+        FakeSender sender = new FakeSender();
+        Device device = new Device();
+        device.receive(sender.send(sender.next()
+            .upsertDaily(1, 0, 0, "A", "m", "c", 8 * 60, RecurrenceRule.ALL_DAYS, null)));
+
+        device.receive(sender.send(sender.next()
+            .upsertDaily(1, 0, 0, "A", "m", "c", 8 * 60, RecurrenceRule.ALL_DAYS, null)));
+        assertTrue(device.changed.isEmpty());
+
+        device.receive(sender.send(sender.next()
+            .upsertDaily(1, 0, 0, "A", "m", "c", 9 * 60, RecurrenceRule.ALL_DAYS, null)));
+        assertEquals(1, device.changed.size());
+        assertEquals(1, device.scheduler.size());
+        assertEquals(at(9, 0), device.changed.get(0).timestamp);
+    }
+
+    @Test
+    public void deletesRulesAndHabits() throws IOException {
+        FakeSender sender = new FakeSender();
+        Device device = new Device();
+        device.receive(sender.send(sender.next()
+            .upsertDaily(1, 0, 0, "A", "m", "c", 8 * 60, RecurrenceRule.ALL_DAYS, null)
+            .upsertDaily(1, 0, 1, "A", "m", "c", 9 * 60, RecurrenceRule.ALL_DAYS, null)
+            .upsertDaily(1, 10, 0, "A", "m", "c", 10 * 60, RecurrenceRule.ALL_DAYS, null)
+            .upsertDaily(2, 0, 0, "B", "m", "c", 8 * 60, RecurrenceRule.ALL_DAYS, null)));
+
+        // Rule 1 must not match rule 10's ids
+        device.receive(sender.send(sender.next().deleteRule(1, 1).deleteRule(1, 0)));
+        assertEquals(2, device.removed.size());
+        assertTrue(device.scheduler.contains("habit-1-reminder-10-time-0"));
+        assertEquals(2, device.scheduler.size());
+
+        device.receive(sender.send(sender.next().deleteHabit(1)));
+        assertEquals(1, device.scheduler.size());
+        assertEquals(1, device.recurrences.size());
+        assertTrue(device.scheduler.contains("habit-2-reminder-0-time-0"));
+    }
+
+    @Test
+    public void ruleWithoutDaysIsRemoved() throws IOException {
+        FakeSender sender = new FakeSender();
+        Device device = new Device();
+        device.receive(sender.send(sender.next()
+            .upsertDaily(1, 0, 0, "A", "m", "c", 8 * 60, RecurrenceRule.ALL_DAYS, null)));
+
+        device.receive(sender.send(sender.next().upsertDaily(1, 0, 0, "A", "m", "c", 8 * 60, 0, null)));
+        assertEquals(0, device.scheduler.size());
+        assertEquals(0, device.recurrences.size());
+    }
+
+    @Test
+    public void staleAndRedeliveredDeltasAreIgnored() throws IOException {
+        FakeSender sender = new FakeSender();
+        Device device = new Device();
+        String older = sender.send(sender.next().upsertDaily(1, 0, 0, "A", "m", "c", 8 * 60, 127, null));
+        String newer = sender.send(sender.next().deleteHabit(1));
+
+        assertTrue(device.receive(newer));
+        assertFalse(device.receive(newer));
+        assertFalse(device.receive(older));
+        assertEquals(0, device.scheduler.size());
+    }
+
+    @Test
+    public void roundTripKeepsEveryOperation() throws IOException {
+        ScheduleDelta delta = new ScheduleDelta(42)
+            .deleteHabit(3)
+            .upsertDaily(-5, 2, 4, "Ünïcödé 🎯", "", "#fff", 0, 0x55, "America/New_York")
+            .deleteRule(9, 1)
+            .upsertInterval(6, 0, "n", "m", "c", 22 * 60, 2 * 60, 30, RecurrenceRule.ALL_DAYS, null);
+
+        byte[] data = delta.encode();
+        ScheduleDelta decoded = ScheduleDelta.decode(data);
+
+        assertEquals(42, decoded.sequence());
+        assertEquals(4, decoded.size());
+        assertEquals(ScheduleDelta.DELETE_HABIT, decoded.type(0));
+        assertEquals(ScheduleDelta.UPSERT, decoded.type(1));
+        assertEquals(ScheduleDelta.DELETE_RULE, decoded.type(2));
+        assertEquals(ScheduleDelta.UPSERT, decoded.type(3));
+        assertArrayEquals(data, decoded.encode());
+    }
+
+    @Test
+    public void everyCorruptedByteIsDetected() {
+        byte[] data = new ScheduleDelta(1)
+            .upsertDaily(1, 0, 0, "A", "m", "c", 8 * 60, RecurrenceRule.ALL_DAYS, null)
+            .deleteRule(2, 0)
+            .encode();
+        for (int i = 0; i < data.length; i++) {
+            for (int bit = 0; bit < 8; bit++) {
+                byte[] corrupted = data.clone();
+                corrupted[i] ^= 1 << bit;
+                try {
+                    ScheduleDelta.decode(corrupted);
+                    fail("byte " + i + " bit " + bit + " not detected");
+                } catch (IOException expected) {
+                    // Rejected as it should be
+                }
+            }
+        }
+    }
+
+    @Test
+    public void truncatedDeltasAreRejected() {
+        byte[] data = new ScheduleDelta(1)
+            .upsertDaily(1, 0, 0, "A", "m", "c", 8 * 60, RecurrenceRule.ALL_DAYS, null)
+            .encode();
+        for (int length = 0; length < data.length; length++) {
+            try {
+                ScheduleDelta.decode(java.util.Arrays.copyOf(data, length));
+                fail("length " + length + " accepted");
+            } catch (IOException expected) {
+                // Rejected as it should be
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void senderCannotBuildInvalidRules() {
+        new ScheduleDelta(1).upsertDaily(1, 0, 0, "A", "m", "c", 24 * 60, RecurrenceRule.ALL_DAYS, null);
+    }
+
+    @Test
+    public void oneSyncReplacesHundredsOfPushes() throws IOException {
+        FakeSender sender = new FakeSender();
+        ScheduleDelta delta = sender.next();
+        // 40 habits with 3 daily times each; a week of timed pushes would be 840 messages
+        for (int h = 0; h < 40; h++) {
+            for (int k = 0; k < 3; k++) {
+                delta.upsertDaily(h, 0, k, "Habit " + h, "Time for your habit!", "#3b82f6", 8 * 60 + k * 300,
+                    RecurrenceRule.ALL_DAYS, null);
+            }
+        }
+        String data = sender.send(delta);
+        Device device = new Device();
+        device.receive(data);
+
+        assertEquals(120, device.scheduler.size());
+        // FCM data messages are limited to 4 KB
+        assertTrue("delta is " + data.length() + " chars", data.length() < 4096);
+    }
+}
@@ -0,0 +1,68 @@
+package com.rexforge.quantumhabits;
+
+import static org.junit.Assert.*;
+
+import java.time.ZoneOffset;
+import org.junit.Test;
+
+public class ScheduleRehydratorTest {
+
+    private static final long MINUTE = 60000;
+    private final long now = 1_700_000_000_000L;
+
+    private static ScheduledReminder reminder(long timestamp) {
+        return new ScheduledReminder("habit-1-reminder-0-time-0", "Read", "Time to read", "#3b82f6", timestamp, 1, 0);
+    }
+
+    @Test
+    public void keepsFutureReminders() {
+        ScheduleRehydrator rehydrator = new ScheduleRehydrator(now, ScheduleRehydrator.DEFAULT_GRACE_MS);
+        ScheduledReminder reminder = reminder(now + MINUTE);
+        assertEquals(ScheduleRehydrator.KEEP, rehydrator.apply(reminder));
+        assertEquals(now + MINUTE, reminder.timestamp);
+        assertEquals(1, rehydrator.kept());
+    }
+
+    @Test
+    public void fastForwardsRemindersWithinGrace() {
+        ScheduleRehydrator rehydrator = new ScheduleRehydrator(now, 15 * MINUTE);
+        ScheduledReminder due = reminder(now);
+        ScheduledReminder recent = reminder(now - 15 * MINUTE);
+        assertEquals(ScheduleRehydrator.FAST_FORWARD, rehydrator.apply(due));
+        assertEquals(ScheduleRehydrator.FAST_FORWARD, rehydrator.apply(recent));
+        assertEquals(now, recent.timestamp);
+        assertEquals(2, rehydrator.fastForwarded());
+    }
+
+    @Test
+    public void dropsRemindersPastGrace() {
+        ScheduleRehydrator rehydrator = new ScheduleRehydrator(now, 15 * MINUTE);
+        ScheduledReminder stale = reminder(now - 15 * MINUTE - 1);
+        assertEquals(ScheduleRehydrator.DROP, rehydrator.apply(stale));
+        assertEquals(now - 15 * MINUTE - 1, stale.timestamp);
+        rehydrator.addKept(3);
+        assertEquals("kept=3 fastForwarded=0 dropped=1", rehydrator.toString());
+    }
+
+    @Test
+    public void repeatingRemindersMoveToTheirFirstOccurrenceWithinGrace() {
+        RecurrenceSchedule recurrences = new RecurrenceSchedule();
+        // Every 10 minutes around the clock
+        recurrences.put("habit-1-reminder-0-time-0", 1, RecurrenceRule.interval(0, 1430, 10, ZoneOffset.UTC));
+        long slot = now - now % (10 * MINUTE);
+
+        ScheduleRehydrator rehydrator = new ScheduleRehydrator(slot + 5 * MINUTE, 15 * MINUTE);
+        ScheduledReminder missed = reminder(slot - 60 * MINUTE);
+        assertEquals(ScheduleRehydrator.FAST_FORWARD, rehydrator.apply(missed, recurrences));
+        assertEquals(slot + 5 * MINUTE, missed.timestamp);
+
+        // Nothing left within grace: the next occurrence is kept for later
+        rehydrator = new ScheduleRehydrator(slot + 5 * MINUTE, 2 * MINUTE);
+        ScheduledReminder later = reminder(slot - 60 * MINUTE);
+        assertEquals(ScheduleRehydrator.ADVANCE, rehydrator.apply(later, recurrences));
+        assertEquals(slot + 10 * MINUTE, later.timestamp);
+
+        ScheduledReminder once = new ScheduledReminder("one-off", "Read", "", "", slot - 60 * MINUTE, 1, 0);
+        assertEquals(ScheduleRehydrator.DROP, rehydrator.apply(once, recurrences));
+    }
+}
@@ -0,0 +1,65 @@
+package com.rexforge.quantumhabits;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class SnoozePolicyTest {
+
+    private static final long MINUTE = 60000;
+
+    private long now = 1_700_000_000_000L;
+
+    @Test
+    public void delaysEscalateAndStayAtLast() {
+        SnoozePolicy policy = new SnoozePolicy(new long[]{5 * MINUTE, 15 * MINUTE});
+        assertEquals(5 * MINUTE, policy.nextDelay("a", now));
+        assertEquals(15 * MINUTE, policy.nextDelay("a", now + 5 * MINUTE));
+        assertEquals(15 * MINUTE, policy.nextDelay("a", now + 20 * MINUTE));
+        assertEquals(3, policy.snoozeCount("a", now + 20 * MINUTE));
+
+        // Other reminders have their own count
+        assertEquals(5 * MINUTE, policy.nextDelay("b", now));
+    }
+
+    @Test
+    public void countResetsAfterQuietPeriod() {
+        SnoozePolicy policy = new SnoozePolicy();
+        policy.nextDelay("a", now);
+        policy.nextDelay("a", now);
+        now += SnoozePolicy.RESET_AFTER_MS;
+        assertEquals(0, policy.snoozeCount("a", now));
+        assertEquals(SnoozePolicy.DEFAULT_DELAYS_MS[0], policy.nextDelay("a", now));
+    }
+
+    @Test
+    public void countsRoundTripThroughEncoding() {
+        SnoozePolicy policy = new SnoozePolicy();
+        policy.nextDelay("habit-1-reminder-0-time-0", now);
+        policy.nextDelay("habit-1-reminder-0-time-0", now + MINUTE);
+        policy.nextDelay("habit-2-reminder-1-interval-3", now);
+
+        SnoozePolicy restored = new SnoozePolicy();
+        restored.decodeCounts(policy.encodeCounts());
+        assertEquals(2, restored.snoozeCount("habit-1-reminder-0-time-0", now + MINUTE));
+        assertEquals(1, restored.snoozeCount("habit-2-reminder-1-interval-3", now));
+        assertEquals(SnoozePolicy.DEFAULT_DELAYS_MS[2],
+            restored.nextDelay("habit-1-reminder-0-time-0", now + 2 * MINUTE));
+    }
+
+    @Test
+    public void damagedEncodingIsSkipped() {
+        SnoozePolicy policy = new SnoozePolicy();
+        policy.decodeCounts("a=2@zz;b=1@10;garbage;=3@1;");
+        assertEquals(0, policy.snoozeCount("a", 0x10));
+        assertEquals(1, policy.snoozeCount("b", 0x10));
+    }
+
+    @Test
+    public void parsesMinutesWithFallback() {
+        assertArrayEquals(new long[]{MINUTE, 30 * MINUTE}, SnoozePolicy.parseDelays("1, 30"));
+        assertArrayEquals(SnoozePolicy.DEFAULT_DELAYS_MS, SnoozePolicy.parseDelays(null));
+        assertArrayEquals(SnoozePolicy.DEFAULT_DELAYS_MS, SnoozePolicy.parseDelays("5,x"));
+        assertArrayEquals(SnoozePolicy.DEFAULT_DELAYS_MS, SnoozePolicy.parseDelays("5,0"));
+    }
+}
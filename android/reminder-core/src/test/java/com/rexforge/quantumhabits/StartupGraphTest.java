@@ -0,0 +1,195 @@
+package com.rexforge.quantumhabits;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class StartupGraphTest {
+    private static final String[] NONE = {};
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static class MapMemo implements StartupGraph.Memo {
+        final Map<String, String> values = new HashMap<>();
+
+        @Override
+        public synchronized String get(String step) {
+            return values.get(step);
+        }
+
+        @Override
+        public synchronized void put(String step, String fingerprint) {
+            values.put(step, fingerprint);
+        }
+    }
+
+    private static final StartupGraph.Clock CLOCK = new StartupGraph.Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    private static StartupGraph.Task record(final List<String> log, final String name) {
+        return new StartupGraph.Task() {
+            @Override
+            public void run() {
+                log.add(name);
+            }
+        };
+    }
+
+    // Runnables queued here run only when the test says so, like a main looper
+    private static class QueueExecutor implements Executor {
+        final List<Runnable> queued = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            queued.add(command);
+        }
+
+        void drain() {
+            while (!queued.isEmpty()) {
+                queued.remove(0).run();
+            }
+        }
+    }
+
+    @Test
+    public void criticalStepsRunInlineAndDeferredOnesWait() {
+        List<String> log = new ArrayList<>();
+        QueueExecutor main = new QueueExecutor();
+        StartupGraph graph = new StartupGraph(new MapMemo(), CLOCK)
+            .add("plugins", StartupGraph.CRITICAL, NONE, record(log, "plugins"))
+            .add("channels", StartupGraph.BACKGROUND, NONE, record(log, "channels"))
+            .add("permissions", StartupGraph.MAIN, new String[] {"channels", "plugins"}, record(log, "permissions"));
+
+        graph.runCritical();
+        assertEquals(Collections.singletonList("plugins"), log);
+
+        graph.runDeferred(main, DIRECT, null);
+        assertEquals(2, log.size());
+        assertEquals(StartupGraph.PENDING, graph.timing("permissions").state);
+        main.drain();
+        assertEquals(java.util.Arrays.asList("plugins", "channels", "permissions"), log);
+        assertEquals(StartupGraph.DONE, graph.timing("permissions").state);
+    }
+
+    @Test
+    public void unchangedStepsAreSkippedOnTheNextLaunch() {
+        MapMemo memo = new MapMemo();
+        List<String> log = new ArrayList<>();
+        for (int launch = 0; launch < 3; launch++) {
+            String version = launch < 2 ? "1" : "2";
+            StartupGraph graph = new StartupGraph(memo, CLOCK)
+                .add("channels", StartupGraph.BACKGROUND, version, NONE, record(log, "channels-" + version))
+                .add("token", StartupGraph.BACKGROUND, NONE, record(log, "token"));
+            graph.runCritical();
+            graph.runDeferred(DIRECT, DIRECT, null);
+            assertEquals(launch == 1 ? StartupGraph.SKIPPED : StartupGraph.DONE, graph.timing("channels").state);
+        }
+        assertEquals(java.util.Arrays.asList("channels-1", "token", "token", "channels-2", "token"), log);
+    }
+
+    @Test
+    public void failureBlocksOnlyItsDependents() {
+        MapMemo memo = new MapMemo();
+        List<String> log = new ArrayList<>();
+        final boolean[] completed = new boolean[1];
+        StartupGraph graph = new StartupGraph(memo, CLOCK)
+            .add("token", StartupGraph.BACKGROUND, "same", NONE, new StartupGraph.Task() {
+                @Override
+                public void run() throws Exception {
+                    throw new IllegalStateException("FirebaseApp is not initialized");
+                }
+            })
+            .add("upload", StartupGraph.BACKGROUND, new String[] {"token"}, record(log, "upload"))
+            .add("channels", StartupGraph.BACKGROUND, NONE, record(log, "channels"));
+
+        graph.runCritical();
+        graph.runDeferred(DIRECT, DIRECT, new Runnable() {
+            @Override
+            public void run() {
+                completed[0] = true;
+            }
+        });
+
+        assertTrue(completed[0]);
+        assertEquals(Collections.singletonList("channels"), log);
+        assertEquals(StartupGraph.FAILED, graph.timing("token").state);
+        assertEquals(StartupGraph.BLOCKED, graph.timing("upload").state);
+        // A failed step is not remembered, so it runs again next launch
+        assertNull(memo.get("token"));
+        assertTrue(graph.report().contains("token background failed"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void criticalFailureFailsStartup() {
+        new StartupGraph(new MapMemo(), CLOCK)
+            .add("plugins", StartupGraph.CRITICAL, NONE, new StartupGraph.Task() {
+                @Override
+                public void run() {
+                    throw new IllegalArgumentException("bad plugin");
+                }
+            })
+            .runCritical();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void dependenciesMustBeAddedFirst() {
+        new StartupGraph(new MapMemo(), CLOCK)
+            .add("permissions", StartupGraph.MAIN, new String[] {"channels"}, record(new ArrayList<String>(), "p"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void criticalStepsCannotWaitForDeferredOnes() {
+        List<String> log = new ArrayList<>();
+        new StartupGraph(new MapMemo(), CLOCK)
+            .add("channels", StartupGraph.BACKGROUND, NONE, record(log, "channels"))
+            .add("plugins", StartupGraph.CRITICAL, new String[] {"channels"}, record(log, "plugins"));
+    }
+
+    @Test
+    public void diamondRunsEachStepOnceAfterItsDependencies() throws InterruptedException {
+        final List<String> log = Collections.synchronizedList(new ArrayList<String>());
+        ExecutorService background = Executors.newFixedThreadPool(4);
+        final CountDownLatch done = new CountDownLatch(1);
+        StartupGraph graph = new StartupGraph(new MapMemo(), CLOCK)
+            .add("a", StartupGraph.BACKGROUND, NONE, record(log, "a"))
+            .add("b", StartupGraph.BACKGROUND, new String[] {"a"}, record(log, "b"))
+            .add("c", StartupGraph.BACKGROUND, new String[] {"a"}, record(log, "c"))
+            .add("d", StartupGraph.BACKGROUND, new String[] {"b", "c"}, record(log, "d"));
+
+        graph.runCritical();
+        graph.runDeferred(DIRECT, background, new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        background.shutdown();
+
+        assertEquals(4, log.size());
+        assertEquals("a", log.get(0));
+        assertEquals("d", log.get(3));
+        for (StartupGraph.Timing timing : graph.timings()) {
+            assertEquals(StartupGraph.DONE, timing.state);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.rexforge.quantumhabits;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class WakeLockManagerTest {
+
+    // Stands in for PowerManager.WakeLock with setReferenceCounted(false)
+    private static class FakeLock implements WakeLockManager.Lock, WakeLockManager.Clock {
+        long now;
+        long expiresAt = -1;
+        int acquires;
+        int releases;
+
+        @Override
+        public synchronized void acquire(long timeoutMs) {
+            acquires++;
+            expiresAt = now + timeoutMs;
+        }
+
+        @Override
+        public synchronized void release() {
+            if (!isHeld()) throw new RuntimeException("WakeLock under-locked");
+            releases++;
+            expiresAt = -1;
+        }
+
+        @Override
+        public synchronized boolean isHeld() {
+            return expiresAt > now;
+        }
+
+        @Override
+        public synchronized long elapsedRealtime() {
+            return now;
+        }
+    }
+
+    @Test
+    public void overlappingUsersShareOneHold() {
+        FakeLock lock = new FakeLock();
+        SchedulerMetrics metrics = new SchedulerMetrics();
+        WakeLockManager manager = new WakeLockManager(lock, lock, metrics);
+
+        manager.acquire();
+        lock.now += 3;
+        manager.acquire();
+        manager.acquire();
+        lock.now += 4;
+        manager.release();
+        manager.release();
+        assertTrue(lock.isHeld());
+        lock.now += 2;
+        manager.release();
+
+        assertFalse(lock.isHeld());
+        assertEquals(1, lock.acquires);
+        assertEquals(1, lock.releases);
+        assertEquals(0, manager.references());
+        assertEquals(1, metrics.wakeLockMs.count());
+        assertEquals(9, metrics.wakeLockTotalMs());
+        assertEquals(0, metrics.wakeLockTimeouts());
+    }
+
+    @Test
+    public void expiredLockIsTakenAgain() {
+        FakeLock lock = new FakeLock();
+        SchedulerMetrics metrics = new SchedulerMetrics();
+        WakeLockManager manager = new WakeLockManager(lock, lock, metrics);
+
+        manager.acquire();
+        lock.now += WakeLockManager.MAX_HOLD_MS + 1;
+        manager.acquire();
+        assertTrue(lock.isHeld());
+        assertEquals(2, lock.acquires);
+        lock.now += 10;
+        manager.release();
+        manager.release();
+
+        assertFalse(lock.isHeld());
+        assertEquals(1, metrics.wakeLockTimeouts());
+        assertEquals(WakeLockManager.MAX_HOLD_MS + 10, metrics.wakeLockTotalMs());
+    }
+
+    @Test
+    public void lastReleaseAfterExpiryDoesNotReleaseTwice() {
+        FakeLock lock = new FakeLock();
+        SchedulerMetrics metrics = new SchedulerMetrics();
+        WakeLockManager manager = new WakeLockManager(lock, lock, metrics);
+
+        manager.acquire();
+        lock.now += WakeLockManager.MAX_HOLD_MS;
+        manager.release();
+
+        assertEquals(0, lock.releases);
+        assertEquals(1, metrics.wakeLockTimeouts());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void unbalancedReleaseIsRejected() {
+        FakeLock lock = new FakeLock();
+        new WakeLockManager(lock, lock, new SchedulerMetrics()).release();
+    }
+
+    @Test
+    public void burstOfAlarmsHoldsFarLessThanFixedLocks() {
+        FakeLock lock = new FakeLock();
+        SchedulerMetrics metrics = new SchedulerMetrics();
+        WakeLockManager manager = new WakeLockManager(lock, lock, metrics);
+        // 30 alarms 100 ms apart, each posting for 8 ms
+        long fixedEnd = 0;
+        long fixedTotal = 0;
+        for (int i = 0; i < 30; i++) {
+            long start = i * 100L;
+            lock.now = start;
+            manager.acquire();
+            lock.now = start + 8;
+            manager.release();
+            // What a separate 5 s lock per alarm kept the device awake for
+            fixedTotal += start + 5000 - Math.max(start, fixedEnd);
+            fixedEnd = start + 5000;
+        }
+
+        assertEquals(240, metrics.wakeLockTotalMs());
+        assertEquals(7900, fixedTotal);
+    }
+
+    @Test
+    public void concurrentUsersLeaveTheLockReleased() throws InterruptedException {
+        final FakeLock lock = new FakeLock();
+        final WakeLockManager manager = new WakeLockManager(lock, lock, new SchedulerMetrics());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        final CountDownLatch done = new CountDownLatch(2000);
+        for (int i = 0; i < 2000; i++) {
+            manager.acquire();
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    assertTrue(lock.isHeld());
+                    manager.release();
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        assertEquals(0, manager.references());
+        assertFalse(lock.isHeld());
+        assertEquals(lock.acquires, lock.releases);
+        assertTrue(lock.acquires <= 2000);
+    }
+}
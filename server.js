@@ -176,6 +176,43 @@ app.post('/api/send-multicast', async (req, res) => {
   }
 });
 
+// ENDPOINT: POST /api/send-schedule-sync
+// Sends a base64 schedule delta (see ScheduleDelta.java) as a silent data message;
+// the device applies it to its local schedule and fires the reminders itself.
+app.post('/api/send-schedule-sync', async (req, res) => {
+  try {
+    const { deviceToken, scheduleDelta } = req.body;
+
+    if (!deviceToken || !scheduleDelta) {
+      return res.status(400).json({ error: 'deviceToken and scheduleDelta are required' });
+    }
+
+    const message = {
+      token: deviceToken,
+      data: {
+        scheduleDelta: scheduleDelta
+      },
+      android: {
+        priority: 'high'
+      }
+    };
+
+    const response = await admin.messaging().send(message);
+    console.log('FCM Schedule sync sent:', response);
+
+    res.json({
+      success: true,
+      messageId: response
+    });
+  } catch (error) {
+    console.error('FCM Error:', error);
+    res.status(500).json({
+      success: false,
+      error: error.message
+    });
+  }
+});
+
 const PORT = process.env.PORT || 3000;
 app.listen(PORT, () => {
   console.log(`FCM Server running on port ${PORT}`);